@@ -7,7 +7,24 @@ package org.archicontribs.modelrepository;
 
 
 import org.archicontribs.modelrepository.grafico.ArchiRepositoryTests;
+import org.archicontribs.modelrepository.grafico.BranchStatusTests;
+import org.archicontribs.modelrepository.grafico.CommitGraphTests;
+import org.archicontribs.modelrepository.grafico.GraficoChangeTrackerTests;
+import org.archicontribs.modelrepository.grafico.GraficoDiffTests;
+import org.archicontribs.modelrepository.grafico.GraficoElementIndexTests;
+import org.archicontribs.modelrepository.grafico.GraficoHistoryIndexTests;
+import org.archicontribs.modelrepository.grafico.GraficoMergerTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelCommitterTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelImporterTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelReloaderTests;
+import org.archicontribs.modelrepository.grafico.GraficoModelSnapshotTests;
+import org.archicontribs.modelrepository.grafico.GraficoSerializerTests;
 import org.archicontribs.modelrepository.grafico.GraficoUtilsTests;
+import org.archicontribs.modelrepository.grafico.MergePreviewTests;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCacheTests;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshotTests;
+import org.archicontribs.modelrepository.views.history.CommitLoaderTests;
+import org.archicontribs.modelrepository.views.repositories.FetchSchedulerTests;
 
 import junit.framework.TestSuite;
 
@@ -18,7 +35,24 @@ public class AllTests {
 		TestSuite suite = new TestSuite("org.archicontribs.modelrepository");
 
 		suite.addTest(ArchiRepositoryTests.suite());
+		suite.addTest(BranchStatusTests.suite());
+		suite.addTest(CommitGraphTests.suite());
+		suite.addTest(GraficoChangeTrackerTests.suite());
+		suite.addTest(GraficoDiffTests.suite());
+		suite.addTest(GraficoElementIndexTests.suite());
+		suite.addTest(GraficoHistoryIndexTests.suite());
+		suite.addTest(GraficoMergerTests.suite());
+		suite.addTest(GraficoModelCommitterTests.suite());
+		suite.addTest(GraficoModelImporterTests.suite());
+		suite.addTest(GraficoModelReloaderTests.suite());
+		suite.addTest(GraficoModelSnapshotTests.suite());
+		suite.addTest(GraficoSerializerTests.suite());
 		suite.addTest(GraficoUtilsTests.suite());
+		suite.addTest(MergePreviewTests.suite());
+		suite.addTest(RepositoryHandleCacheTests.suite());
+		suite.addTest(RepositoryStateSnapshotTests.suite());
+		suite.addTest(CommitLoaderTests.suite());
+		suite.addTest(FetchSchedulerTests.suite());
 		
         return suite;
 	}
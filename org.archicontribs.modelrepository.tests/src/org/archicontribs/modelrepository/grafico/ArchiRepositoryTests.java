@@ -14,12 +14,15 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Map;
 
 import org.archicontribs.modelrepository.GitHelper;
 import org.eclipse.jgit.api.AddCommand;
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,6 +48,7 @@ public class ArchiRepositoryTests {
     
     @After
     public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
         FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
     }
     
@@ -152,5 +156,29 @@ public class ArchiRepositoryTests {
         }
     }
     
+    @Test
+    public void getRemoteRefs_IsCorrect() throws Exception {
+        File remoteRepoFolder = new File(GitHelper.getTempTestsFolder(), "remoteRepo");
+        RevCommit commit;
+        
+        try(Repository remote = GitHelper.createNewRepository(remoteRepoFolder); Git git = new Git(remote)) {
+            commit = git.commit().setMessage("Message").call();
+            git.branchCreate().setName("feature").call();
+        }
+        
+        File localRepoFolder = new File(GitHelper.getTempTestsFolder(), "testRepo");
+        IArchiRepository repo = new ArchiRepository(localRepoFolder);
+        repo.createNewLocalGitRepository(remoteRepoFolder.toURI().toString()).close();
+        
+        // Keyed by remote tracking ref and nothing is fetched
+        Map<String, ObjectId> refs = repo.getRemoteRefs("", "");
+        assertEquals(2, refs.size());
+        assertEquals(commit.getId(), refs.get("refs/remotes/origin/master"));
+        assertEquals(commit.getId(), refs.get("refs/remotes/origin/feature"));
+        
+        try(Git git = Git.open(localRepoFolder)) {
+            assertNull(git.getRepository().exactRef("refs/remotes/origin/master"));
+        }
+    }
 
 }
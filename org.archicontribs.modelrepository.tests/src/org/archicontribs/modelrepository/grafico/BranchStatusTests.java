@@ -0,0 +1,115 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class BranchStatusTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BranchStatusTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "branches");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void getBranchStatus_FlagsFromRefs() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = git.commit().setMessage("One").call();
+            git.branchCreate().setName("feature").call();
+            setRef(repository, "refs/remotes/origin/master", commit);
+            setRef(repository, "refs/remotes/origin/other", commit);
+        }
+        
+        BranchStatus status = new ArchiRepository(folder).getBranchStatus();
+        
+        BranchInfo master = status.getCurrentLocalBranch();
+        assertEquals("refs/heads/master", master.getFullName());
+        assertTrue(master.isCurrentBranch());
+        assertTrue(master.hasRemoteRef());
+        assertTrue(master.hasTrackedRef());
+        assertEquals("refs/remotes/origin/master", status.getCurrentRemoteBranch().getFullName());
+        
+        // Local master, local feature and the untracked remote other
+        assertEquals(3, status.getLocalAndUntrackedRemoteBranches().size());
+        assertEquals(2, status.getLocalBranches().size());
+        assertEquals(2, status.getRemoteBranches().size());
+        
+        for(BranchInfo branch : status.getLocalBranches()) {
+            if(branch.getShortName().equals("feature")) {
+                assertFalse(branch.isCurrentBranch());
+                assertFalse(branch.hasRemoteRef());
+                assertFalse(branch.isRemoteDeleted());
+            }
+        }
+    }
+    
+    @Test
+    public void getAheadAndBehindCount() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit base = git.commit().setMessage("Base").call();
+            
+            // Two remote commits on top of base
+            RevCommit remote1 = git.commit().setMessage("Remote 1").call();
+            RevCommit remote2 = git.commit().setMessage("Remote 2").call();
+            assertEquals(remote1, remote2.getParent(0));
+            setRef(repository, "refs/remotes/origin/master", remote2);
+            
+            // Three local commits on top of base
+            git.reset().setRef(base.getName()).call();
+            git.commit().setMessage("Local 1").call();
+            git.commit().setMessage("Local 2").call();
+            git.commit().setMessage("Local 3").call();
+        }
+        
+        BranchStatus status = new ArchiRepository(folder).getBranchStatus();
+        BranchInfo master = status.getCurrentLocalBranch();
+        assertEquals(3, master.getAheadCount());
+        assertEquals(2, master.getBehindCount());
+        
+        // Remote branches have no counts
+        assertEquals(0, status.getCurrentRemoteBranch().getAheadCount());
+        assertEquals(0, status.getCurrentRemoteBranch().getBehindCount());
+    }
+    
+    private void setRef(Repository repository, String name, AnyObjectId id) throws IOException {
+        RefUpdate refUpdate = repository.updateRef(name);
+        refUpdate.setNewObjectId(id);
+        refUpdate.update();
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand.FastForwardMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class CommitGraphTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CommitGraphTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "graph");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void update_AddsCommitsAndParents() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit first = git.commit().setMessage("First").call();
+            RevCommit second = git.commit().setMessage("Second\n\nMore text").call();
+            
+            CommitGraph graph = new CommitGraph(new File(repository.getDirectory(), CommitGraph.GRAPH_FILENAME));
+            graph.update(repository);
+            assertEquals(2, graph.size());
+            
+            int firstPos = graph.find(first);
+            int secondPos = graph.find(second);
+            assertEquals(0, graph.getParents(firstPos).length);
+            assertArrayEquals(new int[] { firstPos }, graph.getParents(secondPos));
+            assertEquals(1, graph.getGeneration(firstPos));
+            assertEquals(2, graph.getGeneration(secondPos));
+            assertEquals(second.getCommitTime(), graph.getCommitTime(secondPos));
+            assertEquals("Second", graph.getShortMessage(secondPos));
+            assertEquals(second.getId(), graph.getId(secondPos));
+            
+            // A new commit is added to the graph and the saved graph is loaded
+            RevCommit third = git.commit().setMessage("Third").call();
+            graph.update(repository);
+            assertEquals(3, graph.size());
+            
+            CommitGraph loaded = new CommitGraph(new File(repository.getDirectory(), CommitGraph.GRAPH_FILENAME));
+            loaded.update(repository);
+            assertEquals(3, loaded.size());
+            assertEquals(3, loaded.getGeneration(loaded.find(third)));
+            assertEquals(3, loaded.countReachable(Arrays.asList(third)));
+            assertEquals(-1, loaded.find(ObjectId.zeroId()));
+        }
+    }
+    
+    @Test
+    public void update_AppendsToDeltaThenRebuilds() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            File graphFile = new File(repository.getDirectory(), CommitGraph.GRAPH_FILENAME);
+            File deltaFile = new File(repository.getDirectory(), CommitGraph.GRAPH_FILENAME + CommitGraph.DELTA_SUFFIX);
+            
+            RevCommit first = git.commit().setMessage("First").call();
+            RevCommit second = git.commit().setMessage("Second").call();
+            
+            // New commits are appended to the delta and the graph file is not written
+            CommitGraph graph = new CommitGraph(graphFile);
+            graph.update(repository);
+            assertFalse(graphFile.exists());
+            assertTrue(deltaFile.exists());
+            long deltaLength = deltaFile.length();
+            
+            // A record that was not written in full is cut off when loaded
+            Files.write(deltaFile.toPath(), new byte[] { 1, 2, 3 }, StandardOpenOption.APPEND);
+            CommitGraph loaded = new CommitGraph(graphFile);
+            loaded.update(repository);
+            assertEquals(2, loaded.size());
+            assertEquals(deltaLength, deltaFile.length());
+            assertArrayEquals(new int[] { loaded.find(first) }, loaded.getParents(loaded.find(second)));
+            assertEquals(2, loaded.getGeneration(loaded.find(second)));
+            assertEquals("Second", loaded.getShortMessage(loaded.find(second)));
+            
+            // When the delta is large enough the graph file is rebuilt with it and the delta is deleted
+            RevCommit last = null;
+            for(int i = 0; i < 1000; i++) {
+                last = git.commit().setMessage("Commit " + i).call();
+            }
+            loaded.update(repository);
+            assertEquals(1002, loaded.size());
+            assertTrue(graphFile.exists());
+            assertFalse(deltaFile.exists());
+            assertEquals(1002, loaded.countReachable(Arrays.asList(last)));
+            
+            // A commit after the rebuild goes in a new delta
+            RevCommit next = git.commit().setMessage("Next").call();
+            loaded.update(repository);
+            assertTrue(deltaFile.exists());
+            
+            CommitGraph reloaded = new CommitGraph(graphFile);
+            reloaded.update(repository);
+            assertEquals(1003, reloaded.size());
+            assertEquals(1003, reloaded.getGeneration(reloaded.find(next)));
+            assertArrayEquals(new int[] { reloaded.find(last) }, reloaded.getParents(reloaded.find(next)));
+            assertEquals(1003, reloaded.countReachable(Arrays.asList(next)));
+        }
+    }
+    
+    @Test
+    public void countAheadBehind_WithMerge() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit base = git.commit().setMessage("Base").call();
+            
+            // Two commits on a branch
+            git.checkout().setCreateBranch(true).setName("other").call();
+            git.commit().setMessage("Other 1").call();
+            RevCommit other = git.commit().setMessage("Other 2").call();
+            
+            // One commit on master and a merge of the branch
+            git.checkout().setName("master").call();
+            git.commit().setMessage("Master 1").call();
+            git.merge().include(other).setFastForward(FastForwardMode.NO_FF).setMessage("Merge").call();
+            RevCommit merge = git.log().setMaxCount(1).call().iterator().next();
+            
+            CommitGraph graph = CommitGraph.get(repository);
+            assertEquals(2, graph.getParents(graph.find(merge)).length);
+            
+            // Master 1 and the merge are not in other
+            assertArrayEquals(new int[] { 2, 0 }, graph.countAheadBehind(merge, other));
+            assertArrayEquals(new int[] { 0, 2 }, graph.countAheadBehind(other, merge));
+            assertArrayEquals(new int[] { 0, 0 }, graph.countAheadBehind(base, base));
+            assertEquals(5, graph.countReachable(Arrays.asList(merge)));
+            assertNull(graph.countAheadBehind(ObjectId.zeroId(), base));
+        }
+    }
+}
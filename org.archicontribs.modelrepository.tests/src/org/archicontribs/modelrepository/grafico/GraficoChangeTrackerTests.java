@@ -0,0 +1,324 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.emf.ecore.EObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelGroup;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.util.ArchimateModelUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoChangeTrackerTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoChangeTrackerTests.class);
+    }
+    
+    private File folder;
+    private IArchimateModel model;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "tracker");
+        model = createModel();
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void exportModel_InstallsCleanTracker() throws IOException {
+        new GraficoModelExporter(model, folder).exportModel();
+        
+        GraficoChangeTracker tracker = GraficoChangeTracker.getTracker(model);
+        assertNotNull(tracker);
+        assertTrue(tracker.isClean());
+        assertEquals(new GraficoModelExporter(model, folder).getFilePaths(), tracker.getFilePaths());
+        
+        // Installing again replaces the tracker
+        GraficoChangeTracker tracker2 = GraficoChangeTracker.install(model, tracker.getFilePaths());
+        assertSame(tracker2, GraficoChangeTracker.getTracker(model));
+        assertEquals(1, model.eAdapters().stream().filter(a -> a instanceof GraficoChangeTracker).count());
+    }
+    
+    @Test
+    public void getFileOwner() {
+        assertSame(model, GraficoChangeTracker.getFileOwner(model));
+        assertSame(model.getFolders().get(0), GraficoChangeTracker.getFileOwner(model.getFolders().get(0)));
+        assertSame(getObject("actor"), GraficoChangeTracker.getFileOwner(getObject("actor")));
+        
+        // Diagram children and connections are in the diagram's file
+        assertSame(getObject("view"), GraficoChangeTracker.getFileOwner(getObject("dmo1")));
+        assertSame(getObject("view"), GraficoChangeTracker.getFileOwner(getObject("nested")));
+        assertSame(getObject("view"), GraficoChangeTracker.getFileOwner(getObject("connection")));
+        assertSame(getObject("view"), GraficoChangeTracker.getFileOwner(((IDiagramModelArchimateObject)getObject("nested")).getBounds()));
+    }
+    
+    @Test
+    public void changeElement_MarksElementDirty() throws IOException {
+        GraficoChangeTracker tracker = exportAndGetTracker();
+        
+        ((IArchimateElement)getObject("actor")).setName("Changed");
+        assertEquals(1, tracker.getDirtyIds().size());
+        assertTrue(tracker.getDirtyIds().contains("actor"));
+        
+        // Properties are in the element's file
+        ((IArchimateElement)getObject("role")).getProperties().add(IArchimateFactory.eINSTANCE.createProperty());
+        assertEquals(2, tracker.getDirtyIds().size());
+        assertTrue(tracker.getDirtyIds().contains("role"));
+    }
+    
+    @Test
+    public void changeNestedDiagramChild_MarksDiagramDirty() throws IOException {
+        GraficoChangeTracker tracker = exportAndGetTracker();
+        
+        ((IDiagramModelArchimateObject)getObject("nested")).getBounds().setX(99);
+        assertEquals(1, tracker.getDirtyIds().size());
+        assertTrue(tracker.getDirtyIds().contains("view"));
+        
+        tracker.reset(tracker.getFilePaths());
+        assertTrue(tracker.isClean());
+        
+        // Adding a new connection
+        IDiagramModelArchimateConnection connection = IArchimateFactory.eINSTANCE.createDiagramModelArchimateConnection();
+        connection.setArchimateRelationship((IArchimateRelationship)getObject("relationship"));
+        connection.connect((IDiagramModelArchimateObject)getObject("nested"), (IDiagramModelArchimateObject)getObject("dmo2"));
+        assertTrue(tracker.getDirtyIds().contains("view"));
+    }
+    
+    @Test
+    public void addRemoveAndMoveElements_DoNotMarkFoldersDirty() throws IOException {
+        GraficoChangeTracker tracker = exportAndGetTracker();
+        
+        IArchimateElement actor = (IArchimateElement)getObject("actor");
+        IFolder businessFolder = (IFolder)actor.eContainer();
+        IFolder subFolder = (IFolder)getObject("subfolder");
+        
+        subFolder.getElements().add(actor);
+        businessFolder.getElements().add(IArchimateFactory.eINSTANCE.createBusinessEvent());
+        businessFolder.getElements().remove(getObject("role"));
+        assertTrue(tracker.isClean());
+        
+        // Renaming a folder changes its own file
+        subFolder.setName("Renamed");
+        assertEquals(1, tracker.getDirtyIds().size());
+        assertTrue(tracker.getDirtyIds().contains("subfolder"));
+    }
+    
+    @Test
+    public void exportModelIncremental_DeletesFilesOfDeletedObjects() throws IOException {
+        exportAndGetTracker();
+        Map<String, String> oldPaths = new GraficoModelExporter(model, folder).getFilePaths();
+        
+        IFolder subFolder = (IFolder)getObject("subfolder");
+        IArchimateElement role = (IArchimateElement)getObject("role");
+        ((IFolder)role.eContainer()).getElements().remove(role);
+        ((IFolder)subFolder.eContainer()).getFolders().remove(subFolder);
+        
+        new GraficoModelExporter(model, folder).exportModelIncremental();
+        
+        assertFalse(new File(folder, oldPaths.get("role")).exists());
+        assertFalse(new File(folder, oldPaths.get("subfolder")).exists());
+        assertFalse(new File(folder, oldPaths.get("subfolder")).getParentFile().exists());
+        assertTrue(new File(folder, oldPaths.get("actor")).exists());
+        assertFilesAreSameAsFullExport();
+    }
+    
+    @Test
+    public void exportModelIncremental_MovesFilesOfMovedObjects() throws IOException {
+        exportAndGetTracker();
+        Map<String, String> oldPaths = new GraficoModelExporter(model, folder).getFilePaths();
+        
+        ((IFolder)getObject("subfolder")).getElements().add((IArchimateElement)getObject("actor"));
+        
+        new GraficoModelExporter(model, folder).exportModelIncremental();
+        
+        String newPath = new GraficoModelExporter(model, folder).getFilePaths().get("actor");
+        assertFalse(newPath.equals(oldPaths.get("actor")));
+        assertFalse(new File(folder, oldPaths.get("actor")).exists());
+        assertTrue(new File(folder, newPath).exists());
+        assertFilesAreSameAsFullExport();
+        
+        // And back again
+        ((IFolder)getObject("subfolder").eContainer()).getElements().add((IArchimateElement)getObject("actor"));
+        new GraficoModelExporter(model, folder).exportModelIncremental();
+        assertTrue(new File(folder, oldPaths.get("actor")).exists());
+        assertFalse(new File(folder, newPath).exists());
+        assertFilesAreSameAsFullExport();
+    }
+    
+    @Test
+    public void exportModelIncremental_WritesDiagramOfChangedNestedChildren() throws IOException {
+        GraficoChangeTracker tracker = exportAndGetTracker();
+        
+        // Modify a nested child
+        ((IDiagramModelArchimateObject)getObject("nested")).getBounds().setX(99);
+        
+        // Add a nested child
+        IDiagramModelArchimateObject dmo = IArchimateFactory.eINSTANCE.createDiagramModelArchimateObject();
+        dmo.setId("added");
+        dmo.setArchimateElement((IArchimateElement)getObject("role"));
+        dmo.setBounds(20, 20, 100, 50);
+        ((IDiagramModelGroup)getObject("group")).getChildren().add(dmo);
+        
+        // Remove a connection
+        ((IDiagramModelArchimateConnection)getObject("connection")).disconnect();
+        
+        new GraficoModelExporter(model, folder).exportModelIncremental();
+        assertTrue(tracker.isClean());
+        
+        String content = readFile(new GraficoModelExporter(model, folder).getFilePaths().get("view"));
+        assertTrue(content.contains("id=\"added\""));
+        assertFalse(content.contains("id=\"connection\""));
+        assertFilesAreSameAsFullExport();
+    }
+    
+    @Test
+    public void exportModelIncremental_RewritesFilesChangedOnDisk() throws IOException {
+        exportAndGetTracker();
+        
+        String path = new GraficoModelExporter(model, folder).getFilePaths().get("actor");
+        File file = new File(folder, path);
+        String content = readFile(path);
+        
+        // Deleted by someone else
+        file.delete();
+        new GraficoModelExporter(model, folder).exportModelIncremental();
+        assertEquals(content, readFile(path));
+    }
+    
+    private GraficoChangeTracker exportAndGetTracker() throws IOException {
+        new GraficoModelExporter(model, folder).exportModel();
+        GraficoChangeTracker tracker = GraficoChangeTracker.getTracker(model);
+        assertTrue(tracker.isClean());
+        return tracker;
+    }
+    
+    /**
+     * The incrementally exported files are the same as the files of a full export
+     */
+    private void assertFilesAreSameAsFullExport() throws IOException {
+        File fullFolder = new File(GitHelper.getTempTestsFolder(), "full");
+        FileUtils.deleteFolder(fullFolder);
+        new GraficoModelExporter(model, fullFolder).exportModel();
+        
+        Map<String, String> paths = new GraficoModelExporter(model, folder).getFilePaths();
+        assertEquals(paths.size(), countFiles(new File(folder, IGraficoConstants.MODEL_FOLDER)));
+        
+        for(String path : paths.values()) {
+            assertEquals(path, new String(Files.readAllBytes(new File(fullFolder, path).toPath()), StandardCharsets.UTF_8), readFile(path));
+        }
+        
+        // The full export re-installed the tracker on the model, so put it back in sync with our folder
+        GraficoChangeTracker.getTracker(model).reset(paths);
+    }
+    
+    private int countFiles(File folder) {
+        int count = 0;
+        for(File file : folder.listFiles()) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+    
+    private String readFile(String path) throws IOException {
+        return new String(Files.readAllBytes(new File(folder, path).toPath()), StandardCharsets.UTF_8);
+    }
+    
+    private EObject getObject(String id) {
+        return ArchimateModelUtils.getObjectByID(model, id);
+    }
+    
+    private IArchimateModel createModel() {
+        IArchimateFactory factory = IArchimateFactory.eINSTANCE;
+        
+        IArchimateModel model = factory.createArchimateModel();
+        model.setDefaults();
+        model.setName("Model");
+        
+        IArchimateElement actor = factory.createBusinessActor();
+        actor.setId("actor");
+        model.getDefaultFolderForObject(actor).getElements().add(actor);
+        
+        IArchimateElement role = factory.createBusinessRole();
+        role.setId("role");
+        model.getDefaultFolderForObject(role).getElements().add(role);
+        
+        IFolder subFolder = factory.createFolder();
+        subFolder.setId("subfolder");
+        subFolder.setName("Sub");
+        model.getDefaultFolderForObject(actor).getFolders().add(subFolder);
+        
+        IArchimateRelationship relationship = factory.createAssignmentRelationship();
+        relationship.setId("relationship");
+        relationship.connect(actor, role);
+        model.getDefaultFolderForObject(relationship).getElements().add(relationship);
+        
+        IArchimateDiagramModel dm = factory.createArchimateDiagramModel();
+        dm.setId("view");
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelGroup group = factory.createDiagramModelGroup();
+        group.setId("group");
+        group.setBounds(10, 10, 400, 200);
+        dm.getChildren().add(group);
+        
+        IDiagramModelArchimateObject dmo1 = factory.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1");
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(10, 300, 120, 55);
+        dm.getChildren().add(dmo1);
+        
+        IDiagramModelArchimateObject nested = factory.createDiagramModelArchimateObject();
+        nested.setId("nested");
+        nested.setArchimateElement(actor);
+        nested.setBounds(10, 10, 120, 55);
+        group.getChildren().add(nested);
+        
+        IDiagramModelArchimateObject dmo2 = factory.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2");
+        dmo2.setArchimateElement(role);
+        dmo2.setBounds(200, 300, 120, 55);
+        dm.getChildren().add(dmo2);
+        
+        IDiagramModelArchimateConnection connection = factory.createDiagramModelArchimateConnection();
+        connection.setId("connection");
+        connection.setArchimateRelationship(relationship);
+        connection.connect(dmo1, dmo2);
+        
+        return model;
+    }
+}
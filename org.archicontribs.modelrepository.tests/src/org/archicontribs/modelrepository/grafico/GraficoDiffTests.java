@@ -0,0 +1,131 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.grafico.GraficoDiff.Change;
+import org.archicontribs.modelrepository.grafico.GraficoDiff.ChangeType;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoDiffTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoDiffTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "diff");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void getDiff_AddedRemovedAndModified() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            writeElement("business/BusinessActor_actor.xml", "BusinessActor", "actor", "Bob");
+            writeElement("business/BusinessRole_role.xml", "BusinessRole", "role", "Role");
+            writeElement("business/BusinessObject_same.xml", "BusinessObject", "same", "Same");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("One").call();
+            
+            writeElement("business/BusinessActor_actor.xml", "BusinessActor", "actor", "Alice");
+            git.rm().addFilepattern("model/business/BusinessRole_role.xml").call();
+            writeElement("business/BusinessEvent_event.xml", "BusinessEvent", "event", "Event");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Two").call();
+        }
+        
+        IArchiRepository repo = new ArchiRepository(folder);
+        GraficoDiff diff = repo.getDiff("HEAD^", "HEAD");
+        assertEquals(3, diff.getChanges().size());
+        
+        // Renamed
+        List<Change> modified = diff.getChanges(ChangeType.MODIFIED);
+        assertEquals(1, modified.size());
+        assertEquals("actor", modified.get(0).id);
+        assertEquals("BusinessActor", modified.get(0).className);
+        assertEquals("Alice", modified.get(0).name);
+        assertEquals(1, modified.get(0).featureChanges.size());
+        assertEquals("name", modified.get(0).featureChanges.get(0).path);
+        assertEquals("Bob", modified.get(0).featureChanges.get(0).oldValue);
+        assertEquals("Alice", modified.get(0).featureChanges.get(0).newValue);
+        
+        // Classified by file name
+        Change removed = diff.getChanges(ChangeType.REMOVED).get(0);
+        assertEquals("role", removed.id);
+        assertEquals("BusinessRole", removed.className);
+        assertNull(removed.newPath);
+        
+        Change added = diff.getChanges(ChangeType.ADDED).get(0);
+        assertEquals("event", added.id);
+        assertEquals("model/business/BusinessEvent_event.xml", added.newPath);
+        
+        // Cached
+        assertSame(diff, repo.getDiff("HEAD^", "HEAD"));
+        
+        // From an empty model everything is added
+        assertEquals(3, repo.getDiff(null, "HEAD^").getChanges(ChangeType.ADDED).size());
+    }
+    
+    @Test
+    public void getDiff_MovedElement() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            writeElement("business/BusinessActor_actor.xml", "BusinessActor", "actor", "Bob");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("One").call();
+            
+            git.rm().addFilepattern("model/business/BusinessActor_actor.xml").call();
+            writeElement("business/sub/BusinessActor_actor.xml", "BusinessActor", "actor", "Bob");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Two").call();
+        }
+        
+        GraficoDiff diff = new ArchiRepository(folder).getDiff("HEAD^", "HEAD");
+        assertEquals(1, diff.getChanges().size());
+        
+        Change change = diff.getChanges().get(0);
+        assertEquals(ChangeType.MODIFIED, change.type);
+        assertTrue(change.isMoved());
+        assertTrue(change.featureChanges.isEmpty());
+        assertEquals("model/business/sub/BusinessActor_actor.xml", change.newPath);
+    }
+    
+    private void writeElement(String path, String className, String id, String name) throws IOException {
+        File file = new File(folder, "model/" + path);
+        file.getParentFile().mkdirs();
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<archimate:" + className + " xmlns:archimate=\"http://www.archimatetool.com/archimate\" name=\"" + name + "\" id=\"" + id + "\"/>\n";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoElementIndexTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoElementIndexTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "elementindex");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void getID_FromFileName() {
+        assertEquals("id-1234_5", GraficoElementIndex.getID("model/business/BusinessActor_id-1234_5.xml"));
+        assertEquals("BusinessActor", GraficoElementIndex.getClassName("model/business/BusinessActor_id-1234_5.xml"));
+        assertNull(GraficoElementIndex.getID("model/business/folder.xml"));
+    }
+    
+    @Test
+    public void getElementIndex_HasElementsOfCommit() throws Exception {
+        IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+        model.setDefaults();
+        
+        IArchimateElement actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor");
+        model.getDefaultFolderForObject(actor).getElements().add(actor);
+        
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            new GraficoModelExporter(model, folder).exportModel();
+            git.add().addFilepattern(".").call();
+            RevCommit commit = git.commit().setMessage("Model").call();
+            
+            GraficoElementIndex index = new ArchiRepository(folder).getElementIndex(IGraficoConstants.HEAD);
+            assertNotNull(index);
+            assertEquals(commit.getTree(), index.getTreeId());
+            assertEquals(1, index.getEntries().size());
+            
+            GraficoElementIndex.Entry entry = index.getEntry("actor");
+            assertEquals("BusinessActor", entry.className);
+            assertEquals(new GraficoModelExporter(model, folder).getFilePaths().get("actor"), entry.path);
+            
+            // Saved in the .git folder and shared in memory
+            assertTrue(new File(folder, ".git/" + GraficoElementIndex.INDEX_FOLDER + "/" + commit.getTree().name()).exists());
+            assertSame(index, GraficoElementIndex.getIndex(repository, commit.getTree()));
+        }
+    }
+}
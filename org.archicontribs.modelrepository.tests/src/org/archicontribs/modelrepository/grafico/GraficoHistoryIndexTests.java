@@ -0,0 +1,104 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoHistoryIndexTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoHistoryIndexTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "history");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void getEntry_IsLastVersionOfDeletedFile() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            File file = new File(folder, "model/business/BusinessActor_actor.xml");
+            
+            writeFile(file, "one");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("One").call();
+            
+            writeFile(file, "two");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Two").call();
+            
+            git.rm().addFilepattern("model/business/BusinessActor_actor.xml").call();
+            git.commit().setMessage("Deleted").call();
+            
+            GraficoHistoryIndex index = new GraficoHistoryIndex(repository);
+            index.update();
+            
+            GraficoHistoryIndex.Entry entry = index.getEntry("BusinessActor_actor.xml");
+            assertNotNull(entry);
+            assertEquals("model/business/BusinessActor_actor.xml", entry.path);
+            assertEquals("two", new String(repository.open(entry.blobId).getBytes(), StandardCharsets.UTF_8));
+            assertNull(index.getEntry("BusinessRole_role.xml"));
+            
+            assertTrue(new File(repository.getDirectory(), GraficoHistoryIndex.INDEX_FILENAME).exists());
+        }
+    }
+    
+    @Test
+    public void update_AddsNewCommitsToSavedIndex() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            writeFile(new File(folder, "model/business/BusinessActor_actor.xml"), "actor");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Actor").call();
+            
+            new GraficoHistoryIndex(repository).update();
+            
+            writeFile(new File(folder, "model/business/BusinessRole_role.xml"), "role");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Role").call();
+            
+            // A new instance reads the saved index and adds the new commit
+            GraficoHistoryIndex index = new GraficoHistoryIndex(repository);
+            index.update();
+            
+            assertNotNull(index.getEntry("BusinessActor_actor.xml"));
+            assertNotNull(index.getEntry("BusinessRole_role.xml"));
+        }
+    }
+    
+    private void writeFile(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.MergeResult.MergeStatus;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IDiagramModelNote;
+import com.archimatetool.model.IProperty;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoMergerTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoMergerTests.class);
+    }
+    
+    private static final String PATH = "model/business/BusinessActor_actor.xml";
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "merge");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void merge_DifferentFeatures() throws Exception {
+        IArchimateElement base = createActor();
+        
+        IArchimateElement ours = EcoreUtil.copy(base);
+        ours.setName("Alice");
+        
+        IArchimateElement theirs = EcoreUtil.copy(base);
+        theirs.setDocumentation("Documentation");
+        
+        IArchimateElement merged = (IArchimateElement)merge(base, ours, theirs);
+        assertEquals("Alice", merged.getName());
+        assertEquals("Documentation", merged.getDocumentation());
+    }
+    
+    @Test
+    public void merge_SameFeature_IsConflict() throws Exception {
+        IArchimateElement base = createActor();
+        
+        IArchimateElement ours = EcoreUtil.copy(base);
+        ours.setName("Alice");
+        
+        IArchimateElement theirs = EcoreUtil.copy(base);
+        theirs.setName("Carol");
+        
+        assertNull(new GraficoMerger(null).merge(PATH, serialize(base), serialize(ours), serialize(theirs)));
+        
+        // The same change on both sides is not a conflict
+        theirs.setName("Alice");
+        assertEquals("Alice", ((IArchimateElement)merge(base, ours, theirs)).getName());
+    }
+    
+    @Test
+    public void merge_Properties() throws Exception {
+        IArchimateElement base = createActor();
+        
+        IArchimateElement ours = EcoreUtil.copy(base);
+        ours.getProperties().add(createProperty("ours", "1"));
+        ours.getProperties().get(0).setValue("changed");
+        
+        IArchimateElement theirs = EcoreUtil.copy(base);
+        theirs.getProperties().add(createProperty("theirs", "2"));
+        
+        List<IProperty> properties = ((IArchimateElement)merge(base, ours, theirs)).getProperties();
+        assertEquals(3, properties.size());
+        assertEquals("key", properties.get(0).getKey());
+        assertEquals("changed", properties.get(0).getValue());
+        assertEquals("ours", properties.get(1).getKey());
+        assertEquals("theirs", properties.get(2).getKey());
+    }
+    
+    @Test
+    public void merge_DiagramChildrenAndBounds() throws Exception {
+        IArchimateDiagramModel base = IArchimateFactory.eINSTANCE.createArchimateDiagramModel();
+        base.setId("view");
+        base.setName("View");
+        base.getChildren().add(createNote("note1", 10));
+        base.getChildren().add(createNote("note2", 200));
+        
+        // We move a note and remove another
+        IArchimateDiagramModel ours = EcoreUtil.copy(base);
+        ours.getChildren().get(0).getBounds().setX(50);
+        ours.getChildren().remove(1);
+        
+        // They resize the note and add one
+        IArchimateDiagramModel theirs = EcoreUtil.copy(base);
+        theirs.getChildren().get(0).getBounds().setWidth(300);
+        theirs.getChildren().add(createNote("note3", 400));
+        
+        IArchimateDiagramModel merged = (IArchimateDiagramModel)merge(base, ours, theirs);
+        assertEquals(2, merged.getChildren().size());
+        assertEquals("note1", merged.getChildren().get(0).getId());
+        assertEquals(50, merged.getChildren().get(0).getBounds().getX());
+        assertEquals(300, merged.getChildren().get(0).getBounds().getWidth());
+        assertEquals("note3", merged.getChildren().get(1).getId());
+        
+        // They change a note that we removed
+        theirs.getChildren().get(1).getBounds().setX(10);
+        assertNull(new GraficoMerger(null).merge("model/diagrams/ArchimateDiagramModel_view.xml",
+                serialize(base), serialize(ours), serialize(theirs)));
+    }
+    
+    @Test
+    public void merge_KeepsReferencesToOtherFiles() throws Exception {
+        String xml = "<archimate:ArchimateDiagramModel xmlns:archimate=\"http://www.archimatetool.com/archimate\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" name=\"%s\" id=\"view\">\n" +
+                "  <children xsi:type=\"archimate:DiagramModelArchimateObject\" id=\"dmo\">\n" +
+                "    <bounds x=\"10\" y=\"10\" width=\"%s\" height=\"55\"/>\n" +
+                "    <archimateElement xsi:type=\"archimate:BusinessActor\" href=\"BusinessActor_actor.xml#actor\"/>\n" +
+                "  </children>\n" +
+                "</archimate:ArchimateDiagramModel>\n";
+        
+        byte[] merged = new GraficoMerger(null).merge("model/diagrams/ArchimateDiagramModel_view.xml",
+                String.format(xml, "View", "120").getBytes(StandardCharsets.UTF_8),
+                String.format(xml, "Renamed", "120").getBytes(StandardCharsets.UTF_8),
+                String.format(xml, "View", "240").getBytes(StandardCharsets.UTF_8));
+        
+        assertNotNull(merged);
+        String mergedXML = new String(merged, StandardCharsets.UTF_8);
+        assertTrue(mergedXML.contains("name=\"Renamed\""));
+        assertTrue(mergedXML.contains("width=\"240\""));
+        assertTrue(mergedXML.contains("href=\"BusinessActor_actor.xml#actor\""));
+    }
+    
+    @Test
+    public void mergeConflicts_ResolvesConflictOfTextualMerge() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            writeActor("name=\"Bob\"");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Base").call();
+            git.branchCreate().setName("other").call();
+            
+            writeActor("name=\"Alice\"");
+            git.commit().setAll(true).setMessage("Ours").call();
+            
+            git.checkout().setName("other").call();
+            writeActor("name=\"Bob\" documentation=\"Doc\"");
+            git.commit().setAll(true).setMessage("Theirs").call();
+            
+            git.checkout().setName("master").call();
+            MergeResult mergeResult = git.merge().include(repository.resolve("other")).setStrategy(MergeStrategy.RECURSIVE).call();
+            assertEquals(MergeStatus.CONFLICTING, mergeResult.getMergeStatus());
+            
+            List<String> conflicts = new GraficoMerger(repository).mergeConflicts(mergeResult.getConflicts().keySet());
+            assertTrue(conflicts.isEmpty());
+            assertTrue(git.status().call().getConflicting().isEmpty());
+            
+            IArchimateElement merged = (IArchimateElement)parse(Files.readAllBytes(new File(folder, PATH).toPath()));
+            assertEquals("Alice", merged.getName());
+            assertEquals("Doc", merged.getDocumentation());
+        }
+    }
+    
+    private EObject merge(EObject base, EObject ours, EObject theirs) throws IOException {
+        byte[] merged = new GraficoMerger(null).merge(PATH, serialize(base), serialize(ours), serialize(theirs));
+        assertNotNull(merged);
+        return parse(merged);
+    }
+    
+    private byte[] serialize(EObject eObject) throws IOException {
+        GraficoSerializer serializer = new GraficoSerializer();
+        serializer.serialize(eObject);
+        return Arrays.copyOf(serializer.getBytes(), serializer.getLength());
+    }
+    
+    private EObject parse(byte[] bytes) throws IOException {
+        return new GraficoParser().parse(new ByteArrayInputStream(bytes), URI.createURI(PATH));
+    }
+    
+    private IArchimateElement createActor() {
+        IArchimateElement actor = IArchimateFactory.eINSTANCE.createBusinessActor();
+        actor.setId("actor");
+        actor.setName("Bob");
+        actor.getProperties().add(createProperty("key", "value"));
+        return actor;
+    }
+    
+    private IProperty createProperty(String key, String value) {
+        IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+        property.setKey(key);
+        property.setValue(value);
+        return property;
+    }
+    
+    private IDiagramModelNote createNote(String id, int x) {
+        IDiagramModelNote note = IArchimateFactory.eINSTANCE.createDiagramModelNote();
+        note.setId(id);
+        note.setBounds(x, 10, 185, 80);
+        return note;
+    }
+    
+    // Each version on one line so that any two changes are a textual conflict
+    private void writeActor(String attributes) throws IOException {
+        File file = new File(folder, PATH);
+        file.getParentFile().mkdirs();
+        String xml = "<archimate:BusinessActor xmlns:archimate=\"http://www.archimatetool.com/archimate\" " + attributes + " id=\"actor\"/>\n";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelImage;
+import com.archimatetool.model.util.ArchimateModelUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelCommitterTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelCommitterTests.class);
+    }
+    
+    private static final String IMAGE_PATH = "images/image.png";
+    private static final byte[] IMAGE_BYTES = { 1, 2, 3, 4, 5 };
+    
+    private File folder;
+    private IArchiRepository archiRepository;
+    private IArchimateModel model;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "committer");
+        archiRepository = new ArchiRepository(folder);
+        model = createModel();
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void commitModel_TreeIsSameAsExportedFiles() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            // A file that is not part of the model
+            Files.write(new File(folder, "readme.txt").toPath(), "Readme".getBytes());
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Readme").call();
+            
+            RevCommit commit = new GraficoModelCommitter(model, archiRepository).commitModel("Model", false);
+            assertNotNull(commit);
+            assertEquals("Model", commit.getFullMessage());
+            assertEquals(commit, repository.resolve(Constants.HEAD));
+            
+            // Export the model to another folder
+            File exportFolder = new File(GitHelper.getTempTestsFolder(), "export");
+            new GraficoModelExporter(model, exportFolder).exportModel();
+            Map<String, byte[]> exportedFiles = new HashMap<String, byte[]>();
+            readFiles(exportFolder, exportFolder, exportedFiles);
+            
+            Map<String, byte[]> treeFiles = readTree(repository, commit);
+            
+            // The non-model file is kept
+            assertArrayEquals("Readme".getBytes(), treeFiles.remove("readme.txt"));
+            
+            // Model files and images are the same as the exported files
+            assertEquals(exportedFiles.keySet(), treeFiles.keySet());
+            for(Entry<String, byte[]> entry : exportedFiles.entrySet()) {
+                assertArrayEquals(entry.getKey(), entry.getValue(), treeFiles.get(entry.getKey()));
+            }
+            
+            // Images are included
+            assertArrayEquals(IMAGE_BYTES, treeFiles.get(IMAGE_PATH));
+            
+            // The working tree and index are the same as the commit
+            assertTrue(git.status().call().isClean());
+            Map<String, byte[]> workingTreeFiles = new HashMap<String, byte[]>();
+            readFiles(new File(folder, IGraficoConstants.MODEL_FOLDER), folder, workingTreeFiles);
+            readFiles(new File(folder, IGraficoConstants.IMAGES_FOLDER), folder, workingTreeFiles);
+            assertEquals(exportedFiles.keySet(), workingTreeFiles.keySet());
+        }
+    }
+    
+    @Test
+    public void commitModel_DeletedObjectsAreRemoved() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            GraficoModelCommitter committer = new GraficoModelCommitter(model, archiRepository);
+            RevCommit commit1 = committer.commitModel("One", false);
+            String actorPath = new GraficoModelExporter(model, folder).getFilePaths().get("actor");
+            assertTrue(readTree(repository, commit1).containsKey(actorPath));
+            
+            ((IArchimateDiagramModel)ArchimateModelUtils.getObjectByID(model, "view")).getChildren().clear();
+            EcoreUtil.remove(ArchimateModelUtils.getObjectByID(model, "actor"));
+            
+            RevCommit commit2 = committer.commitModel("Two", false);
+            assertEquals(commit1, commit2.getParent(0));
+            assertFalse(readTree(repository, commit2).containsKey(actorPath));
+            assertFalse(new File(folder, actorPath).exists());
+            assertTrue(git.status().call().isClean());
+        }
+    }
+    
+    @Test
+    public void commitModel_OtherChangesInWorkingTreeAreCommitted() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            Files.write(new File(folder, "readme.txt").toPath(), "Readme".getBytes());
+            Files.write(new File(folder, "old.txt").toPath(), "Old".getBytes());
+            Files.write(new File(folder, ".gitignore").toPath(), "*.tmp\n".getBytes());
+            
+            GraficoModelCommitter committer = new GraficoModelCommitter(model, archiRepository);
+            RevCommit commit1 = committer.commitModel("One", false);
+            assertFalse(committer.hasChanges());
+            
+            Map<String, byte[]> treeFiles = readTree(repository, commit1);
+            assertArrayEquals("Readme".getBytes(), treeFiles.get("readme.txt"));
+            assertArrayEquals("Old".getBytes(), treeFiles.get("old.txt"));
+            assertTrue(treeFiles.containsKey(".gitignore"));
+            
+            // Changed, new, deleted and ignored files
+            Files.write(new File(folder, "readme.txt").toPath(), "Changed".getBytes());
+            Files.write(new File(folder, ".gitattributes").toPath(), "* text=auto\n".getBytes());
+            Files.delete(new File(folder, "old.txt").toPath());
+            Files.write(new File(folder, "ignored.tmp").toPath(), "Ignored".getBytes());
+            assertTrue(committer.hasChanges());
+            
+            RevCommit commit2 = committer.commitModel("Two", false);
+            assertNotNull(commit2);
+            
+            treeFiles = readTree(repository, commit2);
+            assertArrayEquals("Changed".getBytes(), treeFiles.get("readme.txt"));
+            assertArrayEquals("* text=auto\n".getBytes(), treeFiles.get(".gitattributes"));
+            assertFalse(treeFiles.containsKey("old.txt"));
+            assertFalse(treeFiles.containsKey("ignored.tmp"));
+            
+            assertTrue(git.status().call().isClean());
+            assertFalse(committer.hasChanges());
+        }
+    }
+    
+    @Test
+    public void commitModel_NoChanges() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder)) {
+            GraficoModelCommitter committer = new GraficoModelCommitter(model, archiRepository);
+            assertTrue(committer.hasChanges());
+            
+            RevCommit commit = committer.commitModel("One", false);
+            assertFalse(committer.hasChanges());
+            assertNull(committer.commitModel("Two", false));
+            assertEquals(commit, repository.resolve(Constants.HEAD));
+            
+            model.setName("Changed");
+            assertTrue(committer.hasChanges());
+            
+            // Checking for changes doesn't write anything
+            assertEquals(commit, repository.resolve(Constants.HEAD));
+        }
+    }
+    
+    @Test
+    public void commitModel_Amend() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            GraficoModelCommitter committer = new GraficoModelCommitter(model, archiRepository);
+            RevCommit commit1 = committer.commitModel("One", false);
+            RevCommit commit2 = committer.commitModel("Two", true);
+            
+            // Amending without changes gives a new commit with the same tree
+            assertNotNull(commit2);
+            assertEquals(0, commit2.getParentCount());
+            assertEquals(commit1.getTree(), commit2.getTree());
+            assertEquals("Two", commit2.getFullMessage());
+            
+            model.setName("Changed");
+            RevCommit commit3 = committer.commitModel("Three", false);
+            model.setName("Changed again");
+            RevCommit commit4 = committer.commitModel("Four", true);
+            
+            assertEquals(commit2, commit4.getParent(0));
+            assertEquals(commit4, repository.resolve(Constants.HEAD));
+            assertFalse(commit3.getTree().equals(commit4.getTree()));
+            
+            String modelFile = new String(readTree(repository, commit4).get(IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML));
+            assertTrue(modelFile.contains("Changed again"));
+            assertTrue(git.status().call().isClean());
+        }
+    }
+    
+    @Test(expected=IOException.class)
+    public void commitModel_AmendWithoutHeadThrowsException() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder)) {
+            new GraficoModelCommitter(model, archiRepository).commitModel("One", true);
+        }
+    }
+    
+    private Map<String, byte[]> readTree(Repository repository, RevCommit commit) throws IOException {
+        Map<String, byte[]> files = new HashMap<String, byte[]>();
+        
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            while(treeWalk.next()) {
+                files.put(treeWalk.getPathString(), repository.open(treeWalk.getObjectId(0)).getBytes());
+            }
+        }
+        
+        return files;
+    }
+    
+    private void readFiles(File folder, File rootFolder, Map<String, byte[]> files) throws IOException {
+        for(File file : folder.listFiles()) {
+            if(file.isDirectory()) {
+                readFiles(file, rootFolder, files);
+            }
+            else {
+                String path = rootFolder.toPath().relativize(file.toPath()).toString().replace('\\', '/');
+                files.put(path, Files.readAllBytes(file.toPath()));
+            }
+        }
+    }
+    
+    private IArchimateModel createModel() {
+        IArchimateFactory factory = IArchimateFactory.eINSTANCE;
+        
+        IArchimateModel model = factory.createArchimateModel();
+        model.setDefaults();
+        model.setName("Model");
+        
+        IArchimateElement actor = factory.createBusinessActor();
+        actor.setId("actor");
+        model.getDefaultFolderForObject(actor).getElements().add(actor);
+        
+        IArchimateDiagramModel dm = factory.createArchimateDiagramModel();
+        dm.setId("view");
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelArchimateObject dmo = factory.createDiagramModelArchimateObject();
+        dmo.setArchimateElement(actor);
+        dmo.setBounds(10, 10, 120, 55);
+        dm.getChildren().add(dmo);
+        
+        IDiagramModelImage image = factory.createDiagramModelImage();
+        image.setImagePath(IMAGE_PATH);
+        image.setBounds(200, 10, 100, 100);
+        dm.getChildren().add(image);
+        
+        IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(model);
+        archiveManager.addByteContentEntry(IMAGE_PATH, IMAGE_BYTES);
+        model.setAdapter(IArchiveManager.class, archiveManager);
+        
+        return model;
+    }
+}
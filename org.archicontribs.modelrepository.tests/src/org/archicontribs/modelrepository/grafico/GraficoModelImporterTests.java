@@ -0,0 +1,372 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.GraficoModelImporter.UnresolvedObject;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelGroup;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.util.ArchimateModelUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelImporterTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelImporterTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "importer");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void importAsModel_IsSameAsExportedModel() throws IOException {
+        IArchimateModel model = createModel();
+        new GraficoModelExporter(model, folder).exportModel();
+        
+        GraficoModelImporter importer = new GraficoModelImporter(folder);
+        IArchimateModel importedModel = importer.importAsModel();
+        assertNull(importer.getUnresolvedObjects());
+        
+        Map<String, String> paths = new GraficoModelExporter(model, folder).getFilePaths();
+        assertEquals(paths, new GraficoModelExporter(importedModel, folder).getFilePaths());
+        
+        // Serializing the imported model gives the same files
+        GraficoSerializer serializer = new GraficoSerializer();
+        for(Entry<String, String> entry : paths.entrySet()) {
+            EObject eObject = ArchimateModelUtils.getObjectByID(importedModel, entry.getKey());
+            serializer.serialize(eObject);
+            byte[] expected = Files.readAllBytes(new File(folder, entry.getValue()).toPath());
+            assertArrayEquals(entry.getValue(), expected, Arrays.copyOf(serializer.getBytes(), serializer.getLength()));
+        }
+        
+        // Cross-references are set
+        IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)ArchimateModelUtils.getObjectByID(importedModel, "connection");
+        assertSame(connection.getArchimateRelationship(), ArchimateModelUtils.getObjectByID(importedModel, "relationship"));
+        assertTrue(connection.getArchimateRelationship().getReferencingDiagramConnections().contains(connection));
+        assertSame(connection.getSource(), ArchimateModelUtils.getObjectByID(importedModel, "dmo1"));
+    }
+    
+    @Test
+    public void importAsModel_MissingFileIsUnresolved() throws IOException {
+        IArchimateModel model = createModel();
+        new GraficoModelExporter(model, folder).exportModel();
+        
+        String path = new GraficoModelExporter(model, folder).getFilePaths().get("role");
+        Files.delete(new File(folder, path).toPath());
+        
+        GraficoModelImporter importer = new GraficoModelImporter(folder);
+        importer.importAsModel();
+        
+        List<UnresolvedObject> unresolvedObjects = importer.getUnresolvedObjects();
+        assertNotNull(unresolvedObjects);
+        assertEquals(2, unresolvedObjects.size());
+        
+        for(UnresolvedObject unresolved : unresolvedObjects) {
+            assertEquals(new File(path).getName(), unresolved.missingObjectURI.lastSegment());
+            assertEquals("role", unresolved.missingObjectURI.fragment());
+        }
+        
+        assertEquals("relationship", unresolvedObjects.get(0).parentObject.getId());
+        assertEquals("dmo2", unresolvedObjects.get(1).parentObject.getId());
+    }
+    
+    @Test
+    public void importAsModel_FromCommitTree() throws Exception {
+        IArchimateModel model = createModel();
+        
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            new GraficoModelExporter(model, folder).exportModel();
+            git.add().addFilepattern(".").call();
+            RevCommit commit = git.commit().setMessage("Model").call();
+            
+            // Change the working tree, the commit's tree should still be read
+            FileUtils.deleteFolder(new File(folder, IGraficoConstants.MODEL_FOLDER));
+            
+            GraficoModelImporter importer = new GraficoModelImporter(new GraficoTreeSource(repository, commit.getTree(), folder));
+            IArchimateModel importedModel = importer.importAsModel();
+            
+            assertNotNull(importedModel);
+            assertNull(importer.getUnresolvedObjects());
+            assertEquals(new GraficoModelExporter(model, folder).getFilePaths(), new GraficoModelExporter(importedModel, folder).getFilePaths());
+            assertEquals("Actor & \"friends\"\nover two lines", ((IArchimateElement)ArchimateModelUtils.getObjectByID(importedModel, "actor")).getName());
+        }
+    }
+    
+    @Test
+    public void importAsModel_ParallelIsSameAsSequential() throws IOException {
+        IArchimateModel model = createLargeModel();
+        new GraficoModelExporter(model, folder).exportModel();
+        
+        IPreferenceStore store = ModelRepositoryPlugin.INSTANCE.getPreferenceStore();
+        
+        try {
+            store.setValue(IPreferenceConstants.PREFS_IMPORT_MAX_THREADS, 1);
+            GraficoModelImporter importer = new GraficoModelImporter(folder);
+            IArchimateModel sequentialModel = importer.importAsModel();
+            assertNull(importer.getUnresolvedObjects());
+            
+            store.setValue(IPreferenceConstants.PREFS_IMPORT_MAX_THREADS, 8);
+            importer = new GraficoModelImporter(folder);
+            IArchimateModel parallelModel = importer.importAsModel();
+            assertNull(importer.getUnresolvedObjects());
+            
+            assertSameModel(sequentialModel, parallelModel);
+            assertEquals(new GraficoModelExporter(model, folder).getFilePaths(), new GraficoModelExporter(parallelModel, folder).getFilePaths());
+        }
+        finally {
+            store.setToDefault(IPreferenceConstants.PREFS_IMPORT_MAX_THREADS);
+        }
+    }
+    
+    @Test
+    public void importAsModel_UnknownFeatureThrowsException() throws IOException {
+        IArchimateModel model = createModel();
+        new GraficoModelExporter(model, folder).exportModel();
+        
+        // As an XMLResource does, an unknown feature fails the import rather than losing data when the model is saved again
+        File file = new File(folder, new GraficoModelExporter(model, folder).getFilePaths().get("actor"));
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains("id=\"actor\""));
+        Files.write(file.toPath(), content.replace("id=\"actor\"", "id=\"actor\"\n    unknown=\"value\"").getBytes(StandardCharsets.UTF_8));
+        
+        try {
+            new GraficoModelImporter(folder).importAsModel();
+            fail("Should have thrown an IOException");
+        }
+        catch(IOException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("Unknown feature 'unknown'"));
+        }
+    }
+    
+    /**
+     * Both models have the same objects in the same order, with the same attributes and references.
+     * References are resolved to objects in the same model.
+     */
+    private void assertSameModel(IArchimateModel expected, IArchimateModel actual) {
+        List<EObject> expectedObjects = new ArrayList<EObject>();
+        expectedObjects.add(expected);
+        expected.eAllContents().forEachRemaining(expectedObjects::add);
+        
+        List<EObject> actualObjects = new ArrayList<EObject>();
+        actualObjects.add(actual);
+        actual.eAllContents().forEachRemaining(actualObjects::add);
+        
+        assertEquals(expectedObjects.size(), actualObjects.size());
+        
+        for(int i = 0; i < expectedObjects.size(); i++) {
+            EObject expectedObject = expectedObjects.get(i);
+            EObject actualObject = actualObjects.get(i);
+            
+            assertEquals(expectedObject.eClass(), actualObject.eClass());
+            assertEquals(EcoreUtil.getID(expectedObject), EcoreUtil.getID(actualObject));
+            
+            for(EAttribute attribute : expectedObject.eClass().getEAllAttributes()) {
+                if(!attribute.isTransient() && !attribute.isDerived()) {
+                    assertEquals(attribute.getName(), expectedObject.eGet(attribute), actualObject.eGet(attribute));
+                }
+            }
+            
+            for(EReference reference : expectedObject.eClass().getEAllReferences()) {
+                if(reference.isContainment() || reference.isContainer() || reference.isTransient() || reference.isDerived()) {
+                    continue;
+                }
+                
+                List<EObject> expectedTargets = getTargets(expectedObject, reference);
+                List<EObject> actualTargets = getTargets(actualObject, reference);
+                assertEquals(reference.getName(), expectedTargets.size(), actualTargets.size());
+                
+                for(int j = 0; j < expectedTargets.size(); j++) {
+                    assertEquals(reference.getName(), EcoreUtil.getID(expectedTargets.get(j)), EcoreUtil.getID(actualTargets.get(j)));
+                    assertSame(actual, EcoreUtil.getRootContainer(actualTargets.get(j)));
+                }
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<EObject> getTargets(EObject eObject, EReference reference) {
+        Object value = eObject.eGet(reference);
+        if(reference.isMany()) {
+            return (List<EObject>)value;
+        }
+        return value == null ? new ArrayList<EObject>() : Arrays.asList((EObject)value);
+    }
+    
+    /**
+     * A model with enough files to be loaded in many chunks, with nested folders, and diagrams with nested children
+     * and connections that reference elements and relationships in other files
+     */
+    private IArchimateModel createLargeModel() {
+        IArchimateFactory factory = IArchimateFactory.eINSTANCE;
+        
+        IArchimateModel model = factory.createArchimateModel();
+        model.setDefaults();
+        model.setName("Large Model");
+        
+        IFolder businessFolder = model.getFolder(FolderType.BUSINESS);
+        IFolder relationsFolder = model.getFolder(FolderType.RELATIONS);
+        IFolder diagramsFolder = model.getFolder(FolderType.DIAGRAMS);
+        
+        List<IArchimateElement> elements = new ArrayList<IArchimateElement>();
+        
+        for(int i = 0; i < 10; i++) {
+            IFolder subFolder = factory.createFolder();
+            subFolder.setId("folder" + i);
+            subFolder.setName("Folder " + (9 - i)); // Not in name order
+            businessFolder.getFolders().add(subFolder);
+            
+            for(int j = 0; j < 20; j++) {
+                IArchimateElement element = j % 2 == 0 ? factory.createBusinessActor() : factory.createBusinessRole();
+                element.setId("element" + i + "_" + j);
+                element.setName("Element " + (19 - j));
+                subFolder.getElements().add(element);
+                elements.add(element);
+            }
+        }
+        
+        List<IArchimateRelationship> relationships = new ArrayList<IArchimateRelationship>();
+        
+        for(int i = 0; i + 1 < elements.size(); i += 2) {
+            IArchimateRelationship relationship = factory.createAssociationRelationship();
+            relationship.setId("relationship" + i);
+            relationship.connect(elements.get(i), elements.get(i + 1));
+            relationsFolder.getElements().add(relationship);
+            relationships.add(relationship);
+        }
+        
+        for(int d = 0; d < 5; d++) {
+            IArchimateDiagramModel dm = factory.createArchimateDiagramModel();
+            dm.setId("view" + d);
+            diagramsFolder.getElements().add(dm);
+            
+            IDiagramModelGroup group = factory.createDiagramModelGroup();
+            group.setId("group" + d);
+            group.setBounds(0, 0, 1000, 1000);
+            dm.getChildren().add(group);
+            
+            for(int i = 0; i < 10; i++) {
+                IArchimateRelationship relationship = relationships.get(d * 10 + i);
+                
+                IDiagramModelArchimateObject source = factory.createDiagramModelArchimateObject();
+                source.setId("dmo" + d + "_" + i + "_source");
+                source.setArchimateElement((IArchimateElement)relationship.getSource());
+                source.setBounds(10, i * 60, 120, 55);
+                group.getChildren().add(source);
+                
+                IDiagramModelArchimateObject target = factory.createDiagramModelArchimateObject();
+                target.setId("dmo" + d + "_" + i + "_target");
+                target.setArchimateElement((IArchimateElement)relationship.getTarget());
+                target.setBounds(200, i * 60, 120, 55);
+                dm.getChildren().add(target);
+                
+                IDiagramModelArchimateConnection connection = factory.createDiagramModelArchimateConnection();
+                connection.setId("connection" + d + "_" + i);
+                connection.setArchimateRelationship(relationship);
+                connection.connect(source, target);
+            }
+        }
+        
+        return model;
+    }
+    
+    private IArchimateModel createModel() {
+        IArchimateFactory factory = IArchimateFactory.eINSTANCE;
+        
+        IArchimateModel model = factory.createArchimateModel();
+        model.setDefaults();
+        model.setName("Model");
+        
+        IArchimateElement actor = factory.createBusinessActor();
+        actor.setId("actor");
+        actor.setName("Actor & \"friends\"\nover two lines");
+        model.getDefaultFolderForObject(actor).getElements().add(actor);
+        
+        IArchimateElement role = factory.createBusinessRole();
+        role.setId("role");
+        model.getDefaultFolderForObject(role).getElements().add(role);
+        
+        IArchimateRelationship relationship = factory.createAssignmentRelationship();
+        relationship.setId("relationship");
+        relationship.connect(actor, role);
+        model.getDefaultFolderForObject(relationship).getElements().add(relationship);
+        
+        IArchimateDiagramModel dm = factory.createArchimateDiagramModel();
+        dm.setId("view");
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelArchimateObject dmo1 = factory.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1");
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(10, 10, 120, 55);
+        dm.getChildren().add(dmo1);
+        
+        IDiagramModelArchimateObject dmo2 = factory.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2");
+        dmo2.setArchimateElement(role);
+        dmo2.setBounds(200, 10, 120, 55);
+        dm.getChildren().add(dmo2);
+        
+        IDiagramModelArchimateConnection connection = factory.createDiagramModelArchimateConnection();
+        connection.setId("connection");
+        connection.setArchimateRelationship(relationship);
+        connection.connect(dmo1, dmo2);
+        
+        return model;
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.gef.commands.CommandStack;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.model.IEditorModelManager;
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelGroup;
+import com.archimatetool.model.util.ArchimateModelUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelReloaderTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelReloaderTests.class);
+    }
+    
+    private File folder;
+    private IArchiRepository archiRepository;
+    private IArchimateModel model;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "reloader");
+        archiRepository = new ArchiRepository(folder);
+        
+        model = createModel();
+        model.setFile(archiRepository.getTempModelFile());
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        IEditorModelManager.INSTANCE.closeModel(model);
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void reload_AddNestedChildrenAndConnections() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitOpenModel();
+            
+            IDiagramModelArchimateObject dmo1 = (IDiagramModelArchimateObject)getObject(model, "dmo1");
+            IDiagramModelArchimateObject dmo2 = (IDiagramModelArchimateObject)getObject(model, "dmo2");
+            IDiagramModelGroup group = (IDiagramModelGroup)getObject(model, "group");
+            
+            IArchimateModel other = EcoreUtil.copy(model);
+            IArchimateFactory factory = IArchimateFactory.eINSTANCE;
+            
+            // A new nested child in an existing group, with a nested child of its own
+            IDiagramModelGroup newGroup = factory.createDiagramModelGroup();
+            newGroup.setId("newGroup");
+            newGroup.setBounds(10, 100, 200, 200);
+            ((IDiagramModelGroup)getObject(other, "group")).getChildren().add(newGroup);
+            
+            IDiagramModelArchimateObject newDmo = factory.createDiagramModelArchimateObject();
+            newDmo.setId("newDmo");
+            newDmo.setArchimateElement((IArchimateElement)getObject(other, "role"));
+            newDmo.setBounds(10, 10, 120, 55);
+            newGroup.getChildren().add(newDmo);
+            
+            // A new connection between existing diagram objects
+            IDiagramModelArchimateConnection connection2 = factory.createDiagramModelArchimateConnection();
+            connection2.setId("connection2");
+            connection2.setArchimateRelationship((IArchimateRelationship)getObject(other, "relationship"));
+            connection2.connect((IDiagramModelArchimateObject)getObject(other, "dmo1"), (IDiagramModelArchimateObject)getObject(other, "dmo2"));
+            
+            // A new connection from an existing diagram object to a new one
+            IDiagramModelArchimateConnection connection3 = factory.createDiagramModelArchimateConnection();
+            connection3.setId("connection3");
+            connection3.setArchimateRelationship((IArchimateRelationship)getObject(other, "relationship"));
+            connection3.connect((IDiagramModelArchimateObject)getObject(other, "nested"), newDmo);
+            
+            commitOtherModel(git, other);
+            
+            assertTrue(new GraficoModelReloader(archiRepository, model).reload(commit));
+            assertModelIsSameAsFiles();
+            
+            // Existing objects were kept
+            assertSame(dmo1, getObject(model, "dmo1"));
+            assertSame(dmo2, getObject(model, "dmo2"));
+            assertSame(group, getObject(model, "group"));
+            
+            // New objects reference the existing objects
+            IDiagramModelArchimateConnection newConnection2 = (IDiagramModelArchimateConnection)getObject(model, "connection2");
+            assertSame(dmo1, newConnection2.getSource());
+            assertSame(dmo2, newConnection2.getTarget());
+            assertTrue(dmo1.getSourceConnections().contains(newConnection2));
+            assertTrue(dmo2.getTargetConnections().contains(newConnection2));
+            
+            IDiagramModelArchimateObject newNestedDmo = (IDiagramModelArchimateObject)getObject(model, "newDmo");
+            IDiagramModelArchimateConnection newConnection3 = (IDiagramModelArchimateConnection)getObject(model, "connection3");
+            assertSame(getObject(model, "nested"), newConnection3.getSource());
+            assertSame(newNestedDmo, newConnection3.getTarget());
+            assertTrue(newNestedDmo.getTargetConnections().contains(newConnection3));
+            
+            // Cross-references to concepts
+            assertSame(getObject(model, "role"), newNestedDmo.getArchimateElement());
+            IArchimateRelationship relationship = (IArchimateRelationship)getObject(model, "relationship");
+            assertSame(relationship, newConnection2.getArchimateRelationship());
+            assertTrue(relationship.getReferencingDiagramConnections().contains(newConnection2));
+            assertTrue(relationship.getReferencingDiagramConnections().contains(newConnection3));
+            assertTrue(((IArchimateElement)getObject(model, "role")).getReferencingDiagramObjects().contains(newNestedDmo));
+        }
+    }
+    
+    @Test
+    public void reload_RemoveNestedChildrenAndConnections() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitOpenModel();
+            
+            IDiagramModelArchimateObject nested = (IDiagramModelArchimateObject)getObject(model, "nested");
+            IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)getObject(model, "connection");
+            IDiagramModelArchimateObject dmo2 = (IDiagramModelArchimateObject)getObject(model, "dmo2");
+            
+            IArchimateModel other = EcoreUtil.copy(model);
+            ((IDiagramModelArchimateConnection)getObject(other, "connection")).disconnect();
+            EcoreUtil.remove(getObject(other, "nested"));
+            commitOtherModel(git, other);
+            
+            assertTrue(new GraficoModelReloader(archiRepository, model).reload(commit));
+            assertModelIsSameAsFiles();
+            
+            assertNull(getObject(model, "nested"));
+            assertNull(getObject(model, "connection"));
+            assertSame(dmo2, getObject(model, "dmo2"));
+            assertFalse(dmo2.getTargetConnections().contains(connection));
+            
+            // Removed objects no longer reference their concepts
+            assertFalse(((IArchimateElement)getObject(model, "actor")).getReferencingDiagramObjects().contains(nested));
+            assertFalse(((IArchimateRelationship)getObject(model, "relationship")).getReferencingDiagramConnections().contains(connection));
+        }
+    }
+    
+    @Test
+    public void reload_ModifyNestedChildrenAndConnections() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitOpenModel();
+            
+            IDiagramModelArchimateObject nested = (IDiagramModelArchimateObject)getObject(model, "nested");
+            IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)getObject(model, "connection");
+            
+            IArchimateModel other = EcoreUtil.copy(model);
+            ((IDiagramModelArchimateObject)getObject(other, "nested")).setBounds(50, 60, 70, 80);
+            ((IDiagramModelArchimateConnection)getObject(other, "connection")).setName("Connection");
+            
+            // Reconnect the connection to the nested object
+            IDiagramModelArchimateConnection otherConnection = (IDiagramModelArchimateConnection)getObject(other, "connection");
+            otherConnection.connect(otherConnection.getSource(), (IDiagramModelArchimateObject)getObject(other, "nested"));
+            commitOtherModel(git, other);
+            
+            assertTrue(new GraficoModelReloader(archiRepository, model).reload(commit));
+            assertModelIsSameAsFiles();
+            
+            // Updated in place
+            assertSame(nested, getObject(model, "nested"));
+            assertSame(connection, getObject(model, "connection"));
+            assertEquals(50, nested.getBounds().getX());
+            assertEquals(80, nested.getBounds().getHeight());
+            assertEquals("Connection", connection.getName());
+            assertSame(nested, connection.getTarget());
+            assertTrue(nested.getTargetConnections().contains(connection));
+            assertFalse(((IDiagramModelArchimateObject)getObject(model, "dmo2")).getTargetConnections().contains(connection));
+            
+            // The undo history refers to the old state, so it is cleared
+            assertFalse(((CommandStack)model.getAdapter(CommandStack.class)).canUndo());
+        }
+    }
+    
+    @Test
+    public void reload_WorkingTreeIsNotSameAsHead() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitOpenModel();
+            
+            IArchimateModel other = EcoreUtil.copy(model);
+            other.setName("Other");
+            commitOtherModel(git, other);
+            
+            // A file that is not in HEAD would be imported by a full load
+            File extraFile = new File(folder, IGraficoConstants.MODEL_FOLDER + "/business/BusinessActor_extra.xml");
+            Files.write(extraFile.toPath(), "extra".getBytes());
+            assertFalse(new GraficoModelReloader(archiRepository, model).reload(commit));
+            Files.delete(extraFile.toPath());
+            
+            // A changed file
+            File modelFile = new File(folder, IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML);
+            Files.write(modelFile.toPath(), "changed".getBytes());
+            assertFalse(new GraficoModelReloader(archiRepository, model).reload(commit));
+            
+            // Nothing was changed
+            assertEquals("Model", model.getName());
+        }
+    }
+    
+    /**
+     * Open the model and commit it, so that its changes are tracked
+     */
+    private RevCommit commitOpenModel() throws IOException {
+        IEditorModelManager.INSTANCE.openModel(model);
+        RevCommit commit = new GraficoModelCommitter(model, archiRepository).commitModel("One", false);
+        assertTrue(GraficoChangeTracker.getTracker(model).isClean());
+        return commit;
+    }
+    
+    /**
+     * Export and commit another model, as a pull or merge would bring in
+     */
+    private void commitOtherModel(Git git, IArchimateModel other) throws Exception {
+        new GraficoModelExporter(other, folder).exportModel();
+        git.add().addFilepattern(".").call();
+        git.add().setUpdate(true).addFilepattern(".").call();
+        git.commit().setMessage("Two").call();
+    }
+    
+    /**
+     * The reloaded model serializes to the files of HEAD, and all of its references are to objects in the model
+     */
+    private void assertModelIsSameAsFiles() throws IOException {
+        File fullFolder = new File(GitHelper.getTempTestsFolder(), "full");
+        new GraficoModelExporter(model, fullFolder).exportModel();
+        
+        Map<String, String> paths = new GraficoModelExporter(model, folder).getFilePaths();
+        assertEquals(paths.size(), countFiles(new File(folder, IGraficoConstants.MODEL_FOLDER)));
+        
+        for(String path : paths.values()) {
+            assertArrayEquals(path, Files.readAllBytes(new File(fullFolder, path).toPath()), Files.readAllBytes(new File(folder, path).toPath()));
+        }
+        
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            for(EReference reference : eObject.eClass().getEAllReferences()) {
+                if(reference.isContainment() || reference.isContainer() || reference.isTransient() || reference.isDerived()) {
+                    continue;
+                }
+                for(EObject target : getTargets(eObject, reference)) {
+                    assertSame(reference.getName() + " of " + EcoreUtil.getID(eObject), model, EcoreUtil.getRootContainer(target));
+                }
+            }
+        }
+    }
+    
+    private int countFiles(File folder) {
+        int count = 0;
+        for(File file : folder.listFiles()) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<EObject> getTargets(EObject eObject, EReference reference) {
+        Object value = eObject.eGet(reference);
+        if(reference.isMany()) {
+            return (List<EObject>)value;
+        }
+        return value == null ? Arrays.<EObject>asList() : Arrays.asList((EObject)value);
+    }
+    
+    private EObject getObject(IArchimateModel model, String id) {
+        return ArchimateModelUtils.getObjectByID(model, id);
+    }
+    
+    private IArchimateModel createModel() {
+        IArchimateFactory factory = IArchimateFactory.eINSTANCE;
+        
+        IArchimateModel model = factory.createArchimateModel();
+        model.setDefaults();
+        model.setName("Model");
+        
+        IArchimateElement actor = factory.createBusinessActor();
+        actor.setId("actor");
+        model.getDefaultFolderForObject(actor).getElements().add(actor);
+        
+        IArchimateElement role = factory.createBusinessRole();
+        role.setId("role");
+        model.getDefaultFolderForObject(role).getElements().add(role);
+        
+        IArchimateRelationship relationship = factory.createAssignmentRelationship();
+        relationship.setId("relationship");
+        relationship.connect(actor, role);
+        model.getDefaultFolderForObject(relationship).getElements().add(relationship);
+        
+        IArchimateDiagramModel dm = factory.createArchimateDiagramModel();
+        dm.setId("view");
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelGroup group = factory.createDiagramModelGroup();
+        group.setId("group");
+        group.setBounds(10, 10, 400, 400);
+        dm.getChildren().add(group);
+        
+        IDiagramModelArchimateObject nested = factory.createDiagramModelArchimateObject();
+        nested.setId("nested");
+        nested.setArchimateElement(actor);
+        nested.setBounds(10, 10, 120, 55);
+        group.getChildren().add(nested);
+        
+        IDiagramModelArchimateObject dmo1 = factory.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1");
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(500, 10, 120, 55);
+        dm.getChildren().add(dmo1);
+        
+        IDiagramModelArchimateObject dmo2 = factory.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2");
+        dmo2.setArchimateElement(role);
+        dmo2.setBounds(700, 10, 120, 55);
+        dm.getChildren().add(dmo2);
+        
+        IDiagramModelArchimateConnection connection = factory.createDiagramModelArchimateConnection();
+        connection.setId("connection");
+        connection.setArchimateRelationship(relationship);
+        connection.connect(dmo1, dmo2);
+        
+        return model;
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.ecore.util.EContentAdapter;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.util.ArchimateModelUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoModelSnapshotTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoModelSnapshotTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "snapshot");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void importAsModel_FromFolder_SavesAndLoadsSnapshot() throws Exception {
+        IArchimateModel model = createModel("Model");
+        
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitModel(git, model);
+            
+            GraficoModelImporter importer = new GraficoModelImporter(folder);
+            importer.importAsModel();
+            
+            File snapshotFile = new File(new File(repository.getDirectory(), GraficoModelSnapshot.SNAPSHOT_FOLDER), commit.getTree().name());
+            assertTrue(snapshotFile.exists());
+            
+            // Loaded from the snapshot
+            IArchimateModel snapshotModel = new GraficoModelSnapshot(repository.getDirectory(), commit.getTree()).load();
+            assertNotNull(snapshotModel);
+            assertNull(snapshotModel.eResource());
+            assertEquals(new GraficoModelExporter(model, folder).getFilePaths(), new GraficoModelExporter(snapshotModel, folder).getFilePaths());
+            
+            // Cross-references are set
+            IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)ArchimateModelUtils.getObjectByID(snapshotModel, "connection");
+            assertEquals(ArchimateModelUtils.getObjectByID(snapshotModel, "relationship"), connection.getArchimateRelationship());
+            assertEquals(1, connection.getArchimateRelationship().getReferencingDiagramConnections().size());
+            assertTrue(connection.getArchimateRelationship().getReferencingDiagramConnections().contains(connection));
+        }
+    }
+    
+    @Test
+    public void importAsModel_FromCommitTree_DoesNotSaveSnapshot() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitModel(git, createModel("Model"));
+            
+            GraficoModelImporter importer = new GraficoModelImporter(new GraficoTreeSource(repository, commit.getTree(), folder));
+            assertEquals("Model", importer.importAsModel().getName());
+            assertFalse(new File(new File(repository.getDirectory(), GraficoModelSnapshot.SNAPSHOT_FOLDER), commit.getTree().name()).exists());
+            
+            // A snapshot saved by the working tree's import is loaded
+            new GraficoModelSnapshot(repository.getDirectory(), commit.getTree()).save(createModel("Snapshot"));
+            importer = new GraficoModelImporter(new GraficoTreeSource(repository, commit.getTree(), folder));
+            assertEquals("Snapshot", importer.importAsModel().getName());
+        }
+    }
+    
+    @Test
+    public void importAsModel_FromFolder_DoesNotUseSnapshotIfIndexOrFilesAreNotSameAsHead() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitModel(git, createModel("Model"));
+            new GraficoModelSnapshot(repository.getDirectory(), commit.getTree()).save(createModel("Snapshot"));
+            
+            // A file that is not in the index
+            File file = new File(folder, IGraficoConstants.IMAGES_FOLDER + "/image.png");
+            Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+            GraficoModelImporter importer = new GraficoModelImporter(folder);
+            assertEquals("Model", importer.importAsModel().getName());
+            assertNull(importer.getSnapshot());
+            
+            // The file is added to the index but not committed
+            git.add().addFilepattern(IGraficoConstants.IMAGES_FOLDER).call();
+            importer = new GraficoModelImporter(folder);
+            importer.importAsModel();
+            assertNull(importer.getSnapshot());
+            
+            // Committed
+            commit = git.commit().setMessage("Image").call();
+            new GraficoModelSnapshot(repository.getDirectory(), commit.getTree()).save(createModel("Snapshot"));
+            importer = new GraficoModelImporter(folder);
+            assertEquals("Snapshot", importer.importAsModel().getName());
+            
+            // Deleted
+            file.delete();
+            importer = new GraficoModelImporter(folder);
+            importer.importAsModel();
+            assertNull(importer.getSnapshot());
+        }
+    }
+    
+    @Test
+    public void importAsModel_FromFolder_UsesSnapshotOnlyIfFilesAreSameAsHead() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitModel(git, createModel("Model"));
+            
+            // A snapshot that is not the same as the files so that we know where the model was loaded from
+            new GraficoModelSnapshot(repository.getDirectory(), commit.getTree()).save(createModel("Snapshot"));
+            
+            GraficoModelImporter importer = new GraficoModelImporter(folder);
+            assertEquals("Snapshot", importer.importAsModel().getName());
+            assertEquals(commit.getTree(), importer.getSnapshot().getTreeId());
+            
+            // Change the files
+            IArchimateModel model = createModel("Changed");
+            new GraficoModelExporter(model, folder).exportModel();
+            
+            importer = new GraficoModelImporter(folder);
+            assertEquals("Changed", importer.importAsModel().getName());
+            assertNull(importer.getSnapshot());
+        }
+    }
+    
+    @Test
+    public void save_DoesNotChangeModel() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            IArchimateModel model = createModel("Model");
+            RevCommit commit = commitModel(git, model);
+            
+            List<Notification> notifications = new ArrayList<Notification>();
+            model.eAdapters().add(new EContentAdapter() {
+                @Override
+                public void notifyChanged(Notification notification) {
+                    super.notifyChanged(notification);
+                    notifications.add(notification);
+                }
+            });
+            
+            GraficoModelSnapshot snapshot = new GraficoModelSnapshot(repository.getDirectory(), commit.getTree());
+            snapshot.save(model);
+            
+            assertNull(model.eResource());
+            assertTrue(notifications.isEmpty());
+            assertEquals("Model", snapshot.load().getName());
+        }
+    }
+    
+    @Test
+    public void isSavedAsTempFile() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = commitModel(git, createModel("Model"));
+            GraficoModelSnapshot snapshot = new GraficoModelSnapshot(repository.getDirectory(), commit.getTree());
+            
+            File tempFile = new File(folder, IGraficoConstants.LOCAL_ARCHI_FILENAME);
+            assertFalse(snapshot.isSavedAsTempFile(tempFile));
+            
+            Files.write(tempFile.toPath(), "model".getBytes());
+            snapshot.setSavedAsTempFile(tempFile);
+            assertTrue(snapshot.isSavedAsTempFile(tempFile));
+            
+            // Changed since
+            Files.write(tempFile.toPath(), "changed model".getBytes());
+            assertFalse(snapshot.isSavedAsTempFile(tempFile));
+        }
+    }
+    
+    private RevCommit commitModel(Git git, IArchimateModel model) throws Exception {
+        new GraficoModelExporter(model, folder).exportModel();
+        git.add().addFilepattern(".").call();
+        return git.commit().setMessage("Model").call();
+    }
+    
+    private IArchimateModel createModel(String name) {
+        IArchimateFactory factory = IArchimateFactory.eINSTANCE;
+        
+        IArchimateModel model = factory.createArchimateModel();
+        model.setDefaults();
+        model.setName(name);
+        
+        IArchimateElement actor = factory.createBusinessActor();
+        actor.setId("actor");
+        model.getDefaultFolderForObject(actor).getElements().add(actor);
+        
+        IArchimateElement role = factory.createBusinessRole();
+        role.setId("role");
+        model.getDefaultFolderForObject(role).getElements().add(role);
+        
+        IArchimateRelationship relationship = factory.createAssignmentRelationship();
+        relationship.setId("relationship");
+        relationship.connect(actor, role);
+        model.getDefaultFolderForObject(relationship).getElements().add(relationship);
+        
+        IArchimateDiagramModel dm = factory.createArchimateDiagramModel();
+        dm.setId("view");
+        model.getDefaultFolderForObject(dm).getElements().add(dm);
+        
+        IDiagramModelArchimateObject dmo1 = factory.createDiagramModelArchimateObject();
+        dmo1.setId("dmo1");
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(10, 10, 120, 55);
+        dm.getChildren().add(dmo1);
+        
+        IDiagramModelArchimateObject dmo2 = factory.createDiagramModelArchimateObject();
+        dmo2.setId("dmo2");
+        dmo2.setArchimateElement(role);
+        dmo2.setBounds(200, 10, 120, 55);
+        dm.getChildren().add(dmo2);
+        
+        IDiagramModelArchimateConnection connection = factory.createDiagramModelArchimateConnection();
+        connection.setId("connection");
+        connection.setArchimateRelationship(relationship);
+        connection.connect(dmo1, dmo2);
+        
+        return model;
+    }
+}
@@ -0,0 +1,374 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ExtensibleURIConverterImpl;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.canvas.model.ICanvasFactory;
+import com.archimatetool.canvas.model.ICanvasModel;
+import com.archimatetool.canvas.model.ICanvasModelBlock;
+import com.archimatetool.canvas.model.ICanvasModelConnection;
+import com.archimatetool.canvas.model.ICanvasModelSticky;
+import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateDiagramModel;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IDiagramModelBendpoint;
+import com.archimatetool.model.IDiagramModelGroup;
+import com.archimatetool.model.IDiagramModelImage;
+import com.archimatetool.model.IDiagramModelNote;
+import com.archimatetool.model.IDiagramModelReference;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IIdentifier;
+import com.archimatetool.model.IProperty;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class GraficoSerializerTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraficoSerializerTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "serializer");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void serialize_IsSameAsXMLResource() throws IOException {
+        IArchimateModel model = createModel();
+        
+        Map<String, byte[]> expected = saveWithXMLResources(model);
+        Map<String, byte[]> actual = saveWithSerializer(model);
+        
+        assertEquals(expected.keySet(), actual.keySet());
+        
+        for(Entry<String, byte[]> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), new String(entry.getValue(), StandardCharsets.UTF_8),
+                    new String(actual.get(entry.getKey()), StandardCharsets.UTF_8));
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+    
+    @Test
+    public void serialize_UnresolvedProxyIsSavedAsFileNameAndId() throws IOException {
+        IArchimateModel model = createModel();
+        IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)((IArchimateDiagramModel)model.getFolder(FolderType.DIAGRAMS).getElements().get(0)).getChildren().get(0);
+        
+        // As the importer makes it, resolved against the file that it was loaded from
+        IArchimateElement proxy = IArchimateFactory.eINSTANCE.createBusinessActor();
+        ((InternalEObject)proxy).eSetProxyURI(URI.createFileURI(new File(folder, "model/business/BusinessActor_missing.xml").getAbsolutePath()).appendFragment("missing"));
+        dmo.setArchimateElement(proxy);
+        
+        GraficoSerializer serializer = new GraficoSerializer();
+        serializer.serialize(dmo.getDiagramModel());
+        String xml = new String(serializer.getBytes(), 0, serializer.getLength(), StandardCharsets.UTF_8);
+        
+        assertTrue(xml, xml.contains("href=\"BusinessActor_missing.xml#missing\""));
+    }
+    
+    @Test
+    public void serialize_AllocatesLessThanXMLResource() throws IOException {
+        // Allocated bytes are only counted by some JVMs
+        Assume.assumeTrue(getAllocatedBytes() >= 0);
+        
+        IArchimateModel model = createModel();
+        int fileCount = saveWithSerializer(model).size();
+        
+        long xmlResourceBytes = Long.MAX_VALUE;
+        long serializerBytes = Long.MAX_VALUE;
+        
+        // The least of several runs, not counting the first ones that load classes and fill caches
+        for(int i = 0; i < 12; i++) {
+            long start = getAllocatedBytes();
+            saveWithXMLResources(model);
+            long xmlResourceRun = getAllocatedBytes() - start;
+            
+            start = getAllocatedBytes();
+            saveWithSerializer(model);
+            long serializerRun = getAllocatedBytes() - start;
+            
+            if(i >= 2) {
+                xmlResourceBytes = Math.min(xmlResourceBytes, xmlResourceRun);
+                serializerBytes = Math.min(serializerBytes, serializerRun);
+            }
+        }
+        
+        assertTrue("Allocated bytes per file - XMLResource: " + xmlResourceBytes / fileCount + ", GraficoSerializer: " + serializerBytes / fileCount,
+                serializerBytes < xmlResourceBytes);
+    }
+    
+    // =========================================================================================
+    
+    /**
+     * @return The number of bytes allocated by this thread so far, or -1 if the JVM doesn't count them
+     */
+    private long getAllocatedBytes() {
+        try {
+            Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            Object bean = ManagementFactory.getThreadMXBean();
+            if(beanClass.isInstance(bean)) {
+                return (Long)beanClass.getMethod("getThreadAllocatedBytes", long.class).invoke(bean, Thread.currentThread().getId());
+            }
+        }
+        catch(ReflectiveOperationException ex) {
+        }
+        
+        return -1;
+    }
+    
+    private IArchimateModel createModel() {
+        IArchimateFactory factory = IArchimateFactory.eINSTANCE;
+        
+        IArchimateModel model = factory.createArchimateModel();
+        model.setDefaults();
+        model.setName("Model & \"Test\"");
+        model.setPurpose("Line 1\nLine 2\r\n\tTabbed <b>bold</b> ]]> \u00e9 \u00fc \u4e2d\u6587 \ud83d\ude00");
+        
+        IProperty property = factory.createProperty();
+        property.setKey("key");
+        property.setValue("value with 'quotes' & <angles>");
+        model.getProperties().add(property);
+        
+        IFolder userFolder = factory.createFolder();
+        userFolder.setName("User Folder");
+        userFolder.setType(FolderType.USER);
+        model.getFolder(FolderType.BUSINESS).getFolders().add(userFolder);
+        
+        IArchimateElement actor = factory.createBusinessActor();
+        actor.setName("Actor\nwith new line");
+        actor.setDocumentation("Documentation\r\nwith\ttabs & entities");
+        property = factory.createProperty();
+        property.setKey("k");
+        actor.getProperties().add(property);
+        userFolder.getElements().add(actor);
+        
+        IArchimateElement role = factory.createBusinessRole();
+        role.setName("Role");
+        model.getDefaultFolderForObject(role).getElements().add(role);
+        
+        IArchimateElement component = factory.createApplicationComponent();
+        model.getDefaultFolderForObject(component).getElements().add(component);
+        
+        IArchimateRelationship relationship = factory.createAssignmentRelationship();
+        relationship.setName("assigned");
+        relationship.connect(actor, role);
+        model.getDefaultFolderForObject(relationship).getElements().add(relationship);
+        
+        IArchimateDiagramModel dm1 = factory.createArchimateDiagramModel();
+        dm1.setName("View 1");
+        model.getDefaultFolderForObject(dm1).getElements().add(dm1);
+        
+        IArchimateDiagramModel dm2 = factory.createArchimateDiagramModel();
+        dm2.setName("View 2");
+        model.getDefaultFolderForObject(dm2).getElements().add(dm2);
+        
+        IDiagramModelArchimateObject dmo1 = factory.createDiagramModelArchimateObject();
+        dmo1.setArchimateElement(actor);
+        dmo1.setBounds(10, 10, 120, 55);
+        dm1.getChildren().add(dmo1);
+        
+        IDiagramModelGroup group = factory.createDiagramModelGroup();
+        group.setName("Group");
+        group.setBounds(200, 10, 300, 200);
+        dm1.getChildren().add(group);
+        
+        IDiagramModelArchimateObject dmo2 = factory.createDiagramModelArchimateObject();
+        dmo2.setArchimateElement(role);
+        dmo2.setBounds(20, 30, -1, -1);
+        group.getChildren().add(dmo2);
+        
+        IDiagramModelArchimateConnection connection = factory.createDiagramModelArchimateConnection();
+        connection.setArchimateRelationship(relationship);
+        connection.connect(dmo1, dmo2);
+        
+        IDiagramModelNote note = factory.createDiagramModelNote();
+        note.setContent("A note\nover two lines & more");
+        note.setBounds(10, 100, 185, 80);
+        dm1.getChildren().add(note);
+        
+        IDiagramModelBendpoint bendpoint = factory.createDiagramModelBendpoint();
+        bendpoint.setStartX(10);
+        bendpoint.setStartY(-20);
+        bendpoint.setEndX(30);
+        bendpoint.setEndY(40);
+        connection.getBendpoints().add(bendpoint);
+        
+        IDiagramModelImage image = factory.createDiagramModelImage();
+        image.setImagePath("images/0a1b2c3d.png");
+        image.setBounds(400, 300, 100, 100);
+        dm1.getChildren().add(image);
+        
+        IDiagramModelReference reference = factory.createDiagramModelReference();
+        reference.setReferencedModel(dm1);
+        reference.setBounds(10, 10, 120, 55);
+        dm2.getChildren().add(reference);
+        
+        // A reference to an element that is not in the model, in the form that it has in a Grafico file
+        IArchimateElement proxy = factory.createApplicationComponent();
+        ((InternalEObject)proxy).eSetProxyURI(URI.createURI("ApplicationComponent_missing.xml#missing"));
+        IDiagramModelArchimateObject dmo3 = factory.createDiagramModelArchimateObject();
+        dmo3.setArchimateElement(proxy);
+        dmo3.setBounds(200, 200, 120, 55);
+        dm2.getChildren().add(dmo3);
+        
+        // Canvas objects are in another package
+        ICanvasFactory canvasFactory = ICanvasFactory.eINSTANCE;
+        ICanvasModel canvas = canvasFactory.createCanvasModel();
+        canvas.setName("Canvas");
+        model.getDefaultFolderForObject(canvas).getElements().add(canvas);
+        
+        ICanvasModelBlock block = canvasFactory.createCanvasModelBlock();
+        block.setImagePath("images/4e5f6a7b.png");
+        block.setContent("Block & content");
+        block.setBounds(10, 10, 200, 200);
+        canvas.getChildren().add(block);
+        
+        ICanvasModelSticky sticky = canvasFactory.createCanvasModelSticky();
+        sticky.setContent("Sticky\nnote");
+        sticky.setBounds(300, 10, 75, 63);
+        canvas.getChildren().add(sticky);
+        
+        ICanvasModelConnection canvasConnection = canvasFactory.createCanvasModelConnection();
+        canvasConnection.connect(block, sticky);
+        
+        return model;
+    }
+    
+    /**
+     * Serialize each file with GraficoSerializer
+     * @return The bytes of each file keyed by path
+     */
+    private Map<String, byte[]> saveWithSerializer(IArchimateModel model) throws IOException {
+        Map<String, byte[]> files = new HashMap<String, byte[]>();
+        
+        GraficoSerializer serializer = new GraficoSerializer();
+        Map<String, String> paths = new GraficoModelExporter(model, folder).getFilePaths();
+        
+        addSerializedFiles(model, paths, serializer, files);
+        
+        return files;
+    }
+    
+    private void addSerializedFiles(EObject eObject, Map<String, String> paths, GraficoSerializer serializer, Map<String, byte[]> files) throws IOException {
+        serializer.serialize(eObject);
+        files.put(paths.get(((IIdentifier)eObject).getId()), Arrays.copyOf(serializer.getBytes(), serializer.getLength()));
+        
+        if(eObject instanceof IFolderContainer) {
+            for(IFolder child : ((IFolderContainer)eObject).getFolders()) {
+                addSerializedFiles(child, paths, serializer, files);
+            }
+        }
+        if(eObject instanceof IFolder) {
+            for(EObject element : ((IFolder)eObject).getElements()) {
+                addSerializedFiles(element, paths, serializer, files);
+            }
+        }
+    }
+    
+    /**
+     * Save each file with an XMLResource on a copy of the model in the same way as the Grafico exporter always did
+     * @return The bytes of each file keyed by path
+     */
+    private Map<String, byte[]> saveWithXMLResources(IArchimateModel model) throws IOException {
+        ResourceSet resourceSet = new ResourceSetImpl();
+        resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl());
+        resourceSet.setURIConverter(new ExtensibleURIConverterImpl());
+        
+        IArchimateModel copy = EcoreUtil.copy(model);
+        createResources(resourceSet, copy, new File(folder, IGraficoConstants.MODEL_FOLDER));
+        
+        Map<String, byte[]> files = new HashMap<String, byte[]>();
+        
+        for(Resource resource : resourceSet.getResources()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            resource.save(out, ((XMLResource)resource).getDefaultSaveOptions());
+            
+            File file = new File(resourceSet.getURIConverter().normalize(resource.getURI()).toFileString());
+            String path = folder.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+            files.put(path, out.toByteArray());
+        }
+        
+        return files;
+    }
+    
+    private void createResources(ResourceSet resourceSet, IFolderContainer folderContainer, File file) {
+        for(IFolder child : folderContainer.getFolders().toArray(new IFolder[0])) {
+            File childFile = new File(file, child.getType() == FolderType.USER ? child.getId() : child.getType().toString());
+            createResource(resourceSet, new File(childFile, IGraficoConstants.FOLDER_XML), child);
+            createResources(resourceSet, child, childFile);
+        }
+        
+        if(folderContainer instanceof IFolder) {
+            for(EObject element : ((IFolder)folderContainer).getElements().toArray(new EObject[0])) {
+                createResource(resourceSet, new File(file, element.getClass().getSimpleName() + "_" + ((IIdentifier)element).getId() + ".xml"), element);
+            }
+        }
+        
+        if(folderContainer instanceof IArchimateModel) {
+            createResource(resourceSet, new File(file, IGraficoConstants.FOLDER_XML), folderContainer);
+        }
+    }
+    
+    private void createResource(ResourceSet resourceSet, File file, EObject eObject) {
+        URI key = file.getName().equals(IGraficoConstants.FOLDER_XML) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
+        resourceSet.getURIConverter().getURIMap().put(key, URI.createFileURI(file.getAbsolutePath()));
+        
+        XMLResource resource = (XMLResource)resourceSet.createResource(key);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_ENCODING, "UTF-8");
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_FORMATTED, Boolean.TRUE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_LINE_WIDTH, new Integer(5));
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_USE_ENCODED_ATTRIBUTE_STYLE, Boolean.FALSE);
+        resource.getDefaultSaveOptions().put(XMLResource.OPTION_CONFIGURATION_CACHE, Boolean.TRUE);
+        resource.getDefaultSaveOptions().put(Resource.OPTION_LINE_DELIMITER, "\n");
+        resource.getContents().add(eObject);
+    }
+}
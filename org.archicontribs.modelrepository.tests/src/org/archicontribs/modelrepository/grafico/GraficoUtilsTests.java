@@ -5,6 +5,7 @@
  */
 package org.archicontribs.modelrepository.grafico;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
@@ -12,6 +13,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import org.archicontribs.modelrepository.GitHelper;
 import org.junit.After;
@@ -102,6 +104,25 @@ public class GraficoUtilsTests {
         model.setFile(file);
         assertNull(GraficoUtils.getLocalRepositoryFolderForModel(model));
     }
-
-
+    
+    @Test
+    public void writeBytesIfChanged_OnlyWritesDifferentContent() throws Exception {
+        File file = new File(GitHelper.getTempTestsFolder(), "test.xml");
+        byte[] bytes = "Hello World".getBytes("UTF-8");
+        
+        assertTrue(GraficoUtils.writeBytesIfChanged(file, bytes, bytes.length));
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+        
+        // Same content
+        assertFalse(GraficoUtils.writeBytesIfChanged(file, bytes, bytes.length));
+        
+        // Same length, different content
+        byte[] bytes2 = "Hello Earth".getBytes("UTF-8");
+        assertTrue(GraficoUtils.writeBytesIfChanged(file, bytes2, bytes2.length));
+        assertArrayEquals(bytes2, Files.readAllBytes(file.toPath()));
+        
+        // Shorter content from a larger buffer
+        assertTrue(GraficoUtils.writeBytesIfChanged(file, bytes2, 5));
+        assertEquals("Hello", new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+    }
 }
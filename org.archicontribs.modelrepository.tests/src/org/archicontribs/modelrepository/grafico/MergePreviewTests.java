@@ -0,0 +1,127 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class MergePreviewTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MergePreviewTests.class);
+    }
+    
+    private static final String PATH = "model/business/BusinessActor_actor.xml";
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "preview");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void getMergePreview_Conflicting() throws Exception {
+        createBranches("name=\"Alice\"", "name=\"Carol\"");
+        
+        MergePreview preview = new ArchiRepository(folder).getMergePreview();
+        assertTrue(preview.isConflicting());
+        assertEquals(Arrays.asList(PATH), preview.getConflictingFiles());
+        assertEquals(Arrays.asList("actor"), preview.getConflictingElements());
+        
+        // Nothing was changed
+        try(Git git = Git.open(folder)) {
+            assertTrue(git.status().call().isClean());
+            assertEquals("name=\"Alice\"", readActor());
+        }
+    }
+    
+    @Test
+    public void getMergePreview_MergedByGraficoMerger() throws Exception {
+        createBranches("name=\"Alice\"", "name=\"Bob\" documentation=\"Doc\"");
+        
+        MergePreview preview = new ArchiRepository(folder).getMergePreview();
+        assertFalse(preview.isConflicting());
+        assertTrue(preview.getConflictingFiles().isEmpty());
+    }
+    
+    @Test
+    public void getMergePreview_NoRemoteBranch() throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            writeActor("name=\"Bob\"");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Base").call();
+        }
+        
+        assertFalse(new ArchiRepository(folder).getMergePreview().isConflicting());
+    }
+    
+    /**
+     * Make a local master and a remote master that both changed the actor
+     */
+    private void createBranches(String ourAttributes, String theirAttributes) throws Exception {
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            writeActor("name=\"Bob\"");
+            git.add().addFilepattern(".").call();
+            git.commit().setMessage("Base").call();
+            git.branchCreate().setName("other").call();
+            
+            writeActor(ourAttributes);
+            git.commit().setAll(true).setMessage("Ours").call();
+            
+            git.checkout().setName("other").call();
+            writeActor(theirAttributes);
+            RevCommit theirs = git.commit().setAll(true).setMessage("Theirs").call();
+            
+            RefUpdate refUpdate = repository.updateRef(BranchStatus.remotePrefix + "master");
+            refUpdate.setNewObjectId(theirs);
+            refUpdate.forceUpdate();
+            
+            git.checkout().setName("master").call();
+        }
+    }
+    
+    // Each version on one line so that any two changes are a textual conflict
+    private void writeActor(String attributes) throws IOException {
+        File file = new File(folder, PATH);
+        file.getParentFile().mkdirs();
+        String xml = "<archimate:BusinessActor xmlns:archimate=\"http://www.archimatetool.com/archimate\" " + attributes + " id=\"actor\"/>\n";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private String readActor() throws IOException {
+        String xml = new String(Files.readAllBytes(new File(folder, PATH).toPath()), StandardCharsets.UTF_8);
+        return xml.substring(xml.indexOf("name="), xml.indexOf(" id="));
+    }
+}
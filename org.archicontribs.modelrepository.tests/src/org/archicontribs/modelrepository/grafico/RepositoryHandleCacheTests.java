@@ -0,0 +1,120 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class RepositoryHandleCacheTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RepositoryHandleCacheTests.class);
+    }
+    
+    private File folder;
+    private RepositoryHandleCache cache;
+    
+    @Before
+    public void runOnceBeforeEachTest() throws IOException {
+        folder = new File(GitHelper.getTempTestsFolder(), "handles");
+        GitHelper.createNewRepository(folder).close();
+        cache = new RepositoryHandleCache();
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        cache.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void open_SharesRepository() throws IOException {
+        Repository repository;
+        
+        try(Git git = cache.open(folder)) {
+            repository = git.getRepository();
+        }
+        
+        try(Git git = cache.open(folder)) {
+            assertSame(repository, git.getRepository());
+        }
+        
+        assertEquals(2, cache.getOpenCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+    
+    @Test
+    public void open_ConfigChangeOpensNewRepository() throws IOException {
+        Repository repository;
+        
+        try(Git git = cache.open(folder)) {
+            repository = git.getRepository();
+        }
+        
+        // Make sure that the file's time changes
+        File configFile = new File(folder, ".git/config");
+        configFile.setLastModified(configFile.lastModified() - 10000);
+        
+        try(Git git = cache.open(folder)) {
+            assertNotSame(repository, git.getRepository());
+        }
+        
+        assertEquals(2, cache.getMissCount());
+    }
+    
+    @Test
+    public void evict_NewRepositoryIsOpened() throws IOException {
+        Repository repository;
+        
+        try(Git git = cache.open(folder)) {
+            repository = git.getRepository();
+            
+            // Still in use so it is closed later
+            cache.evict(folder);
+        }
+        
+        try(Git git = cache.open(folder)) {
+            assertNotSame(repository, git.getRepository());
+        }
+    }
+    
+    @Test
+    public void release_IdleRepositoryIsClosedWithoutOpen() throws Exception {
+        cache.dispose();
+        cache = new RepositoryHandleCache(100);
+        
+        try(Git git = cache.open(folder)) {
+            // In use so it is kept
+            Thread.sleep(300);
+            assertEquals(1, cache.getHandleCount());
+        }
+        
+        // Closed by the Job after it has not been used for the idle timeout
+        for(int i = 0; i < 50 && cache.getHandleCount() > 0; i++) {
+            Thread.sleep(100);
+        }
+        
+        assertEquals(0, cache.getHandleCount());
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class RepositoryStateSnapshotTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RepositoryStateSnapshotTests.class);
+    }
+    
+    private File folder;
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "state");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void create_NoCommits() throws Exception {
+        GitHelper.createNewRepository(folder).close();
+        
+        RepositoryStateSnapshot state = RepositoryStateSnapshot.create(new ArchiRepository(folder));
+        assertNull(state.getHead());
+        assertEquals(0, state.getHeadParentCount());
+        assertFalse(state.isHeadAndRemoteSame());
+        assertTrue(state.getRefs().isEmpty());
+    }
+    
+    @Test
+    public void create_HeadAndRemote() throws Exception {
+        RevCommit commit;
+        
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            git.commit().setMessage("One").call();
+            commit = git.commit().setMessage("Two").call();
+            
+            // A remote branch at the same commit
+            RefUpdate refUpdate = repository.updateRef("refs/remotes/origin/master");
+            refUpdate.setNewObjectId(commit);
+            refUpdate.update();
+        }
+        
+        RepositoryStateSnapshot state = RepositoryStateSnapshot.create(new ArchiRepository(folder));
+        assertEquals(commit.getId(), state.getHead());
+        assertEquals("refs/heads/master", state.getCurrentBranch());
+        assertEquals("master", state.getCurrentBranchShortName());
+        assertEquals(1, state.getHeadParentCount());
+        assertEquals(commit.getId(), state.getRefId("refs/heads/master"));
+        assertEquals(commit.getId(), state.getCurrentRemoteBranchId());
+        assertTrue(state.isHeadAndRemoteSame());
+        assertFalse(state.hasLocalChanges());
+        
+        assertEquals(state, RepositoryStateSnapshot.create(new ArchiRepository(folder)));
+    }
+    
+    @Test
+    public void getSnapshot_OnlyReadsCacheUntilInvalidated() throws Exception {
+        IArchiRepository archiRepo = new ArchiRepository(folder);
+        RepositoryStatusEngine engine = new RepositoryStatusEngine();
+        
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = git.commit().setMessage("One").call();
+            
+            // The first time it's asked for the state is worked out in a job
+            engine.getSnapshot(archiRepo);
+            engine.join(archiRepo);
+            assertEquals(commit.getId(), engine.getSnapshot(archiRepo).getHead());
+            
+            // A change isn't seen until the repository is invalidated
+            git.branchCreate().setName("two").call();
+            assertNull(engine.getSnapshot(archiRepo).getRefId("refs/heads/two"));
+            
+            engine.invalidate(archiRepo);
+            engine.join(archiRepo);
+            assertEquals(commit.getId(), engine.getSnapshot(archiRepo).getRefId("refs/heads/two"));
+        }
+    }
+    
+    @Test
+    public void getCurrentSnapshot_NewBranchInSubFolder() throws Exception {
+        IArchiRepository archiRepo = new ArchiRepository(folder);
+        RepositoryStatusEngine engine = new RepositoryStatusEngine();
+        
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            RevCommit commit = git.commit().setMessage("One").call();
+            
+            git.branchCreate().setName("feature/one").call();
+            assertEquals(commit.getId(), engine.getCurrentSnapshot(archiRepo).getRefId("refs/heads/feature/one"));
+            
+            // Doesn't change the modification time of refs/heads
+            git.branchCreate().setName("feature/two").call();
+            assertEquals(commit.getId(), engine.getCurrentSnapshot(archiRepo).getRefId("refs/heads/feature/two"));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.views.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.archicontribs.modelrepository.GitHelper;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.archimatetool.editor.utils.FileUtils;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class CommitLoaderTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CommitLoaderTests.class);
+    }
+    
+    private static final String LOCAL_BRANCH = "refs/heads/master";
+    private static final String REMOTE_BRANCH = "refs/remotes/origin/master";
+    private static final int PAGE_SIZE = CommitLoader.PAGE_SIZE;
+    
+    private File folder;
+    private CommitLoader loader;
+    
+    // Released each time the loader has loaded or counted commits
+    private Semaphore loaded = new Semaphore(0);
+    
+    @Before
+    public void runOnceBeforeEachTest() {
+        folder = new File(GitHelper.getTempTestsFolder(), "history");
+    }
+    
+    @After
+    public void runOnceAfterEachTest() throws IOException {
+        if(loader != null) {
+            loader.dispose();
+        }
+        RepositoryHandleCache.INSTANCE.dispose();
+        FileUtils.deleteFolder(GitHelper.getTempTestsFolder());
+    }
+    
+    @Test
+    public void loadPage_FirstPageHasExtraRow() throws Exception {
+        List<RevCommit> commits = createCommits(PAGE_SIZE * 2 + 5);
+        loader = createLoader();
+        
+        assertEquals(PAGE_SIZE, loader.loadPage());
+        
+        // Newest first
+        assertEquals(commits.get(commits.size() - 1), loader.get(0));
+        assertNotNull(loader.get(PAGE_SIZE - 1));
+        assertNull(loader.get(PAGE_SIZE));
+        
+        // Not counted yet, so one more row than is loaded
+        assertEquals(PAGE_SIZE + 1, loader.getItemCount());
+        
+        assertEquals(PAGE_SIZE * 2, loader.loadPage());
+        assertEquals(PAGE_SIZE * 2 + 1, loader.getItemCount());
+    }
+    
+    @Test
+    public void loadPage_AllLoadedHasNoExtraRow() throws Exception {
+        createCommits(PAGE_SIZE + 5);
+        loader = createLoader();
+        
+        assertEquals(PAGE_SIZE, loader.loadPage());
+        assertEquals(PAGE_SIZE + 1, loader.getItemCount());
+        
+        assertEquals(Integer.MAX_VALUE, loader.loadPage());
+        assertEquals(PAGE_SIZE + 5, loader.getItemCount());
+        assertNotNull(loader.get(PAGE_SIZE + 4));
+        assertNull(loader.get(PAGE_SIZE + 5));
+        
+        // Nothing more to load
+        assertEquals(Integer.MAX_VALUE, loader.loadPage());
+    }
+    
+    @Test
+    public void loadPage_LessThanOnePage() throws Exception {
+        createCommits(5);
+        loader = createLoader();
+        
+        assertEquals(Integer.MAX_VALUE, loader.loadPage());
+        assertEquals(5, loader.getItemCount());
+    }
+    
+    @Test
+    public void loadTo_LoadsPastIndexInBackground() throws Exception {
+        List<RevCommit> commits = createCommits(PAGE_SIZE * 3 + 5);
+        loader = createLoader();
+        loader.loadPage();
+        
+        // A row past the loaded ones, such as the extra row
+        loader.loadTo(PAGE_SIZE);
+        waitForLoaded();
+        
+        // That row and another page after it
+        assertEquals(commits.get(commits.size() - 1 - PAGE_SIZE * 2), loader.get(PAGE_SIZE * 2));
+        assertEquals(PAGE_SIZE * 3 + 1, loader.getItemCount());
+        
+        // The rest
+        loader.loadTo(PAGE_SIZE * 3);
+        waitForLoaded();
+        assertEquals(commits.get(0), loader.get(PAGE_SIZE * 3 + 4));
+        assertEquals(PAGE_SIZE * 3 + 5, loader.getItemCount());
+    }
+    
+    @Test
+    public void count_SetsItemCount() throws Exception {
+        createCommits(PAGE_SIZE * 2 + 5);
+        loader = createLoader();
+        loader.loadPage();
+        
+        loader.count();
+        waitForLoaded();
+        
+        // All rows are shown before they are loaded
+        assertEquals(PAGE_SIZE * 2 + 5, loader.getItemCount());
+        assertNull(loader.get(PAGE_SIZE));
+    }
+    
+    @Test
+    public void loadPage_LocalAndRemoteBranches() throws Exception {
+        List<RevCommit> commits = createCommits(10);
+        
+        // The remote branch is at the last commit and the local branch is three commits behind
+        try(Git git = Git.open(folder)) {
+            Repository repository = git.getRepository();
+            setRef(repository, REMOTE_BRANCH, commits.get(9));
+            setRef(repository, LOCAL_BRANCH, commits.get(6));
+        }
+        
+        loader = createLoader();
+        assertEquals(commits.get(6), loader.getLocalCommit());
+        assertEquals(commits.get(9), loader.getOriginCommit());
+        
+        // The commits of both branches
+        assertEquals(Integer.MAX_VALUE, loader.loadPage());
+        assertEquals(10, loader.getItemCount());
+    }
+    
+    @Test
+    public void dispose_StopsLoading() throws Exception {
+        createCommits(PAGE_SIZE + 5);
+        loader = createLoader();
+        loader.loadPage();
+        
+        loader.dispose();
+        assertEquals(Integer.MAX_VALUE, loader.loadPage());
+        assertNotNull(loader.get(PAGE_SIZE - 1));
+        assertNull(loader.get(PAGE_SIZE));
+    }
+    
+    private CommitLoader createLoader() throws IOException {
+        return new CommitLoader(folder, LOCAL_BRANCH, REMOTE_BRANCH, commitLoader -> loaded.release());
+    }
+    
+    private void waitForLoaded() throws InterruptedException {
+        assertTrue("Not loaded", loaded.tryAcquire(30, TimeUnit.SECONDS));
+    }
+    
+    /**
+     * @return The commits, oldest first
+     */
+    private List<RevCommit> createCommits(int count) throws Exception {
+        List<RevCommit> commits = new ArrayList<RevCommit>();
+        
+        try(Repository repository = GitHelper.createNewRepository(folder); Git git = new Git(repository)) {
+            for(int i = 0; i < count; i++) {
+                commits.add(git.commit().setMessage("Commit " + i).call());
+            }
+        }
+        
+        return commits;
+    }
+    
+    private void setRef(Repository repository, String name, RevCommit commit) throws IOException {
+        RefUpdate refUpdate = repository.updateRef(name);
+        refUpdate.setNewObjectId(commit);
+        refUpdate.setForceUpdate(true);
+        refUpdate.update();
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.views.repositories;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+
+
+@SuppressWarnings("nls")
+public class FetchSchedulerTests {
+    
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FetchSchedulerTests.class);
+    }
+    
+    private static final ObjectId ID1 = ObjectId.fromString("1111111111111111111111111111111111111111");
+    private static final ObjectId ID2 = ObjectId.fromString("2222222222222222222222222222222222222222");
+    
+    @Test
+    public void getNextInterval_NewCommitsFetchSoon() {
+        assertEquals(FetchScheduler.MIN_INTERVAL, FetchScheduler.getNextInterval(FetchScheduler.MIN_INTERVAL, true));
+        assertEquals(FetchScheduler.MIN_INTERVAL, FetchScheduler.getNextInterval(FetchScheduler.MAX_INTERVAL, true));
+    }
+    
+    @Test
+    public void getNextInterval_NoNewCommitsBacksOff() {
+        long interval = FetchScheduler.MIN_INTERVAL;
+        
+        interval = FetchScheduler.getNextInterval(interval, false);
+        assertEquals(FetchScheduler.MIN_INTERVAL * 2, interval);
+        
+        interval = FetchScheduler.getNextInterval(interval, false);
+        assertEquals(FetchScheduler.MIN_INTERVAL * 4, interval);
+        
+        // Up to the longest interval
+        for(int i = 0; i < 20; i++) {
+            interval = FetchScheduler.getNextInterval(interval, false);
+            assertTrue(interval <= FetchScheduler.MAX_INTERVAL);
+        }
+        assertEquals(FetchScheduler.MAX_INTERVAL, interval);
+    }
+    
+    @Test
+    public void getFailureInterval_BacksOff() {
+        assertEquals(FetchScheduler.MIN_INTERVAL * 2, FetchScheduler.getFailureInterval(1));
+        assertEquals(FetchScheduler.MIN_INTERVAL * 4, FetchScheduler.getFailureInterval(2));
+        assertEquals(FetchScheduler.MIN_INTERVAL * 8, FetchScheduler.getFailureInterval(3));
+        
+        // Up to the longest interval, without overflowing the shift
+        assertEquals(FetchScheduler.MAX_INTERVAL, FetchScheduler.getFailureInterval(10));
+        assertEquals(FetchScheduler.MAX_INTERVAL, FetchScheduler.getFailureInterval(100));
+        assertEquals(FetchScheduler.MAX_INTERVAL, FetchScheduler.getFailureInterval(Integer.MAX_VALUE));
+    }
+    
+    @Test
+    public void isRemoteChanged() {
+        Map<String, ObjectId> remoteRefs = new HashMap<String, ObjectId>();
+        Map<String, ObjectId> localRefs = new HashMap<String, ObjectId>();
+        
+        assertFalse(FetchScheduler.isRemoteChanged(remoteRefs, localRefs));
+        
+        // New remote branch
+        remoteRefs.put("refs/remotes/origin/master", ID1);
+        assertTrue(FetchScheduler.isRemoteChanged(remoteRefs, localRefs));
+        
+        // Same
+        localRefs.put("refs/remotes/origin/master", ID1);
+        assertFalse(FetchScheduler.isRemoteChanged(remoteRefs, localRefs));
+        
+        // Remote branch moved
+        remoteRefs.put("refs/remotes/origin/master", ID2);
+        assertTrue(FetchScheduler.isRemoteChanged(remoteRefs, localRefs));
+        
+        // A branch deleted on the remote is ignored
+        remoteRefs.put("refs/remotes/origin/master", ID1);
+        localRefs.put("refs/remotes/origin/deleted", ID2);
+        assertFalse(FetchScheduler.isRemoteChanged(remoteRefs, localRefs));
+    }
+}
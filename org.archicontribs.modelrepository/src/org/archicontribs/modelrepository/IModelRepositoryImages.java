@@ -46,6 +46,7 @@ public interface IModelRepositoryImages {
     String ICON_LEFT_BALL_OVERLAY = IMGPATH + "left_ball_ovr.png"; //$NON-NLS-1$
     String ICON_RIGHT_BALL_OVERLAY = IMGPATH + "right_ball_ovr.png"; //$NON-NLS-1$
     String ICON_TOP_BALL_OVERLAY = IMGPATH + "top_ball_ovr.png"; //$NON-NLS-1$
+    String ICON_CONFLICT_OVERLAY = IMGPATH + "conflict_ovr.png"; //$NON-NLS-1$
     
     String ICON_LOCAL = IMGPATH + "local.png"; //$NON-NLS-1$
     String ICON_REMOTE = IMGPATH + "remote.png"; //$NON-NLS-1$
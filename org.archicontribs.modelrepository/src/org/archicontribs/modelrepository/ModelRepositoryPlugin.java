@@ -16,7 +16,9 @@ import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
@@ -58,6 +60,7 @@ public class ModelRepositoryPlugin extends AbstractUIPlugin implements PropertyC
     @Override
     public void stop(BundleContext context) throws Exception {
         IEditorModelManager.INSTANCE.removePropertyChangeListener(this);
+        RepositoryHandleCache.INSTANCE.dispose();
         super.stop(context);
     }
     
@@ -102,6 +105,7 @@ public class ModelRepositoryPlugin extends AbstractUIPlugin implements PropertyC
             IArchimateModel model = (IArchimateModel)evt.getNewValue();
             if(GraficoUtils.isModelInLocalRepository(model)) {
                 IArchiRepository repo = new ArchiRepository(GraficoUtils.getLocalRepositoryFolderForModel(model));
+                RepositoryStatusEngine.INSTANCE.invalidate(repo);
                 RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.REPOSITORY_CHANGED, repo);
             }
         }
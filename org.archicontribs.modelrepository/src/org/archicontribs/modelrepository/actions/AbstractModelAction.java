@@ -16,11 +16,12 @@ import org.archicontribs.modelrepository.dialogs.UserNamePasswordDialog;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.window.Window;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.IWorkbenchWindow;
 
@@ -65,6 +66,14 @@ public abstract class AbstractModelAction extends Action implements IGraficoMode
 	    return getRepository() != null && getRepository().getLocalRepositoryFolder().exists();
 	}
 	
+    /**
+     * @return The cached state of the repository, or null if it is not known yet. This doesn't read the repository
+     *         so it can be called when the selection changes. Views update their actions when a new state is known.
+     */
+    protected RepositoryStateSnapshot getRepositoryState() {
+        return getRepository() != null ? RepositoryStatusEngine.INSTANCE.getSnapshot(getRepository()) : null;
+    }
+	
     /**
      * Display an errror dialog
      * @param title
@@ -114,12 +123,12 @@ public abstract class AbstractModelAction extends Action implements IGraficoMode
             boolean amend = commitDialog.getAmend();
             
             try {
-                getRepository().commitChanges(commitMessage, amend);
+                getRepository().commitModel(commitMessage, amend);
 
                 // Save the checksum
                 getRepository().saveChecksum();
             }
-            catch(IOException | GitAPIException ex) {
+            catch(IOException ex) {
                 displayErrorDialog(Messages.AbstractModelAction_6, ex);
                 return false;
             }
@@ -164,6 +173,8 @@ public abstract class AbstractModelAction extends Action implements IGraficoMode
      * Notify that the repo changed
      */
     protected void notifyChangeListeners(String eventName) {
+        // The action changed the repo so its state has to be worked out again
+        RepositoryStatusEngine.INSTANCE.invalidate(getRepository());
         RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(eventName, getRepository());
     }
     
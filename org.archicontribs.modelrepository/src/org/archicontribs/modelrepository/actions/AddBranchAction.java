@@ -11,6 +11,7 @@ import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.dialogs.AddBranchDialog;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
 import org.eclipse.jface.dialogs.IDialogConstants;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jgit.api.Git;
@@ -48,7 +49,7 @@ public class AddBranchAction extends AbstractModelAction {
         
         String fullName = Constants.R_HEADS + branchName;
     	
-        try(Git git = Git.open(getRepository().getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getRepository().getLocalRepositoryFolder())) {
             // If the branch exists show error
             if(git.getRepository().findRef(fullName) != null) {
                 MessageDialog.openError(fWindow.getShell(),
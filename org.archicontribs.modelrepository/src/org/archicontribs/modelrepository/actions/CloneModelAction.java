@@ -115,11 +115,8 @@ public class CloneModelAction extends AbstractModelAction {
                 // And Save it
                 IEditorModelManager.INSTANCE.saveModel(model);
                 
-                // Export to Grafico
-                getRepository().exportModelToGraficoFiles();
-                
-                // And do a first commit
-                getRepository().commitChanges(Messages.CloneModelAction_3, false);
+                // And commit it straight to the repository as the first commit
+                getRepository().commitModel(Messages.CloneModelAction_3, false);
                 
                 // Save the checksum
                 getRepository().saveChecksum();
@@ -12,7 +12,6 @@ import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.ui.IWorkbenchWindow;
 
 import com.archimatetool.editor.model.IEditorModelManager;
@@ -57,18 +56,9 @@ public class CommitModelAction extends AbstractModelAction {
             }
         }
 
-        // Do the Grafico Export first
+        // Commit the model straight into the repository if it is different to HEAD
         try {
-            getRepository().exportModelToGraficoFiles();
-        }
-        catch(IOException | GitAPIException ex) {
-            displayErrorDialog(Messages.CommitModelAction_0, ex);
-            return;
-        }
-        
-        // Then Commit
-        try {
-            if(getRepository().hasChangesToCommit()) {
+            if(getRepository().hasModelChangesToCommit()) {
                 if(offerToCommitChanges()) {
                     notifyChangeListeners(IRepositoryListener.HISTORY_CHANGED);
                 }
@@ -79,7 +69,7 @@ public class CommitModelAction extends AbstractModelAction {
                         Messages.CommitModelAction_2);
             }
         }
-        catch(IOException | GitAPIException ex) {
+        catch(IOException ex) {
             displayErrorDialog(Messages.CommitModelAction_0, ex);
         }
     }
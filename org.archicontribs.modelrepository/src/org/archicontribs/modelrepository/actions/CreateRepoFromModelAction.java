@@ -97,11 +97,8 @@ public class CreateRepoFromModelAction extends AbstractModelAction {
             // And Save it
             IEditorModelManager.INSTANCE.saveModel(fModel);
             
-            // Export to Grafico
-            getRepository().exportModelToGraficoFiles();
-            
-            // Commit changes
-            getRepository().commitChanges(Messages.CreateRepoFromModelAction_5, false);
+            // Commit the model straight to the repository
+            getRepository().commitModel(Messages.CreateRepoFromModelAction_5, false);
             
             // Push
             Exception[] exception = new Exception[1];
@@ -12,6 +12,7 @@ import org.archicontribs.modelrepository.authentication.UsernamePassword;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.PushCommand;
@@ -64,7 +65,7 @@ public class DeleteBranchAction extends AbstractModelAction {
     }
     
     protected void deleteBranch(BranchInfo branchInfo) throws IOException, GitAPIException {
-        try(Git git = Git.open(getRepository().getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getRepository().getLocalRepositoryFolder())) {
             // Delete local branch and remote branch refs
             git.branchDelete().setBranchNames(branchInfo.getLocalBranchNameFor(),
                     branchInfo.getRemoteBranchNameFor()).setForce(true).call();
@@ -11,6 +11,7 @@ import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -58,6 +59,9 @@ public class DeleteModelAction extends AbstractModelAction {
                 }
             }
             
+            // Close the shared repository handle so that its files can be deleted
+            RepositoryHandleCache.INSTANCE.evict(getRepository().getLocalRepositoryFolder());
+            
             // Delete folder
             FileUtils.deleteFolder(getRepository().getLocalRepositoryFolder());
             
@@ -11,7 +11,10 @@ import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.authentication.UsernamePassword;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
 import org.archicontribs.modelrepository.merge.MergeConflictHandler;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -180,9 +183,12 @@ public class MergeBranchAction extends AbstractModelAction {
     }
     
     private int merge(BranchInfo currentBranch, BranchInfo branchToMerge) throws Exception {
-        try(Git git = Git.open(getRepository().getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getRepository().getLocalRepositoryFolder())) {
             ObjectId mergeBase = git.getRepository().resolve(branchToMerge.getShortName());
             
+            // Where HEAD was before the merge so that only the changes are applied to the model
+            ObjectId oldHead = git.getRepository().resolve(IGraficoConstants.HEAD);
+            
             String mergeMessage = NLS.bind(Messages.MergeBranchAction_2, branchToMerge.getShortName(), currentBranch.getShortName());
             
             MergeResult mergeResult = git.merge()
@@ -230,10 +236,12 @@ public class MergeBranchAction extends AbstractModelAction {
                 String dialogMessage = NLS.bind(Messages.MergeBranchAction_10,
                         branchToMerge.getShortName(), currentBranch.getShortName());
                 
-                boolean result = handler.openConflictsDialog(dialogMessage);
+                // No dialog if all of the conflicts were merged
+                boolean result = !handler.hasConflicts() || handler.openConflictsDialog(dialogMessage);
                 
                 if(result) {
                     handler.merge();
+                    oldHead = null; // The merged files are not a commit so load the model in full
                 }
                 // User cancelled - so we reset
                 else {
@@ -245,7 +253,7 @@ public class MergeBranchAction extends AbstractModelAction {
             
             // Reload the model from the Grafico XML files
             GraficoModelLoader loader = new GraficoModelLoader(getRepository());
-            loader.loadModel();
+            loader.reloadModel(oldHead);
             
             // Do a commit if needed
             if(getRepository().hasChangesToCommit()) {
@@ -268,15 +276,8 @@ public class MergeBranchAction extends AbstractModelAction {
     }
     
     private boolean isBranchRefSameAsCurrentBranchRef(BranchInfo branchInfo) {
-        try {
-            BranchInfo currentLocalBranch = getRepository().getBranchStatus().getCurrentLocalBranch();
-            return currentLocalBranch != null && currentLocalBranch.getRef().getObjectId().equals(branchInfo.getRef().getObjectId());
-        }
-        catch(IOException | GitAPIException ex) {
-            ex.printStackTrace();
-        }
-        
-        return false;
+        RepositoryStateSnapshot state = getRepositoryState();
+        return state != null && state.getCurrentBranch() != null && branchInfo.getRef().getObjectId().equals(state.getHead());
     }
 
     public void setBranch(BranchInfo branchInfo) {
@@ -116,6 +116,8 @@ public class Messages extends NLS {
 
     public static String ResetToRemoteCommitAction_4;
 
+    public static String ResetToRemoteCommitAction_5;
+
     public static String RestoreCommitAction_0;
 
     public static String RestoreCommitAction_1;
@@ -138,6 +140,8 @@ public class Messages extends NLS {
 
     public static String UndoLastCommitAction_1;
 
+    public static String UndoLastCommitAction_2;
+
     static {
         // initialize resource bundle
         NLS.initializeMessages(BUNDLE_NAME, Messages.class);
@@ -14,6 +14,7 @@ import org.archicontribs.modelrepository.grafico.ArchiRepository;
 import org.archicontribs.modelrepository.grafico.BranchStatus;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.merge.MergeConflictHandler;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -24,6 +25,7 @@ import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.errors.CanceledException;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.RefNotAdvertisedException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.osgi.util.NLS;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -121,6 +123,9 @@ public class RefreshModelAction extends AbstractModelAction {
         PullResult[] pullResult = new PullResult[1];
         Exception[] exception = new Exception[1];
         
+        // Where HEAD was before the pull so that only the changes are applied to the model
+        ObjectId oldHead = getRepository().resolveRef(IGraficoConstants.HEAD);
+        
         IProgressService ps = PlatformUI.getWorkbench().getProgressService();
         ps.busyCursorWhile(new IRunnableWithProgress() {
             @Override
@@ -196,10 +201,12 @@ public class RefreshModelAction extends AbstractModelAction {
             
             String dialogMessage = NLS.bind(Messages.RefreshModelAction_4, branchStatus.getCurrentLocalBranch().getShortName());
             
-            boolean result = handler.openConflictsDialog(dialogMessage);
+            // No dialog if all of the conflicts were merged
+            boolean result = !handler.hasConflicts() || handler.openConflictsDialog(dialogMessage);
 
             if(result) {
                 handler.merge();
+                oldHead = null; // The merged files are not a commit so load the model in full
             }
             // User cancelled - we assume they committed all changes so we can reset
             else {
@@ -211,7 +218,7 @@ public class RefreshModelAction extends AbstractModelAction {
         
         // Reload the model from the Grafico XML files
         GraficoModelLoader loader = new GraficoModelLoader(getRepository());
-        loader.loadModel();
+        loader.reloadModel(oldHead);
         
         // Do a commit if needed
         if(getRepository().hasChangesToCommit()) {
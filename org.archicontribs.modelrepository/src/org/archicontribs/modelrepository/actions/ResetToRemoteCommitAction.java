@@ -11,9 +11,13 @@ import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.BranchStatus;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.ui.IWorkbenchWindow;
 
 import com.archimatetool.editor.model.IEditorModelManager;
@@ -56,6 +60,9 @@ public class ResetToRemoteCommitAction extends UndoLastCommitAction {
             return;
         }
         
+        // Where HEAD is before the reset, if the working tree is the same as HEAD
+        ObjectId oldHead = null;
+        
         try {
             // If there are changes to commit then they'll have to be committed first or abandoned
             if(getRepository().hasChangesToCommit()) {
@@ -74,6 +81,8 @@ public class ResetToRemoteCommitAction extends UndoLastCommitAction {
                 if(!response) {
                     return;
                 }
+                
+                oldHead = getRepository().resolveRef(IGraficoConstants.HEAD);
             }
         }
         catch(IOException | GitAPIException ex) {
@@ -81,6 +90,21 @@ public class ResetToRemoteCommitAction extends UndoLastCommitAction {
             return;
         }
         
+        // The cached state that enabled this action may be out of date, such as if the remote branch was fetched since
+        try {
+            if(!canResetToRemote(RepositoryStatusEngine.INSTANCE.getCurrentSnapshot(getRepository()))) {
+                MessageDialog.openInformation(fWindow.getShell(),
+                        Messages.ResetToRemoteCommitAction_0,
+                        Messages.ResetToRemoteCommitAction_5);
+                update();
+                return;
+            }
+        }
+        catch(IOException ex) {
+            displayErrorDialog(Messages.ResetToRemoteCommitAction_0, ex);
+            return;
+        }
+        
         // Do it!
         try {
             BranchInfo currentRemoteBranch = getCurrentRemoteBranchInfo();
@@ -94,7 +118,7 @@ public class ResetToRemoteCommitAction extends UndoLastCommitAction {
 
         // Reload the model from the Grafico XML files
         try {
-            new GraficoModelLoader(getRepository()).loadModel();
+            new GraficoModelLoader(getRepository()).reloadModel(oldHead);
 
             // Save the checksum
             getRepository().saveChecksum();
@@ -108,25 +132,22 @@ public class ResetToRemoteCommitAction extends UndoLastCommitAction {
     
     @Override
     protected boolean shouldBeEnabled() {
-        try {
-            // Repository exists
-            // AND there is a remote ref for the current branch
-            // AND NOT head and remote the same
-            
-            if(getRepository() != null && getRepository().getLocalRepositoryFolder().exists()) {
-                BranchInfo currentRemoteBranch = getCurrentRemoteBranchInfo();
-                return currentRemoteBranch != null &&
-                       !getRepository().isHeadAndRemoteSame();
-            }
-            
-        }
-        catch(IOException | GitAPIException ex) {
-            ex.printStackTrace();
+        // Repository exists
+        // AND there is a remote ref for the current branch
+        // AND NOT head and remote the same
+        
+        if(getRepository() != null && getRepository().getLocalRepositoryFolder().exists()) {
+            return canResetToRemote(getRepositoryState());
         }
         
         return false;
     }
     
+    private boolean canResetToRemote(RepositoryStateSnapshot state) {
+        return state != null && state.getCurrentRemoteBranchId() != null &&
+               !state.isHeadAndRemoteSame();
+    }
+    
     private BranchInfo getCurrentRemoteBranchInfo() throws IOException, GitAPIException {
         BranchStatus status = getRepository().getBranchStatus();
         return status == null ? null : status.getCurrentRemoteBranch();
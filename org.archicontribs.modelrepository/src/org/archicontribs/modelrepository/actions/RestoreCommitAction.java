@@ -13,6 +13,8 @@ import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -81,7 +83,8 @@ public class RestoreCommitAction extends AbstractModelAction {
         }
         
         // Walk the tree and get the contents of the commit
-        try(Repository repository = Git.open(getRepository().getLocalRepositoryFolder()).getRepository()) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getRepository().getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
             try(TreeWalk treeWalk = new TreeWalk(repository)) {
                 treeWalk.addTree(fCommit.getTree());
                 treeWalk.setRecursive(true);
@@ -140,26 +143,15 @@ public class RestoreCommitAction extends AbstractModelAction {
             return false;
         }
         
-        boolean isHead = false;
-        try {
-            isHead = isCommitLocalHead();
-        }
-        catch(IOException ex) {
-            ex.printStackTrace();
-        }
-        
-        return fCommit != null && !isHead;
+        return fCommit != null && !isCommitLocalHead();
     }
     
-    protected boolean isCommitLocalHead() throws IOException {
+    protected boolean isCommitLocalHead() {
         if(fCommit == null) {
             return false;
         }
         
-        try(Repository repo = Git.open(getRepository().getLocalRepositoryFolder()).getRepository()) {
-            ObjectId headID = repo.resolve(IGraficoConstants.HEAD);
-            ObjectId commitID = fCommit.getId();
-            return commitID.equals(headID);
-        }
+        RepositoryStateSnapshot state = getRepositoryState();
+        return state != null && fCommit.getId().equals(state.getHead());
     }
 }
@@ -10,10 +10,13 @@ import java.io.IOException;
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.ui.IWorkbenchWindow;
 
@@ -96,7 +99,10 @@ public class SwitchBranchAction extends AbstractModelAction {
     }
     
     protected void switchBranch(BranchInfo branchInfo, boolean doReloadGrafico) throws IOException, GitAPIException {
-        try(Git git = Git.open(getRepository().getLocalRepositoryFolder())) {
+        // Where HEAD was before the switch so that only the changes are applied to the model
+        ObjectId oldHead = getRepository().resolveRef(IGraficoConstants.HEAD);
+        
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getRepository().getLocalRepositoryFolder())) {
             // If the branch is local just checkout
             if(branchInfo.isLocal()) {
                 git.checkout().setName(branchInfo.getFullName()).call();
@@ -117,7 +123,7 @@ public class SwitchBranchAction extends AbstractModelAction {
             
             // Reload the model from the Grafico XML files
             if(doReloadGrafico) {
-                new GraficoModelLoader(getRepository()).loadModel();
+                new GraficoModelLoader(getRepository()).reloadModel(oldHead);
                 
                 // Save the checksum
                 getRepository().saveChecksum();
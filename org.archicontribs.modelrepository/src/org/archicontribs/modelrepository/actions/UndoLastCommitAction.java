@@ -11,12 +11,11 @@ import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.GraficoModelLoader;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.ui.IWorkbenchWindow;
 
 import com.archimatetool.editor.model.IEditorModelManager;
@@ -54,11 +53,23 @@ public class UndoLastCommitAction extends AbstractModelAction {
         }
         
         try {
+            // The cached state that enabled this action may be out of date, such as if the commit was pushed since
+            if(!canUndoLastCommit(RepositoryStatusEngine.INSTANCE.getCurrentSnapshot(getRepository()))) {
+                MessageDialog.openInformation(fWindow.getShell(),
+                        Messages.UndoLastCommitAction_0,
+                        Messages.UndoLastCommitAction_2);
+                update();
+                return;
+            }
+            
+            // If the working tree is the same as HEAD only the changes of the last commit have to be undone in the model
+            ObjectId oldHead = getRepository().hasChangesToCommit() ? null : getRepository().resolveRef(IGraficoConstants.HEAD);
+            
             // Do it!
             getRepository().resetToRef("HEAD^"); //$NON-NLS-1$
             
             // Reload the model from the Grafico XML files
-            new GraficoModelLoader(getRepository()).loadModel();
+            new GraficoModelLoader(getRepository()).reloadModel(oldHead);
             
             // Save the checksum
             getRepository().saveChecksum();
@@ -76,40 +87,13 @@ public class UndoLastCommitAction extends AbstractModelAction {
             return false;
         }
         
-        // If HEAD commit count is 1 then there's nothing to undo
-        try(Repository repository = Git.open(getRepository().getLocalRepositoryFolder()).getRepository()) {
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                // We are interested in the HEAD
-                revWalk.markStart(revWalk.parseCommit(repository.resolve(IGraficoConstants.HEAD)));
-                
-                int count = 0;
-                for(@SuppressWarnings("unused") RevCommit c : revWalk) {
-                    count++;
-                    if(count > 1) {
-                        break;
-                    }
-                }
-                
-                revWalk.dispose();
-                
-                if(count == 1) {
-                    return false;
-                }
-            }
-        }
-        catch(IOException ex) {
-            ex.printStackTrace();
-        }
-        
-        // Otherwise...
-        try {
-            return !getRepository().isHeadAndRemoteSame();
-        }
-        catch(IOException | GitAPIException ex) {
-            ex.printStackTrace();
-        }
-        
-        return false;
+        return canUndoLastCommit(getRepositoryState());
+    }
+    
+    private boolean canUndoLastCommit(RepositoryStateSnapshot state) {
+        // If HEAD has no parent then there's nothing to undo
+        // And the commit can't be undone if it has been pushed
+        return state != null && state.getHeadParentCount() > 0 && !state.isHeadAndRemoteSame();
     }
 
 }
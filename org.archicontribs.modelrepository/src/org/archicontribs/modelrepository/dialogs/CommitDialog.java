@@ -8,21 +8,15 @@ package org.archicontribs.modelrepository.dialogs;
 import java.io.IOException;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
-import org.archicontribs.modelrepository.grafico.BranchInfo;
-import org.archicontribs.modelrepository.grafico.BranchStatus;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
-import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
 import org.eclipse.jface.dialogs.IMessageProvider;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
-import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
-import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridData;
@@ -49,12 +43,20 @@ public class CommitDialog extends ExtendedTitleAreaDialog {
     
     private Text fTextUserName, fTextUserEmail, fTextCommitMessage;
     private Button fAmendLastCommitCheckbox;
+    private Label fRepoLabel;
     
     private String fCommitMessage;
     private boolean fAmend;
     
     private IArchiRepository fRepository;
     
+    // Update the branch and amend option when the state of the repo has been worked out
+    private IRepositoryListener fStateListener = (eventName, repository) -> {
+        if(IRepositoryListener.STATE_CHANGED.equals(eventName) && repository.equals(fRepository) && !fAmendLastCommitCheckbox.isDisposed()) {
+            updateState(RepositoryStatusEngine.INSTANCE.getSnapshot(fRepository));
+        }
+    };
+    
     public CommitDialog(Shell parentShell, IArchiRepository repo) {
         super(parentShell, DIALOG_ID);
         setTitle(Messages.CommitDialog_0);
@@ -79,27 +81,11 @@ public class CommitDialog extends ExtendedTitleAreaDialog {
         container.setLayout(layout);
         
         // Repo and branch
-        String shortBranchName = "unknown"; //$NON-NLS-1$
-
-        try {
-            BranchStatus status = fRepository.getBranchStatus();
-            if(status != null) {
-                BranchInfo branchInfo = status.getCurrentLocalBranch();
-                if(branchInfo != null) {
-                    shortBranchName = branchInfo.getShortName();
-                }
-            }
-        }
-        catch(IOException | GitAPIException ex) {
-            ex.printStackTrace();
-        }
-                
         Label label = new Label(container, SWT.NONE);
         label.setText(Messages.CommitDialog_6);
         
-        label = new Label(container, SWT.NONE);
-        label.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
-        label.setText(fRepository.getName() + " [" + shortBranchName + "]"); //$NON-NLS-1$ //$NON-NLS-2$
+        fRepoLabel = new Label(container, SWT.NONE);
+        fRepoLabel.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
         
         // User name & email
         String userName = ""; //$NON-NLS-1$
@@ -149,13 +135,9 @@ public class CommitDialog extends ExtendedTitleAreaDialog {
         gd.horizontalSpan = 2;
         fAmendLastCommitCheckbox.setLayoutData(gd);
         
-        try {
-            fAmendLastCommitCheckbox.setEnabled(isAmendAllowed());
-        }
-        catch(IOException | GitAPIException ex) {
-            fAmendLastCommitCheckbox.setEnabled(false);
-            ex.printStackTrace();
-        }
+        // Cached state of the repo, updated by the listener when it has been worked out again in the background
+        updateState(RepositoryStatusEngine.INSTANCE.getSnapshot(fRepository));
+        RepositoryListenerManager.INSTANCE.addListener(fStateListener);
         
         if(!StringUtils.isSet(userName)) {
             fTextUserName.setFocus();
@@ -170,6 +152,32 @@ public class CommitDialog extends ExtendedTitleAreaDialog {
         return area;
     }
 
+    /**
+     * Show the branch and allow amending the last commit from the state of the repo
+     * @param state The state, or null if it is not known yet
+     */
+    private void updateState(RepositoryStateSnapshot state) {
+        String shortBranchName = "unknown"; //$NON-NLS-1$
+        
+        if(state != null && state.getCurrentBranch() != null) {
+            shortBranchName = state.getCurrentBranchShortName();
+        }
+        
+        fRepoLabel.setText(fRepository.getName() + " [" + shortBranchName + "]"); //$NON-NLS-1$ //$NON-NLS-2$
+        
+        boolean amendAllowed = state != null && isAmendAllowed(state);
+        fAmendLastCommitCheckbox.setEnabled(amendAllowed);
+        if(!amendAllowed) {
+            fAmendLastCommitCheckbox.setSelection(false);
+        }
+    }
+    
+    @Override
+    public boolean close() {
+        RepositoryListenerManager.INSTANCE.removeListener(fStateListener);
+        return super.close();
+    }
+
     @Override
     protected boolean isResizable() {
         return true;
@@ -222,27 +230,7 @@ public class CommitDialog extends ExtendedTitleAreaDialog {
      * If HEAD and remote are not the same AND
      * The latest local commit does not have more than one parent (i.e last commit was a merge)
      */
-    private boolean isAmendAllowed() throws IOException, GitAPIException {
-        return !fRepository.isHeadAndRemoteSame() && getLatestLocalCommitParentCount() < 2;
-    }
-    
-    private int getLatestLocalCommitParentCount() throws IOException {
-        try(Repository repository = Git.open(fRepository.getLocalRepositoryFolder()).getRepository()) {
-            Ref head = repository.exactRef(IGraficoConstants.HEAD);
-            if(head == null) {
-                return 0;
-            }
-            
-            ObjectId objectID = head.getObjectId();
-            if(objectID == null) {
-                return 0;
-            }
-
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                RevCommit commit = revWalk.parseCommit(objectID);
-                revWalk.dispose();
-                return commit.getParentCount();
-            }
-        }
+    private boolean isAmendAllowed(RepositoryStateSnapshot state) {
+        return !state.isHeadAndRemoteSame() && state.getHeadParentCount() < 2;
     }
 }
\ No newline at end of file
@@ -16,6 +16,8 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.stream.Stream;
 
 import org.eclipse.jgit.api.AddCommand;
@@ -25,6 +27,7 @@ import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.InitCommand;
+import org.eclipse.jgit.api.LsRemoteCommand;
 import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.PushCommand;
@@ -34,7 +37,6 @@ import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
-import org.eclipse.jgit.lib.BranchTrackingStatus;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
@@ -118,7 +120,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public String getOnlineRepositoryURL() throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             return git.getRepository().getConfig().getString("remote", IGraficoConstants.ORIGIN, "url"); //$NON-NLS-1$ //$NON-NLS-2$
         }
     }
@@ -138,15 +140,60 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public boolean hasChangesToCommit() throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             Status status = git.status().call();
             return !status.isClean();
         }
     }
     
+    @Override
+    public ObjectId resolveRef(String ref) throws IOException {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            return repository.resolve(ref);
+        }
+    }
+    
+    @Override
+    public GraficoElementIndex getElementIndex(String ref) throws IOException {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            ObjectId treeId = repository.resolve(ref + "^{tree}"); //$NON-NLS-1$
+            return treeId == null ? null : GraficoElementIndex.getIndex(repository, treeId);
+        }
+    }
+    
+    @Override
+    public GraficoDiff getDiff(String refA, String refB) throws IOException {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            
+            ObjectId treeA = refA == null ? null : repository.resolve(refA + "^{tree}"); //$NON-NLS-1$
+            ObjectId treeB = repository.resolve(refB + "^{tree}"); //$NON-NLS-1$
+            if((refA != null && treeA == null) || treeB == null) {
+                return null;
+            }
+            
+            return GraficoDiff.getDiff(repository, treeA, treeB);
+        }
+    }
+    
+    @Override
+    public MergePreview getMergePreview() throws IOException {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            
+            String branch = repository.getBranch();
+            ObjectId head = repository.resolve(IGraficoConstants.HEAD);
+            ObjectId remote = branch == null ? null : repository.resolve(BranchStatus.remotePrefix + branch);
+            
+            return MergePreview.getPreview(repository, head, remote);
+        }
+    }
+    
     @Override
     public RevCommit commitChanges(String commitMessage, boolean amend) throws GitAPIException, IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             Status status = git.status().call();
             
             // Nothing changed
@@ -171,8 +218,39 @@ public class ArchiRepository implements IArchiRepository {
             commitCommand.setAuthor(userDetails);
             commitCommand.setMessage(commitMessage);
             commitCommand.setAmend(amend);
-            return commitCommand.call();
+            RevCommit commit = commitCommand.call();
+            
+            // Add the new commit to the commit graph
+            CommitGraph.get(git.getRepository());
+            
+            return commit;
+        }
+    }
+    
+    @Override
+    public boolean hasModelChangesToCommit() throws IOException {
+        GraficoModelCommitter committer = new GraficoModelCommitter(openTempModel(), this);
+        return committer.hasChanges();
+    }
+    
+    @Override
+    public RevCommit commitModel(String commitMessage, boolean amend) throws IOException {
+        GraficoModelCommitter committer = new GraficoModelCommitter(openTempModel(), this);
+        return committer.commitModel(commitMessage, amend);
+    }
+    
+    /**
+     * @return The model opened from the temp model file
+     * @throws IOException if the model could not be opened
+     */
+    private IArchimateModel openTempModel() throws IOException {
+        IArchimateModel model = IEditorModelManager.INSTANCE.openModel(getTempModelFile());
+        
+        if(model == null) {
+            throw new IOException(Messages.ArchiRepository_0);
         }
+        
+        return model;
     }
     
     @Override
@@ -191,7 +269,7 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public Iterable<PushResult> pushToRemote(String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             PushCommand pushCommand = git.push();
             pushCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
             pushCommand.setProgressMonitor(monitor);
@@ -201,7 +279,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public PullResult pullFromRemote(String userName, String userPassword, ProgressMonitor monitor) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             PullCommand pullCommand = git.pull();
             pullCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
             pullCommand.setRebase(false); // Merge, not rebase
@@ -212,7 +290,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public FetchResult fetchFromRemote(String userName, String userPassword, ProgressMonitor monitor, boolean isDryrun) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             // Check and set tracked master branch
             setTrackedMasterBranch(git);
             
@@ -220,8 +298,33 @@ public class ArchiRepository implements IArchiRepository {
             fetchCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
             fetchCommand.setProgressMonitor(monitor);
             fetchCommand.setDryRun(isDryrun);
-            return fetchCommand.call();
+            FetchResult result = fetchCommand.call();
+            
+            // Add the fetched commits to the commit graph
+            CommitGraph.get(git.getRepository());
+            
+            return result;
+        }
+    }
+
+    @Override
+    public Map<String, ObjectId> getRemoteRefs(String userName, String userPassword) throws IOException, GitAPIException {
+        Map<String, ObjectId> refs = new HashMap<String, ObjectId>();
+        
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            LsRemoteCommand lsRemoteCommand = git.lsRemote();
+            lsRemoteCommand.setRemote(IGraficoConstants.ORIGIN);
+            lsRemoteCommand.setCredentialsProvider(new UsernamePasswordCredentialsProvider(userName, userPassword));
+            lsRemoteCommand.setHeads(true);
+            
+            for(Ref ref : lsRemoteCommand.call()) {
+                if(ref.getName().startsWith(BranchStatus.localPrefix) && ref.getObjectId() != null) {
+                    refs.put(BranchStatus.remotePrefix + ref.getName().substring(BranchStatus.localPrefix.length()), ref.getObjectId());
+                }
+            }
         }
+        
+        return refs;
     }
 
     @Override
@@ -252,7 +355,8 @@ public class ArchiRepository implements IArchiRepository {
     public byte[] getFileContents(String path, String ref) throws IOException {
         byte[] bytes = null;
         
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
             ObjectId lastCommitId = repository.resolve(ref);
 
             try(RevWalk revWalk = new RevWalk(repository)) {
@@ -287,7 +391,7 @@ public class ArchiRepository implements IArchiRepository {
     public String getWorkingTreeFileContents(String path) throws IOException {
         String str = ""; //$NON-NLS-1$
         
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             try(BufferedReader in = new BufferedReader(new FileReader(new File(getLocalRepositoryFolder(), path)))) {
                 String line;
                 while((line = in.readLine()) != null) {
@@ -301,7 +405,7 @@ public class ArchiRepository implements IArchiRepository {
 
     @Override
     public void resetToRef(String ref) throws IOException, GitAPIException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             // Reset to master
             ResetCommand resetCommand = git.reset();
             resetCommand.setRef(ref);
@@ -317,14 +421,15 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public boolean isHeadAndRemoteSame() throws IOException, GitAPIException {
-        try(Repository repository = Git.open(getLocalRepositoryFolder()).getRepository()) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
             // Get remote branch ref
             BranchStatus status = getBranchStatus();
             if(status == null) {
                 return false;
             }
             
-            BranchInfo currentRemoteBranch = getBranchStatus().getCurrentRemoteBranch();
+            BranchInfo currentRemoteBranch = status.getCurrentRemoteBranch();
             if(currentRemoteBranch == null) {
                 return false;
             }
@@ -346,41 +451,44 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public boolean hasUnpushedCommits(String branch) throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            BranchTrackingStatus trackingStatus = BranchTrackingStatus.of(git.getRepository(), branch);
-            if(trackingStatus != null) {
-                return trackingStatus.getAheadCount() > 0;
-            }
-            return false;
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            int[] counts = getTrackingCounts(git.getRepository(), branch);
+            return counts != null && counts[0] > 0;
         }
     }
 
     @Override
     public boolean hasRemoteCommits(String branch) throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
-            BranchTrackingStatus trackingStatus = BranchTrackingStatus.of(git.getRepository(), branch);
-            if(trackingStatus != null) {
-                return trackingStatus.getBehindCount() > 0;
-            }
-            return false;
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
+            int[] counts = getTrackingCounts(git.getRepository(), branch);
+            return counts != null && counts[1] > 0;
         }
     }
     
-    @Override
-    public void exportModelToGraficoFiles() throws IOException, GitAPIException {
-        // Open the model
-        IArchimateModel model = IEditorModelManager.INSTANCE.openModel(getTempModelFile());
+    /**
+     * @return The ahead and behind counts of a local branch and its remote branch from the commit graph,
+     *         or null if the branch has no remote branch
+     */
+    private int[] getTrackingCounts(Repository repository, String branch) throws IOException {
+        String shortName = Repository.shortenRefName(branch);
         
-        if(model == null) {
-            throw new IOException(Messages.ArchiRepository_0);
+        Ref localRef = repository.exactRef(BranchStatus.localPrefix + shortName);
+        Ref remoteRef = repository.exactRef(BranchStatus.remotePrefix + shortName);
+        if(localRef == null || remoteRef == null) {
+            return null;
         }
         
-        GraficoModelExporter exporter = new GraficoModelExporter(model, getLocalRepositoryFolder());
-        exporter.exportModel();
+        return CommitGraph.get(repository).countAheadBehind(localRef.getObjectId(), remoteRef.getObjectId());
+    }
+    
+    @Override
+    public void exportModelToGraficoFiles() throws IOException, GitAPIException {
+        GraficoModelExporter exporter = new GraficoModelExporter(openTempModel(), getLocalRepositoryFolder());
+        exporter.exportModelIncremental();
         
         // Stage modified files to index
         // This will clear any different line endings
-        try (Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             AddCommand addCommand = git.add();
             addCommand.addFilepattern("."); //$NON-NLS-1$
             addCommand.setUpdate(false);
@@ -390,7 +498,7 @@ public class ArchiRepository implements IArchiRepository {
     
     @Override
     public PersonIdent getUserDetails() throws IOException {
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             StoredConfig config = git.getRepository().getConfig();
             String name = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_NAME));
             String email = StringUtils.safeString(config.getString(ConfigConstants.CONFIG_USER_SECTION, null, ConfigConstants.CONFIG_KEY_EMAIL));
@@ -411,7 +519,7 @@ public class ArchiRepository implements IArchiRepository {
         }
         
         // Save to local config
-        try(Git git = Git.open(getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(getLocalRepositoryFolder())) {
             StoredConfig config = git.getRepository().getConfig();
             
             // If global name == local name or blank then unset
@@ -443,6 +551,11 @@ public class ArchiRepository implements IArchiRepository {
         return false;
     }
     
+    @Override
+    public int hashCode() {
+        return fLocalRepoFolder != null ? fLocalRepoFolder.hashCode() : 0;
+    }
+    
     /**
      * Set Line endings in the config file to autocrlf=input
      * This ensures that files are not seen as different
@@ -7,6 +7,7 @@ package org.archicontribs.modelrepository.grafico;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 import org.eclipse.jgit.lib.BranchConfig;
 import org.eclipse.jgit.lib.Constants;
@@ -30,19 +31,31 @@ public class BranchInfo {
     
     private File repoDir; 
     
+    private BranchStatus branchStatus;
+    private int aheadCount;
+    private int behindCount;
+    
     private final static String REMOTE = Constants.R_REMOTES + IGraficoConstants.ORIGIN + "/"; //$NON-NLS-1$
 
-    BranchInfo(Repository repository, Ref ref) throws IOException {
+    /**
+     * @param branchStatus The BranchStatus that this belongs to
+     * @param repository The repository
+     * @param ref The branch ref
+     * @param refs All refs of the repository keyed by full name
+     * @param fullBranch The full name of the current branch
+     */
+    BranchInfo(BranchStatus branchStatus, Repository repository, Ref ref, Map<String, Ref> refs, String fullBranch) {
+        this.branchStatus = branchStatus;
         this.ref = ref;
         
         repoDir = repository.getDirectory();
         
-        hasLocalRef = getHasLocalRef(repository);
-        hasRemoteRef = getHasRemoteRef(repository);
-        hasTrackedRef = getHasTrackedRef(repository);
+        hasLocalRef = refs.containsKey(getLocalBranchNameFor());
+        hasRemoteRef = refs.containsKey(getRemoteBranchNameFor());
+        hasTrackedRef = isRemote() ? hasLocalRef : hasRemoteRef;
 
         isRemoteDeleted = getIsRemoteDeleted(repository);
-        isCurrentBranch = getIsCurrentBranch(repository);
+        isCurrentBranch = getFullName().equals(fullBranch);
     }
     
     public Ref getRef() {
@@ -95,21 +108,28 @@ public class BranchInfo {
     public String getLocalBranchNameFor() {
         return BranchStatus.localPrefix + getShortName();
     }
-
-    private boolean getHasLocalRef(Repository repository) throws IOException {
-        return repository.findRef(getLocalBranchNameFor()) != null;
+    
+    /**
+     * @return The number of commits in this local branch that are not in its remote branch
+     * @throws IOException
+     */
+    public int getAheadCount() throws IOException {
+        branchStatus.computeTrackingCounts();
+        return aheadCount;
     }
-
-    private boolean getHasRemoteRef(Repository repository) throws IOException {
-        return repository.findRef(getRemoteBranchNameFor()) != null;
+    
+    /**
+     * @return The number of commits in the remote branch that are not in this local branch
+     * @throws IOException
+     */
+    public int getBehindCount() throws IOException {
+        branchStatus.computeTrackingCounts();
+        return behindCount;
     }
-
-    private boolean getHasTrackedRef(Repository repository) throws IOException {
-        if(isRemote()) {
-            return getHasLocalRef(repository);
-        }
-        
-        return getHasRemoteRef(repository);
+    
+    void setTrackingCounts(int aheadCount, int behindCount) {
+        this.aheadCount = aheadCount;
+        this.behindCount = behindCount;
     }
     
     /*
@@ -118,7 +138,7 @@ public class BranchInfo {
      * 2. We are tracking it
      * 3. But it does not have a remote branch ref
      */
-    private boolean getIsRemoteDeleted(Repository repository) throws IOException {
+    private boolean getIsRemoteDeleted(Repository repository) {
         if(isRemote()) {
             return false;
         }
@@ -127,15 +147,8 @@ public class BranchInfo {
         BranchConfig branchConfig = new BranchConfig(repository.getConfig(), getShortName());
         boolean isBeingTracked = branchConfig.getRemoteTrackingBranch() != null;
         
-        // Does it have a remote ref?
-        boolean hasNoRemoteBranchFor = repository.findRef(getRemoteBranchNameFor()) == null;
-        
         // Is being tracked but no remote ref
-        return isBeingTracked && hasNoRemoteBranchFor;
-    }
-
-    private boolean getIsCurrentBranch(Repository repository) throws IOException {
-        return getFullName().equals(repository.getFullBranch());
+        return isBeingTracked && !hasRemoteRef;
     }
     
     private String getShortName(String branchName) {
@@ -5,6 +5,7 @@
  */
 package org.archicontribs.modelrepository.grafico;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -12,14 +13,18 @@ import java.util.List;
 import java.util.Map;
 
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ListBranchCommand.ListMode;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 
 /**
  * Status of Branches
  * 
+ * All refs are read in one go and the status of each branch is worked out from them.
+ * The ahead and behind counts of local branches are only worked out when they are first asked for.
+ * 
  * @author Phillip Beauvoir
  */
 public class BranchStatus {
@@ -32,18 +37,30 @@ public class BranchStatus {
     private BranchInfo currentLocalBranch;
     private BranchInfo currentRemoteBranch;
     
+    private File localRepoFolder;
+    private boolean hasTrackingCounts;
+    
     BranchStatus(IArchiRepository archiRepo) throws IOException, GitAPIException {
-        try(Git git = Git.open(archiRepo.getLocalRepositoryFolder())) {
+        localRepoFolder = archiRepo.getLocalRepositoryFolder();
+        
+        try(Git git = RepositoryHandleCache.INSTANCE.open(localRepoFolder)) {
             Repository repository = git.getRepository();
+            
+            // All refs at once
+            Map<String, Ref> refs = repository.getRefDatabase().getRefs(RefDatabase.ALL);
+            String head = repository.getFullBranch();
 
-            // Get all known branches
-            for(Ref ref : git.branchList().setListMode(ListMode.ALL).call()) {
-                BranchInfo info = new BranchInfo(repository, ref);
-                infos.put(info.getFullName(), info);
+            // Get all known branches and HEAD if it's detached
+            for(Ref ref : refs.values()) {
+                String name = ref.getName();
+                if(name.startsWith(Constants.R_HEADS) || name.startsWith(Constants.R_REMOTES)
+                        || (name.equals(Constants.HEAD) && !ref.isSymbolic())) {
+                    BranchInfo info = new BranchInfo(this, repository, ref, refs, head);
+                    infos.put(info.getFullName(), info);
+                }
             }
             
             // Get current local branch
-            String head = repository.getFullBranch();
             if(head != null) {
                 currentLocalBranch = infos.get(head);
             }
@@ -115,4 +132,38 @@ public class BranchStatus {
     public BranchInfo getCurrentRemoteBranch() {
         return currentRemoteBranch;
     }
+    
+    /**
+     * Work out the ahead and behind counts of all local branches that have a remote branch.
+     * The counts are taken from the commit graph so that commits are not parsed.
+     */
+    synchronized void computeTrackingCounts() throws IOException {
+        if(hasTrackingCounts) {
+            return;
+        }
+        
+        try(Git git = RepositoryHandleCache.INSTANCE.open(localRepoFolder)) {
+            CommitGraph graph = CommitGraph.get(git.getRepository());
+            
+            for(BranchInfo branch : infos.values()) {
+                BranchInfo remoteBranch = branch.isLocal() ? infos.get(branch.getRemoteBranchNameFor()) : null;
+                
+                // Not tracked
+                if(remoteBranch == null) {
+                    branch.setTrackingCounts(0, 0);
+                    continue;
+                }
+                
+                int[] counts = graph.countAheadBehind(branch.getRef().getObjectId(), remoteBranch.getRef().getObjectId());
+                if(counts != null) {
+                    branch.setTrackingCounts(counts[0], counts[1]);
+                }
+                else {
+                    branch.setTrackingCounts(0, 0);
+                }
+            }
+        }
+        
+        hasTrackingCounts = true;
+    }
 }
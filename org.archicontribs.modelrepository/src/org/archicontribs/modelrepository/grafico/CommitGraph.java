@@ -0,0 +1,865 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Graph of the commits of a repository, so that history, ahead and behind counts and the parents of a commit
+ * can be worked out without parsing commit objects.
+ *
+ * For each commit it holds its parents, commit time, generation number and short message. The generation number of a
+ * commit is one more than the highest generation number of its parents, so a commit can't be reached from one with a
+ * lower or the same generation number and walks can stop early.
+ *
+ * The graph is saved in the .git folder and memory-mapped when it is loaded. It only grows - when the refs have commits
+ * that are not in it, only those commits are parsed and added. Adding commits to the graph file means writing all of it
+ * again, so new commits are appended to a delta file and kept in memory instead. The graph file is only rebuilt with
+ * them when the delta has grown to an eighth of the graph, which keeps the cost of adding a commit to a few records.
+ *
+ * @author Phillip Beauvoir
+ */
+public class CommitGraph {
+    
+    /**
+     * File name of the saved graph in the .git folder
+     */
+    static final String GRAPH_FILENAME = "grafico-commit-graph"; //$NON-NLS-1$
+    
+    /**
+     * Suffix of the file name of the commits added since the graph file was rebuilt
+     */
+    static final String DELTA_SUFFIX = "-delta"; //$NON-NLS-1$
+    
+    private static final int MAGIC = 0x41434731; // "ACG1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    
+    // commit time, generation, first parent, second parent, message offset
+    private static final int RECORD_SIZE = 20;
+    
+    // Delta record without the parents and message: id, commit time, generation, number of parents, message length
+    private static final int DELTA_RECORD_SIZE = Constants.OBJECT_ID_LENGTH + 14;
+    
+    // Fewest commits in the delta before the graph file is rebuilt
+    private static final int MIN_DELTA_SIZE = 1000;
+    
+    // No parent
+    private static final int NO_PARENT = -1;
+    
+    // Set in the second parent if it is an index into the extra parents of an octopus merge
+    private static final int EXTRA_PARENTS = 0x80000000;
+    
+    // Set on the last of a commit's extra parents
+    private static final int LAST_PARENT = 0x80000000;
+    
+    // Flags of the commits walked when counting ahead and behind
+    private static final int LOCAL = 1;
+    private static final int REMOTE = 2;
+    private static final int BOTH = LOCAL | REMOTE;
+    private static final int QUEUED = 4;
+    
+    // Longest short message kept in bytes
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+    
+    private static final Map<File, CommitGraph> graphs = new HashMap<File, CommitGraph>();
+    
+    /**
+     * Get the commit graph of a repository, brought up to date with its branches
+     * @param repository The repository
+     * @return The commit graph
+     * @throws IOException
+     */
+    public static CommitGraph get(Repository repository) throws IOException {
+        CommitGraph graph;
+        
+        synchronized(graphs) {
+            File key = repository.getDirectory().getAbsoluteFile();
+            graph = graphs.get(key);
+            if(graph == null) {
+                graph = new CommitGraph(new File(key, GRAPH_FILENAME));
+                graphs.put(key, graph);
+            }
+        }
+        
+        graph.update(repository);
+        
+        return graph;
+    }
+    
+    /**
+     * A commit that is being added
+     */
+    private static class Node {
+        ObjectId id;
+        int commitTime;
+        int generation;
+        ObjectId[] parents;
+        byte[] message;
+        
+        // Positions of the parents that are in the graph, for commits in the delta
+        int[] parentPositions;
+    }
+    
+    private File fGraphFile;
+    private File fDeltaFile;
+    
+    private boolean fLoaded;
+    
+    // The graph, either memory-mapped from the file or in memory after a rebuild
+    private ByteBuffer fBuffer;
+    
+    // Number of commits in the graph file
+    private int fCount;
+    private int fRecordsStart;
+    private int fExtraStart;
+    private int fMessagesStart;
+    
+    // Commits added since the graph file was rebuilt, in the order that they were added. Their positions follow the file's commits.
+    private List<Node> fDelta = new ArrayList<Node>();
+    
+    // Indexes into fDelta sorted by commit id
+    private int[] fDeltaSorted = new int[0];
+    
+    CommitGraph(File graphFile) {
+        fGraphFile = graphFile;
+        fDeltaFile = new File(graphFile.getParentFile(), graphFile.getName() + DELTA_SUFFIX);
+    }
+    
+    /**
+     * Add the commits of the local and remote branches and HEAD that are not in the graph
+     * @param repository The repository
+     * @throws IOException
+     */
+    synchronized void update(Repository repository) throws IOException {
+        if(!fLoaded) {
+            load();
+            fLoaded = true;
+        }
+        
+        // Branch tips that are not in the graph
+        Deque<ObjectId> pending = new ArrayDeque<ObjectId>();
+        for(Ref ref : repository.getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+            String name = ref.getName();
+            if(ref.getObjectId() != null && (name.startsWith(Constants.R_HEADS) || name.startsWith(Constants.R_REMOTES))
+                    && find(ref.getObjectId()) < 0) {
+                pending.push(ref.getObjectId());
+            }
+        }
+        
+        Ref head = repository.exactRef(Constants.HEAD);
+        if(head != null && head.getObjectId() != null && find(head.getObjectId()) < 0) {
+            pending.push(head.getObjectId());
+        }
+        
+        if(pending.isEmpty()) {
+            return;
+        }
+        
+        // Parse the new commits and their new ancestors
+        Map<ObjectId, Node> nodes = new HashMap<ObjectId, Node>();
+        
+        try(RevWalk revWalk = new RevWalk(repository)) {
+            while(!pending.isEmpty()) {
+                ObjectId id = pending.pop();
+                if(nodes.containsKey(id) || find(id) >= 0) {
+                    continue;
+                }
+                
+                RevCommit commit;
+                try {
+                    commit = revWalk.parseCommit(id);
+                }
+                // Not a commit, or beyond a shallow clone
+                catch(MissingObjectException | IncorrectObjectTypeException ex) {
+                    continue;
+                }
+                
+                Node node = new Node();
+                node.id = commit.copy();
+                node.commitTime = commit.getCommitTime();
+                node.message = getMessageBytes(commit.getShortMessage());
+                
+                node.parents = new ObjectId[commit.getParentCount()];
+                for(int i = 0; i < node.parents.length; i++) {
+                    node.parents[i] = commit.getParent(i).copy();
+                    pending.push(node.parents[i]);
+                }
+                
+                nodes.put(node.id, node);
+                
+                // Free the parsed commit's body
+                commit.disposeBody();
+            }
+        }
+        
+        if(!nodes.isEmpty()) {
+            setGenerations(nodes);
+            
+            if(fDelta.size() + nodes.size() > Math.max(MIN_DELTA_SIZE, fCount / 8)) {
+                rebuild(nodes.values());
+                save();
+            }
+            else {
+                addToDelta(nodes.values());
+                appendToDeltaFile(nodes.values());
+            }
+        }
+    }
+    
+    /**
+     * @param id A commit id
+     * @return The position of the commit in the graph, or -1 if it is not in the graph
+     */
+    public synchronized int find(AnyObjectId id) {
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        id.copyRawTo(raw, 0);
+        
+        int low = 0;
+        int high = fCount - 1;
+        
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(mid, raw);
+            if(cmp < 0) {
+                low = mid + 1;
+            }
+            else if(cmp > 0) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        
+        // Not in the file so look in the delta
+        low = 0;
+        high = fDeltaSorted.length - 1;
+        
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = fDelta.get(fDeltaSorted[mid]).id.compareTo(id);
+            if(cmp < 0) {
+                low = mid + 1;
+            }
+            else if(cmp > 0) {
+                high = mid - 1;
+            }
+            else {
+                return fCount + fDeltaSorted[mid];
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * @return The number of commits in the graph
+     */
+    public synchronized int size() {
+        return fCount + fDelta.size();
+    }
+    
+    public synchronized ObjectId getId(int pos) {
+        if(pos >= fCount) {
+            return fDelta.get(pos - fCount).id;
+        }
+        
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        for(int i = 0; i < raw.length; i++) {
+            raw[i] = fBuffer.get(HEADER_SIZE + pos * Constants.OBJECT_ID_LENGTH + i);
+        }
+        return ObjectId.fromRaw(raw);
+    }
+    
+    /**
+     * @return The commit time in seconds since the epoch
+     */
+    public synchronized int getCommitTime(int pos) {
+        if(pos >= fCount) {
+            return fDelta.get(pos - fCount).commitTime;
+        }
+        return fBuffer.getInt(fRecordsStart + pos * RECORD_SIZE);
+    }
+    
+    public synchronized int getGeneration(int pos) {
+        if(pos >= fCount) {
+            return fDelta.get(pos - fCount).generation;
+        }
+        return fBuffer.getInt(fRecordsStart + pos * RECORD_SIZE + 4);
+    }
+    
+    /**
+     * @return The positions of the parents of the commit
+     */
+    public synchronized int[] getParents(int pos) {
+        if(pos >= fCount) {
+            return fDelta.get(pos - fCount).parentPositions.clone();
+        }
+        
+        int first = fBuffer.getInt(fRecordsStart + pos * RECORD_SIZE + 8);
+        int second = fBuffer.getInt(fRecordsStart + pos * RECORD_SIZE + 12);
+        
+        if(first == NO_PARENT) {
+            return new int[0];
+        }
+        
+        if(second == NO_PARENT) {
+            return new int[] { first };
+        }
+        
+        if((second & EXTRA_PARENTS) == 0) {
+            return new int[] { first, second };
+        }
+        
+        List<Integer> parents = new ArrayList<Integer>();
+        parents.add(first);
+        
+        int index = second & ~EXTRA_PARENTS;
+        int value;
+        do {
+            value = fBuffer.getInt(fExtraStart + index++ * 4);
+            parents.add(value & ~LAST_PARENT);
+        }
+        while((value & LAST_PARENT) == 0);
+        
+        int[] result = new int[parents.size()];
+        for(int i = 0; i < result.length; i++) {
+            result[i] = parents.get(i);
+        }
+        
+        return result;
+    }
+    
+    public synchronized String getShortMessage(int pos) {
+        if(pos >= fCount) {
+            return new String(fDelta.get(pos - fCount).message, StandardCharsets.UTF_8);
+        }
+        
+        int offset = fMessagesStart + fBuffer.getInt(fRecordsStart + pos * RECORD_SIZE + 16);
+        int length = fBuffer.getShort(offset) & 0xFFFF;
+        
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) {
+            bytes[i] = fBuffer.get(offset + 2 + i);
+        }
+        
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Count the commits that only one of two commits can reach, such as a local branch and its remote branch.
+     * Both are walked down together, highest generation first, until every commit left is reached by both.
+     * @param local The first commit
+     * @param remote The second commit
+     * @return The number of commits reached only by local and the number reached only by remote,
+     *         or null if either commit is not in the graph
+     */
+    public synchronized int[] countAheadBehind(AnyObjectId local, AnyObjectId remote) {
+        int localPos = find(local);
+        int remotePos = find(remote);
+        if(localPos < 0 || remotePos < 0) {
+            return null;
+        }
+        
+        int[] counts = new int[2];
+        if(localPos == remotePos) {
+            return counts;
+        }
+        
+        byte[] flags = new byte[size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>((a, b) -> Integer.compare(getGeneration(b), getGeneration(a)));
+        
+        flags[localPos] = LOCAL | QUEUED;
+        flags[remotePos] = REMOTE | QUEUED;
+        queue.add(localPos);
+        queue.add(remotePos);
+        
+        // Number of queued commits that are not reached by both
+        int notBoth = 2;
+        
+        while(notBoth > 0) {
+            int pos = queue.poll();
+            int flag = flags[pos] & BOTH;
+            
+            // All of the commits that reach this one have been walked so its flags are final
+            if(flag != BOTH) {
+                notBoth--;
+                counts[flag == LOCAL ? 0 : 1]++;
+            }
+            
+            for(int parent : getParents(pos)) {
+                int parentFlag = flags[parent];
+                
+                if((parentFlag & QUEUED) == 0) {
+                    flags[parent] = (byte)(flag | QUEUED);
+                    queue.add(parent);
+                    if(flag != BOTH) {
+                        notBoth++;
+                    }
+                }
+                else if((parentFlag & flag) != flag) {
+                    flags[parent] |= flag;
+                    if((flags[parent] & BOTH) == BOTH) {
+                        notBoth--;
+                    }
+                }
+            }
+        }
+        
+        return counts;
+    }
+    
+    /**
+     * @param ids Commit ids
+     * @return The number of commits that can be reached from the commits, or -1 if one of them is not in the graph
+     */
+    public synchronized int countReachable(Collection<? extends AnyObjectId> ids) {
+        boolean[] seen = new boolean[size()];
+        Deque<Integer> stack = new ArrayDeque<Integer>();
+        
+        for(AnyObjectId id : ids) {
+            int pos = find(id);
+            if(pos < 0) {
+                return -1;
+            }
+            stack.push(pos);
+        }
+        
+        int count = 0;
+        
+        while(!stack.isEmpty()) {
+            int pos = stack.pop();
+            if(seen[pos]) {
+                continue;
+            }
+            
+            seen[pos] = true;
+            count++;
+            
+            for(int parent : getParents(pos)) {
+                if(!seen[parent]) {
+                    stack.push(parent);
+                }
+            }
+        }
+        
+        return count;
+    }
+    
+    /**
+     * Work out the generation numbers of the new commits, parents first
+     */
+    private void setGenerations(Map<ObjectId, Node> nodes) {
+        Deque<Node> stack = new ArrayDeque<Node>();
+        
+        for(Node node : nodes.values()) {
+            if(node.generation > 0) {
+                continue;
+            }
+            
+            stack.push(node);
+            
+            while(!stack.isEmpty()) {
+                Node top = stack.peek();
+                int generation = 0;
+                boolean hasNewParents = false;
+                
+                for(ObjectId parentId : top.parents) {
+                    Node parent = nodes.get(parentId);
+                    if(parent != null) {
+                        if(parent.generation == 0) {
+                            stack.push(parent);
+                            hasNewParents = true;
+                        }
+                        else {
+                            generation = Math.max(generation, parent.generation);
+                        }
+                    }
+                    else {
+                        int pos = find(parentId);
+                        if(pos >= 0) {
+                            generation = Math.max(generation, getGeneration(pos));
+                        }
+                    }
+                }
+                
+                if(!hasNewParents) {
+                    top.generation = generation + 1;
+                    stack.pop();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Add new commits to the delta
+     */
+    private void addToDelta(Collection<Node> nodes) {
+        int start = fDelta.size();
+        fDelta.addAll(nodes);
+        
+        List<Integer> sorted = new ArrayList<Integer>(fDelta.size());
+        for(int i = 0; i < fDelta.size(); i++) {
+            sorted.add(i);
+        }
+        sorted.sort((a, b) -> fDelta.get(a).id.compareTo(fDelta.get(b).id));
+        
+        fDeltaSorted = new int[sorted.size()];
+        for(int i = 0; i < fDeltaSorted.length; i++) {
+            fDeltaSorted[i] = sorted.get(i);
+        }
+        
+        // Parents beyond a shallow clone are not in the graph
+        for(int i = start; i < fDelta.size(); i++) {
+            Node node = fDelta.get(i);
+            List<Integer> parents = new ArrayList<Integer>();
+            for(ObjectId parentId : node.parents) {
+                int parentPos = find(parentId);
+                if(parentPos >= 0) {
+                    parents.add(parentPos);
+                }
+            }
+            
+            node.parentPositions = new int[parents.size()];
+            for(int j = 0; j < node.parentPositions.length; j++) {
+                node.parentPositions[j] = parents.get(j);
+            }
+        }
+    }
+    
+    /**
+     * Make a new graph of the commits in this graph, including the delta, and the new commits
+     */
+    private void rebuild(Collection<Node> newNodes) {
+        List<Node> nodes = new ArrayList<Node>(size() + newNodes.size());
+        
+        for(int pos = 0; pos < size(); pos++) {
+            Node node = new Node();
+            node.id = getId(pos);
+            node.commitTime = getCommitTime(pos);
+            node.generation = getGeneration(pos);
+            node.message = getMessageBytes(getShortMessage(pos));
+            
+            int[] parents = getParents(pos);
+            node.parents = new ObjectId[parents.length];
+            for(int i = 0; i < parents.length; i++) {
+                node.parents[i] = getId(parents[i]);
+            }
+            
+            nodes.add(node);
+        }
+        
+        nodes.addAll(newNodes);
+        nodes.sort((a, b) -> a.id.compareTo(b.id));
+        
+        Map<ObjectId, Integer> positions = new HashMap<ObjectId, Integer>();
+        int extraCount = 0;
+        int messagesSize = 0;
+        
+        for(int pos = 0; pos < nodes.size(); pos++) {
+            Node node = nodes.get(pos);
+            positions.put(node.id, pos);
+            if(node.parents.length > 2) {
+                extraCount += node.parents.length - 1;
+            }
+            messagesSize += 2 + node.message.length;
+        }
+        
+        int count = nodes.size();
+        int recordsStart = HEADER_SIZE + count * Constants.OBJECT_ID_LENGTH;
+        int extraStart = recordsStart + count * RECORD_SIZE;
+        int messagesStart = extraStart + extraCount * 4;
+        
+        ByteBuffer buffer = ByteBuffer.allocate(messagesStart + messagesSize);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(count);
+        buffer.putInt(extraCount);
+        
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        for(Node node : nodes) {
+            node.id.copyRawTo(raw, 0);
+            buffer.put(raw);
+        }
+        
+        int extraIndex = 0;
+        int messageOffset = 0;
+        
+        for(int pos = 0; pos < count; pos++) {
+            Node node = nodes.get(pos);
+            
+            // Parents beyond a shallow clone are not in the graph
+            List<Integer> parents = new ArrayList<Integer>();
+            for(ObjectId parentId : node.parents) {
+                Integer parentPos = positions.get(parentId);
+                if(parentPos != null) {
+                    parents.add(parentPos);
+                }
+            }
+            
+            int record = recordsStart + pos * RECORD_SIZE;
+            buffer.putInt(record, node.commitTime);
+            buffer.putInt(record + 4, node.generation);
+            buffer.putInt(record + 8, parents.size() > 0 ? parents.get(0) : NO_PARENT);
+            
+            if(parents.size() <= 2) {
+                buffer.putInt(record + 12, parents.size() == 2 ? parents.get(1) : NO_PARENT);
+            }
+            else {
+                buffer.putInt(record + 12, extraIndex | EXTRA_PARENTS);
+                for(int i = 1; i < parents.size(); i++) {
+                    int value = parents.get(i);
+                    if(i == parents.size() - 1) {
+                        value |= LAST_PARENT;
+                    }
+                    buffer.putInt(extraStart + extraIndex++ * 4, value);
+                }
+            }
+            
+            buffer.putInt(record + 16, messageOffset);
+            buffer.putShort(messagesStart + messageOffset, (short)node.message.length);
+            for(int i = 0; i < node.message.length; i++) {
+                buffer.put(messagesStart + messageOffset + 2 + i, node.message[i]);
+            }
+            messageOffset += 2 + node.message.length;
+        }
+        
+        setBuffer(buffer);
+        
+        fDelta.clear();
+        fDeltaSorted = new int[0];
+    }
+    
+    private void setBuffer(ByteBuffer buffer) {
+        fBuffer = buffer;
+        fCount = buffer.getInt(8);
+        fRecordsStart = HEADER_SIZE + fCount * Constants.OBJECT_ID_LENGTH;
+        fExtraStart = fRecordsStart + fCount * RECORD_SIZE;
+        fMessagesStart = fExtraStart + buffer.getInt(12) * 4;
+    }
+    
+    private int compareId(int pos, byte[] raw) {
+        int offset = HEADER_SIZE + pos * Constants.OBJECT_ID_LENGTH;
+        for(int i = 0; i < raw.length; i++) {
+            int cmp = (fBuffer.get(offset + i) & 0xFF) - (raw[i] & 0xFF);
+            if(cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+    
+    private byte[] getMessageBytes(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if(bytes.length > MAX_MESSAGE_LENGTH) {
+            // Don't cut a character in two
+            int length = MAX_MESSAGE_LENGTH;
+            while(length > 0 && (bytes[length] & 0xC0) == 0x80) {
+                length--;
+            }
+            byte[] cut = new byte[length];
+            System.arraycopy(bytes, 0, cut, 0, length);
+            bytes = cut;
+        }
+        return bytes;
+    }
+    
+    private File getNewFile() {
+        return new File(fGraphFile.getPath() + ".new"); //$NON-NLS-1$
+    }
+    
+    private void load() {
+        fBuffer = null;
+        fCount = 0;
+        fDelta.clear();
+        fDeltaSorted = new int[0];
+        
+        // A graph that could not replace the mapped file last time
+        File newFile = getNewFile();
+        if(newFile.exists()) {
+            try {
+                Files.move(newFile.toPath(), fGraphFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(IOException ex) {
+                newFile.delete();
+            }
+        }
+        
+        if(fGraphFile.exists()) {
+            try {
+                map();
+            }
+            // Not readable so it will be built again
+            catch(IOException | RuntimeException ex) {
+                fBuffer = null;
+                fCount = 0;
+            }
+        }
+        
+        loadDelta();
+    }
+    
+    /**
+     * Memory-map the graph file
+     */
+    private void map() throws IOException {
+        try(FileChannel channel = FileChannel.open(fGraphFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.capacity() >= HEADER_SIZE && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+                setBuffer(buffer);
+            }
+        }
+    }
+    
+    /**
+     * Read the commits added since the graph file was rebuilt
+     */
+    private void loadDelta() {
+        if(!fDeltaFile.exists()) {
+            return;
+        }
+        
+        List<Node> nodes = new ArrayList<Node>();
+        Set<ObjectId> ids = new HashSet<ObjectId>();
+        
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(fDeltaFile.toPath()));
+            byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            
+            while(buffer.remaining() >= DELTA_RECORD_SIZE) {
+                int recordStart = buffer.position();
+                
+                Node node = new Node();
+                buffer.get(raw);
+                node.id = ObjectId.fromRaw(raw);
+                node.commitTime = buffer.getInt();
+                node.generation = buffer.getInt();
+                
+                int parentCount = buffer.getInt();
+                if(parentCount < 0 || buffer.remaining() < parentCount * Constants.OBJECT_ID_LENGTH + 2) {
+                    buffer.position(recordStart);
+                    break;
+                }
+                
+                node.parents = new ObjectId[parentCount];
+                for(int i = 0; i < parentCount; i++) {
+                    buffer.get(raw);
+                    node.parents[i] = ObjectId.fromRaw(raw);
+                }
+                
+                node.message = new byte[buffer.getShort() & 0xFFFF];
+                if(buffer.remaining() < node.message.length) {
+                    buffer.position(recordStart);
+                    break;
+                }
+                buffer.get(node.message);
+                
+                // Already in a graph file that was rebuilt before the delta could be deleted
+                if(find(node.id) < 0 && ids.add(node.id)) {
+                    nodes.add(node);
+                }
+            }
+            
+            // A record that was not written in full is cut off so that new records can be appended
+            if(buffer.hasRemaining()) {
+                try(FileChannel channel = FileChannel.open(fDeltaFile.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(buffer.position());
+                }
+            }
+        }
+        // Not readable so the commits in it will be added again
+        catch(IOException | RuntimeException ex) {
+            nodes.clear();
+            fDeltaFile.delete();
+        }
+        
+        addToDelta(nodes);
+    }
+    
+    private void appendToDeltaFile(Collection<Node> nodes) throws IOException {
+        int size = 0;
+        for(Node node : nodes) {
+            size += DELTA_RECORD_SIZE + node.parents.length * Constants.OBJECT_ID_LENGTH + node.message.length;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        
+        for(Node node : nodes) {
+            node.id.copyRawTo(raw, 0);
+            buffer.put(raw);
+            buffer.putInt(node.commitTime);
+            buffer.putInt(node.generation);
+            buffer.putInt(node.parents.length);
+            for(ObjectId parentId : node.parents) {
+                parentId.copyRawTo(raw, 0);
+                buffer.put(raw);
+            }
+            buffer.putShort((short)node.message.length);
+            buffer.put(node.message);
+        }
+        
+        Files.write(fDeltaFile.toPath(), buffer.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+    
+    private void save() throws IOException {
+        File tmpFile = new File(fGraphFile.getPath() + ".tmp"); //$NON-NLS-1$
+        Files.write(tmpFile.toPath(), fBuffer.array());
+        
+        boolean isReplaced = true;
+        
+        try {
+            Files.move(tmpFile.toPath(), fGraphFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // On Windows a memory-mapped file can't be replaced so it is replaced when the graph is next loaded
+        catch(IOException ex) {
+            Files.move(tmpFile.toPath(), getNewFile().toPath(), StandardCopyOption.REPLACE_EXISTING);
+            isReplaced = false;
+        }
+        
+        // The commits in the delta are in the graph file now
+        Files.deleteIfExists(fDeltaFile.toPath());
+        
+        // Map the new file rather than keep the graph on the heap
+        if(isReplaced) {
+            try {
+                map();
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EContentAdapter;
+
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * Tracks which Grafico files are affected by changes to a model since the last time the model and
+ * its Grafico files were in sync (after an export or a load).
+ *
+ * Each object is persisted as part of exactly one Grafico file - the model, a folder or an element
+ * in a folder. Any change notification marks the id of the object owning that file as dirty so that
+ * the exporter only has to rewrite the files for those objects.
+ *
+ * @author Phillip Beauvoir
+ */
+public class GraficoChangeTracker extends EContentAdapter {
+    
+    /**
+     * Install a new change tracker on the model, replacing any existing tracker.
+     * The model's Grafico files are assumed to be in sync with the model.
+     * @param model The model
+     * @param filePaths The Grafico file paths of the model, keyed by object id, relative to the repository folder
+     * @return The tracker
+     */
+    public static GraficoChangeTracker install(IArchimateModel model, Map<String, String> filePaths) {
+        uninstall(model);
+        GraficoChangeTracker tracker = new GraficoChangeTracker();
+        tracker.reset(filePaths);
+        model.eAdapters().add(tracker);
+        return tracker;
+    }
+    
+    /**
+     * Remove any change tracker from the model
+     * @param model The model
+     */
+    public static void uninstall(IArchimateModel model) {
+        GraficoChangeTracker tracker = getTracker(model);
+        if(tracker != null) {
+            model.eAdapters().remove(tracker);
+        }
+    }
+    
+    /**
+     * @param model The model
+     * @return The change tracker installed on the model, or null
+     */
+    public static GraficoChangeTracker getTracker(IArchimateModel model) {
+        for(Adapter adapter : model.eAdapters()) {
+            if(adapter instanceof GraficoChangeTracker) {
+                return (GraficoChangeTracker)adapter;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @param eObject An object in a model
+     * @return The object that is persisted as its own Grafico file and that contains eObject.
+     *         This is the model, a folder or an element in a folder. May be null if eObject is not in a model.
+     */
+    public static EObject getFileOwner(EObject eObject) {
+        while(eObject != null) {
+            if(eObject instanceof IArchimateModel || eObject instanceof IFolder
+                    || eObject.eContainmentFeature() == IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+                return eObject;
+            }
+            eObject = eObject.eContainer();
+        }
+        return null;
+    }
+    
+    private Map<String, String> fFilePaths = new HashMap<String, String>();
+    private Set<String> fDirtyIds = new HashSet<String>();
+    private long fSyncTime;
+    
+    private GraficoChangeTracker() {
+    }
+    
+    /**
+     * Reset the tracker after the model and its Grafico files have been synchronised
+     * @param filePaths The Grafico file paths of the model, keyed by object id, relative to the repository folder
+     */
+    public void reset(Map<String, String> filePaths) {
+        fFilePaths = new HashMap<String, String>(filePaths);
+        fDirtyIds.clear();
+        fSyncTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * @return The Grafico file paths at the last synchronisation, keyed by object id
+     */
+    public Map<String, String> getFilePaths() {
+        return Collections.unmodifiableMap(fFilePaths);
+    }
+    
+    /**
+     * @return The ids of objects whose Grafico files have to be rewritten
+     */
+    public Set<String> getDirtyIds() {
+        return Collections.unmodifiableSet(fDirtyIds);
+    }
+    
+    /**
+     * @return True if there are no changes since the last synchronisation
+     */
+    public boolean isClean() {
+        return fDirtyIds.isEmpty();
+    }
+    
+    /**
+     * @return The time of the last synchronisation. Files modified on disk after this time were not written by us.
+     */
+    public long getSyncTime() {
+        return fSyncTime;
+    }
+    
+    @Override
+    public void notifyChanged(Notification msg) {
+        super.notifyChanged(msg);
+        
+        if(msg.isTouch() || msg.getEventType() == Notification.REMOVING_ADAPTER || !(msg.getNotifier() instanceof EObject)) {
+            return;
+        }
+        
+        // Adding, moving or removing the children of a folder or the model doesn't change its own file.
+        // Those children get written or deleted because their file paths change.
+        Object feature = msg.getFeature();
+        if(feature == IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS || feature == IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+            return;
+        }
+        
+        // Mark the file of the changed object
+        markDirty(getFileOwner((EObject)msg.getNotifier()));
+    }
+    
+    private void markDirty(EObject eObject) {
+        if(eObject instanceof IIdentifier) {
+            fDirtyIds.add(((IIdentifier)eObject).getId());
+        }
+    }
+    
+    @Override
+    public boolean isAdapterForType(Object type) {
+        return type == GraficoChangeTracker.class;
+    }
+}
@@ -0,0 +1,391 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.archimatetool.model.IIdentifier;
+import com.archimatetool.model.INameable;
+
+/**
+ * The changes to the objects of a model between two trees, such as the trees of two commits.
+ *
+ * Only the Grafico files that differ between the trees are looked at. Added and removed element files are classified
+ * by their file name ("ClassName_id.xml") without reading them, and the two versions of a changed file are parsed and
+ * compared feature by feature, including the objects that they contain such as diagram children and properties.
+ * An element file that moved to another folder is one change with both paths.
+ *
+ * As trees never change a diff is cached in memory keyed by the ids of the two trees.
+ *
+ * @author Phillip Beauvoir
+ */
+public class GraficoDiff {
+    
+    public enum ChangeType {
+        ADDED, REMOVED, MODIFIED
+    }
+    
+    /**
+     * A changed feature of a changed object, or of an object that it contains
+     */
+    public static class FeatureChange {
+        /**
+         * The path of the feature from the changed object, such as "name" or "children[id]/bounds/x"
+         */
+        public final String path;
+        public final String oldValue;
+        public final String newValue;
+        
+        FeatureChange(String path, String oldValue, String newValue) {
+            this.path = path;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+    }
+    
+    /**
+     * An added, removed or modified object with its own Grafico file
+     */
+    public static class Change {
+        public final ChangeType type;
+        public final String id;
+        public final String className;
+        
+        /**
+         * The path of the object's file in the first tree, or null if it was added
+         */
+        public final String oldPath;
+        
+        /**
+         * The path of the object's file in the second tree, or null if it was removed
+         */
+        public final String newPath;
+        
+        /**
+         * The name of the object, or null if the file was not parsed or the object has no name
+         */
+        public final String name;
+        
+        /**
+         * The changed features of a modified object. Empty if the object only moved or was added or removed.
+         */
+        public final List<FeatureChange> featureChanges;
+        
+        Change(ChangeType type, String id, String className, String oldPath, String newPath, String name, List<FeatureChange> featureChanges) {
+            this.type = type;
+            this.id = id;
+            this.className = className;
+            this.oldPath = oldPath;
+            this.newPath = newPath;
+            this.name = name;
+            this.featureChanges = featureChanges;
+        }
+        
+        /**
+         * @return true if the object's file is in another folder in the second tree
+         */
+        public boolean isMoved() {
+            return oldPath != null && newPath != null && !oldPath.equals(newPath);
+        }
+    }
+    
+    // Number of diffs to keep in memory
+    private static final int MAX_CACHED_DIFFS = 32;
+    
+    @SuppressWarnings("serial")
+    private static final Map<String, GraficoDiff> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, GraficoDiff>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, GraficoDiff> eldest) {
+                    return size() > MAX_CACHED_DIFFS;
+                }
+            });
+    
+    /**
+     * @param repository The repository
+     * @param treeA The id of the first tree, or null for an empty tree
+     * @param treeB The id of the second tree
+     * @return The changes from the first tree to the second tree
+     * @throws IOException
+     */
+    public static GraficoDiff getDiff(Repository repository, AnyObjectId treeA, AnyObjectId treeB) throws IOException {
+        String key = (treeA == null ? ObjectId.zeroId() : treeA).name() + treeB.name();
+        
+        GraficoDiff diff = cache.get(key);
+        if(diff == null) {
+            diff = new GraficoDiff();
+            diff.compute(repository, treeA, treeB);
+            cache.put(key, diff);
+        }
+        
+        return diff;
+    }
+    
+    private List<Change> fChanges = new ArrayList<Change>();
+    
+    private GraficoDiff() {
+    }
+    
+    /**
+     * @return All of the changes
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(fChanges);
+    }
+    
+    /**
+     * @param type The type of change
+     * @return The changes of the type
+     */
+    public List<Change> getChanges(ChangeType type) {
+        List<Change> changes = new ArrayList<Change>();
+        for(Change change : fChanges) {
+            if(change.type == type) {
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+    
+    public boolean isEmpty() {
+        return fChanges.isEmpty();
+    }
+    
+    private void compute(Repository repository, AnyObjectId treeA, AnyObjectId treeB) throws IOException {
+        // Changed files keyed by object id, or by path for folder files as their id is only in the file
+        Map<String, String> oldPaths = new LinkedHashMap<String, String>();
+        Map<String, ObjectId> oldBlobs = new LinkedHashMap<String, ObjectId>();
+        Map<String, String> newPaths = new LinkedHashMap<String, String>();
+        Map<String, ObjectId> newBlobs = new LinkedHashMap<String, ObjectId>();
+        
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            if(treeA != null) {
+                treeWalk.addTree(treeA);
+            }
+            else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(treeB);
+            treeWalk.setRecursive(true);
+            
+            // Only the sub-trees that differ are walked
+            treeWalk.setFilter(AndTreeFilter.create(PathFilter.create(IGraficoConstants.MODEL_FOLDER), TreeFilter.ANY_DIFF));
+            
+            while(treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                String id = GraficoElementIndex.getID(path);
+                String key = id != null ? id : path;
+                
+                if(treeWalk.getFileMode(0) != FileMode.MISSING) {
+                    oldPaths.put(key, path);
+                    oldBlobs.put(key, treeWalk.getObjectId(0));
+                }
+                if(treeWalk.getFileMode(1) != FileMode.MISSING) {
+                    newPaths.put(key, path);
+                    newBlobs.put(key, treeWalk.getObjectId(1));
+                }
+            }
+        }
+        
+        GraficoParser parser = new GraficoParser();
+        
+        for(Map.Entry<String, String> entry : oldPaths.entrySet()) {
+            String key = entry.getKey();
+            String oldPath = entry.getValue();
+            String newPath = newPaths.remove(key);
+            
+            // Removed
+            if(newPath == null) {
+                addChange(repository, parser, ChangeType.REMOVED, oldPath, oldBlobs.get(key));
+            }
+            // Moved with no other change
+            else if(oldBlobs.get(key).equals(newBlobs.get(key))) {
+                fChanges.add(new Change(ChangeType.MODIFIED, GraficoElementIndex.getID(oldPath), GraficoElementIndex.getClassName(oldPath),
+                        oldPath, newPath, null, Collections.<FeatureChange>emptyList()));
+            }
+            // Modified
+            else {
+                // A parser of its own so that only the cross references of the two versions are compared
+                GraficoParser pairParser = new GraficoParser();
+                EObject oldObject = parse(repository, pairParser, oldPath, oldBlobs.get(key));
+                EObject newObject = parse(repository, pairParser, newPath, newBlobs.get(key));
+                
+                List<FeatureChange> featureChanges = compare(pairParser, oldObject, newObject);
+                if(!featureChanges.isEmpty() || !oldPath.equals(newPath)) {
+                    fChanges.add(new Change(ChangeType.MODIFIED, getID(newObject), newObject.eClass().getName(), oldPath, newPath,
+                            getName(newObject), featureChanges));
+                }
+            }
+        }
+        
+        // Added
+        for(Map.Entry<String, String> entry : newPaths.entrySet()) {
+            addChange(repository, parser, ChangeType.ADDED, entry.getValue(), newBlobs.get(entry.getKey()));
+        }
+    }
+    
+    /**
+     * Add an added or removed object, classified by its file name if it is an element file
+     */
+    private void addChange(Repository repository, GraficoParser parser, ChangeType type, String path, ObjectId blobId) throws IOException {
+        String oldPath = type == ChangeType.REMOVED ? path : null;
+        String newPath = type == ChangeType.ADDED ? path : null;
+        
+        String id = GraficoElementIndex.getID(path);
+        if(id != null) {
+            fChanges.add(new Change(type, id, GraficoElementIndex.getClassName(path), oldPath, newPath, null,
+                    Collections.<FeatureChange>emptyList()));
+        }
+        // A folder's id and name are in its file
+        else {
+            EObject eObject = parse(repository, parser, path, blobId);
+            fChanges.add(new Change(type, getID(eObject), eObject.eClass().getName(), oldPath, newPath, getName(eObject),
+                    Collections.<FeatureChange>emptyList()));
+        }
+    }
+    
+    private EObject parse(Repository repository, GraficoParser parser, String path, ObjectId blobId) throws IOException {
+        byte[] bytes = repository.open(blobId).getBytes();
+        return parser.parse(new ByteArrayInputStream(bytes), URI.createURI(path));
+    }
+    
+    /**
+     * Compare two versions of an object and the objects that it contains
+     */
+    private List<FeatureChange> compare(GraficoParser parser, EObject oldObject, EObject newObject) {
+        Map<EObject, String> crossReferences = getCrossReferences(parser);
+        
+        Map<String, String> oldValues = new TreeMap<String, String>();
+        flatten(oldObject, "", oldValues, crossReferences); //$NON-NLS-1$
+        
+        Map<String, String> newValues = new TreeMap<String, String>();
+        flatten(newObject, "", newValues, crossReferences); //$NON-NLS-1$
+        
+        List<FeatureChange> changes = new ArrayList<FeatureChange>();
+        
+        for(Map.Entry<String, String> entry : oldValues.entrySet()) {
+            String newValue = newValues.remove(entry.getKey());
+            if(!Objects.equals(entry.getValue(), newValue)) {
+                changes.add(new FeatureChange(entry.getKey(), entry.getValue(), newValue));
+            }
+        }
+        
+        for(Map.Entry<String, String> entry : newValues.entrySet()) {
+            changes.add(new FeatureChange(entry.getKey(), null, entry.getValue()));
+        }
+        
+        return changes;
+    }
+    
+    /**
+     * @return The references to objects in other files as "feature=id" lists keyed by the referencing object
+     */
+    private Map<EObject, String> getCrossReferences(GraficoParser parser) {
+        Map<EObject, String> refs = new LinkedHashMap<EObject, String>();
+        
+        for(GraficoParser.CrossReference ref : parser.getCrossReferences()) {
+            String value = ref.feature.getName() + "=" + ref.getID(); //$NON-NLS-1$
+            String existing = refs.get(ref.owner);
+            refs.put(ref.owner, existing == null ? value : existing + "," + value); //$NON-NLS-1$
+        }
+        
+        return refs;
+    }
+    
+    /**
+     * Put the values of the set features of an object and its contents into values keyed by feature path
+     */
+    private void flatten(EObject eObject, String prefix, Map<String, String> values, Map<EObject, String> crossReferences) {
+        for(EStructuralFeature feature : eObject.eClass().getEAllStructuralFeatures()) {
+            if(feature.isTransient() || feature.isDerived() || !eObject.eIsSet(feature)) {
+                continue;
+            }
+            
+            Object value = eObject.eGet(feature);
+            String path = prefix + feature.getName();
+            
+            if(feature instanceof EAttribute) {
+                if(feature.isMany()) {
+                    int i = 0;
+                    for(Object item : (List<?>)value) {
+                        values.put(path + "[" + i++ + "]", convertToString((EAttribute)feature, item)); //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                }
+                else {
+                    values.put(path, convertToString((EAttribute)feature, value));
+                }
+            }
+            else if(((EReference)feature).isContainment()) {
+                List<?> children = feature.isMany() ? (List<?>)value : Collections.singletonList(value);
+                int i = 0;
+                for(Object child : children) {
+                    if(child instanceof EObject) {
+                        // Contained objects with an id keep their path when others are added or removed before them
+                        String id = getID((EObject)child);
+                        String childPath = path + "[" + (id != null ? id : String.valueOf(i)) + "]/"; //$NON-NLS-1$ //$NON-NLS-2$
+                        flatten((EObject)child, childPath, values, crossReferences);
+                    }
+                    i++;
+                }
+            }
+            else {
+                // References to objects in the same file
+                List<?> targets = feature.isMany() ? (List<?>)value : Collections.singletonList(value);
+                StringBuilder sb = new StringBuilder();
+                for(Object target : targets) {
+                    if(sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(target instanceof EObject ? getID((EObject)target) : String.valueOf(target));
+                }
+                values.put(path, sb.toString());
+            }
+        }
+        
+        // References to objects in other files
+        String refs = crossReferences.get(eObject);
+        if(refs != null) {
+            values.put(prefix + "href", refs); //$NON-NLS-1$
+        }
+    }
+    
+    private String convertToString(EAttribute attribute, Object value) {
+        return value == null ? null : EcoreUtil.convertToString((EDataType)attribute.getEType(), value);
+    }
+    
+    private String getID(EObject eObject) {
+        return eObject instanceof IIdentifier ? ((IIdentifier)eObject).getId() : null;
+    }
+    
+    private String getName(EObject eObject) {
+        return eObject instanceof INameable ? ((INameable)eObject).getName() : null;
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+
+/**
+ * Index of the Grafico element files in a tree, keyed by element id.
+ *
+ * The id and class of each element are taken from the name of its file ("ClassName_id.xml") so the index is
+ * built from the tree listing alone without reading any file. Folders are not in the index as their files are
+ * all called "folder.xml".
+ *
+ * As a tree never changes an index is saved once in the .git/grafico-index folder under the tree's id and
+ * shared in memory by all repositories.
+ *
+ * @author Phillip Beauvoir
+ */
+public class GraficoElementIndex {
+    
+    /**
+     * An element file in the tree
+     */
+    public static class Entry {
+        public final String id;
+        public final String className;
+        public final String path;
+        public final ObjectId blobId;
+        
+        Entry(String id, String className, String path, ObjectId blobId) {
+            this.id = id;
+            this.className = className;
+            this.path = path;
+            this.blobId = blobId;
+        }
+    }
+    
+    /**
+     * Name of the folder in the .git folder where indexes are saved
+     */
+    static final String INDEX_FOLDER = "grafico-index"; //$NON-NLS-1$
+    
+    // Number of saved indexes to keep
+    private static final int MAX_SAVED_INDEXES = 16;
+    
+    // Number of indexes to keep in memory
+    private static final int MAX_CACHED_INDEXES = 8;
+    
+    @SuppressWarnings("serial")
+    private static final Map<ObjectId, GraficoElementIndex> cache = Collections.synchronizedMap(
+            new LinkedHashMap<ObjectId, GraficoElementIndex>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ObjectId, GraficoElementIndex> eldest) {
+                    return size() > MAX_CACHED_INDEXES;
+                }
+            });
+    
+    /**
+     * @param repository The repository
+     * @param treeId The id of the tree
+     * @return The index of the tree, read from memory or disk if it was built before
+     * @throws IOException
+     */
+    public static GraficoElementIndex getIndex(Repository repository, AnyObjectId treeId) throws IOException {
+        ObjectId id = treeId.toObjectId();
+        
+        GraficoElementIndex index = cache.get(id);
+        if(index != null) {
+            return index;
+        }
+        
+        File indexFolder = new File(repository.getDirectory(), INDEX_FOLDER);
+        File indexFile = new File(indexFolder, id.name());
+        
+        index = new GraficoElementIndex(id);
+        if(!index.load(indexFile)) {
+            index.build(repository);
+            index.save(indexFile);
+        }
+        
+        cache.put(id, index);
+        
+        return index;
+    }
+    
+    /**
+     * @param path The path or name of a Grafico file
+     * @return The id of the element in the file, or null if the file is not an element file
+     */
+    public static String getID(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int index = name.indexOf('_');
+        if(index == -1 || !name.endsWith(".xml")) { //$NON-NLS-1$
+            return null;
+        }
+        return name.substring(index + 1, name.length() - 4);
+    }
+    
+    /**
+     * @param path The path or name of a Grafico file
+     * @return The class name of the element in the file, or null if the file is not an element file
+     */
+    public static String getClassName(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int index = name.indexOf('_');
+        if(index == -1 || !name.endsWith(".xml")) { //$NON-NLS-1$
+            return null;
+        }
+        return name.substring(0, index);
+    }
+    
+    private ObjectId fTreeId;
+    private Map<String, Entry> fEntries = new HashMap<String, Entry>();
+    
+    private GraficoElementIndex(ObjectId treeId) {
+        fTreeId = treeId;
+    }
+    
+    /**
+     * @return The id of the tree
+     */
+    public ObjectId getTreeId() {
+        return fTreeId;
+    }
+    
+    /**
+     * @param id An element id
+     * @return The element's file in the tree, or null if it is not in the tree
+     */
+    public Entry getEntry(String id) {
+        return fEntries.get(id);
+    }
+    
+    /**
+     * @return All element files in the tree
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(fEntries.values());
+    }
+    
+    private void build(Repository repository) throws IOException {
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(fTreeId);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilter.create(IGraficoConstants.MODEL_FOLDER));
+            
+            while(treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                String id = getID(path);
+                if(id != null) {
+                    fEntries.put(id, new Entry(id, getClassName(path), path, treeWalk.getObjectId(0)));
+                }
+            }
+        }
+    }
+    
+    private boolean load(File file) {
+        if(!file.exists()) {
+            return false;
+        }
+        
+        try(BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t"); //$NON-NLS-1$
+                String id = getID(parts[0]);
+                fEntries.put(id, new Entry(id, getClassName(parts[0]), parts[0], ObjectId.fromString(parts[1])));
+            }
+            return true;
+        }
+        // Not readable so it will be built again
+        catch(IOException | RuntimeException ex) {
+            fEntries.clear();
+            return false;
+        }
+    }
+    
+    private void save(File file) throws IOException {
+        File folder = file.getParentFile();
+        folder.mkdirs();
+        
+        File tmpFile = new File(folder, file.getName() + ".tmp"); //$NON-NLS-1$
+        
+        try(BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            for(Entry entry : fEntries.values()) {
+                writer.write(entry.path + "\t" + entry.blobId.name()); //$NON-NLS-1$
+                writer.newLine();
+            }
+        }
+        
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        
+        // Delete the oldest indexes
+        File[] files = folder.listFiles();
+        if(files != null && files.length > MAX_SAVED_INDEXES) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for(int i = 0; i < files.length - MAX_SAVED_INDEXES; i++) {
+                files[i].delete();
+            }
+        }
+    }
+}
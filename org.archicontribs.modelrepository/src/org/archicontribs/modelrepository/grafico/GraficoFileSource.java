@@ -0,0 +1,64 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.eclipse.emf.common.util.URI;
+
+
+/**
+ * Reads Grafico files from a folder in the file system
+ * 
+ * @author Phillip Beauvoir
+ */
+public class GraficoFileSource implements IGraficoSource {
+    
+    private File fFolder;
+    
+    /**
+     * @param folder The root folder of the Grafico files
+     */
+    public GraficoFileSource(File folder) {
+        if(folder == null) {
+            throw new IllegalArgumentException("Folder cannot be null"); //$NON-NLS-1$
+        }
+        
+        fFolder = folder;
+    }
+    
+    @Override
+    public boolean isFile(String path) {
+        return new File(fFolder, path).isFile();
+    }
+    
+    @Override
+    public String[] list(String path) {
+        File[] files = new File(fFolder, path).listFiles();
+        if(files == null) {
+            return null;
+        }
+        
+        String[] names = new String[files.length];
+        for(int i = 0; i < files.length; i++) {
+            names[i] = files[i].isDirectory() ? files[i].getName() + "/" : files[i].getName(); //$NON-NLS-1$
+        }
+        
+        return names;
+    }
+    
+    @Override
+    public byte[] getBytes(String path) throws IOException {
+        return Files.readAllBytes(new File(fFolder, path).toPath());
+    }
+    
+    @Override
+    public URI getURI(String path) {
+        return URI.createFileURI(new File(fFolder, path).getAbsolutePath());
+    }
+}
@@ -0,0 +1,217 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Index of the most recent version of each Grafico file in the history of HEAD, keyed by file name.
+ *
+ * The index is built with one walk of the commits, newest first, looking only at the files that each commit changed.
+ * It is saved in the .git folder together with the commit it was built for, and later updates only walk the new commits.
+ *
+ * @author Phillip Beauvoir
+ */
+public class GraficoHistoryIndex {
+    
+    /**
+     * The most recent version of a Grafico file
+     */
+    public static class Entry {
+        /**
+         * The path of the file in the commit that last contained it
+         */
+        public final String path;
+        
+        /**
+         * The id of the file's content
+         */
+        public final ObjectId blobId;
+        
+        Entry(String path, ObjectId blobId) {
+            this.path = path;
+            this.blobId = blobId;
+        }
+    }
+    
+    /**
+     * File name of the saved index in the .git folder
+     */
+    static final String INDEX_FILENAME = "grafico-history"; //$NON-NLS-1$
+    
+    private Repository fRepository;
+    
+    private File fIndexFile;
+    
+    private Map<String, Entry> fEntries = new HashMap<String, Entry>();
+    
+    // The commit that the index was built for
+    private ObjectId fTip;
+    
+    private boolean fLoaded;
+    
+    /**
+     * @param repository The repository to index. The index is saved in its .git folder.
+     */
+    public GraficoHistoryIndex(Repository repository) {
+        fRepository = repository;
+        fIndexFile = new File(repository.getDirectory(), INDEX_FILENAME);
+    }
+    
+    /**
+     * Bring the index up to date with HEAD, walking only the commits that are not indexed yet
+     * @throws IOException
+     */
+    public synchronized void update() throws IOException {
+        if(!fLoaded) {
+            load();
+            fLoaded = true;
+        }
+        
+        ObjectId head = fRepository.resolve(IGraficoConstants.HEAD);
+        if(head == null || head.equals(fTip)) {
+            return;
+        }
+        
+        try(RevWalk revWalk = new RevWalk(fRepository)) {
+            RevCommit headCommit = revWalk.parseCommit(head);
+            
+            // If the indexed commit is in the history of HEAD only the new commits are walked, else start again
+            RevCommit tipCommit = null;
+            if(fTip != null) {
+                try {
+                    tipCommit = revWalk.parseCommit(fTip);
+                    if(!revWalk.isMergedInto(tipCommit, headCommit)) {
+                        tipCommit = null;
+                    }
+                }
+                catch(MissingObjectException ex) {
+                    tipCommit = null;
+                }
+            }
+            
+            if(tipCommit == null) {
+                fEntries.clear();
+            }
+            
+            revWalk.reset();
+            revWalk.sort(RevSort.COMMIT_TIME_DESC);
+            revWalk.markStart(headCommit);
+            if(tipCommit != null) {
+                revWalk.markUninteresting(tipCommit);
+            }
+            
+            // File names seen in this walk, newer commits are seen first
+            Set<String> seen = new HashSet<String>();
+            
+            try(TreeWalk treeWalk = new TreeWalk(fRepository)) {
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(AndTreeFilter.create(PathFilter.create(IGraficoConstants.MODEL_FOLDER), TreeFilter.ANY_DIFF));
+                
+                for(RevCommit commit : revWalk) {
+                    // Compare the commit with its parents to get only the files that it changed
+                    treeWalk.reset();
+                    treeWalk.addTree(commit.getTree());
+                    if(commit.getParentCount() == 0) {
+                        treeWalk.addTree(new EmptyTreeIterator());
+                    }
+                    for(RevCommit parent : commit.getParents()) {
+                        revWalk.parseHeaders(parent);
+                        treeWalk.addTree(parent.getTree());
+                    }
+                    
+                    while(treeWalk.next()) {
+                        // Deleted in this commit, an older commit has the last version
+                        if(treeWalk.getFileMode(0) == FileMode.MISSING) {
+                            continue;
+                        }
+                        
+                        String fileName = treeWalk.getNameString();
+                        if(seen.add(fileName)) {
+                            fEntries.put(fileName, new Entry(treeWalk.getPathString(), treeWalk.getObjectId(0)));
+                        }
+                    }
+                }
+            }
+            
+            fTip = headCommit.copy();
+        }
+        
+        save();
+    }
+    
+    /**
+     * @param fileName The name of a Grafico file
+     * @return The most recent version of the file in the history of HEAD, or null if it was never committed
+     */
+    public synchronized Entry getEntry(String fileName) {
+        return fEntries.get(fileName);
+    }
+    
+    private void load() {
+        fEntries.clear();
+        fTip = null;
+        
+        if(!fIndexFile.exists()) {
+            return;
+        }
+        
+        try(BufferedReader reader = Files.newBufferedReader(fIndexFile.toPath(), StandardCharsets.UTF_8)) {
+            ObjectId tip = ObjectId.fromString(reader.readLine());
+            
+            String line;
+            while((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t"); //$NON-NLS-1$
+                fEntries.put(parts[0], new Entry(parts[1], ObjectId.fromString(parts[2])));
+            }
+            
+            fTip = tip;
+        }
+        // Not readable so it will be built again
+        catch(IOException | RuntimeException ex) {
+            fEntries.clear();
+        }
+    }
+    
+    private void save() throws IOException {
+        File tmpFile = new File(fIndexFile.getPath() + ".tmp"); //$NON-NLS-1$
+        
+        try(BufferedWriter writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(fTip.name());
+            writer.newLine();
+            
+            for(Map.Entry<String, Entry> entry : fEntries.entrySet()) {
+                writer.write(entry.getKey() + "\t" + entry.getValue().path + "\t" + entry.getValue().blobId.name()); //$NON-NLS-1$ //$NON-NLS-2$
+                writer.newLine();
+            }
+        }
+        
+        Files.move(tmpFile.toPath(), fIndexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
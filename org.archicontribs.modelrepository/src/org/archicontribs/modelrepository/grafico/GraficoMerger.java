@@ -0,0 +1,651 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import com.archimatetool.model.IIdentifier;
+import com.archimatetool.model.IProperty;
+
+/**
+ * Three-way merge of the Grafico files that a textual merge left in conflict.
+ *
+ * The base, our and their versions of a file are parsed and merged feature by feature, down through the objects
+ * that the file contains such as diagram children, bounds and properties. A feature that only one side changed takes
+ * that side's value, so a rename on one side and a new documentation on the other merge cleanly. The file stays in
+ * conflict only if both sides changed the same feature to different values, both sides added the same object
+ * differently, or one side removed an object that the other side changed.
+ *
+ * Contained objects are matched by id, properties by key, and any other list of contained objects is merged as one value.
+ *
+ * @author Phillip Beauvoir
+ */
+public class GraficoMerger {
+    
+    private Repository fRepository;
+    private GraficoSerializer fSerializer = new GraficoSerializer();
+    
+    public GraficoMerger(Repository repository) {
+        fRepository = repository;
+    }
+    
+    /**
+     * Merge the conflicting Grafico files of a merge in progress. Each file that merges cleanly is written to the
+     * working tree and added to the index so that it is no longer in conflict.
+     * @param paths The paths of the conflicting files
+     * @return The paths that are still in conflict
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public List<String> mergeConflicts(Collection<String> paths) throws IOException, GitAPIException {
+        List<String> conflicts = new ArrayList<String>();
+        List<String> resolved = new ArrayList<String>();
+        
+        DirCache dirCache = fRepository.readDirCache();
+        
+        for(String path : paths) {
+            byte[] merged = null;
+            
+            if(isGraficoFile(path)) {
+                ObjectId[] stages = getStages(dirCache, path);
+                
+                // Both sides have to have changed the file rather than added or deleted it
+                if(stages[DirCacheEntry.STAGE_1] != null && stages[DirCacheEntry.STAGE_2] != null && stages[DirCacheEntry.STAGE_3] != null) {
+                    merged = merge(path, stages[DirCacheEntry.STAGE_1], stages[DirCacheEntry.STAGE_2], stages[DirCacheEntry.STAGE_3]);
+                }
+            }
+            
+            if(merged != null) {
+                Files.write(new File(fRepository.getWorkTree(), path).toPath(), merged);
+                resolved.add(path);
+            }
+            else {
+                conflicts.add(path);
+            }
+        }
+        
+        if(!resolved.isEmpty()) {
+            try(Git git = new Git(fRepository)) {
+                AddCommand addCommand = git.add();
+                for(String path : resolved) {
+                    addCommand.addFilepattern(path);
+                }
+                addCommand.call();
+            }
+        }
+        
+        return conflicts;
+    }
+    
+    /**
+     * Merge three versions of a Grafico file in the repository
+     * @param path The path of the file
+     * @param base The id of the blob of the common ancestor
+     * @param ours The id of the blob of our version
+     * @param theirs The id of the blob of their version
+     * @return The content of the merged file, or null if both sides changed the same feature
+     * @throws IOException
+     */
+    public byte[] merge(String path, ObjectId base, ObjectId ours, ObjectId theirs) throws IOException {
+        return merge(path, getBytes(base), getBytes(ours), getBytes(theirs));
+    }
+    
+    /**
+     * Merge three versions of a Grafico file
+     * @param path The path of the file
+     * @param base The content of the common ancestor
+     * @param ours The content of our version
+     * @param theirs The content of their version
+     * @return The content of the merged file, or null if both sides changed the same feature
+     * @throws IOException
+     */
+    public byte[] merge(String path, byte[] base, byte[] ours, byte[] theirs) throws IOException {
+        URI uri = URI.createURI(path);
+        EObject baseObject = parse(base, uri);
+        EObject ourObject = parse(ours, uri);
+        EObject theirObject = parse(theirs, uri);
+        
+        if(baseObject.eClass() != ourObject.eClass() || baseObject.eClass() != theirObject.eClass()) {
+            return null;
+        }
+        
+        // The merge is made on our object
+        if(!mergeObject(baseObject, ourObject, theirObject) || !resolveReferences(ourObject)) {
+            return null;
+        }
+        
+        fSerializer.serialize(ourObject);
+        return Arrays.copyOf(fSerializer.getBytes(), fSerializer.getLength());
+    }
+    
+    /**
+     * @return true if path is a Grafico file that can be merged
+     */
+    static boolean isGraficoFile(String path) {
+        return path.startsWith(IGraficoConstants.MODEL_FOLDER + "/") && path.endsWith(".xml"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    /**
+     * @return The ids of the blobs of a conflicting path indexed by stage
+     */
+    private ObjectId[] getStages(DirCache dirCache, String path) {
+        ObjectId[] stages = new ObjectId[4];
+        
+        int index = dirCache.findEntry(path);
+        if(index >= 0) {
+            for(int i = index; i < dirCache.getEntryCount(); i++) {
+                DirCacheEntry entry = dirCache.getEntry(i);
+                if(!entry.getPathString().equals(path)) {
+                    break;
+                }
+                stages[entry.getStage()] = entry.getObjectId();
+            }
+        }
+        
+        return stages;
+    }
+    
+    private byte[] getBytes(ObjectId blobId) throws IOException {
+        return fRepository.open(blobId).getBytes();
+    }
+    
+    /**
+     * Parse a file and set the references to objects in other files to proxies with the same href
+     */
+    @SuppressWarnings("unchecked")
+    private EObject parse(byte[] bytes, URI uri) throws IOException {
+        GraficoParser parser = new GraficoParser();
+        EObject eObject = parser.parse(new ByteArrayInputStream(bytes), uri);
+        
+        for(GraficoParser.CrossReference ref : parser.getCrossReferences()) {
+            EObject proxy = EcoreUtil.create(ref.type);
+            ((InternalEObject)proxy).eSetProxyURI(URI.createURI(ref.href));
+            
+            if(ref.feature.isMany()) {
+                ((List<EObject>)ref.owner.eGet(ref.feature)).add(proxy);
+            }
+            else {
+                ref.owner.eSet(ref.feature, proxy);
+            }
+        }
+        
+        return eObject;
+    }
+    
+    /**
+     * Merge the features of three versions of an object of the same class into ours
+     * @return false if there is a conflict
+     */
+    private boolean mergeObject(EObject base, EObject ours, EObject theirs) {
+        for(EStructuralFeature feature : ours.eClass().getEAllStructuralFeatures()) {
+            if(feature.isTransient() || feature.isDerived() || !feature.isChangeable()) {
+                continue;
+            }
+            
+            boolean merged;
+            
+            if(feature instanceof EAttribute) {
+                merged = mergeAttribute(feature, base, ours, theirs);
+            }
+            else if(((EReference)feature).isContainment()) {
+                merged = feature.isMany() ? mergeContainmentList(feature, base, ours, theirs) : mergeContainment(feature, base, ours, theirs);
+            }
+            else {
+                merged = mergeReference(feature, base, ours, theirs);
+            }
+            
+            if(!merged) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private boolean mergeAttribute(EStructuralFeature feature, EObject base, EObject ours, EObject theirs) {
+        Object baseValue = getValue(base, feature);
+        Object ourValue = getValue(ours, feature);
+        Object theirValue = getValue(theirs, feature);
+        
+        if(Objects.equals(ourValue, theirValue) || Objects.equals(baseValue, theirValue)) {
+            return true;
+        }
+        
+        // Only they changed it
+        if(Objects.equals(baseValue, ourValue)) {
+            if(feature.isMany()) {
+                ECollections.setEList((EList<Object>)ours.eGet(feature), (List<Object>)theirValue);
+            }
+            else {
+                ours.eSet(feature, theirValue);
+            }
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Merge a reference to objects in the same file or, as proxies, in other files. Their targets are taken as they are
+     * and replaced with our objects by {@link #resolveReferences(EObject)} when the whole file has been merged.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean mergeReference(EStructuralFeature feature, EObject base, EObject ours, EObject theirs) {
+        String baseValue = getReferenceValue(base, feature);
+        String ourValue = getReferenceValue(ours, feature);
+        String theirValue = getReferenceValue(theirs, feature);
+        
+        if(ourValue.equals(theirValue) || baseValue.equals(theirValue)) {
+            return true;
+        }
+        
+        if(baseValue.equals(ourValue)) {
+            if(feature.isMany()) {
+                ECollections.setEList((EList<EObject>)ours.eGet(feature), new ArrayList<EObject>((List<EObject>)theirs.eGet(feature)));
+            }
+            else {
+                ours.eSet(feature, theirs.eGet(feature));
+            }
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Merge a single contained object such as bounds
+     */
+    private boolean mergeContainment(EStructuralFeature feature, EObject base, EObject ours, EObject theirs) {
+        EObject baseChild = (EObject)base.eGet(feature);
+        EObject ourChild = (EObject)ours.eGet(feature);
+        EObject theirChild = (EObject)theirs.eGet(feature);
+        
+        if(baseChild != null && ourChild != null && theirChild != null
+                && baseChild.eClass() == ourChild.eClass() && baseChild.eClass() == theirChild.eClass()) {
+            return mergeObject(baseChild, ourChild, theirChild);
+        }
+        
+        if(isEqual(ourChild, theirChild) || isEqual(baseChild, theirChild)) {
+            return true;
+        }
+        
+        if(isEqual(baseChild, ourChild)) {
+            ours.eSet(feature, theirChild == null ? null : EcoreUtil.copy(theirChild));
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Merge a list of contained objects such as diagram children or properties
+     */
+    @SuppressWarnings("unchecked")
+    private boolean mergeContainmentList(EStructuralFeature feature, EObject base, EObject ours, EObject theirs) {
+        EList<EObject> ourList = (EList<EObject>)ours.eGet(feature);
+        
+        Map<String, EObject> baseChildren = getKeyedChildren(base, feature);
+        Map<String, EObject> ourChildren = getKeyedChildren(ours, feature);
+        Map<String, EObject> theirChildren = getKeyedChildren(theirs, feature);
+        
+        // Objects that can't be matched so the list is one value
+        if(baseChildren == null || ourChildren == null || theirChildren == null) {
+            List<EObject> baseList = (List<EObject>)base.eGet(feature);
+            List<EObject> theirList = (List<EObject>)theirs.eGet(feature);
+            
+            if(isEqual(ourList, theirList) || isEqual(baseList, theirList)) {
+                return true;
+            }
+            
+            if(isEqual(baseList, ourList)) {
+                ECollections.setEList(ourList, new ArrayList<EObject>(EcoreUtil.copyAll(theirList)));
+                return true;
+            }
+            
+            return false;
+        }
+        
+        // Merged objects keyed by key
+        Map<String, EObject> merged = new HashMap<String, EObject>();
+        
+        Set<String> keys = new HashSet<String>(baseChildren.keySet());
+        keys.addAll(ourChildren.keySet());
+        keys.addAll(theirChildren.keySet());
+        
+        for(String key : keys) {
+            EObject baseChild = baseChildren.get(key);
+            EObject ourChild = ourChildren.get(key);
+            EObject theirChild = theirChildren.get(key);
+            
+            // Removed by both
+            if(ourChild == null && theirChild == null) {
+                continue;
+            }
+            
+            // Removed by us
+            if(ourChild == null) {
+                if(baseChild == null) {
+                    merged.put(key, EcoreUtil.copy(theirChild));
+                }
+                else if(!isEqual(baseChild, theirChild)) {
+                    return false;
+                }
+            }
+            // Removed by them
+            else if(theirChild == null) {
+                if(baseChild == null) {
+                    merged.put(key, ourChild);
+                }
+                else if(!isEqual(baseChild, ourChild)) {
+                    return false;
+                }
+            }
+            // Added by both
+            else if(baseChild == null) {
+                if(!isEqual(ourChild, theirChild)) {
+                    return false;
+                }
+                merged.put(key, ourChild);
+            }
+            // In all three
+            else {
+                if(baseChild.eClass() == ourChild.eClass() && baseChild.eClass() == theirChild.eClass()) {
+                    if(!mergeObject(baseChild, ourChild, theirChild)) {
+                        return false;
+                    }
+                    merged.put(key, ourChild);
+                }
+                else if(isEqual(ourChild, theirChild) || isEqual(baseChild, theirChild)) {
+                    merged.put(key, ourChild);
+                }
+                else if(isEqual(baseChild, ourChild)) {
+                    merged.put(key, EcoreUtil.copy(theirChild));
+                }
+                else {
+                    return false;
+                }
+            }
+        }
+        
+        List<String> order = mergeOrder(new ArrayList<String>(baseChildren.keySet()), new ArrayList<String>(ourChildren.keySet()),
+                new ArrayList<String>(theirChildren.keySet()), merged.keySet());
+        if(order == null) {
+            return false;
+        }
+        
+        List<EObject> result = new ArrayList<EObject>();
+        for(String key : order) {
+            result.add(merged.get(key));
+        }
+        ECollections.setEList(ourList, result);
+        
+        return true;
+    }
+    
+    /**
+     * The order of the merged objects. This is our order unless only they re-ordered the objects that are in all three,
+     * and the objects that only the other side added are inserted after the object that they follow on that side.
+     * @return The keys of the merged objects in order, or null if both sides re-ordered the objects differently
+     */
+    private List<String> mergeOrder(List<String> baseKeys, List<String> ourKeys, List<String> theirKeys, Set<String> mergedKeys) {
+        List<String> baseCommon = new ArrayList<String>(baseKeys);
+        baseCommon.retainAll(ourKeys);
+        baseCommon.retainAll(theirKeys);
+        
+        List<String> ourCommon = new ArrayList<String>(ourKeys);
+        ourCommon.retainAll(baseCommon);
+        
+        List<String> theirCommon = new ArrayList<String>(theirKeys);
+        theirCommon.retainAll(baseCommon);
+        
+        boolean theyReordered = !theirCommon.equals(baseCommon);
+        if(theyReordered && !ourCommon.equals(baseCommon) && !ourCommon.equals(theirCommon)) {
+            return null;
+        }
+        
+        List<String> primary = theyReordered ? theirKeys : ourKeys;
+        List<String> secondary = theyReordered ? ourKeys : theirKeys;
+        
+        List<String> order = new ArrayList<String>();
+        for(String key : primary) {
+            if(mergedKeys.contains(key)) {
+                order.add(key);
+            }
+        }
+        
+        String previous = null;
+        for(String key : secondary) {
+            if(mergedKeys.contains(key) && !order.contains(key)) {
+                // After the objects that the other side added there
+                int index = previous == null ? 0 : order.indexOf(previous) + 1;
+                while(index < order.size() && !secondary.contains(order.get(index))) {
+                    index++;
+                }
+                order.add(index, key);
+            }
+            if(order.contains(key)) {
+                previous = key;
+            }
+        }
+        
+        return order;
+    }
+    
+    /**
+     * @return The contained objects keyed by id, or by key and occurrence if they are properties,
+     *         or null if any object can't be matched in this way
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, EObject> getKeyedChildren(EObject eObject, EStructuralFeature feature) {
+        Map<String, EObject> children = new LinkedHashMap<String, EObject>();
+        
+        for(EObject child : (List<EObject>)eObject.eGet(feature)) {
+            String key = null;
+            
+            if(child instanceof IIdentifier && ((IIdentifier)child).getId() != null) {
+                key = ((IIdentifier)child).getId();
+            }
+            else if(child instanceof IProperty) {
+                String propertyKey = "property:" + ((IProperty)child).getKey(); //$NON-NLS-1$
+                key = propertyKey;
+                for(int i = 1; children.containsKey(key); i++) {
+                    key = propertyKey + "#" + i; //$NON-NLS-1$
+                }
+            }
+            
+            if(key == null || children.containsKey(key)) {
+                return null;
+            }
+            
+            children.put(key, child);
+        }
+        
+        return children;
+    }
+    
+    /**
+     * Replace the targets of references that are not in the merged object, such as those of their objects that were copied,
+     * with the objects that have the same id in the merged object
+     * @return false if a target is no longer in the merged object
+     */
+    @SuppressWarnings("unchecked")
+    private boolean resolveReferences(EObject root) {
+        Map<String, EObject> objects = new HashMap<String, EObject>();
+        List<EObject> allObjects = new ArrayList<EObject>();
+        allObjects.add(root);
+        for(Iterator<EObject> iter = root.eAllContents(); iter.hasNext();) {
+            allObjects.add(iter.next());
+        }
+        for(EObject eObject : allObjects) {
+            if(eObject instanceof IIdentifier && ((IIdentifier)eObject).getId() != null) {
+                objects.put(((IIdentifier)eObject).getId(), eObject);
+            }
+        }
+        
+        for(EObject eObject : allObjects) {
+            for(EReference reference : eObject.eClass().getEAllReferences()) {
+                if(reference.isContainment() || reference.isContainer() || reference.isTransient() || reference.isDerived()
+                        || !reference.isChangeable() || !eObject.eIsSet(reference)) {
+                    continue;
+                }
+                
+                if(reference.isMany()) {
+                    EList<EObject> targets = (EList<EObject>)eObject.eGet(reference);
+                    List<EObject> resolved = new ArrayList<EObject>();
+                    for(EObject target : targets) {
+                        EObject resolvedTarget = resolveTarget(root, target, objects);
+                        if(resolvedTarget == null) {
+                            return false;
+                        }
+                        resolved.add(resolvedTarget);
+                    }
+                    ECollections.setEList(targets, resolved);
+                }
+                else {
+                    EObject target = (EObject)eObject.eGet(reference, false);
+                    EObject resolvedTarget = resolveTarget(root, target, objects);
+                    if(resolvedTarget == null) {
+                        return false;
+                    }
+                    if(resolvedTarget != target) {
+                        eObject.eSet(reference, resolvedTarget);
+                    }
+                }
+            }
+        }
+        
+        return true;
+    }
+    
+    private EObject resolveTarget(EObject root, EObject target, Map<String, EObject> objects) {
+        if(target == null || target.eIsProxy() || EcoreUtil.isAncestor(root, target)) {
+            return target;
+        }
+        return target instanceof IIdentifier ? objects.get(((IIdentifier)target).getId()) : null;
+    }
+    
+    private Object getValue(EObject eObject, EStructuralFeature feature) {
+        Object value = eObject.eGet(feature);
+        return feature.isMany() ? new ArrayList<Object>((List<?>)value) : value;
+    }
+    
+    /**
+     * @return The targets of a reference as a comma separated list of ids or, for proxies, hrefs
+     */
+    private String getReferenceValue(EObject eObject, EStructuralFeature feature) {
+        Object value = eObject.eGet(feature, false);
+        List<?> targets = feature.isMany() ? (List<?>)value : Collections.singletonList(value);
+        
+        StringBuilder sb = new StringBuilder();
+        for(Object target : targets) {
+            if(sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(getTargetValue((EObject)target));
+        }
+        
+        return sb.toString();
+    }
+    
+    private String getTargetValue(EObject target) {
+        if(target == null) {
+            return ""; //$NON-NLS-1$
+        }
+        if(target.eIsProxy()) {
+            return ((InternalEObject)target).eProxyURI().toString();
+        }
+        String id = target instanceof IIdentifier ? ((IIdentifier)target).getId() : null;
+        return id != null ? id : EcoreUtil.getURI(target).fragment();
+    }
+    
+    private boolean isEqual(EObject eObject1, EObject eObject2) {
+        if(eObject1 == null || eObject2 == null) {
+            return eObject1 == eObject2;
+        }
+        return flatten(eObject1).equals(flatten(eObject2));
+    }
+    
+    private boolean isEqual(List<EObject> list1, List<EObject> list2) {
+        if(list1.size() != list2.size()) {
+            return false;
+        }
+        for(int i = 0; i < list1.size(); i++) {
+            if(!isEqual(list1.get(i), list2.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return The values of the features of an object and its contents keyed by feature path
+     */
+    private Map<String, String> flatten(EObject eObject) {
+        Map<String, String> values = new TreeMap<String, String>();
+        flatten(eObject, eObject.eClass().getName() + "/", values); //$NON-NLS-1$
+        return values;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void flatten(EObject eObject, String prefix, Map<String, String> values) {
+        for(EStructuralFeature feature : eObject.eClass().getEAllStructuralFeatures()) {
+            if(feature.isTransient() || feature.isDerived() || !eObject.eIsSet(feature)) {
+                continue;
+            }
+            
+            String path = prefix + feature.getName();
+            
+            if(feature instanceof EAttribute) {
+                values.put(path, String.valueOf(eObject.eGet(feature)));
+            }
+            else if(((EReference)feature).isContainment()) {
+                List<EObject> children = feature.isMany() ? (List<EObject>)eObject.eGet(feature)
+                        : Collections.singletonList((EObject)eObject.eGet(feature));
+                int i = 0;
+                for(EObject child : children) {
+                    flatten(child, path + "[" + i++ + "]" + child.eClass().getName() + "/", values); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                }
+            }
+            else {
+                values.put(path, getReferenceValue(eObject, feature));
+            }
+        }
+    }
+}
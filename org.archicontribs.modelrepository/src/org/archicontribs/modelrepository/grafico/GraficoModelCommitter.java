@@ -0,0 +1,364 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryState;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.osgi.util.NLS;
+
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * Commits a model straight into the Git object database.
+ *
+ * The model's Grafico files and images are serialized in memory and inserted as blobs, the commit's tree is built in memory
+ * and the commit is created without writing the model's files first. Other files in the working tree, such as a README,
+ * are committed as they are, as "git add -A" would. Afterwards only those files in the working tree and the index that differ
+ * from the new commit are updated.
+ *
+ * @author Phillip Beauvoir
+ */
+public class GraficoModelCommitter {
+    
+    private IArchimateModel fModel;
+    private IArchiRepository fRepository;
+    
+    /**
+     * @param model The model to commit
+     * @param repository The repository to commit to
+     */
+    public GraficoModelCommitter(IArchimateModel model, IArchiRepository repository) {
+        if(model == null) {
+            throw new IllegalArgumentException("Model cannot be null"); //$NON-NLS-1$
+        }
+        if(repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null"); //$NON-NLS-1$
+        }
+        
+        fModel = model;
+        fRepository = repository;
+    }
+    
+    /**
+     * Commit the model
+     * Files that are not part of the model are committed as they are in the working tree, including new and deleted files.
+     * @param commitMessage The commit message
+     * @param amend If true, the previous commit is amended
+     * @return The new commit, or null if the model is the same as in HEAD
+     * @throws IOException
+     */
+    public RevCommit commitModel(String commitMessage, boolean amend) throws IOException {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(fRepository.getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            
+            // Merging or rebasing needs a normal commit
+            if(repository.getRepositoryState() != RepositoryState.SAFE) {
+                throw new IOException(Messages.GraficoModelCommitter_0);
+            }
+            
+            try(RevWalk revWalk = new RevWalk(repository); ObjectInserter inserter = repository.newObjectInserter()) {
+                ObjectId headId = repository.resolve(IGraficoConstants.HEAD + "^{commit}"); //$NON-NLS-1$
+                RevCommit headCommit = headId != null ? revWalk.parseCommit(headId) : null;
+                
+                if(amend && headCommit == null) {
+                    throw new IOException(Messages.GraficoModelCommitter_1);
+                }
+                
+                // Build the new tree in memory
+                List<DirCacheEntry> modelEntries = new ArrayList<DirCacheEntry>();
+                List<DirCacheEntry> otherEntries = new ArrayList<DirCacheEntry>();
+                ObjectId treeId = insertTree(repository, inserter, modelEntries, otherEntries);
+                
+                RevCommit newCommit = null;
+                
+                // Commit if the tree is different or we are amending
+                if(amend || headCommit == null || !treeId.equals(headCommit.getTree())) {
+                    CommitBuilder commitBuilder = new CommitBuilder();
+                    commitBuilder.setTreeId(treeId);
+                    if(amend) {
+                        commitBuilder.setParentIds(headCommit.getParents());
+                    }
+                    else if(headCommit != null) {
+                        commitBuilder.setParentId(headCommit);
+                    }
+                    commitBuilder.setAuthor(fRepository.getUserDetails());
+                    commitBuilder.setCommitter(new PersonIdent(repository));
+                    commitBuilder.setMessage(commitMessage);
+                    
+                    ObjectId commitId = inserter.insert(commitBuilder);
+                    inserter.flush();
+                    
+                    newCommit = revWalk.parseCommit(commitId);
+                    updateHead(repository, headId, newCommit, amend);
+                }
+                
+                // Bring the working tree and index in line with the commit
+                updateWorkingTree(repository, modelEntries, otherEntries);
+                
+                // The model and the Grafico files are now in sync
+                new GraficoModelExporter(fModel, fRepository.getLocalRepositoryFolder()).trackChanges();
+                
+                return newCommit;
+            }
+        }
+    }
+    
+    /**
+     * @return true if the model or the other files in the working tree are different to HEAD, or there is no HEAD.
+     *         Nothing is written to the repository.
+     * @throws IOException
+     */
+    public boolean hasChanges() throws IOException {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(fRepository.getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            
+            try(RevWalk revWalk = new RevWalk(repository); ObjectInserter inserter = new IdInserter()) {
+                ObjectId headId = repository.resolve(IGraficoConstants.HEAD + "^{commit}"); //$NON-NLS-1$
+                if(headId == null) {
+                    return true;
+                }
+                
+                RevCommit headCommit = revWalk.parseCommit(headId);
+                ObjectId treeId = insertTree(repository, inserter, new ArrayList<DirCacheEntry>(), new ArrayList<DirCacheEntry>());
+                return !treeId.equals(headCommit.getTree());
+            }
+        }
+    }
+    
+    /**
+     * Build the new tree from the model and the other files in the working tree
+     * @param modelEntries Receives the entries of the model's files
+     * @param otherEntries Receives the entries of the other files
+     * @return The id of the tree
+     */
+    private ObjectId insertTree(Repository repository, ObjectInserter inserter, List<DirCacheEntry> modelEntries, List<DirCacheEntry> otherEntries) throws IOException {
+        DirCache dirCache = DirCache.newInCore();
+        DirCacheBuilder builder = dirCache.builder();
+        
+        otherEntries.addAll(insertNonModelFiles(repository, inserter));
+        for(DirCacheEntry entry : otherEntries) {
+            builder.add(entry);
+        }
+        
+        modelEntries.addAll(insertModel(inserter));
+        for(DirCacheEntry entry : modelEntries) {
+            builder.add(entry);
+        }
+        
+        builder.finish();
+        return dirCache.writeTree(inserter);
+    }
+    
+    /**
+     * Insert the files in the working tree that are not part of the model, as "git add -A" would.
+     * Ignored files are left out unless they are in the index, and files that are the same as in the index are not read.
+     * @return The entries for the files
+     */
+    private List<DirCacheEntry> insertNonModelFiles(Repository repository, ObjectInserter inserter) throws IOException {
+        List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>();
+        
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(new DirCacheIterator(repository.readDirCache()));
+            FileTreeIterator fileTreeIterator = new FileTreeIterator(repository);
+            fileTreeIterator.setDirCacheIterator(treeWalk, 0);
+            treeWalk.addTree(fileTreeIterator);
+            
+            while(treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                DirCacheIterator indexIterator = treeWalk.getTree(0, DirCacheIterator.class);
+                WorkingTreeIterator fileIterator = treeWalk.getTree(1, WorkingTreeIterator.class);
+                
+                // Files that were deleted are not committed
+                if(fileIterator == null) {
+                    continue;
+                }
+                
+                // Untracked files that are ignored are not committed
+                if(indexIterator == null && fileIterator.isEntryIgnored()) {
+                    continue;
+                }
+                
+                if(treeWalk.isSubtree()) {
+                    if(!isModelPath(path + "/")) { //$NON-NLS-1$
+                        treeWalk.enterSubtree();
+                    }
+                    continue;
+                }
+                
+                if(isModelPath(path)) {
+                    continue;
+                }
+                
+                DirCacheEntry entry = new DirCacheEntry(path);
+                entry.setFileMode(fileIterator.getEntryFileMode());
+                entry.setLength(fileIterator.getEntryLength());
+                entry.setLastModified(fileIterator.getEntryLastModified());
+                
+                if(indexIterator != null && !fileIterator.isModified(indexIterator.getDirCacheEntry(), true, treeWalk.getObjectReader())) {
+                    entry.setObjectId(indexIterator.getEntryObjectId());
+                }
+                else if(FileMode.GITLINK.equals(fileIterator.getEntryFileMode())) {
+                    entry.setObjectId(fileIterator.getEntryObjectId());
+                }
+                else {
+                    try(InputStream in = fileIterator.openEntryStream()) {
+                        entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, fileIterator.getEntryContentLength(), in));
+                    }
+                }
+                
+                entries.add(entry);
+            }
+        }
+        
+        return entries;
+    }
+    
+    /**
+     * Serialize the model and insert its files as blobs
+     * @return The entries for the inserted blobs
+     */
+    private List<DirCacheEntry> insertModel(ObjectInserter inserter) throws IOException {
+        List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>();
+        
+        GraficoModelExporter exporter = new GraficoModelExporter(fModel, fRepository.getLocalRepositoryFolder());
+        exporter.exportModel(new GraficoModelExporter.IFileWriter() {
+            @Override
+            public void writeFile(String path, byte[] bytes, int length) throws IOException {
+                // The inserter is not thread safe
+                synchronized(entries) {
+                    DirCacheEntry entry = new DirCacheEntry(path);
+                    entry.setFileMode(FileMode.REGULAR_FILE);
+                    entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, bytes, 0, length));
+                    entries.add(entry);
+                }
+            }
+        });
+        
+        return entries;
+    }
+    
+    /**
+     * Move HEAD to the new commit
+     */
+    private void updateHead(Repository repository, ObjectId oldHeadId, RevCommit newCommit, boolean amend) throws IOException {
+        String prefix = amend ? "commit (amend): " : oldHeadId == null ? "commit (initial): " : "commit: "; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        
+        RefUpdate refUpdate = repository.updateRef(IGraficoConstants.HEAD);
+        refUpdate.setNewObjectId(newCommit);
+        refUpdate.setExpectedOldObjectId(oldHeadId != null ? oldHeadId : ObjectId.zeroId());
+        refUpdate.setRefLogMessage(prefix + newCommit.getShortMessage(), false);
+        
+        RefUpdate.Result result = refUpdate.forceUpdate();
+        switch(result) {
+            case NEW:
+            case FORCED:
+            case FAST_FORWARD:
+                break;
+            
+            default:
+                throw new IOException(NLS.bind(Messages.GraficoModelCommitter_2, result.name()));
+        }
+    }
+    
+    /**
+     * Write the model's files that are different in the working tree, delete files no longer part of the model
+     * and update the index
+     * @param otherEntries The entries of the other files, which are already the same as the working tree
+     */
+    private void updateWorkingTree(Repository repository, List<DirCacheEntry> modelEntries, List<DirCacheEntry> otherEntries) throws IOException {
+        File workTree = repository.getWorkTree();
+        
+        DirCache index = repository.lockDirCache();
+        
+        try {
+            DirCacheBuilder builder = index.builder();
+            Set<String> modelPaths = new HashSet<String>();
+            
+            for(DirCacheEntry entry : otherEntries) {
+                builder.add(entry);
+            }
+            
+            for(DirCacheEntry entry : modelEntries) {
+                String path = entry.getPathString();
+                modelPaths.add(path);
+                
+                File file = new File(workTree, path);
+                DirCacheEntry indexEntry = index.getEntry(path);
+                
+                // Only write the file if the index doesn't already have it or the file was modified
+                if(indexEntry == null || !indexEntry.getObjectId().equals(entry.getObjectId())
+                        || indexEntry.getLength() != file.length()
+                        || indexEntry.getLastModified() != repository.getFS().lastModified(file)) {
+                    byte[] bytes = repository.open(entry.getObjectId(), Constants.OBJ_BLOB).getCachedBytes();
+                    GraficoUtils.writeBytesIfChanged(file, bytes, bytes.length);
+                }
+                
+                DirCacheEntry newEntry = new DirCacheEntry(path);
+                newEntry.setFileMode(FileMode.REGULAR_FILE);
+                newEntry.setObjectId(entry.getObjectId());
+                newEntry.setLength(file.length());
+                newEntry.setLastModified(repository.getFS().lastModified(file));
+                builder.add(newEntry);
+            }
+            
+            for(int i = 0; i < index.getEntryCount(); i++) {
+                String path = index.getEntry(i).getPathString();
+                
+                // Delete files that are no longer part of the model
+                if(isModelPath(path) && !modelPaths.contains(path)) {
+                    GraficoUtils.deleteFile(new File(workTree, path), workTree);
+                }
+            }
+            
+            builder.commit();
+        }
+        finally {
+            index.unlock();
+        }
+    }
+    
+    /**
+     * @return true if path is in the model or images folder
+     */
+    private boolean isModelPath(String path) {
+        return path.startsWith(IGraficoConstants.MODEL_FOLDER + "/") || path.startsWith(IGraficoConstants.IMAGES_FOLDER + "/"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    /**
+     * Computes the ids of objects without inserting them
+     */
+    private static class IdInserter extends ObjectInserter.Formatter {
+        @Override
+        public ObjectId insert(int objectType, long length, InputStream in) throws IOException {
+            return idFor(objectType, length, in);
+        }
+    }
+}
@@ -8,11 +8,16 @@ package org.archicontribs.modelrepository.grafico;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
@@ -23,20 +28,12 @@ import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.jobs.JobGroup;
-import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.resource.Resource;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ExtensibleURIConverterImpl;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
-import org.eclipse.emf.ecore.util.EcoreUtil;
-import org.eclipse.emf.ecore.xmi.XMLResource;
-import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
 import org.eclipse.swt.custom.BusyIndicator;
 import org.eclipse.swt.widgets.Display;
 
 import com.archimatetool.editor.model.IArchiveManager;
-import com.archimatetool.editor.utils.FileUtils;
+import com.archimatetool.editor.model.IEditorModelManager;
 import com.archimatetool.model.FolderType;
 import com.archimatetool.model.IArchimateModel;
 import com.archimatetool.model.IDiagramModelImageProvider;
@@ -66,11 +63,19 @@ public class GraficoModelExporter {
         }
     }
     
-	/**
-	 * ResourceSet
-	 */
-	private ResourceSet fResourceSet;
-	
+    /**
+     * Writes the content of a serialized Grafico or image file
+     */
+    public interface IFileWriter {
+        /**
+         * @param path The file path relative to the local repo folder, using "/" as separator
+         * @param bytes The content
+         * @param length The length of the content
+         * @throws IOException
+         */
+        void writeFile(String path, byte[] bytes, int length) throws IOException;
+    }
+    
     /**
      * Model
      */
@@ -81,6 +86,16 @@ public class GraficoModelExporter {
      */
     private File fLocalRepoFolder;
     
+    /**
+     * Writes files to the local repo folder if their content is different
+     */
+    private IFileWriter fDiskWriter = new IFileWriter() {
+        @Override
+        public void writeFile(String path, byte[] bytes, int length) throws IOException {
+            GraficoUtils.writeBytesIfChanged(new File(fLocalRepoFolder, path), bytes, length);
+        }
+    };
+    
 	/**
 	 * @param model The model to export
 	 * @param folder The root folder in which to write the grafico XML files
@@ -103,46 +118,245 @@ public class GraficoModelExporter {
      */
     public void exportModel() throws IOException {
         // Define target folders for model and images
-        // Delete them and re-create them (remark: FileUtils.deleteFolder() does sanity checks)
+        // Existing files are only overwritten if their content changes, files no longer used are deleted
         File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
-        FileUtils.deleteFolder(modelFolder);
         modelFolder.mkdirs();
 
         File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
-        FileUtils.deleteFolder(imagesFolder);
         imagesFolder.mkdirs();
 
-        // Save model images (if any): this has to be done on original model (not a copy)
-        saveImages();
+        // Save model images (if any)
+        saveImages(false);
         
-        // Create ResourceSet
-        fResourceSet = new ResourceSetImpl();
-        fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-        // Add a URIConverter that will be used to map full filenames to logical names
-        fResourceSet.setURIConverter(new ExtensibleURIConverterImpl());
+        // Serialize all objects to their files
+        Map<EObject, String> files = getFiles();
+        saveFiles(files, fDiskWriter);
         
-        // Now work on a copy
-        IArchimateModel copy = EcoreUtil.copy(fModel);
+        // Delete files of objects that no longer exist
+        Map<String, String> paths = getFilePaths(files);
+        Set<File> usedFiles = new HashSet<File>();
+        for(String path : paths.values()) {
+            usedFiles.add(new File(fLocalRepoFolder, path));
+        }
+        deleteUnusedFiles(modelFolder, usedFiles);
+        
+        // The model and the Grafico files are now in sync
+        GraficoChangeTracker.install(fModel, paths);
+    }
+    
+    /**
+     * Serialize the model's Grafico files and images without writing anything to the local repo folder
+     * @param writer Receives the content of each file
+     * @throws IOException
+     */
+    public void exportModel(IFileWriter writer) throws IOException {
+        // Images
+        IArchiveManager archiveManager = getArchiveManager();
+        for(String imagePath : getImagePaths()) {
+            byte[] bytes = archiveManager.getBytesFromEntry(imagePath);
+            if(bytes != null) {
+                writer.writeFile(imagePath, bytes, bytes.length);
+            }
+        }
+        
+        // Grafico files
+        saveFiles(getFiles(), writer);
+    }
+    
+    /**
+     * Start tracking changes to the model so that later exports can be incremental.
+     * This assumes that the model's Grafico files are in sync with the model.
+     */
+    public void trackChanges() {
+        GraficoChangeTracker.install(fModel, getFilePaths());
+    }
+    
+    /**
+     * Export the IArchimateModel as Grafico files, writing only those files of objects that have changed since the model
+     * was last exported or loaded, and deleting the files of objects that no longer exist.
+     * If the model's changes have not been tracked then a full export is done.
+     * @throws IOException
+     */
+    public void exportModelIncremental() throws IOException {
+        File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
+        
+        GraficoChangeTracker tracker = GraficoChangeTracker.getTracker(fModel);
+        if(tracker == null || !modelFolder.isDirectory()) {
+            exportModel();
+            return;
+        }
+        
+        Map<String, String> oldPaths = tracker.getFilePaths();
+        Map<EObject, String> files = getFiles();
+        Map<String, String> newPaths = getFilePaths(files);
+        
+        // Objects whose files have to be written because they changed, moved, or the file was changed or deleted by someone else
+        Set<String> changedIds = new HashSet<String>();
+        
+        for(Entry<String, String> entry : newPaths.entrySet()) {
+            String id = entry.getKey();
+            String path = entry.getValue();
+            if(tracker.getDirtyIds().contains(id) || !path.equals(oldPaths.get(id)) || isModifiedOnDisk(path, tracker.getSyncTime())) {
+                changedIds.add(id);
+            }
+        }
+        
+        // Delete files of objects that were deleted or moved
+        Set<String> newPathSet = new HashSet<String>(newPaths.values());
+        for(String path : oldPaths.values()) {
+            if(!newPathSet.contains(path)) {
+                GraficoUtils.deleteFile(new File(fLocalRepoFolder, path), modelFolder);
+            }
+        }
+        
+        // Save model images (if any) that are not already saved and delete unused images
+        saveImages(true);
+        
+        // Only save the changed objects
+        if(!changedIds.isEmpty()) {
+            Map<EObject, String> changedFiles = new LinkedHashMap<EObject, String>();
+            
+            for(Entry<EObject, String> entry : files.entrySet()) {
+                if(changedIds.contains(((IIdentifier)entry.getKey()).getId())) {
+                    changedFiles.put(entry.getKey(), entry.getValue());
+                }
+            }
+            
+            saveFiles(changedFiles, fDiskWriter);
+        }
+        
+        // The model and the Grafico files are now in sync
+        tracker.reset(newPaths);
+    }
+    
+    /**
+     * @return The Grafico file paths of all objects in the model that are saved in their own file,
+     *         keyed by object id, relative to the local repo folder
+     */
+    Map<String, String> getFilePaths() {
+        return getFilePaths(getFiles());
+    }
+    
+    private Map<String, String> getFilePaths(Map<EObject, String> files) {
+        Map<String, String> paths = new HashMap<String, String>();
+        for(Entry<EObject, String> entry : files.entrySet()) {
+            paths.put(((IIdentifier)entry.getKey()).getId(), entry.getValue());
+        }
+        return paths;
+    }
+    
+    /**
+     * @return All objects in the model that are saved in their own file and their file paths relative to the local repo folder
+     */
+    private Map<EObject, String> getFiles() {
+        Map<EObject, String> files = new LinkedHashMap<EObject, String>();
+        addFiles(fModel, IGraficoConstants.MODEL_FOLDER, files);
+        files.put(fModel, IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML); //$NON-NLS-1$
+        return files;
+    }
+    
+    private void addFiles(IFolderContainer folderContainer, String path, Map<EObject, String> files) {
+        for(IFolder folder : folderContainer.getFolders()) {
+            String folderPath = path + "/" + getNameFor(folder); //$NON-NLS-1$
+            files.put(folder, folderPath + "/" + IGraficoConstants.FOLDER_XML); //$NON-NLS-1$
+            
+            addFiles(folder, folderPath, files);
+            
+            for(EObject element : folder.getElements()) {
+                files.put(element, folderPath + "/" + getFileNameFor(element)); //$NON-NLS-1$
+            }
+        }
+    }
+    
+    /**
+     * @return true if the file at path does not exist or has been modified since time
+     */
+    private boolean isModifiedOnDisk(String path, long time) {
+        long lastModified = new File(fLocalRepoFolder, path).lastModified();
+        return lastModified == 0 || lastModified > time;
+    }
+    
+    /**
+     * Delete all files in a folder and its sub-folders that are not used, and any folders that are then empty
+     * @return true if the folder is empty
+     */
+    private boolean deleteUnusedFiles(File folder, Set<File> usedFiles) throws IOException {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return false;
+        }
+        
+        boolean isEmpty = true;
+        
+        for(File file : files) {
+            if(file.isDirectory()) {
+                if(deleteUnusedFiles(file, usedFiles)) {
+                    Files.delete(file.toPath());
+                }
+                else {
+                    isEmpty = false;
+                }
+            }
+            else if(!usedFiles.contains(file)) {
+                Files.delete(file.toPath());
+            }
+            else {
+                isEmpty = false;
+            }
+        }
+        
+        return isEmpty;
+    }
+    
+    /**
+     * Serialize objects to their files in parallel.
+     * 
+     * The live model is serialized rather than a copy. This is safe because the serializer only reads the model:
+     * it never resolves proxies, it checks eIsSet() before getting a list so that no lists are created lazily,
+     * and it reads lists with basicList() so that no notifications are sent. Each object is serialized by exactly one
+     * Job, and the Jobs share only reads of the ids and containers of referenced objects. A model that is open in Archi
+     * is changed by commands on the UI thread, so it must be exported on that thread, which is blocked until all Jobs are done
+     * and so the model can't change while it is being read. Models that are not open are not shared with commands.
+     * 
+     * @param files The objects and their file paths
+     * @param writer The writer for the serialized objects
+     * @throws IOException
+     */
+    private void saveFiles(Map<EObject, String> files, IFileWriter writer) throws IOException {
+        if(files.isEmpty()) {
+            return;
+        }
+        
+        if(Display.getCurrent() == null && IEditorModelManager.INSTANCE.isModelLoaded(fModel)) {
+            throw new IllegalStateException("A model that is open must be exported on the UI thread"); //$NON-NLS-1$
+        }
+        
+        // Each Job takes objects from the queue with its own serializer
+        final Queue<Entry<EObject, String>> queue = new ConcurrentLinkedQueue<Entry<EObject, String>>(files.entrySet());
         
-        // Create directory structure and prepare all Resources
-        createAndSaveResourceForFolder(copy, modelFolder);
-
-        // Now save all Resources
         int maxThreads = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_EXPORT_MAX_THREADS);
-        JobGroup jobgroup = new JobGroup("GraficoModelExporter", maxThreads, 1); //$NON-NLS-1$
+        int jobCount = Math.max(1, Math.min(maxThreads, files.size()));
+        JobGroup jobgroup = new JobGroup("GraficoModelExporter", jobCount, 1); //$NON-NLS-1$
         
         final ExceptionProgressMonitor pm = new ExceptionProgressMonitor();
         
-        for(Resource resource : fResourceSet.getResources()) {
-            Job job = new Job("Resource Save Job") { //$NON-NLS-1$
+        for(int i = 0; i < jobCount; i++) {
+            Job job = new Job("Grafico Save Job") { //$NON-NLS-1$
                 @Override
                 protected IStatus run(IProgressMonitor monitor) {
-                    try {
-                        resource.save(null);
-                    }
-                    catch(IOException ex) {
-                        pm.catchException(ex);
+                    GraficoSerializer serializer = new GraficoSerializer();
+                    
+                    Entry<EObject, String> entry;
+                    while(!pm.isCanceled() && (entry = queue.poll()) != null) {
+                        try {
+                            serializer.serialize(entry.getKey());
+                            writer.writeFile(entry.getValue(), serializer.getBytes(), serializer.getLength());
+                        }
+                        catch(IOException ex) {
+                            pm.catchException(ex);
+                        }
                     }
+                    
                     return Status.OK_STATUS;
                 }
             };
@@ -168,42 +382,6 @@ public class GraficoModelExporter {
         }
     }
     
-    /**
-     * For each folder inside model, create a directory and a Resource to save it.
-     * For each element, create a Resource to save it
-     * 
-     * @param folderContainer Model or folder to work on 
-     * @param folder Directory in which to generate files
-     * @throws IOException
-     */
-    private void createAndSaveResourceForFolder(IFolderContainer folderContainer, File folder) throws IOException {
-        // Save each children folders
-        List<IFolder> allFolders = new ArrayList<IFolder>();
-        allFolders.addAll(folderContainer.getFolders());
-        
-        for(IFolder tmpFolder : allFolders) {
-            File tmpFolderFile = new File(folder, getNameFor(tmpFolder));
-            tmpFolderFile.mkdirs();
-            createAndSaveResource(new File(tmpFolderFile, IGraficoConstants.FOLDER_XML), tmpFolder);
-            createAndSaveResourceForFolder(tmpFolder, tmpFolderFile);
-        }
-        
-        // Save each children elements
-        if(folderContainer instanceof IFolder) {
-            // Save each children element
-            List<EObject> allElements = new ArrayList<EObject>();
-            allElements.addAll(((IFolder)folderContainer).getElements());
-            for(EObject tmpElement : allElements) {
-                createAndSaveResource(
-                        new File(folder, tmpElement.getClass().getSimpleName() + "_" + ((IIdentifier)tmpElement).getId() + ".xml"), //$NON-NLS-1$ //$NON-NLS-2$
-                        tmpElement);
-            }
-        }
-        if(folderContainer instanceof IArchimateModel) {
-            createAndSaveResource(new File(folder, IGraficoConstants.FOLDER_XML), folderContainer);
-        }
-    }
-    
     /**
      * Generate a proper name for directory creation
      *  
@@ -215,71 +393,71 @@ public class GraficoModelExporter {
     }
     
     /**
-     * Save the model to Resource
+     * Generate the file name for an element
      * 
-     * @param file
-     * @param object
-     * @throws IOException
+     * @param element
+     * @return
      */
-    private void createAndSaveResource(File file, EObject object) throws IOException {
-    	// Update the URIConverter
-        // Map the logical name (filename) to the physical name (path+filename)
-        URI key = file.getName().equals(IGraficoConstants.FOLDER_XML) ? URI.createFileURI(file.getAbsolutePath()) : URI.createFileURI(file.getName());
-        URI value = URI.createFileURI(file.getAbsolutePath());
-        fResourceSet.getURIConverter().getURIMap().put(key, value);
-
-        // Create a new resource for selected file and add object to persist
-        XMLResource resource = (XMLResource)fResourceSet.createResource(key);
-        
-        // Use UTF-8 and don't start with an XML declaration
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_DECLARE_XML, Boolean.FALSE);
-        
-        // Make the produced XML easy to read
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_FORMATTED, Boolean.TRUE);
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_LINE_WIDTH, new Integer(5));
-        
-        // Don't use encoded attribute. Needed to have proper references inside Diagrams
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_USE_ENCODED_ATTRIBUTE_STYLE, Boolean.FALSE);
-        
-        // Use cache
-        resource.getDefaultSaveOptions().put(XMLResource.OPTION_CONFIGURATION_CACHE, Boolean.TRUE);
-        
-        // Use UNIX line endings to avoid EOL diffs
-        resource.getDefaultSaveOptions().put(Resource.OPTION_LINE_DELIMITER, "\n"); //$NON-NLS-1$
-
-        // Add the object to the resource
-        resource.getContents().add(object);
+    private String getFileNameFor(EObject element) {
+        return element.getClass().getSimpleName() + "_" + ((IIdentifier)element).getId() + ".xml"; //$NON-NLS-1$ //$NON-NLS-2$
     }
     
     /**
      * Extract and save images used inside a model
+     * Images are only written if they are different and images that are no longer used are deleted
      * 
-     * @param model
-     * @param folder
+     * @param incremental If true don't check the content of images that exist
      * @throws IOException
      */
-    private void saveImages() throws IOException {
-        List<String> added = new ArrayList<String>();
-
-        IArchiveManager archiveManager = (IArchiveManager)fModel.getAdapter(IArchiveManager.class);
-        if(archiveManager == null) {
-            archiveManager = IArchiveManager.FACTORY.createArchiveManager(fModel);
+    private void saveImages(boolean incremental) throws IOException {
+        IArchiveManager archiveManager = getArchiveManager();
+        Set<String> imagePaths = getImagePaths();
+        
+        for(String imagePath : imagePaths) {
+            File file = new File(fLocalRepoFolder, imagePath);
+            if(!incremental || !file.exists()) {
+                byte[] bytes = archiveManager.getBytesFromEntry(imagePath);
+                if(bytes != null) {
+                    GraficoUtils.writeBytesIfChanged(file, bytes, bytes.length);
+                }
+            }
         }
         
-        byte[] bytes;
-
+        // Delete images that are no longer used
+        File[] files = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER).listFiles();
+        if(files != null) {
+            for(File file : files) {
+                if(file.isFile() && !imagePaths.contains(IGraficoConstants.IMAGES_FOLDER + "/" + file.getName())) { //$NON-NLS-1$
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return The paths of all images used in the model
+     */
+    private Set<String> getImagePaths() {
+        Set<String> imagePaths = new LinkedHashSet<String>();
+        
         for(Iterator<EObject> iter = fModel.eAllContents(); iter.hasNext();) {
             EObject eObject = iter.next();
             if(eObject instanceof IDiagramModelImageProvider) {
-                IDiagramModelImageProvider imageProvider = (IDiagramModelImageProvider)eObject;
-                String imagePath = imageProvider.getImagePath();
-                if(imagePath != null && !added.contains(imagePath)) {
-                    bytes = archiveManager.getBytesFromEntry(imagePath);
-                    Files.write(Paths.get(fLocalRepoFolder.getAbsolutePath() + File.separator + imagePath), bytes, StandardOpenOption.CREATE);
-                    added.add(imagePath);
+                String imagePath = ((IDiagramModelImageProvider)eObject).getImagePath();
+                if(imagePath != null) {
+                    imagePaths.add(imagePath);
                 }
             }
         }
+        
+        return imagePaths;
+    }
+    
+    private IArchiveManager getArchiveManager() {
+        IArchiveManager archiveManager = (IArchiveManager)fModel.getAdapter(IArchiveManager.class);
+        if(archiveManager == null) {
+            archiveManager = IArchiveManager.FACTORY.createArchiveManager(fModel);
+        }
+        return archiveManager;
     }
 }
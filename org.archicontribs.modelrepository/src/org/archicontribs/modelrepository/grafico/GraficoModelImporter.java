@@ -5,33 +5,41 @@
  */
 package org.archicontribs.modelrepository.grafico;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.GraficoModelExporter.ExceptionProgressMonitor;
+import org.archicontribs.modelrepository.grafico.GraficoParser.CrossReference;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.InternalEObject;
 import org.eclipse.emf.ecore.util.EcoreUtil;
-import org.eclipse.emf.ecore.xmi.XMLResource;
-import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 
 import com.archimatetool.editor.model.IArchiveManager;
 import com.archimatetool.model.FolderType;
-import com.archimatetool.model.IArchimateConcept;
 import com.archimatetool.model.IArchimateElement;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
 import com.archimatetool.model.IArchimateRelationship;
-import com.archimatetool.model.IDiagramModel;
 import com.archimatetool.model.IDiagramModelArchimateConnection;
 import com.archimatetool.model.IDiagramModelArchimateObject;
-import com.archimatetool.model.IDiagramModelReference;
 import com.archimatetool.model.IFolder;
 import com.archimatetool.model.IIdentifier;
 
@@ -72,9 +80,23 @@ public class GraficoModelImporter {
     private List<UnresolvedObject> fUnresolvedObjects;
     
     /**
-     * Resource Set
+     * A folder to load with the indexes of its files in fFiles
      */
-    private ResourceSet fResourceSet;
+    private static class FolderEntry {
+        int index;
+        List<Integer> elements = new ArrayList<Integer>();
+        List<FolderEntry> folders = new ArrayList<FolderEntry>();
+    }
+    
+    // Number of files a worker parses at a time
+    private static final int CHUNK_SIZE = 32;
+    
+    /**
+     * All XML files to load and the objects and references to other files loaded from them, in the same order
+     */
+    private List<String> fFiles;
+    private EObject[] fObjects;
+    private List<CrossReference> fCrossReferences;
     
     /**
      * Model
@@ -82,10 +104,20 @@ public class GraficoModelImporter {
     private IArchimateModel fModel;
     
     /**
-     * Local repo folder
+     * Local repo folder, if importing from the file system
      */
     private File fLocalRepoFolder;
     
+    /**
+     * Source of the grafico XML files
+     */
+    private IGraficoSource fSource;
+    
+    /**
+     * Snapshot of the tree that the grafico XML files are the same as, if known
+     */
+    private GraficoModelSnapshot fSnapshot;
+    
     /**
      * @param folder The folder containing the grafico XML files
      */
@@ -95,6 +127,18 @@ public class GraficoModelImporter {
         }
         
         fLocalRepoFolder = folder;
+        fSource = new GraficoFileSource(folder);
+    }
+    
+    /**
+     * @param source The source of the grafico XML files, such as the tree of a commit
+     */
+    public GraficoModelImporter(IGraficoSource source) {
+        if(source == null) {
+            throw new IllegalArgumentException("Source cannot be null"); //$NON-NLS-1$
+        }
+        
+        fSource = source;
     }
 	
     /**
@@ -102,37 +146,45 @@ public class GraficoModelImporter {
      * @throws IOException
      */
     public IArchimateModel importAsModel() throws IOException {
-    	// Create folders for model and images
-    	File modelFolder = new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER);
-        modelFolder.mkdirs();
-
-        File imagesFolder = new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER);
-    	imagesFolder.mkdirs();
+        // Create folders for model and images
+        if(fLocalRepoFolder != null) {
+            new File(fLocalRepoFolder, IGraficoConstants.MODEL_FOLDER).mkdirs();
+            new File(fLocalRepoFolder, IGraficoConstants.IMAGES_FOLDER).mkdirs();
+        }
     	
     	// If the top folder.xml does not exist then there is nothing to import, so return null
-    	if(!(new File(modelFolder, IGraficoConstants.FOLDER_XML)).isFile()) {
+    	if(!fSource.isFile(IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML)) { //$NON-NLS-1$
     	    return null;
     	}
     	
-    	// Create ResourceSet
-    	fResourceSet = new ResourceSetImpl();
-    	fResourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-    	
-    	// Reset the ID -> Object lookup table
-    	fIDLookup = new HashMap<String, IIdentifier>();
-    	
-        // Load the Model from files (it will contain unresolved proxies)
-    	fModel = loadModel(modelFolder);
+    	fUnresolvedObjects = null;
     	
-    	// Remove model from its resource (needed to save it back to a .archimate file)
-    	fResourceSet.getResource(URI.createFileURI((new File(modelFolder, IGraficoConstants.FOLDER_XML)).getAbsolutePath()), true).getContents().remove(fModel);
+    	// Load the Model from the snapshot of the tree if there is one
+    	fSnapshot = findSnapshot();
+    	fModel = fSnapshot != null ? fSnapshot.load() : null;
     	
-    	// Resolve proxies
-    	fUnresolvedObjects = null;
-    	resolveProxies();
+    	if(fModel == null) {
+    	    // Load the Model from files (references to objects in other files are collected by the parser)
+    	    fModel = loadModel(IGraficoConstants.MODEL_FOLDER);
+    	    
+    	    // Resolve references to objects in other files
+    	    resolveCrossReferences();
+    	    
+    	    // Save a snapshot of the working tree for next time. A model with unresolved objects is not saved as it will be changed.
+    	    // Models imported from other trees, such as to extract or merge a commit, are not saved so that they don't
+    	    // take the place of the working tree's snapshot.
+    	    if(fSnapshot != null && fLocalRepoFolder != null && fUnresolvedObjects == null) {
+    	        try {
+    	            fSnapshot.save(fModel);
+    	        }
+    	        catch(IOException ex) {
+    	            ex.printStackTrace();
+    	        }
+    	    }
+    	}
 
     	// Load images
-    	loadImages(imagesFolder);
+    	loadImages(IGraficoConstants.IMAGES_FOLDER);
 
     	return fModel;
     }
@@ -144,93 +196,123 @@ public class GraficoModelImporter {
         return fUnresolvedObjects;
     }
     
+    /**
+     * @return The snapshot of the tree that the imported grafico XML files are the same as, or null if not known
+     */
+    GraficoModelSnapshot getSnapshot() {
+        return fSnapshot;
+    }
+    
+    /**
+     * @return The snapshot of the tree that the grafico XML files are the same as, or null if they might not be the same as a tree.
+     *         Files in a local repo folder are the same as the tree of HEAD if Git has no changes to them.
+     * @throws IOException
+     */
+    private GraficoModelSnapshot findSnapshot() throws IOException {
+        if(fSource instanceof GraficoTreeSource) {
+            GraficoTreeSource treeSource = (GraficoTreeSource)fSource;
+            return new GraficoModelSnapshot(treeSource.getRepository().getDirectory(), treeSource.getTreeId());
+        }
+        
+        if(fLocalRepoFolder != null && GraficoUtils.isGitRepository(fLocalRepoFolder)) {
+            try(Git git = RepositoryHandleCache.INSTANCE.open(fLocalRepoFolder)) {
+                Repository repository = git.getRepository();
+                
+                ObjectId treeId = repository.resolve(IGraficoConstants.HEAD + "^{tree}"); //$NON-NLS-1$
+                if(treeId != null && GraficoUtils.isWorkingTreeSameAsTree(repository, treeId)) {
+                    return new GraficoModelSnapshot(repository.getDirectory(), treeId);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
     /**
      * Read images from images subfolder and load them into the model
      * 
-     * @param model
      * @param folder
      * @throws IOException
      */
-    private void loadImages(File folder) throws IOException {
+    private void loadImages(String folder) throws IOException {
         IArchiveManager archiveManager = IArchiveManager.FACTORY.createArchiveManager(fModel);
         byte[] bytes;
+        
+        String[] names = fSource.list(folder);
+        if(names == null) {
+            return;
+        }
 
         // Add all images files
-        for(File imageFile : folder.listFiles()) {
-            if(imageFile.isFile()) {
-                bytes = Files.readAllBytes(imageFile.toPath());
+        for(String name : names) {
+            if(!name.endsWith("/")) { //$NON-NLS-1$
+                bytes = fSource.getBytes(folder + "/" + name); //$NON-NLS-1$
                 // /!\ This must match the prefix used in
                 // ArchiveManager.createArchiveImagePathname
-                archiveManager.addByteContentEntry("images/" + imageFile.getName(), bytes); //$NON-NLS-1$
+                archiveManager.addByteContentEntry("images/" + name, bytes); //$NON-NLS-1$
             }
         }
     }    
    
     /**
-     * Iterate through all model objects, and resolve proxies on known classes
+     * Resolve all references to objects in other files against the ID lookup table.
+     * References that can't be resolved are set to a proxy and added to the unresolved objects.
      */
-    private void resolveProxies() {
-        for(Iterator<EObject> iter = fModel.eAllContents(); iter.hasNext();) {
-            EObject eObject = iter.next();
-
-            if(eObject instanceof IArchimateRelationship) {
-                // Resolve proxies for Relations
-                IArchimateRelationship relation = (IArchimateRelationship)eObject;
-                relation.setSource((IArchimateConcept)resolve(relation.getSource(), relation));
-                relation.setTarget((IArchimateConcept)resolve(relation.getTarget(), relation));
-            }
-            else if(eObject instanceof IDiagramModelArchimateObject) {
-                // Resolve proxies for Elements
-                IDiagramModelArchimateObject element = (IDiagramModelArchimateObject)eObject;
-                element.setArchimateElement((IArchimateElement)resolve(element.getArchimateElement(), element));
-                // Update cross-references
-                element.getArchimateElement().getReferencingDiagramObjects().add(element);
-            }
-            else if(eObject instanceof IDiagramModelArchimateConnection) {
-                // Resolve proxies for Connections
-                IDiagramModelArchimateConnection archiConnection = (IDiagramModelArchimateConnection)eObject;
-                archiConnection.setArchimateRelationship((IArchimateRelationship)resolve(archiConnection.getArchimateRelationship(), archiConnection));
-                // Update cross-reference
-                archiConnection.getArchimateRelationship().getReferencingDiagramConnections().add(archiConnection);
-            }
-            else if(eObject instanceof IDiagramModelReference) {
-                // Resolve proxies for Model References
-                IDiagramModelReference element = (IDiagramModelReference)eObject;
-                element.setReferencedModel((IDiagramModel)resolve(element.getReferencedModel(), element));
-            }
-        }
-    }
-
-    /**
-     * Check if 'object' is a proxy. if yes, replace it with real object from mapping table.
-     */
-    private EObject resolve(IIdentifier object, IIdentifier parent) {
-        if(object != null && object.eIsProxy()) {
-            URI objectURI = EcoreUtil.getURI(object);
-            String objectID = EcoreUtil.getURI(object).fragment();
-            
-            // Get proxy object
-            IIdentifier newObject = fIDLookup.get(objectID);
+    private void resolveCrossReferences() {
+        for(CrossReference reference : fCrossReferences) {
+            EObject target = fIDLookup.get(reference.getID());
             
-            // If proxy has not been resolved
-            if(newObject == null) {
-                // Add to list
+            // If the object has not been loaded use a proxy and add it to the list
+            if(target == null) {
+                URI uri = reference.getURI();
+                target = EcoreUtil.create(reference.type);
+                ((InternalEObject)target).eSetProxyURI(uri);
+                
                 if(fUnresolvedObjects == null) {
                     fUnresolvedObjects = new ArrayList<UnresolvedObject>();
                 }
-                fUnresolvedObjects.add(new UnresolvedObject(objectURI, parent));
+                fUnresolvedObjects.add(new UnresolvedObject(uri, getIdentifier(reference.owner)));
             }
             
-            return newObject == null ? object : newObject;
+            setReference(reference.owner, reference, target);
+        }
+        
+        fCrossReferences = null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void setReference(EObject owner, CrossReference reference, EObject target) {
+        if(reference.feature.isMany()) {
+            ((List<EObject>)owner.eGet(reference.feature)).add(target);
         }
         else {
-            return object;
+            owner.eSet(reference.feature, target);
+        }
+        
+        // Update cross-references
+        if(reference.feature == IArchimatePackage.Literals.DIAGRAM_MODEL_ARCHIMATE_OBJECT__ARCHIMATE_ELEMENT) {
+            ((IArchimateElement)target).getReferencingDiagramObjects().add((IDiagramModelArchimateObject)owner);
+        }
+        else if(reference.feature == IArchimatePackage.Literals.DIAGRAM_MODEL_ARCHIMATE_CONNECTION__ARCHIMATE_RELATIONSHIP) {
+            ((IArchimateRelationship)target).getReferencingDiagramConnections().add((IDiagramModelArchimateConnection)owner);
         }
     }
     
-	private IArchimateModel loadModel(File folder) throws IOException {
-		IArchimateModel model = (IArchimateModel)loadElement(new File(folder, IGraficoConstants.FOLDER_XML));
-		IFolder tmpFolder;
+    /**
+     * @return The object itself or its nearest container that has an identifier
+     */
+    private IIdentifier getIdentifier(EObject eObject) {
+        while(eObject != null && !(eObject instanceof IIdentifier)) {
+            eObject = eObject.eContainer();
+        }
+        return (IIdentifier)eObject;
+    }
+    
+	private IArchimateModel loadModel(String folder) throws IOException {
+	    fFiles = new ArrayList<String>();
+	    
+	    // Collect the files of the model and its folders
+	    int modelIndex = addFile(folder + "/" + IGraficoConstants.FOLDER_XML); //$NON-NLS-1$
 		
 		List<FolderType> folderList = new ArrayList<FolderType>();
 		folderList.add(FolderType.STRATEGY);
@@ -242,63 +324,183 @@ public class GraficoModelImporter {
 		folderList.add(FolderType.OTHER);
 		folderList.add(FolderType.RELATIONS);
 		folderList.add(FolderType.DIAGRAMS);
+		
+		List<FolderEntry> folderEntries = new ArrayList<FolderEntry>();
 
 		// Loop based on FolderType enumeration
 		for(FolderType folderType : folderList) {
-		    if((tmpFolder = loadFolder(new File(folder, folderType.toString()))) != null) {
-		        model.getFolders().add(tmpFolder);
-		    }
+		    folderEntries.add(createFolderEntry(folder + "/" + folderType.toString())); //$NON-NLS-1$
 		}
 		
+		// Load all files
+		loadFiles();
+		
+		// Assemble the model in the same order as the files were found
+		IArchimateModel model = (IArchimateModel)fObjects[modelIndex];
+		
+		for(FolderEntry folderEntry : folderEntries) {
+		    model.getFolders().add(createFolder(folderEntry));
+		}
+		
+		fFiles = null;
+		fObjects = null;
+		
 		return model;
 	}
 	
 	/**
-	 * Load each XML file to recreate original object
+	 * Collect the XML files of a folder and its sub-folders
 	 * 
 	 * @param folder
-	 * @return Model folder
+	 * @return The folder entry
 	 * @throws IOException 
 	 */
-    private IFolder loadFolder(File folder) throws IOException {
-        if(!folder.isDirectory() || !(new File(folder, IGraficoConstants.FOLDER_XML)).isFile()) {
+    private FolderEntry createFolderEntry(String folder) throws IOException {
+        String[] names = fSource.list(folder);
+        
+        if(names == null || !fSource.isFile(folder + "/" + IGraficoConstants.FOLDER_XML)) { //$NON-NLS-1$
             throw new IOException("File is not directory or folder.xml does not exist."); //$NON-NLS-1$
         }
 
-        // Load folder object itself
-        IFolder currentFolder = (IFolder)loadElement(new File(folder, IGraficoConstants.FOLDER_XML));
+        // Folder object itself
+        FolderEntry folderEntry = new FolderEntry();
+        folderEntry.index = addFile(folder + "/" + IGraficoConstants.FOLDER_XML); //$NON-NLS-1$
 
-        // Load each elements (except folder.xml) and add them to folder
-        for(File fileOrFolder : folder.listFiles()) {
-            if(!fileOrFolder.getName().equals(IGraficoConstants.FOLDER_XML)) {
-                if(fileOrFolder.isFile()) {
-                    currentFolder.getElements().add(loadElement(fileOrFolder));
+        // Each element (except folder.xml) and sub-folder
+        for(String name : names) {
+            if(!name.equals(IGraficoConstants.FOLDER_XML)) {
+                if(!name.endsWith("/")) { //$NON-NLS-1$
+                    folderEntry.elements.add(addFile(folder + "/" + name)); //$NON-NLS-1$
                 }
                 else {
-                    currentFolder.getFolders().add(loadFolder(fileOrFolder));
+                    folderEntry.folders.add(createFolderEntry(folder + "/" + name.substring(0, name.length() - 1))); //$NON-NLS-1$
                 }
             }
         }
 
-        return currentFolder;
+        return folderEntry;
     }
-
+    
+    private int addFile(String file) {
+        fFiles.add(file);
+        return fFiles.size() - 1;
+    }
+    
     /**
-     * Create an eObject from an XML file. Basically load a resource.
+     * @return The loaded folder with its elements and sub-folders added
+     */
+    private IFolder createFolder(FolderEntry folderEntry) {
+        IFolder folder = (IFolder)fObjects[folderEntry.index];
+        
+        for(int index : folderEntry.elements) {
+            folder.getElements().add(fObjects[index]);
+        }
+        
+        for(FolderEntry childEntry : folderEntry.folders) {
+            folder.getFolders().add(createFolder(childEntry));
+        }
+        
+        return folder;
+    }
+    
+    /**
+     * Load all files in parallel. Each worker takes chunks of files and parses them with its own parser.
+     * Then update the ID -> Object lookup table and collect references to other files in file order.
      * 
-     * @param file
-     * @return
+     * @throws IOException
      */
-    private EObject loadElement(File file) {
-        // Create a new resource for selected file and add object to persist
-        XMLResource resource = (XMLResource)fResourceSet.getResource(URI.createFileURI(file.getAbsolutePath()), true);
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
+    @SuppressWarnings("unchecked")
+    private void loadFiles() throws IOException {
+        int fileCount = fFiles.size();
         
-        IIdentifier element = (IIdentifier)resource.getContents().get(0);
-
-        // Update an ID -> Object mapping table (used as a cache to resolve proxies)
-        fIDLookup.put(element.getId(), element);
+        fObjects = new EObject[fileCount];
+        List<CrossReference>[] crossReferences = new List[fileCount];
+        AtomicInteger nextIndex = new AtomicInteger();
+        
+        int maxThreads = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_IMPORT_MAX_THREADS);
+        int workerCount = Math.max(1, Math.min(maxThreads, (fileCount + CHUNK_SIZE - 1) / CHUNK_SIZE));
+        
+        if(workerCount == 1) {
+            loadChunks(nextIndex, crossReferences, null);
+        }
+        else {
+            JobGroup jobgroup = new JobGroup("GraficoModelImporter", workerCount, 1); //$NON-NLS-1$
+            final ExceptionProgressMonitor pm = new ExceptionProgressMonitor();
+            
+            for(int i = 0; i < workerCount; i++) {
+                Job job = new Job("Grafico Load Job") { //$NON-NLS-1$
+                    @Override
+                    protected IStatus run(IProgressMonitor monitor) {
+                        try {
+                            loadChunks(nextIndex, crossReferences, pm);
+                        }
+                        catch(IOException ex) {
+                            pm.catchException(ex);
+                        }
+                        return Status.OK_STATUS;
+                    }
+                };
+                
+                job.setJobGroup(jobgroup);
+                job.schedule();
+            }
+            
+            try {
+                jobgroup.join(0, pm);
+            }
+            catch(OperationCanceledException | InterruptedException ex) {
+            }
+            
+            // Throw on any exception
+            if(pm.ex != null) {
+                throw pm.ex;
+            }
+        }
+        
+        // Reset the ID -> Object lookup table, sized for one object per file
+        fIDLookup = new HashMap<String, IIdentifier>(fileCount * 4 / 3 + 1);
+        fCrossReferences = new ArrayList<CrossReference>();
+        
+        for(int i = 0; i < fileCount; i++) {
+            IIdentifier element = (IIdentifier)fObjects[i];
+            
+            // Update an ID -> Object mapping table (used as a cache to resolve proxies)
+            fIDLookup.put(element.getId(), element);
+            
+            fCrossReferences.addAll(crossReferences[i]);
+        }
+    }
+    
+    /**
+     * Parse chunks of files until all files are taken
+     */
+    private void loadChunks(AtomicInteger nextIndex, List<CrossReference>[] crossReferences, IProgressMonitor monitor) throws IOException {
+        GraficoParser parser = new GraficoParser();
+        int fileCount = fFiles.size();
+        int start;
+        
+        while((start = nextIndex.getAndAdd(CHUNK_SIZE)) < fileCount) {
+            if(monitor != null && monitor.isCanceled()) {
+                return;
+            }
+            
+            for(int i = start; i < Math.min(start + CHUNK_SIZE, fileCount); i++) {
+                fObjects[i] = loadElement(parser, fFiles.get(i));
+                crossReferences[i] = new ArrayList<CrossReference>(parser.getCrossReferences());
+                parser.getCrossReferences().clear();
+            }
+        }
+    }
 
-        return element;
+    /**
+     * Create an eObject from an XML file
+     * 
+     * @param parser
+     * @param path
+     * @return
+     * @throws IOException 
+     */
+    private EObject loadElement(GraficoParser parser, String path) throws IOException {
+        return parser.parse(new ByteArrayInputStream(fSource.getBytes(path)), fSource.getURI(path));
     }
 }
@@ -9,8 +9,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.archicontribs.modelrepository.grafico.GraficoModelImporter.UnresolvedObject;
 import org.eclipse.emf.ecore.EObject;
@@ -19,9 +23,6 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.IEditorReference;
 import org.eclipse.ui.PartInitException;
@@ -80,17 +81,30 @@ public class GraficoModelLoader {
         // Set file name on the grafico model so we can locate it
         graficoModel.setFile(fRepository.getTempModelFile());
         
+        // The snapshot of the tree that the model was imported from, if any
+        GraficoModelSnapshot snapshot = importer.getSnapshot();
+        
         // Resolve missing objects
         List<UnresolvedObject> unresolvedObjects = importer.getUnresolvedObjects();
         if(unresolvedObjects != null) {
             graficoModel = restoreProblemObjects(unresolvedObjects);
+            snapshot = null;
         }
         
+        // The model is in sync with its Grafico files so track changes from here on
+        new GraficoModelExporter(graficoModel, fRepository.getLocalRepositoryFolder()).trackChanges();
+        
         // Open it with the new grafico model, this will do the necessary checks and add a command stack and an archive manager
         IEditorModelManager.INSTANCE.openModel(graficoModel);
         
-        // And Save it to the temp file
-        IEditorModelManager.INSTANCE.saveModel(graficoModel);
+        // And Save it to the temp file, unless the temp file was saved from the same snapshot and has not changed since
+        File tempFile = fRepository.getTempModelFile();
+        if(snapshot == null || !snapshot.isSavedAsTempFile(tempFile)) {
+            IEditorModelManager.INSTANCE.saveModel(graficoModel);
+            if(snapshot != null) {
+                snapshot.setSavedAsTempFile(tempFile);
+            }
+        }
         
         // Re-open editors, if any
         reopenEditors(graficoModel, openModelIDs);
@@ -98,6 +112,26 @@ public class GraficoModelLoader {
         return graficoModel;
     }
     
+    /**
+     * Reload the model after HEAD has moved from oldCommitId, such as after a pull, merge, branch switch or reset.
+     * If the open model is the same as oldCommitId only the changed Grafico files are applied to it and open editors stay open.
+     * Otherwise the model is loaded in full as in {@link #loadModel()}.
+     * @param oldCommitId The commit that HEAD pointed to before, or null to load the model in full
+     * @return The model
+     * @throws IOException
+     */
+    public IArchimateModel reloadModel(ObjectId oldCommitId) throws IOException {
+        fRestoredObjects = null;
+        
+        IArchimateModel model = fRepository.locateModel();
+        if(oldCommitId != null && model != null && !IEditorModelManager.INSTANCE.isModelDirty(model)
+                && new GraficoModelReloader(fRepository, model).reload(oldCommitId)) {
+            return model;
+        }
+        
+        return loadModel();
+    }
+    
     /**
      * @return The list of resolved objects as a message string or null
      */
@@ -128,63 +162,40 @@ public class GraficoModelLoader {
     private IArchimateModel restoreProblemObjects(List<UnresolvedObject> unresolvedObjects) throws IOException {
         fRestoredObjects = new ArrayList<IIdentifier>();
         
-        List<String> restoredIdentifiers = new ArrayList<String>();
+        Set<String> restoredIdentifiers = new HashSet<String>();
         
-        try(Repository repository = Git.open(fRepository.getLocalRepositoryFolder()).getRepository()) {
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                for(UnresolvedObject unresolved : unresolvedObjects) {
-                    String missingFileName = unresolved.missingObjectURI.lastSegment();
-                    String missingObjectID = unresolved.missingObjectURI.fragment();
-                    
-                    // Already got this one
-                    if(restoredIdentifiers.contains(missingObjectID)) {
-                        continue;
-                    }
+        try(Git git = RepositoryHandleCache.INSTANCE.open(fRepository.getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            // One walk of the history finds the last version of every file
+            GraficoHistoryIndex historyIndex = new GraficoHistoryIndex(repository);
+            historyIndex.update();
+            
+            for(UnresolvedObject unresolved : unresolvedObjects) {
+                String missingFileName = unresolved.missingObjectURI.lastSegment();
+                String missingObjectID = unresolved.missingObjectURI.fragment();
+                
+                // Already got this one
+                if(restoredIdentifiers.contains(missingObjectID)) {
+                    continue;
+                }
+                
+                // We can't use the path of the missing file as it is not correct
+                GraficoHistoryIndex.Entry entry = historyIndex.getEntry(missingFileName);
+                
+                // File is found
+                if(entry != null) {
+                    // Save file
+                    ObjectLoader loader = repository.open(entry.blobId);
                     
-                    boolean found = false;
+                    File file = new File(fRepository.getLocalRepositoryFolder(), entry.path);
+                    file.getParentFile().mkdirs();
                     
-                    // Reset RevWalk
-                    revWalk.reset();
-                    ObjectId id = repository.resolve(IGraficoConstants.HEAD);
-                    if(id != null) {
-                        revWalk.markStart(revWalk.parseCommit(id)); 
+                    try(FileOutputStream out = new FileOutputStream(file)) {
+                        loader.copyTo(out);
                     }
                     
-                    // Iterate all commits
-                    for(RevCommit commit : revWalk ) {
-                        try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                            treeWalk.addTree(commit.getTree());
-                            treeWalk.setRecursive(true);
-                            
-                            // Iterate through all files
-                            // We can't use a PathFilter for the file name as its path is not correct
-                            while(!found && treeWalk.next()) {
-                                // File is found
-                                if(treeWalk.getPathString().endsWith(missingFileName)) {
-                                    // Save file
-                                    ObjectId objectId = treeWalk.getObjectId(0);
-                                    ObjectLoader loader = repository.open(objectId);
-
-                                    File file = new File(fRepository.getLocalRepositoryFolder(), treeWalk.getPathString());
-                                    file.getParentFile().mkdirs();
-                                    
-                                    try(FileOutputStream out = new FileOutputStream(file)) {
-                                        loader.copyTo(out);
-                                    }
-                                    
-                                    restoredIdentifiers.add(missingObjectID);
-                                    found = true;
-                                }
-                            }
-                        }
-                        
-                        if(found) {
-                            break;
-                        }
-                    }
+                    restoredIdentifiers.add(missingObjectID);
                 }
-                
-                revWalk.dispose();
             }
         }
         
@@ -196,10 +207,8 @@ public class GraficoModelLoader {
         // Collect restored objects
         for(Iterator<EObject> iter = graficoModel.eAllContents(); iter.hasNext();) {
             EObject element = iter.next();
-            for(String id : restoredIdentifiers) {
-                if(element instanceof IIdentifier && id.equals(((IIdentifier)element).getId())) {
-                    fRestoredObjects.add((IIdentifier)element);
-                }
+            if(element instanceof IIdentifier && restoredIdentifiers.contains(((IIdentifier)element).getId())) {
+                fRestoredObjects.add((IIdentifier)element);
             }
         }
         
@@ -253,11 +262,17 @@ public class GraficoModelLoader {
      * @param ids
      */
     private void reopenEditors(IArchimateModel model, List<String> ids) {
-        if(ids != null) {
+        if(ids != null && !ids.isEmpty()) {
+            // Find them all in one pass rather than a search of the model for each one
+            Map<String, IDiagramModel> diagramModels = new HashMap<String, IDiagramModel>();
+            for(IDiagramModel dm : model.getDiagramModels()) {
+                diagramModels.put(dm.getId(), dm);
+            }
+            
             for(String id : ids) {
-                EObject eObject = ArchimateModelUtils.getObjectByID(model, id);
-                if(eObject instanceof IDiagramModel) {
-                    EditorManager.openDiagramEditor((IDiagramModel)eObject);
+                IDiagramModel dm = diagramModels.get(id);
+                if(dm != null) {
+                    EditorManager.openDiagramEditor(dm);
                 }
             }
         }
@@ -0,0 +1,640 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import org.archicontribs.modelrepository.grafico.GraficoParser.CrossReference;
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.gef.commands.CommandStack;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.editor.model.IEditorModelManager;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IFolderContainer;
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * Updates an open model after HEAD has moved, such as after a pull, merge, branch switch or reset.
+ *
+ * The Grafico files that differ between the old and new commit are parsed and applied to the open model in place.
+ * Objects that are in both are updated feature by feature so that open editors stay open and only see the changes.
+ * Objects are added, moved and removed as their files are, and references are resolved against the model's objects.
+ * The changes are read from the commits, so the model is only reloaded like this if the model and images files in the
+ * working tree and the index are the same as in HEAD.
+ *
+ * @author Phillip Beauvoir
+ */
+class GraficoModelReloader {
+    
+    private IArchiRepository fRepository;
+    private IArchimateModel fModel;
+    
+    // Parsed objects and the model objects they were applied to
+    private Map<EObject, EObject> fReplacements = new IdentityHashMap<EObject, EObject>();
+    
+    // References to objects in the same file to set when all objects are in place: target, feature, parsed value
+    private List<Object[]> fLocalReferences = new ArrayList<Object[]>();
+    
+    // Parsed objects added to a model object that was updated. Their references may be to parsed objects that were replaced.
+    private List<EObject> fInserted = new ArrayList<EObject>();
+    
+    // Parsed objects with references to other files, and their features
+    private Map<EObject, Set<EStructuralFeature>> fCrossReferenceFeatures = new IdentityHashMap<EObject, Set<EStructuralFeature>>();
+    
+    // Model objects no longer in the model
+    private List<EObject> fDetached = new ArrayList<EObject>();
+    
+    GraficoModelReloader(IArchiRepository repository, IArchimateModel model) {
+        fRepository = repository;
+        fModel = model;
+    }
+    
+    /**
+     * Apply the changes between oldCommitId and HEAD to the model
+     * @param oldCommitId The commit that the model and its Grafico files are the same as
+     * @return true if the model was updated, false if the changes can't be applied and the model has to be loaded in full
+     * @throws IOException
+     */
+    boolean reload(ObjectId oldCommitId) throws IOException {
+        GraficoChangeTracker tracker = GraficoChangeTracker.getTracker(fModel);
+        if(tracker == null || !tracker.isClean()) {
+            return false;
+        }
+        
+        try(Git git = RepositoryHandleCache.INSTANCE.open(fRepository.getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            ObjectId newCommitId = repository.resolve(IGraficoConstants.HEAD);
+            if(newCommitId == null) {
+                return false;
+            }
+            
+            RevTree oldTree, newTree;
+            try(RevWalk revWalk = new RevWalk(repository)) {
+                oldTree = revWalk.parseCommit(oldCommitId).getTree();
+                newTree = revWalk.parseCommit(newCommitId).getTree();
+            }
+            
+            // The files that a full load would import must be the same as HEAD, or there are changes that are not in the commits
+            if(!GraficoUtils.isWorkingTreeSameAsTree(repository, newTree)) {
+                return false;
+            }
+            
+            // Files that differ
+            List<DiffEntry> diffs;
+            try(TreeWalk treeWalk = new TreeWalk(repository)) {
+                treeWalk.addTree(oldTree);
+                treeWalk.addTree(newTree);
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER),
+                        TreeFilter.ANY_DIFF));
+                diffs = DiffEntry.scan(treeWalk);
+            }
+            
+            // Ids of objects keyed by the paths of their files in the old commit
+            Map<String, String> oldPathIds = new HashMap<String, String>();
+            for(Entry<String, String> entry : tracker.getFilePaths().entrySet()) {
+                oldPathIds.put(entry.getValue(), entry.getKey());
+            }
+            
+            List<String> deletedPaths = new ArrayList<String>();
+            Map<String, ObjectId> changedFiles = new HashMap<String, ObjectId>();
+            Map<String, ObjectId> changedImages = new HashMap<String, ObjectId>();
+            
+            for(DiffEntry diff : diffs) {
+                if(diff.getChangeType() != ChangeType.ADD && !oldPathIds.containsKey(diff.getOldPath()) && !isImage(diff.getOldPath())) {
+                    return false; // The model is not the same as the old commit
+                }
+                
+                if(diff.getChangeType() == ChangeType.DELETE) {
+                    if(!isImage(diff.getOldPath())) {
+                        deletedPaths.add(diff.getOldPath());
+                    }
+                }
+                else if(isImage(diff.getNewPath())) {
+                    changedImages.put(diff.getNewPath(), diff.getNewId().toObjectId());
+                }
+                else {
+                    changedFiles.put(diff.getNewPath(), diff.getNewId().toObjectId());
+                    if(diff.getChangeType() == ChangeType.MODIFY) {
+                        deletedPaths.add(diff.getOldPath()); // unless the same object is in the new file
+                    }
+                }
+            }
+            
+            if(!apply(repository, tracker, oldPathIds, deletedPaths, changedFiles)) {
+                return false;
+            }
+            
+            // Images
+            if(!changedImages.isEmpty()) {
+                IArchiveManager archiveManager = (IArchiveManager)fModel.getAdapter(IArchiveManager.class);
+                for(Entry<String, ObjectId> entry : changedImages.entrySet()) {
+                    archiveManager.addByteContentEntry(entry.getKey(), repository.open(entry.getValue(), Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE));
+                }
+            }
+        }
+        
+        // Commands on the command stack may refer to objects that were removed or replaced, so the undo history is cleared.
+        // This is no different to before, when the model was closed and opened again after HEAD moved.
+        CommandStack commandStack = (CommandStack)fModel.getAdapter(CommandStack.class);
+        if(commandStack != null) {
+            commandStack.flush();
+        }
+        
+        // The model is in sync with its Grafico files again
+        new GraficoModelExporter(fModel, fRepository.getLocalRepositoryFolder()).trackChanges();
+        
+        // Save it to the temp file
+        IEditorModelManager.INSTANCE.saveModel(fModel);
+        
+        return true;
+    }
+    
+    /**
+     * Parse the changed files, check that they can be applied and apply them
+     */
+    private boolean apply(Repository repository, GraficoChangeTracker tracker, Map<String, String> oldPathIds,
+            List<String> deletedPaths, Map<String, ObjectId> changedFiles) throws IOException {
+        
+        // Parse the changed files, the model first, then folders from the top down, then elements
+        List<String> paths = new ArrayList<String>(changedFiles.keySet());
+        Collections.sort(paths, (path1, path2) -> {
+            int rank1 = getRank(path1), rank2 = getRank(path2);
+            return rank1 != rank2 ? Integer.compare(rank1, rank2) : path1.compareTo(path2);
+        });
+        
+        GraficoParser parser = new GraficoParser();
+        Map<String, EObject> parsedFiles = new LinkedHashMap<String, EObject>();
+        Set<String> parsedIds = new HashSet<String>();
+        
+        for(String path : paths) {
+            byte[] bytes = repository.open(changedFiles.get(path), Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE);
+            URI uri = URI.createFileURI(new File(fRepository.getLocalRepositoryFolder(), path).getAbsolutePath());
+            EObject eObject = parser.parse(new ByteArrayInputStream(bytes), uri);
+            parsedFiles.put(path, eObject);
+            parsedIds.add(((IIdentifier)eObject).getId());
+        }
+        
+        // Objects of the open model keyed by id
+        Map<String, EObject> modelObjects = new HashMap<String, EObject>();
+        modelObjects.put(fModel.getId(), fModel);
+        for(Iterator<EObject> iter = fModel.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            if(eObject instanceof IIdentifier) {
+                modelObjects.put(((IIdentifier)eObject).getId(), eObject);
+            }
+        }
+        
+        // Objects whose files were deleted and that are not in another file now
+        Set<String> removedIds = new HashSet<String>();
+        for(String path : deletedPaths) {
+            String id = oldPathIds.get(path);
+            if(!parsedIds.contains(id)) {
+                removedIds.add(id);
+            }
+        }
+        
+        // Folders keyed by the path of their directory
+        Map<String, String> folderIds = new HashMap<String, String>();
+        folderIds.put(IGraficoConstants.MODEL_FOLDER, fModel.getId());
+        for(Entry<String, String> entry : tracker.getFilePaths().entrySet()) {
+            if(isFolderFile(entry.getValue()) && !removedIds.contains(entry.getKey())) {
+                folderIds.put(getParentPath(entry.getValue()), entry.getKey());
+            }
+        }
+        for(Entry<String, EObject> entry : parsedFiles.entrySet()) {
+            if(entry.getValue() instanceof IFolder) {
+                folderIds.put(getParentPath(entry.getKey()), ((IIdentifier)entry.getValue()).getId());
+            }
+        }
+        
+        // Check that the changes can be applied before changing anything
+        for(Entry<String, EObject> entry : parsedFiles.entrySet()) {
+            EObject parsed = entry.getValue();
+            EObject existing = modelObjects.get(((IIdentifier)parsed).getId());
+            
+            // Same object must be the same class and saved in its own file
+            if(existing != null && (existing.eClass() != parsed.eClass() || GraficoChangeTracker.getFileOwner(existing) != existing)) {
+                return false;
+            }
+            
+            // The model must stay the model and everything else must be in a known folder
+            if(parsed instanceof IArchimateModel) {
+                if(existing != fModel) {
+                    return false;
+                }
+            }
+            else if(!folderIds.containsKey(getParentPath(isFolderFile(entry.getKey()) ? getParentPath(entry.getKey()) : entry.getKey()))) {
+                return false;
+            }
+        }
+        
+        // References to other files must resolve
+        for(CrossReference reference : parser.getCrossReferences()) {
+            String id = reference.getID();
+            if(!parsedIds.contains(id) && (!modelObjects.containsKey(id) || removedIds.contains(id))) {
+                return false;
+            }
+            
+            Set<EStructuralFeature> features = fCrossReferenceFeatures.get(reference.owner);
+            if(features == null) {
+                features = new HashSet<EStructuralFeature>();
+                fCrossReferenceFeatures.put(reference.owner, features);
+            }
+            features.add(reference.feature);
+        }
+        
+        // Update, add or move each object in parsed order, so folders are in place before their contents
+        for(Entry<String, EObject> entry : parsedFiles.entrySet()) {
+            EObject parsed = entry.getValue();
+            String id = ((IIdentifier)parsed).getId();
+            EObject existing = modelObjects.get(id);
+            
+            EObject eObject;
+            if(existing != null) {
+                update(existing, parsed);
+                eObject = existing;
+            }
+            else {
+                eObject = parsed;
+                modelObjects.put(id, parsed);
+            }
+            
+            if(eObject instanceof IArchimateModel) {
+                continue;
+            }
+            
+            String folderPath = isFolderFile(entry.getKey()) ? getParentPath(getParentPath(entry.getKey())) : getParentPath(entry.getKey());
+            EObject parent = modelObjects.get(folderIds.get(folderPath));
+            
+            if(eObject instanceof IFolder) {
+                if(eObject.eContainer() != parent) {
+                    ((IFolderContainer)parent).getFolders().add((IFolder)eObject);
+                }
+            }
+            else if(eObject.eContainer() != parent) {
+                ((IFolder)parent).getElements().add(eObject);
+            }
+        }
+        
+        // References to objects in the same file
+        for(Object[] localReference : fLocalReferences) {
+            setLocalReference((EObject)localReference[0], (EReference)localReference[1], localReference[2]);
+        }
+        
+        // References from new objects in updated files, such as a new connection between existing diagram objects
+        for(EObject eObject : fInserted) {
+            replaceReferences(eObject);
+            for(Iterator<EObject> iter = eObject.eAllContents(); iter.hasNext();) {
+                replaceReferences(iter.next());
+            }
+        }
+        
+        // References to other files
+        Map<EObject, Map<EStructuralFeature, List<EObject>>> manyReferences = new IdentityHashMap<EObject, Map<EStructuralFeature, List<EObject>>>();
+        
+        for(CrossReference reference : parser.getCrossReferences()) {
+            EObject owner = getReplacement(reference.owner);
+            EObject target = modelObjects.get(reference.getID());
+            
+            if(reference.feature.isMany()) {
+                Map<EStructuralFeature, List<EObject>> features = manyReferences.get(owner);
+                if(features == null) {
+                    features = new HashMap<EStructuralFeature, List<EObject>>();
+                    manyReferences.put(owner, features);
+                }
+                List<EObject> targets = features.get(reference.feature);
+                if(targets == null) {
+                    targets = new ArrayList<EObject>();
+                    features.put(reference.feature, targets);
+                }
+                targets.add(target);
+            }
+            else {
+                setCrossReference(owner, reference.feature, target);
+            }
+        }
+        
+        for(Entry<EObject, Map<EStructuralFeature, List<EObject>>> entry : manyReferences.entrySet()) {
+            for(Entry<EStructuralFeature, List<EObject>> featureEntry : entry.getValue().entrySet()) {
+                setList(entry.getKey(), featureEntry.getKey(), featureEntry.getValue());
+            }
+        }
+        
+        // Remove objects whose files were deleted
+        for(String id : removedIds) {
+            EObject eObject = modelObjects.get(id);
+            if(eObject != null && eObject.eContainer() != null) {
+                EcoreUtil.remove(eObject);
+                fDetached.add(eObject);
+            }
+        }
+        
+        // Objects no longer in the model are no longer referencing their concepts
+        for(EObject eObject : fDetached) {
+            removeReferencingObject(eObject);
+            for(Iterator<EObject> iter = eObject.eAllContents(); iter.hasNext();) {
+                removeReferencingObject(iter.next());
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Update an object of the model in place with the features of a parsed object
+     */
+    @SuppressWarnings("unchecked")
+    private void update(EObject target, EObject source) {
+        fReplacements.put(source, target);
+        
+        for(EStructuralFeature feature : target.eClass().getEAllStructuralFeatures()) {
+            if(!isUpdatable(feature)) {
+                continue;
+            }
+            
+            if(feature instanceof EAttribute) {
+                if(source.eIsSet(feature)) {
+                    Object value = source.eGet(feature);
+                    if(!Objects.equals(value, target.eGet(feature))) {
+                        if(feature.isMany()) {
+                            ECollections.setEList((EList<Object>)target.eGet(feature), (List<Object>)value);
+                        }
+                        else {
+                            target.eSet(feature, value);
+                        }
+                    }
+                }
+                else if(target.eIsSet(feature)) {
+                    target.eUnset(feature);
+                }
+            }
+            else if(((EReference)feature).isContainment()) {
+                if(feature.isMany()) {
+                    updateContainmentList((EList<EObject>)target.eGet(feature), (List<EObject>)source.eGet(feature));
+                }
+                else {
+                    EObject sourceValue = (EObject)source.eGet(feature);
+                    EObject targetValue = (EObject)target.eGet(feature);
+                    
+                    if(sourceValue == null) {
+                        if(targetValue != null) {
+                            fDetached.add(targetValue);
+                            target.eUnset(feature);
+                        }
+                    }
+                    else if(isSameObject(targetValue, sourceValue)) {
+                        update(targetValue, sourceValue);
+                    }
+                    else {
+                        if(targetValue != null) {
+                            fDetached.add(targetValue);
+                        }
+                        target.eSet(feature, sourceValue);
+                        fInserted.add(sourceValue);
+                    }
+                }
+            }
+            else if(source.eIsSet(feature)) {
+                Object value = source.eGet(feature);
+                fLocalReferences.add(new Object[] { target, feature, feature.isMany() ? new ArrayList<Object>((List<?>)value) : value });
+            }
+            else if(!hasCrossReference(source, feature) && target.eIsSet(feature)) {
+                target.eUnset(feature);
+            }
+        }
+    }
+    
+    /**
+     * Update a list of contained objects, keeping and updating those objects that are the same
+     */
+    private void updateContainmentList(EList<EObject> targetList, List<EObject> sourceList) {
+        Map<String, EObject> targetsById = new HashMap<String, EObject>();
+        for(EObject eObject : targetList) {
+            String id = EcoreUtil.getID(eObject);
+            if(id != null) {
+                targetsById.put(id, eObject);
+            }
+        }
+        
+        List<EObject> newList = new ArrayList<EObject>();
+        Set<EObject> kept = Collections.newSetFromMap(new IdentityHashMap<EObject, Boolean>());
+        
+        List<EObject> sources = new ArrayList<EObject>(sourceList);
+        for(int i = 0; i < sources.size(); i++) {
+            EObject source = sources.get(i);
+            String id = EcoreUtil.getID(source);
+            
+            // Match by id, or by position if there are no ids
+            EObject match = id != null ? targetsById.get(id) : (i < targetList.size() ? targetList.get(i) : null);
+            
+            if(match != null && !kept.contains(match) && isSameObject(match, source)) {
+                update(match, source);
+                newList.add(match);
+                kept.add(match);
+            }
+            else {
+                newList.add(source);
+                fInserted.add(source);
+            }
+        }
+        
+        for(EObject eObject : targetList) {
+            if(!kept.contains(eObject)) {
+                fDetached.add(eObject);
+            }
+        }
+        
+        ECollections.setEList(targetList, newList);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void setLocalReference(EObject target, EReference feature, Object value) {
+        if(feature.isMany()) {
+            List<EObject> values = new ArrayList<EObject>();
+            for(Object object : (List<?>)value) {
+                values.add(getReplacement((EObject)object));
+            }
+            if(!values.equals(target.eGet(feature))) {
+                ECollections.setEList((EList<EObject>)target.eGet(feature), values);
+            }
+        }
+        else {
+            EObject newValue = getReplacement((EObject)value);
+            if(target.eGet(feature) != newValue) {
+                target.eSet(feature, newValue);
+            }
+        }
+    }
+    
+    /**
+     * Replace references of a new object to parsed objects with the model objects that those were applied to
+     */
+    private void replaceReferences(EObject eObject) {
+        for(EReference feature : eObject.eClass().getEAllReferences()) {
+            if(feature.isContainment() || !isUpdatable(feature) || !eObject.eIsSet(feature) || hasCrossReference(eObject, feature)) {
+                continue;
+            }
+            
+            if(feature.isMany()) {
+                setLocalReference(eObject, feature, new ArrayList<Object>((List<?>)eObject.eGet(feature)));
+            }
+            else {
+                setLocalReference(eObject, feature, eObject.eGet(feature));
+            }
+        }
+    }
+    
+    private void setCrossReference(EObject owner, EReference feature, EObject target) {
+        EObject oldTarget = (EObject)owner.eGet(feature);
+        if(oldTarget == target) {
+            return;
+        }
+        
+        removeReferencingObject(owner);
+        owner.eSet(feature, target);
+        
+        // Update cross-references
+        if(owner instanceof IDiagramModelArchimateObject && feature == IArchimatePackage.Literals.DIAGRAM_MODEL_ARCHIMATE_OBJECT__ARCHIMATE_ELEMENT) {
+            EList<IDiagramModelArchimateObject> list = ((IArchimateElement)target).getReferencingDiagramObjects();
+            if(!list.contains(owner)) {
+                list.add((IDiagramModelArchimateObject)owner);
+            }
+        }
+        else if(owner instanceof IDiagramModelArchimateConnection && feature == IArchimatePackage.Literals.DIAGRAM_MODEL_ARCHIMATE_CONNECTION__ARCHIMATE_RELATIONSHIP) {
+            EList<IDiagramModelArchimateConnection> list = ((IArchimateRelationship)target).getReferencingDiagramConnections();
+            if(!list.contains(owner)) {
+                list.add((IDiagramModelArchimateConnection)owner);
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void setList(EObject owner, EStructuralFeature feature, List<EObject> targets) {
+        EList<EObject> list = (EList<EObject>)owner.eGet(feature);
+        if(!list.equals(targets)) {
+            ECollections.setEList(list, targets);
+        }
+    }
+    
+    /**
+     * Remove a diagram object or connection from the referencing objects of its concept
+     */
+    private void removeReferencingObject(EObject eObject) {
+        if(eObject instanceof IDiagramModelArchimateObject) {
+            IArchimateElement element = ((IDiagramModelArchimateObject)eObject).getArchimateElement();
+            if(element != null) {
+                element.getReferencingDiagramObjects().remove(eObject);
+            }
+        }
+        else if(eObject instanceof IDiagramModelArchimateConnection) {
+            IArchimateRelationship relationship = ((IDiagramModelArchimateConnection)eObject).getArchimateRelationship();
+            if(relationship != null) {
+                relationship.getReferencingDiagramConnections().remove(eObject);
+            }
+        }
+    }
+    
+    private EObject getReplacement(EObject parsed) {
+        EObject eObject = fReplacements.get(parsed);
+        return eObject != null ? eObject : parsed;
+    }
+    
+    private boolean hasCrossReference(EObject parsed, EStructuralFeature feature) {
+        Set<EStructuralFeature> features = fCrossReferenceFeatures.get(parsed);
+        return features != null && features.contains(feature);
+    }
+    
+    /**
+     * @return true if both objects are the same class and have the same id, or both have no id
+     */
+    private boolean isSameObject(EObject target, EObject source) {
+        return target != null && target.eClass() == source.eClass() && Objects.equals(EcoreUtil.getID(target), EcoreUtil.getID(source));
+    }
+    
+    /**
+     * @return true if the feature is saved in the object's Grafico file
+     */
+    private boolean isUpdatable(EStructuralFeature feature) {
+        if(feature.isTransient() || feature.isDerived() || !feature.isChangeable()) {
+            return false;
+        }
+        if(feature == IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS || feature == IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+            return false;
+        }
+        if(feature instanceof EReference) {
+            EReference opposite = ((EReference)feature).getEOpposite();
+            return opposite == null || !opposite.isContainment();
+        }
+        return true;
+    }
+    
+    /**
+     * @return 0 for the model's file, 1 + depth for folder files, and a higher number for element files
+     */
+    private int getRank(String path) {
+        if(path.equals(IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML)) { //$NON-NLS-1$
+            return 0;
+        }
+        if(isFolderFile(path)) {
+            return path.split("/").length; //$NON-NLS-1$
+        }
+        return Integer.MAX_VALUE;
+    }
+    
+    private boolean isFolderFile(String path) {
+        return path.endsWith("/" + IGraficoConstants.FOLDER_XML); //$NON-NLS-1$
+    }
+    
+    private boolean isImage(String path) {
+        return path.startsWith(IGraficoConstants.IMAGES_FOLDER + "/"); //$NON-NLS-1$
+    }
+    
+    private String getParentPath(String path) {
+        int index = path.lastIndexOf('/');
+        return index == -1 ? "" : path.substring(0, index); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.impl.BinaryResourceImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IDiagramModelArchimateConnection;
+import com.archimatetool.model.IDiagramModelArchimateObject;
+
+/**
+ * A binary snapshot of the model imported from the Grafico files of a tree.
+ *
+ * Parsing the Grafico files of a large model takes a long time, so the model imported from a tree is saved as an
+ * EMF binary resource in the .git/grafico-snapshot folder under the tree's id and loaded from there the next time.
+ * As a tree never changes neither does its snapshot. Images are not in the snapshot. They are loaded from the images folder
+ * of the source as they are when there is no snapshot.
+ *
+ * The snapshot also records whether the temp model file was saved from it and has not changed since, so that it
+ * doesn't have to be saved again.
+ *
+ * @author Phillip Beauvoir
+ */
+class GraficoModelSnapshot {
+    
+    /**
+     * Name of the folder in the .git folder where snapshots are saved
+     */
+    static final String SNAPSHOT_FOLDER = "grafico-snapshot"; //$NON-NLS-1$
+    
+    // Number of saved snapshots to keep
+    private static final int MAX_SAVED_SNAPSHOTS = 4;
+    
+    // Name of the file with the tree id, time and length of the temp model file when it was saved from a snapshot
+    private static final String TEMP_FILE_RECORD = "temp-file"; //$NON-NLS-1$
+    
+    private File fFolder;
+    private ObjectId fTreeId;
+    
+    /**
+     * @param gitFolder The .git folder of the repository
+     * @param treeId The id of the tree
+     */
+    GraficoModelSnapshot(File gitFolder, AnyObjectId treeId) {
+        fFolder = new File(gitFolder, SNAPSHOT_FOLDER);
+        fTreeId = treeId.toObjectId();
+    }
+    
+    /**
+     * @return The id of the tree
+     */
+    ObjectId getTreeId() {
+        return fTreeId;
+    }
+    
+    /**
+     * @return The model of the tree, or null if there is no snapshot or it can't be read
+     */
+    IArchimateModel load() {
+        File file = new File(fFolder, fTreeId.name());
+        if(!file.exists()) {
+            return null;
+        }
+        
+        Resource resource = new BinaryResourceImpl(URI.createFileURI(file.getAbsolutePath()));
+        
+        try(InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            resource.load(in, null);
+        }
+        // Not readable, such as saved by another version of Archi, so the model will be imported again
+        catch(IOException | RuntimeException ex) {
+            return null;
+        }
+        
+        if(resource.getContents().isEmpty() || !(resource.getContents().get(0) instanceof IArchimateModel)) {
+            return null;
+        }
+        
+        IArchimateModel model = (IArchimateModel)resource.getContents().get(0);
+        
+        // The model is not kept in the resource
+        resource.getContents().clear();
+        
+        setReferencingDiagramComponents(model);
+        
+        return model;
+    }
+    
+    /**
+     * Save a snapshot of the model imported from the tree
+     * @param model The model
+     * @throws IOException
+     */
+    void save(IArchimateModel model) throws IOException {
+        fFolder.mkdirs();
+        
+        File file = new File(fFolder, fTreeId.name());
+        File tmpFile = new File(fFolder, file.getName() + ".tmp"); //$NON-NLS-1$
+        
+        // A copy of the model is saved so that the model is never put in a resource, which would change its eResource
+        // and send notifications to its adapters
+        Resource resource = new BinaryResourceImpl(URI.createFileURI(file.getAbsolutePath()));
+        resource.getContents().add(EcoreUtil.copy(model));
+        
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+            resource.save(out, null);
+        }
+        
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        
+        // Delete the oldest snapshots
+        File[] files = fFolder.listFiles((dir, name) -> ObjectId.isId(name));
+        if(files != null && files.length > MAX_SAVED_SNAPSHOTS) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for(int i = 0; i < files.length - MAX_SAVED_SNAPSHOTS; i++) {
+                files[i].delete();
+            }
+        }
+    }
+    
+    /**
+     * @param tempFile The temp model file
+     * @return true if the temp model file was saved from this snapshot and has not changed since
+     */
+    boolean isSavedAsTempFile(File tempFile) {
+        File recordFile = new File(fFolder, TEMP_FILE_RECORD);
+        if(!recordFile.exists() || !tempFile.exists()) {
+            return false;
+        }
+        
+        try {
+            String record = new String(Files.readAllBytes(recordFile.toPath()), StandardCharsets.UTF_8);
+            return record.equals(getTempFileRecord(tempFile));
+        }
+        catch(IOException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * Record that the temp model file has been saved from this snapshot
+     * @param tempFile The temp model file
+     * @throws IOException
+     */
+    void setSavedAsTempFile(File tempFile) throws IOException {
+        fFolder.mkdirs();
+        Files.write(new File(fFolder, TEMP_FILE_RECORD).toPath(), getTempFileRecord(tempFile).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private String getTempFileRecord(File tempFile) {
+        return fTreeId.name() + " " + tempFile.lastModified() + " " + tempFile.length(); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    /**
+     * Set the lists of diagram components that reference elements and relationships as they are not saved
+     */
+    private void setReferencingDiagramComponents(IArchimateModel model) {
+        for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+            EObject eObject = iter.next();
+            
+            if(eObject instanceof IDiagramModelArchimateObject) {
+                IDiagramModelArchimateObject dmo = (IDiagramModelArchimateObject)eObject;
+                IArchimateElement element = dmo.getArchimateElement();
+                if(element != null && !element.getReferencingDiagramObjects().contains(dmo)) {
+                    element.getReferencingDiagramObjects().add(dmo);
+                }
+            }
+            else if(eObject instanceof IDiagramModelArchimateConnection) {
+                IDiagramModelArchimateConnection connection = (IDiagramModelArchimateConnection)eObject;
+                IArchimateRelationship relationship = connection.getArchimateRelationship();
+                if(relationship != null && !relationship.getReferencingDiagramConnections().contains(connection)) {
+                    relationship.getReferencingDiagramConnections().add(connection);
+                }
+            }
+        }
+    }
+}
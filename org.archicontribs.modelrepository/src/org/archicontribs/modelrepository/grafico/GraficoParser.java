@@ -0,0 +1,284 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+/**
+ * Parses a Grafico file into an object and its contents without creating an XMLResource.
+ *
+ * References to objects in the same file are resolved when the file has been parsed.
+ * References to objects in other files (href) are collected as {@link CrossReference}s
+ * so that they can be resolved in one pass when all files have been parsed.
+ *
+ * One instance should be used per thread to parse any number of files.
+ *
+ * @author Phillip Beauvoir
+ */
+public class GraficoParser {
+    
+    /**
+     * A reference to an object in another Grafico file
+     */
+    public static class CrossReference {
+        final EObject owner;
+        final EReference feature;
+        final EClass type;
+        final String href;
+        final URI fileURI;
+        
+        CrossReference(EObject owner, EReference feature, EClass type, String href, URI fileURI) {
+            this.owner = owner;
+            this.feature = feature;
+            this.type = type;
+            this.href = href;
+            this.fileURI = fileURI;
+        }
+        
+        /**
+         * @return The id of the referenced object
+         */
+        String getID() {
+            int index = href.lastIndexOf('#');
+            return index == -1 ? href : href.substring(index + 1);
+        }
+        
+        /**
+         * @return The absolute URI of the referenced object
+         */
+        URI getURI() {
+            return URI.createURI(href).resolve(fileURI);
+        }
+    }
+    
+    private static final XMLInputFactory inputFactory = createInputFactory();
+    
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+    
+    private List<CrossReference> fCrossReferences = new ArrayList<CrossReference>();
+    
+    // References to objects in the same file: owner, feature, ids
+    private List<Object[]> fIDRefs = new ArrayList<Object[]>();
+    private Map<String, EObject> fLocalIDs = new HashMap<String, EObject>();
+    
+    private URI fFileURI;
+    private EObject fRoot;
+    
+    /**
+     * Parse a Grafico file
+     * @param in The content of the file
+     * @param fileURI The absolute URI of the file, used to resolve the URIs of references to other files
+     * @return The root object of the file
+     * @throws IOException
+     */
+    public EObject parse(InputStream in, URI fileURI) throws IOException {
+        fFileURI = fileURI;
+        fIDRefs.clear();
+        fLocalIDs.clear();
+        
+        XMLStreamReader reader = null;
+        
+        try {
+            reader = inputFactory.createXMLStreamReader(in, "UTF-8"); //$NON-NLS-1$
+            reader.nextTag();
+            
+            EClass eClass = getEClass(reader.getNamespaceURI(), reader.getLocalName());
+            fRoot = EcoreUtil.create(eClass);
+            readObject(reader, fRoot);
+            
+            resolveIDRefs();
+            
+            return fRoot;
+        }
+        catch(XMLStreamException | RuntimeException ex) {
+            throw new IOException("Could not parse " + fileURI.lastSegment() + ": " + ex.getMessage(), ex); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                }
+                catch(XMLStreamException ex) {
+                }
+            }
+            fRoot = null;
+        }
+    }
+    
+    /**
+     * @return The references to objects in other files collected from all files parsed so far
+     */
+    public List<CrossReference> getCrossReferences() {
+        return fCrossReferences;
+    }
+    
+    /**
+     * Read the attributes and child elements of the current element into eObject
+     */
+    private void readObject(XMLStreamReader reader, EObject eObject) throws XMLStreamException, IOException {
+        EClass eClass = eObject.eClass();
+        
+        for(int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            if(prefix != null && prefix.length() > 0) {
+                continue; // xsi:type and such
+            }
+            
+            EStructuralFeature feature = getFeature(eClass, reader.getAttributeLocalName(i));
+            String value = reader.getAttributeValue(i);
+            
+            if(feature instanceof EAttribute) {
+                if(feature.isMany()) {
+                    if(value.length() == 0) {
+                        eObject.eSet(feature, new ArrayList<Object>()); // set but empty
+                    }
+                }
+                else {
+                    eObject.eSet(feature, EcoreUtil.createFromString((EDataType)feature.getEType(), value));
+                }
+            }
+            else if(value.length() == 0) {
+                eObject.eSet(feature, new ArrayList<Object>()); // set but empty
+            }
+            else {
+                fIDRefs.add(new Object[] { eObject, feature, value });
+            }
+        }
+        
+        String id = EcoreUtil.getID(eObject);
+        if(id != null) {
+            fLocalIDs.put(id, eObject);
+        }
+        
+        while(reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if(reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            
+            EStructuralFeature feature = getFeature(eClass, reader.getLocalName());
+            boolean isNil = "true".equals(reader.getAttributeValue(GraficoSerializer.XSI_NS_URI, "nil")); //$NON-NLS-1$ //$NON-NLS-2$
+            
+            if(feature instanceof EAttribute) {
+                String text = reader.getElementText();
+                addValue(eObject, feature, isNil ? null : EcoreUtil.createFromString((EDataType)feature.getEType(), text));
+            }
+            else if(isNil) {
+                addValue(eObject, feature, null);
+                skipElement(reader);
+            }
+            else if(((EReference)feature).isContainment()) {
+                EObject child = EcoreUtil.create(getType(reader, feature));
+                addValue(eObject, feature, child);
+                readObject(reader, child);
+            }
+            else {
+                String href = reader.getAttributeValue(null, GraficoSerializer.HREF);
+                fCrossReferences.add(new CrossReference(eObject, (EReference)feature, getType(reader, feature), href, fFileURI));
+                skipElement(reader);
+            }
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void addValue(EObject eObject, EStructuralFeature feature, Object value) {
+        if(feature.isMany()) {
+            ((List<Object>)eObject.eGet(feature)).add(value);
+        }
+        else {
+            eObject.eSet(feature, value);
+        }
+    }
+    
+    /**
+     * Set the references to objects in the same file
+     */
+    private void resolveIDRefs() throws IOException {
+        for(Object[] idRef : fIDRefs) {
+            EObject eObject = (EObject)idRef[0];
+            EReference feature = (EReference)idRef[1];
+            
+            for(String id : ((String)idRef[2]).split(" ")) { //$NON-NLS-1$
+                EObject target = id.startsWith("//") ? EcoreUtil.getEObject(fRoot, id.substring(2)) : fLocalIDs.get(id); //$NON-NLS-1$
+                if(target == null) {
+                    throw new IOException("Unresolved reference '" + id + "' in " + fFileURI.lastSegment()); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                addValue(eObject, feature, target);
+            }
+        }
+    }
+    
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while(depth > 0) {
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+    
+    /**
+     * @return The class given by the xsi:type attribute of the current element, or else the type of the feature
+     */
+    private EClass getType(XMLStreamReader reader, EStructuralFeature feature) throws IOException {
+        String type = reader.getAttributeValue(GraficoSerializer.XSI_NS_URI, "type"); //$NON-NLS-1$
+        if(type == null) {
+            return (EClass)feature.getEType();
+        }
+        
+        int index = type.indexOf(':');
+        String prefix = index == -1 ? "" : type.substring(0, index); //$NON-NLS-1$
+        return getEClass(reader.getNamespaceURI(prefix), type.substring(index + 1));
+    }
+    
+    private EClass getEClass(String nsURI, String name) throws IOException {
+        EPackage ePackage = nsURI == null ? null : EPackage.Registry.INSTANCE.getEPackage(nsURI);
+        EClassifier eClassifier = ePackage == null ? null : ePackage.getEClassifier(name);
+        if(!(eClassifier instanceof EClass)) {
+            throw new IOException("Unknown class " + nsURI + "#" + name); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return (EClass)eClassifier;
+    }
+    
+    private EStructuralFeature getFeature(EClass eClass, String name) throws IOException {
+        EStructuralFeature feature = eClass.getEStructuralFeature(name);
+        if(feature == null) {
+            throw new IOException("Unknown feature '" + name + "' of " + eClass.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return feature;
+    }
+}
@@ -0,0 +1,712 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.eclipse.emf.ecore.util.InternalEList;
+
+import com.archimatetool.model.IArchimatePackage;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * Serializes an object that is persisted as its own Grafico file - the model, a folder or an element.
+ *
+ * The XML is exactly the same as that of an EMF XMLResource saved with the options that the Grafico format uses:
+ * UTF-8 without an XML declaration, formatted with a line width of 5 so that every attribute is on its own line,
+ * "\n" line endings, and references to objects in other Grafico files saved as href elements.
+ *
+ * The XML is written straight from the EMF reflective API into a buffer that is re-used for each object,
+ * so one instance should be used per thread to serialize any number of objects.
+ *
+ * @author Phillip Beauvoir
+ */
+public class GraficoSerializer {
+    
+    static final String XSI_NS_URI = "http://www.w3.org/2001/XMLSchema-instance"; //$NON-NLS-1$
+    static final String XSI_PREFIX = "xsi"; //$NON-NLS-1$
+    static final String XSI_TYPE = "xsi:type"; //$NON-NLS-1$
+    static final String XSI_NIL = "xsi:nil"; //$NON-NLS-1$
+    static final String HREF = "href"; //$NON-NLS-1$
+    
+    private static final String LINE_SEPARATOR = "\n"; //$NON-NLS-1$
+    private static final int LINE_WIDTH = 5;
+    
+    // Kinds of features and how they are saved
+    private static final int TRANSIENT = 0;
+    private static final int DATATYPE_SINGLE = 1;
+    private static final int DATATYPE_MANY = 2;
+    private static final int OBJECT_CONTAIN_SINGLE = 3;
+    private static final int OBJECT_CONTAIN_MANY = 4;
+    private static final int OBJECT_HREF_SINGLE = 5;
+    private static final int OBJECT_HREF_MANY = 6;
+    
+    // Where a referenced object is
+    private static final int SKIP = 0;
+    private static final int SAME_DOC = 1;
+    private static final int CROSS_DOC = 2;
+    
+    /**
+     * A feature of a class and how to save it
+     */
+    private static class FeatureInfo {
+        EStructuralFeature feature;
+        String name;
+        int kind;
+        boolean unsettable;
+    }
+    
+    // Features of each class shared by all instances
+    private static final Map<EClass, FeatureInfo[]> featureCache = new HashMap<EClass, FeatureInfo[]>();
+    
+    private static synchronized FeatureInfo[] getFeatureInfos(EClass eClass) {
+        FeatureInfo[] infos = featureCache.get(eClass);
+        
+        if(infos == null) {
+            List<EStructuralFeature> features = eClass.getEAllStructuralFeatures();
+            infos = new FeatureInfo[features.size()];
+            
+            for(int i = 0; i < infos.length; i++) {
+                FeatureInfo info = new FeatureInfo();
+                info.feature = features.get(i);
+                info.name = info.feature.getName();
+                info.kind = getFeatureKind(info.feature);
+                info.unsettable = info.feature.isUnsettable();
+                infos[i] = info;
+            }
+            
+            featureCache.put(eClass, infos);
+        }
+        
+        return infos;
+    }
+    
+    private static int getFeatureKind(EStructuralFeature feature) {
+        if(feature.isTransient()) {
+            return TRANSIENT;
+        }
+        
+        // Folders and elements are saved in their own files
+        if(feature == IArchimatePackage.Literals.FOLDER_CONTAINER__FOLDERS || feature == IArchimatePackage.Literals.FOLDER__ELEMENTS) {
+            return TRANSIENT;
+        }
+        
+        if(feature instanceof EReference) {
+            EReference reference = (EReference)feature;
+            if(reference.isContainment()) {
+                return reference.isMany() ? OBJECT_CONTAIN_MANY : OBJECT_CONTAIN_SINGLE;
+            }
+            if(reference.getEOpposite() != null && reference.getEOpposite().isContainment()) {
+                return TRANSIENT;
+            }
+            return reference.isMany() ? OBJECT_HREF_MANY : OBJECT_HREF_SINGLE;
+        }
+        
+        EDataType dataType = ((EAttribute)feature).getEAttributeType();
+        if(!dataType.isSerializable() || dataType.getInstanceClass() == FeatureMap.Entry.class) {
+            return TRANSIENT;
+        }
+        
+        return feature.isMany() ? DATATYPE_MANY : DATATYPE_SINGLE;
+    }
+    
+    private StringBuilder fOut = new StringBuilder(8192);
+    private int fLineWidth;
+    private int fDepth;
+    private boolean fLastElementIsStart;
+    private List<String> fElementNames = new ArrayList<String>();
+    private List<String> fIndents = new ArrayList<String>();
+    
+    private EObject fRoot;
+    private Map<String, EPackage> fPackages = new TreeMap<String, EPackage>();
+    private boolean fDeclareXSI;
+    
+    private byte[] fBytes = new byte[8192];
+    private int fLength;
+    
+    /**
+     * Serialize an object and its contents. The result is available from {@link #getBytes()}
+     * @param root The model, a folder or an element
+     * @throws IOException
+     */
+    public void serialize(EObject root) throws IOException {
+        fOut.setLength(0);
+        fLineWidth = 0;
+        fDepth = 0;
+        fLastElementIsStart = false;
+        fElementNames.clear();
+        fPackages.clear();
+        fDeclareXSI = false;
+        fRoot = root;
+        
+        try {
+            startElement(getQName(root.eClass()));
+            
+            // Namespace declarations are inserted after the root element's name when we know which are used
+            int mark = fOut.length();
+            int markLineWidth = fLineWidth;
+            
+            saveFeatures(root);
+            
+            fOut.insert(mark, getNamespaceDeclarations(markLineWidth));
+        }
+        finally {
+            fRoot = null;
+        }
+        
+        encode();
+    }
+    
+    /**
+     * @return The buffer with the UTF-8 bytes of the last serialized object. Only the first {@link #getLength()} bytes are valid.
+     */
+    public byte[] getBytes() {
+        return fBytes;
+    }
+    
+    /**
+     * @return The number of bytes of the last serialized object
+     */
+    public int getLength() {
+        return fLength;
+    }
+    
+    private void saveFeatures(EObject eObject) throws IOException {
+        FeatureInfo[] infos = getFeatureInfos(eObject.eClass());
+        
+        int[] elementFeatures = null;
+        int elementCount = 0;
+        
+        // Attributes first
+        for(int i = 0; i < infos.length; i++) {
+            FeatureInfo info = infos[i];
+            
+            if(info.kind == TRANSIENT || !eObject.eIsSet(info.feature)) {
+                continue;
+            }
+            
+            switch(info.kind) {
+                case DATATYPE_SINGLE:
+                    saveDataTypeSingle(eObject, info);
+                    continue;
+                
+                case OBJECT_HREF_SINGLE:
+                    if(info.unsettable && eObject.eGet(info.feature, false) == null) {
+                        break; // nil
+                    }
+                    int where = sameDocSingle(eObject, info);
+                    if(where == SAME_DOC) {
+                        saveIDRefSingle(eObject, info);
+                        continue;
+                    }
+                    if(where == SKIP) {
+                        continue;
+                    }
+                    break;
+                
+                case OBJECT_HREF_MANY:
+                    if(getList(eObject, info).isEmpty()) {
+                        addAttribute(info.name, ""); //$NON-NLS-1$
+                        continue;
+                    }
+                    if(sameDocMany(eObject, info) == SAME_DOC) {
+                        saveIDRefMany(eObject, info);
+                        continue;
+                    }
+                    break;
+                
+                case DATATYPE_MANY:
+                case OBJECT_CONTAIN_MANY:
+                    if(getList(eObject, info).isEmpty()) {
+                        addAttribute(info.name, ""); //$NON-NLS-1$
+                        continue;
+                    }
+                    break;
+                
+                default:
+                    break;
+            }
+            
+            if(elementFeatures == null) {
+                elementFeatures = new int[infos.length];
+            }
+            elementFeatures[elementCount++] = i;
+        }
+        
+        if(elementFeatures == null) {
+            endEmptyElement();
+            return;
+        }
+        
+        // Then elements
+        for(int i = 0; i < elementCount; i++) {
+            FeatureInfo info = infos[elementFeatures[i]];
+            
+            switch(info.kind) {
+                case DATATYPE_MANY:
+                    saveDataTypeMany(eObject, info);
+                    break;
+                
+                case OBJECT_CONTAIN_SINGLE: {
+                    EObject value = (EObject)eObject.eGet(info.feature, false);
+                    if(value == null) {
+                        saveNil(info);
+                    }
+                    else {
+                        saveElement(value, info);
+                    }
+                    break;
+                }
+                
+                case OBJECT_CONTAIN_MANY:
+                    for(Object value : getList(eObject, info)) {
+                        saveElement((EObject)value, info);
+                    }
+                    break;
+                
+                case OBJECT_HREF_SINGLE: {
+                    EObject value = (EObject)eObject.eGet(info.feature, false);
+                    if(value == null) {
+                        saveNil(info);
+                    }
+                    else {
+                        saveHref(value, info);
+                    }
+                    break;
+                }
+                
+                case OBJECT_HREF_MANY:
+                    for(Object value : getList(eObject, info)) {
+                        saveHref((EObject)value, info);
+                    }
+                    break;
+                
+                default:
+                    break;
+            }
+        }
+        
+        endElement();
+    }
+    
+    private void saveDataTypeSingle(EObject eObject, FeatureInfo info) throws IOException {
+        Object value = eObject.eGet(info.feature, false);
+        if(value != null) {
+            EDataType dataType = (EDataType)info.feature.getEType();
+            addAttribute(info.name, escape(EcoreUtil.convertToString(dataType, value), true));
+        }
+    }
+    
+    private void saveDataTypeMany(EObject eObject, FeatureInfo info) throws IOException {
+        EDataType dataType = (EDataType)info.feature.getEType();
+        
+        for(Object value : getList(eObject, info)) {
+            if(value == null) {
+                saveNil(info);
+            }
+            else {
+                saveDataValueElement(info.name, escape(EcoreUtil.convertToString(dataType, value), false));
+            }
+        }
+    }
+    
+    private void saveIDRefSingle(EObject eObject, FeatureInfo info) throws IOException {
+        EObject value = (EObject)eObject.eGet(info.feature, false);
+        addAttribute(info.name, escape(getIDRef(value), true));
+    }
+    
+    private void saveIDRefMany(EObject eObject, FeatureInfo info) throws IOException {
+        StringBuilder ids = new StringBuilder();
+        
+        for(Object value : getList(eObject, info)) {
+            if(ids.length() > 0) {
+                ids.append(' ');
+            }
+            ids.append(escape(getIDRef((EObject)value), true));
+        }
+        
+        addAttribute(info.name, ids.toString());
+    }
+    
+    private void saveElement(EObject eObject, FeatureInfo info) throws IOException {
+        startElement(info.name);
+        
+        if(eObject.eClass() != info.feature.getEType()) {
+            saveTypeAttribute(eObject.eClass());
+        }
+        
+        saveFeatures(eObject);
+    }
+    
+    private void saveHref(EObject eObject, FeatureInfo info) throws IOException {
+        EClass eClass = eObject.eClass();
+        EClass expectedType = (EClass)info.feature.getEType();
+        
+        startElement(info.name);
+        
+        if(eClass != expectedType && expectedType.isAbstract()) {
+            saveTypeAttribute(eClass);
+        }
+        
+        addAttribute(HREF, escape(getHRef(eObject), true));
+        endEmptyElement();
+    }
+    
+    private void saveNil(FeatureInfo info) {
+        startElement(info.name);
+        addAttribute(XSI_NIL, "true"); //$NON-NLS-1$
+        fDeclareXSI = true;
+        endEmptyElement();
+    }
+    
+    private void saveTypeAttribute(EClass eClass) {
+        addAttribute(XSI_TYPE, getQName(eClass));
+        fDeclareXSI = true;
+    }
+    
+    private int sameDocSingle(EObject eObject, FeatureInfo info) {
+        EObject value = (EObject)eObject.eGet(info.feature, false);
+        if(value == null) {
+            return SKIP;
+        }
+        return isSameDoc(value) ? SAME_DOC : CROSS_DOC;
+    }
+    
+    private int sameDocMany(EObject eObject, FeatureInfo info) {
+        for(Object value : getList(eObject, info)) {
+            if(!isSameDoc((EObject)value)) {
+                return CROSS_DOC;
+            }
+        }
+        return SAME_DOC;
+    }
+    
+    /**
+     * @return true if eObject is saved in the same file as the root. Objects that are not in a model are treated as in the same file.
+     */
+    private boolean isSameDoc(EObject eObject) {
+        if(eObject.eIsProxy()) {
+            return false;
+        }
+        EObject fileOwner = GraficoChangeTracker.getFileOwner(eObject);
+        return fileOwner == null || fileOwner == fRoot;
+    }
+    
+    /**
+     * @return The reference to an object in the same file
+     */
+    private String getIDRef(EObject eObject) {
+        String id = EcoreUtil.getID(eObject);
+        return id != null ? id : getPathFragment(eObject);
+    }
+    
+    /**
+     * @return The reference to an object in another file
+     */
+    private String getHRef(EObject eObject) {
+        // The proxy's URI was resolved against the file that it was loaded from so it is absolute. It's saved as the file name
+        // and id, as it was in that file and as all references to elements are, so that the file doesn't depend on the folder.
+        if(eObject.eIsProxy()) {
+            URI uri = ((InternalEObject)eObject).eProxyURI();
+            if(uri.segmentCount() > 0 && uri.hasFragment()) {
+                return uri.lastSegment() + "#" + uri.fragment(); //$NON-NLS-1$
+            }
+            return uri.toString();
+        }
+        
+        EObject fileOwner = GraficoChangeTracker.getFileOwner(eObject);
+        
+        String fileName = fileOwner instanceof IFolder || !(fileOwner instanceof IIdentifier) ? IGraficoConstants.FOLDER_XML
+                : fileOwner.getClass().getSimpleName() + "_" + ((IIdentifier)fileOwner).getId() + ".xml"; //$NON-NLS-1$ //$NON-NLS-2$
+        
+        String id = EcoreUtil.getID(eObject);
+        
+        return fileName + "#" + (id != null ? id : getPathFragment(eObject)); //$NON-NLS-1$
+    }
+    
+    /**
+     * @return The path of an object without an id from the root of its file in the same form as EMF does
+     */
+    private String getPathFragment(EObject eObject) {
+        List<String> segments = new ArrayList<String>();
+        
+        InternalEObject internalEObject = (InternalEObject)eObject;
+        EObject fileOwner = GraficoChangeTracker.getFileOwner(eObject);
+        
+        while(internalEObject != fileOwner && internalEObject.eInternalContainer() != null) {
+            InternalEObject container = internalEObject.eInternalContainer();
+            segments.add(0, container.eURIFragmentSegment(internalEObject.eContainingFeature(), internalEObject));
+            internalEObject = container;
+        }
+        
+        StringBuilder sb = new StringBuilder("/"); //$NON-NLS-1$
+        for(String segment : segments) {
+            sb.append('/').append(segment);
+        }
+        
+        return sb.toString();
+    }
+    
+    private List<?> getList(EObject eObject, FeatureInfo info) {
+        Object value = eObject.eGet(info.feature, false);
+        return value instanceof InternalEList ? ((InternalEList<?>)value).basicList() : (List<?>)value;
+    }
+    
+    private String getQName(EClass eClass) {
+        EPackage ePackage = eClass.getEPackage();
+        String prefix = ePackage.getNsPrefix();
+        fPackages.put(prefix, ePackage);
+        return prefix + ":" + eClass.getName(); //$NON-NLS-1$
+    }
+    
+    private String getNamespaceDeclarations(int lineWidth) {
+        StringBuilder sb = new StringBuilder();
+        
+        List<String[]> declarations = new ArrayList<String[]>();
+        if(fDeclareXSI) {
+            declarations.add(new String[] { "xmlns:" + XSI_PREFIX, XSI_NS_URI }); //$NON-NLS-1$
+        }
+        for(EPackage ePackage : fPackages.values()) {
+            declarations.add(new String[] { "xmlns:" + ePackage.getNsPrefix(), ePackage.getNsURI() }); //$NON-NLS-1$
+        }
+        
+        // Same layout as attributes of the root element
+        for(String[] declaration : declarations) {
+            if(lineWidth > LINE_WIDTH) {
+                sb.append(LINE_SEPARATOR);
+                sb.append(getIndent(2));
+                lineWidth = getIndent(2).length();
+            }
+            else {
+                sb.append(' ');
+                lineWidth++;
+            }
+            
+            String attribute = declaration[0] + "=\"" + declaration[1] + "\""; //$NON-NLS-1$ //$NON-NLS-2$
+            sb.append(attribute);
+            lineWidth += attribute.length();
+        }
+        
+        return sb.toString();
+    }
+    
+    // ============================ Formatted XML ============================
+    
+    private void startElement(String name) {
+        if(fLastElementIsStart) {
+            closeStartElement();
+        }
+        
+        fElementNames.add(name);
+        fDepth++;
+        add(getIndent(fDepth - 1));
+        add("<"); //$NON-NLS-1$
+        add(name);
+        fLastElementIsStart = true;
+    }
+    
+    private void closeStartElement() {
+        add(">"); //$NON-NLS-1$
+        addLine();
+        fLastElementIsStart = false;
+    }
+    
+    private void endElement() {
+        if(fLastElementIsStart) {
+            endEmptyElement();
+            return;
+        }
+        
+        String name = fElementNames.remove(fElementNames.size() - 1);
+        add(getIndent(fDepth - 1));
+        add("</"); //$NON-NLS-1$
+        add(name);
+        add(">"); //$NON-NLS-1$
+        addLine();
+        fDepth--;
+    }
+    
+    private void endEmptyElement() {
+        fElementNames.remove(fElementNames.size() - 1);
+        add("/>"); //$NON-NLS-1$
+        addLine();
+        fLastElementIsStart = false;
+        fDepth--;
+    }
+    
+    private void addAttribute(String name, String value) {
+        if(fLineWidth > LINE_WIDTH) {
+            addLine();
+            add(getIndent(fDepth + 1));
+        }
+        else {
+            add(" "); //$NON-NLS-1$
+        }
+        
+        add(name);
+        add("=\""); //$NON-NLS-1$
+        add(value);
+        add("\""); //$NON-NLS-1$
+    }
+    
+    private void saveDataValueElement(String name, String value) {
+        if(fLastElementIsStart) {
+            closeStartElement();
+        }
+        
+        add(getIndent(fDepth));
+        add("<"); //$NON-NLS-1$
+        add(name);
+        add(">"); //$NON-NLS-1$
+        add(value);
+        add("</"); //$NON-NLS-1$
+        add(name);
+        add(">"); //$NON-NLS-1$
+        addLine();
+    }
+    
+    private void add(String s) {
+        fOut.append(s);
+        fLineWidth += s.length();
+    }
+    
+    private void addLine() {
+        fOut.append(LINE_SEPARATOR);
+        fLineWidth = 0;
+    }
+    
+    /**
+     * @return Two spaces for each level
+     */
+    private String getIndent(int level) {
+        while(fIndents.size() <= level) {
+            int size = fIndents.size();
+            fIndents.add(size == 0 ? "" : fIndents.get(size - 1) + "  "); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return fIndents.get(level);
+    }
+    
+    /**
+     * Escape a value in the same way as EMF
+     * @param value The value
+     * @param isAttribute true if the value is an attribute, false if it is the text of an element
+     */
+    private String escape(String value, boolean isAttribute) throws IOException {
+        StringBuilder sb = null;
+        int length = value.length();
+        
+        for(int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement = null;
+            
+            switch(c) {
+                case '&':
+                    replacement = "&amp;"; //$NON-NLS-1$
+                    break;
+                case '<':
+                    replacement = "&lt;"; //$NON-NLS-1$
+                    break;
+                case '"':
+                    replacement = "&quot;"; //$NON-NLS-1$
+                    break;
+                case '\n':
+                    replacement = isAttribute ? "&#xA;" : LINE_SEPARATOR; //$NON-NLS-1$
+                    break;
+                case '\r':
+                    replacement = "&#xD;"; //$NON-NLS-1$
+                    break;
+                case '\t':
+                    replacement = isAttribute ? "&#x9;" : null; //$NON-NLS-1$
+                    break;
+                case '>':
+                    replacement = !isAttribute && i >= 2 && value.charAt(i - 1) == ']' && value.charAt(i - 2) == ']' ? "&gt;" : null; //$NON-NLS-1$
+                    break;
+                default:
+                    if(c < 0x20) {
+                        throw new IOException("An invalid XML character (Unicode: 0x" + Integer.toHexString(c) + ") was found in the element content:" + value); //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                    break;
+            }
+            
+            if(replacement != null && sb == null) {
+                sb = new StringBuilder(length + 16);
+                sb.append(value, 0, i);
+            }
+            
+            if(sb != null) {
+                if(replacement != null) {
+                    sb.append(replacement);
+                }
+                else {
+                    sb.append(c);
+                }
+            }
+        }
+        
+        return sb != null ? sb.toString() : value;
+    }
+    
+    /**
+     * Encode the XML as UTF-8 into the byte buffer
+     */
+    private void encode() {
+        int length = fOut.length();
+        
+        if(fBytes.length < length * 3) {
+            fBytes = new byte[length * 3];
+        }
+        
+        byte[] bytes = fBytes;
+        int pos = 0;
+        
+        for(int i = 0; i < length; i++) {
+            char c = fOut.charAt(i);
+            
+            if(c < 0x80) {
+                bytes[pos++] = (byte)c;
+            }
+            else if(c < 0x800) {
+                bytes[pos++] = (byte)(0xC0 | (c >> 6));
+                bytes[pos++] = (byte)(0x80 | (c & 0x3F));
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(fOut.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, fOut.charAt(++i));
+                bytes[pos++] = (byte)(0xF0 | (codePoint >> 18));
+                bytes[pos++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[pos++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[pos++] = (byte)(0x80 | (codePoint & 0x3F));
+            }
+            else if(Character.isSurrogate(c)) {
+                // Unpaired surrogate is replaced as the JDK's UTF-8 encoder does
+                bytes[pos++] = '?';
+            }
+            else {
+                bytes[pos++] = (byte)(0xE0 | (c >> 12));
+                bytes[pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                bytes[pos++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+        
+        fLength = pos;
+    }
+}
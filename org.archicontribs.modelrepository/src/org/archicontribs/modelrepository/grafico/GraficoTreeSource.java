@@ -0,0 +1,132 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+
+/**
+ * Reads Grafico files straight from a tree in a Git repository, such as the tree of a commit,
+ * without writing them to the file system.
+ * 
+ * The repository must remain open while the source is used.
+ * 
+ * @author Phillip Beauvoir
+ */
+public class GraficoTreeSource implements IGraficoSource {
+    
+    private Repository fRepository;
+    private ObjectId fTreeId;
+    private File fLocalRepoFolder;
+    
+    // Blob ids keyed by file path
+    private Map<String, ObjectId> fBlobs = new HashMap<String, ObjectId>();
+    
+    // Names of files and sub-folders keyed by folder path
+    private Map<String, Set<String>> fFolders = new HashMap<String, Set<String>>();
+    
+    /**
+     * @param repository The repository
+     * @param tree The tree to read from
+     * @param localRepoFolder The local repo folder, used as the base of the files' URIs
+     * @throws IOException
+     */
+    public GraficoTreeSource(Repository repository, RevTree tree, File localRepoFolder) throws IOException {
+        fRepository = repository;
+        fTreeId = tree.copy();
+        fLocalRepoFolder = localRepoFolder;
+        
+        // Index the model and images folders of the tree
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(tree);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER));
+            
+            while(treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                fBlobs.put(path, treeWalk.getObjectId(0));
+                addToFolder(path, false);
+            }
+        }
+    }
+    
+    /**
+     * Add the name of a file or folder to its parent folder, and the parent folder to its own parent
+     */
+    private void addToFolder(String path, boolean isFolder) {
+        int index = path.lastIndexOf('/');
+        String parentPath = index == -1 ? "" : path.substring(0, index); //$NON-NLS-1$
+        String name = path.substring(index + 1) + (isFolder ? "/" : ""); //$NON-NLS-1$ //$NON-NLS-2$
+        
+        Set<String> names = fFolders.get(parentPath);
+        if(names == null) {
+            names = new LinkedHashSet<String>();
+            fFolders.put(parentPath, names);
+            if(index != -1) {
+                addToFolder(parentPath, true);
+            }
+        }
+        
+        names.add(name);
+    }
+    
+    /**
+     * @return The repository
+     */
+    Repository getRepository() {
+        return fRepository;
+    }
+    
+    /**
+     * @return The id of the tree
+     */
+    ObjectId getTreeId() {
+        return fTreeId;
+    }
+    
+    @Override
+    public boolean isFile(String path) {
+        return fBlobs.containsKey(path);
+    }
+    
+    @Override
+    public String[] list(String path) {
+        Set<String> names = fFolders.get(path);
+        return names == null ? null : names.toArray(new String[names.size()]);
+    }
+    
+    @Override
+    public byte[] getBytes(String path) throws IOException {
+        ObjectId objectId = fBlobs.get(path);
+        if(objectId == null) {
+            throw new IOException("File not found: " + path); //$NON-NLS-1$
+        }
+        
+        // A reader for each file as files may be read by more than one thread
+        try(ObjectReader reader = fRepository.newObjectReader()) {
+            return reader.open(objectId, Constants.OBJ_BLOB).getCachedBytes(Integer.MAX_VALUE);
+        }
+    }
+    
+    @Override
+    public URI getURI(String path) {
+        return URI.createFileURI(new File(fLocalRepoFolder, path).getAbsolutePath());
+    }
+}
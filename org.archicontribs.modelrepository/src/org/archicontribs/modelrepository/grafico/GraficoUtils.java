@@ -6,17 +6,30 @@
 package org.archicontribs.modelrepository.grafico;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.SystemReader;
 
@@ -141,4 +154,141 @@ public class GraficoUtils {
         str = str.replaceAll("\\r?\\n", lineEnding); //$NON-NLS-1$
         Files.write(Paths.get(file.getAbsolutePath()), str.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE);
     }
+    
+    /**
+     * Write bytes to file only if the file's content is different.
+     * Leaving an identical file untouched keeps its timestamp so that git's index can treat it as unchanged without reading it.
+     * The file's parent folders are created if needed.
+     * @param file File to write to
+     * @param bytes The bytes to write
+     * @param length The number of bytes to write
+     * @return true if the file was written, false if it already had the same content
+     * @throws IOException
+     */
+    public static boolean writeBytesIfChanged(File file, byte[] bytes, int length) throws IOException {
+        if(file.length() == length && hasContent(file, bytes, length)) {
+            return false;
+        }
+        
+        file.getParentFile().mkdirs();
+        
+        try(OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes, 0, length);
+        }
+        
+        return true;
+    }
+    
+    /**
+     * @return true if file has exactly the given content
+     */
+    private static boolean hasContent(File file, byte[] bytes, int length) throws IOException {
+        byte[] buffer = new byte[8192];
+        int pos = 0;
+        
+        try(InputStream in = new FileInputStream(file)) {
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                if(pos + read > length) {
+                    return false;
+                }
+                for(int i = 0; i < read; i++) {
+                    if(buffer[i] != bytes[pos++]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        
+        return pos == length;
+    }
+    
+    /**
+     * Delete a file and any parent folders that are then empty, up to but not including the root folder
+     * @param file The file to delete
+     * @param rootFolder The root folder
+     * @throws IOException
+     */
+    public static void deleteFile(File file, File rootFolder) throws IOException {
+        Files.deleteIfExists(file.toPath());
+        
+        File parent = file.getParentFile();
+        while(parent != null && !parent.equals(rootFolder)) {
+            String[] children = parent.list();
+            if(children == null || children.length > 0 || !parent.delete()) {
+                break;
+            }
+            parent = parent.getParentFile();
+        }
+    }
+    
+    /**
+     * Rather than compare the contents of the files as Git status does, the index entries of the model and images folders
+     * are compared with the tree and the files' times and lengths are compared with the index entries. Only files that
+     * were changed as the index was written are read.
+     * 
+     * @param repository The repository
+     * @param treeId The id of the tree
+     * @return true if the files in the model and images folders are the same as in the tree
+     * @throws IOException
+     */
+    public static boolean isWorkingTreeSameAsTree(Repository repository, ObjectId treeId) throws IOException {
+        DirCache dirCache = repository.readDirCache();
+        long indexLastModified = repository.getFS().lastModified(repository.getIndexFile());
+        int count = 0;
+        
+        try(TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(treeId);
+            treeWalk.addTree(new DirCacheIterator(dirCache));
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(IGraficoConstants.MODEL_FOLDER, IGraficoConstants.IMAGES_FOLDER));
+            
+            while(treeWalk.next()) {
+                DirCacheIterator dirCacheIterator = treeWalk.getTree(1, DirCacheIterator.class);
+                
+                // Added, deleted or changed in the index, or a conflict
+                if(dirCacheIterator == null || !treeWalk.idEqual(0, 1) || treeWalk.getRawMode(0) != treeWalk.getRawMode(1)
+                        || dirCacheIterator.getDirCacheEntry().getStage() != DirCacheEntry.STAGE_0) {
+                    return false;
+                }
+                
+                DirCacheEntry entry = dirCacheIterator.getDirCacheEntry();
+                File file = new File(repository.getWorkTree(), entry.getPathString());
+                if(!file.isFile()) {
+                    return false;
+                }
+                
+                // The file might have been changed in the same time as the index was written so its time can't be trusted
+                if(entry.isSmudged() || entry.getLastModified() >= indexLastModified) {
+                    try(ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+                        if(!formatter.idFor(Constants.OBJ_BLOB, Files.readAllBytes(file.toPath())).equals(entry.getObjectId())) {
+                            return false;
+                        }
+                    }
+                }
+                else if(file.length() != entry.getLength() || repository.getFS().lastModified(file) != entry.getLastModified()) {
+                    return false;
+                }
+                
+                count++;
+            }
+        }
+        
+        // Files that are not in the index would be imported as well
+        return count == countFiles(new File(repository.getWorkTree(), IGraficoConstants.MODEL_FOLDER))
+                + countFiles(new File(repository.getWorkTree(), IGraficoConstants.IMAGES_FOLDER));
+    }
+    
+    private static int countFiles(File folder) {
+        int count = 0;
+        
+        File[] files = folder.listFiles();
+        if(files != null) {
+            for(File file : files) {
+                count += file.isDirectory() ? countFiles(file) : 1;
+            }
+        }
+        
+        return count;
+    }
 }
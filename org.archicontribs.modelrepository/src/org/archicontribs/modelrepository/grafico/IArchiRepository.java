@@ -3,10 +3,12 @@ package org.archicontribs.modelrepository.grafico;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Map;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -64,6 +66,42 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     boolean hasChangesToCommit() throws IOException, GitAPIException;
 
+    /**
+     * @return true if the model is different to the model in HEAD. The working tree is not exported or checked.
+     * @throws IOException
+     */
+    boolean hasModelChangesToCommit() throws IOException;
+
+    /**
+     * @param ref The ref, such as "HEAD" or a branch name
+     * @return The id of the commit that ref points to, or null if it does not exist
+     * @throws IOException
+     */
+    ObjectId resolveRef(String ref) throws IOException;
+
+    /**
+     * @param ref The ref of a commit, such as "HEAD" or a branch name
+     * @return The index of the element files in the commit's tree keyed by element id, or null if ref does not exist
+     * @throws IOException
+     */
+    GraficoElementIndex getElementIndex(String ref) throws IOException;
+
+    /**
+     * @param refA The ref of the first commit, or null to compare with an empty model
+     * @param refB The ref of the second commit
+     * @return The changes to the model's objects from the first commit to the second, or null if a ref does not exist
+     * @throws IOException
+     */
+    GraficoDiff getDiff(String refA, String refB) throws IOException;
+
+    /**
+     * Merge the remote branch of the current branch into the current branch in memory, as a pull would after a fetch.
+     * The working tree and index are not changed.
+     * @return The result of the merge. It has no conflicts if there is no remote branch or it has nothing to merge.
+     * @throws IOException
+     */
+    MergePreview getMergePreview() throws IOException;
+
     /**
      * Commit any changes
      * @param commitMessage
@@ -74,6 +112,16 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     RevCommit commitChanges(String commitMessage, boolean amend) throws GitAPIException, IOException;
 
+    /**
+     * Commit the model straight into the repository without exporting it to the working tree and staging it first.
+     * The working tree and index are updated afterwards where they differ from the commit.
+     * @param commitMessage
+     * @param amend If true, previous commit is amended
+     * @return The commit, or null if the model has not changed
+     * @throws IOException
+     */
+    RevCommit commitModel(String commitMessage, boolean amend) throws IOException;
+
     /**
      * Clone a model
      * @param repoURL
@@ -115,6 +163,16 @@ public interface IArchiRepository extends IGraficoConstants {
      */
     FetchResult fetchFromRemote(String userName, String userPassword, ProgressMonitor monitor, boolean isDryrun) throws IOException, GitAPIException;
 
+    /**
+     * Get the branches on the Remote without fetching them
+     * @param userName
+     * @param userPassword
+     * @return The commit ids of the remote's branches keyed by their remote tracking ref names, for example "refs/remotes/origin/master"
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    Map<String, ObjectId> getRemoteRefs(String userName, String userPassword) throws IOException, GitAPIException;
+
     /**
      * Create a new, local Git repository with name set to "origin"
      * @param URL online URL
@@ -0,0 +1,46 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+
+import org.eclipse.emf.common.util.URI;
+
+
+/**
+ * Where the Grafico files of a model are read from.
+ * Paths are relative to the root of the repository and use "/" as separator.
+ * 
+ * @author Phillip Beauvoir
+ */
+public interface IGraficoSource {
+    
+    /**
+     * @param path The path of a file
+     * @return true if the file exists
+     */
+    boolean isFile(String path);
+    
+    /**
+     * @param path The path of a folder
+     * @return The names of the files and sub-folders in the folder, or null if there is no such folder.
+     *         The names of sub-folders end with "/".
+     */
+    String[] list(String path);
+    
+    /**
+     * @param path The path of a file
+     * @return The content of the file
+     * @throws IOException
+     */
+    byte[] getBytes(String path) throws IOException;
+    
+    /**
+     * @param path The path of a file
+     * @return The absolute URI of the file, used to resolve references to other files
+     */
+    URI getURI(String path);
+}
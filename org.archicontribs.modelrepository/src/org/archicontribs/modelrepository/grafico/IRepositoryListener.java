@@ -21,6 +21,11 @@ public interface IRepositoryListener {
 
     String BRANCHES_CHANGED = "branches_changed"; //$NON-NLS-1$
     
+    /**
+     * A new RepositoryStateSnapshot is available from RepositoryStatusEngine
+     */
+    String STATE_CHANGED = "state_changed"; //$NON-NLS-1$
+    
     void repositoryChanged(String eventName, IArchiRepository repository);
     
 }
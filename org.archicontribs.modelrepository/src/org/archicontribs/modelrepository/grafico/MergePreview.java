@@ -0,0 +1,210 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.NoMergeBaseException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.merge.ResolveMerger;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * What would happen if a commit was merged into another, such as the remote branch into the local branch on a pull.
+ *
+ * The merge is done in memory with a ResolveMerger so the working tree, index and refs are not touched,
+ * and the objects that the merger creates are not written to the repository.
+ * Files that the textual merge leaves in conflict are merged by a {@link GraficoMerger} as they would be on a pull,
+ * so only the files that the user would have to resolve are reported.
+ *
+ * As commits never change a preview is cached in memory keyed by the ids of the two commits.
+ *
+ * @author Phillip Beauvoir
+ */
+public class MergePreview {
+    
+    // Number of previews to keep in memory
+    private static final int MAX_CACHED_PREVIEWS = 32;
+    
+    @SuppressWarnings("serial")
+    private static final Map<String, MergePreview> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, MergePreview>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, MergePreview> eldest) {
+                    return size() > MAX_CACHED_PREVIEWS;
+                }
+            });
+    
+    /**
+     * An inserter that works out the ids of the objects that the merger creates but doesn't write them
+     */
+    private static class DiscardingInserter extends ObjectInserter.Formatter {
+        private Repository repository;
+        
+        DiscardingInserter(Repository repository) {
+            this.repository = repository;
+        }
+        
+        @Override
+        public ObjectId insert(int objectType, long length, InputStream in) throws IOException {
+            return idFor(objectType, length, in);
+        }
+        
+        @Override
+        public ObjectReader newReader() {
+            return repository.newObjectReader();
+        }
+    }
+    
+    /**
+     * @param repository The repository
+     * @param ours The id of the commit that is merged into, or null if there is none
+     * @param theirs The id of the commit to merge, or null if there is none
+     * @return The result of merging theirs into ours
+     * @throws IOException
+     */
+    public static MergePreview getPreview(Repository repository, AnyObjectId ours, AnyObjectId theirs) throws IOException {
+        if(ours == null || theirs == null) {
+            return new MergePreview(ours, theirs);
+        }
+        
+        String key = ours.name() + theirs.name();
+        
+        MergePreview preview = cache.get(key);
+        if(preview == null) {
+            preview = new MergePreview(ours, theirs);
+            preview.compute(repository);
+            cache.put(key, preview);
+        }
+        
+        return preview;
+    }
+    
+    private ObjectId fOurs, fTheirs;
+    private List<String> fConflictingFiles = new ArrayList<String>();
+    
+    private MergePreview(AnyObjectId ours, AnyObjectId theirs) {
+        fOurs = ours == null ? null : ours.copy();
+        fTheirs = theirs == null ? null : theirs.copy();
+    }
+    
+    /**
+     * @return The id of the commit that is merged into, or null if there is none
+     */
+    public ObjectId getOurs() {
+        return fOurs;
+    }
+    
+    /**
+     * @return The id of the commit to merge, or null if there is none
+     */
+    public ObjectId getTheirs() {
+        return fTheirs;
+    }
+    
+    /**
+     * @return true if the merge would leave files in conflict
+     */
+    public boolean isConflicting() {
+        return !fConflictingFiles.isEmpty();
+    }
+    
+    /**
+     * @return The paths of the files that the merge would leave in conflict
+     */
+    public List<String> getConflictingFiles() {
+        return Collections.unmodifiableList(fConflictingFiles);
+    }
+    
+    /**
+     * @return The ids of the objects with their own file, such as elements and views, that the merge would leave in conflict.
+     *         Folder files are not included as their ids are only in the file.
+     */
+    public List<String> getConflictingElements() {
+        List<String> ids = new ArrayList<String>();
+        for(String path : fConflictingFiles) {
+            String id = GraficoElementIndex.getID(path);
+            if(id != null) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+    
+    private void compute(Repository repository) throws IOException {
+        ObjectId ours = fOurs;
+        ObjectId theirs = fTheirs;
+        
+        // Already merged or a fast forward
+        int[] counts = CommitGraph.get(repository).countAheadBehind(ours, theirs);
+        if(counts != null && (counts[0] == 0 || counts[1] == 0)) {
+            return;
+        }
+        
+        ResolveMerger merger = (ResolveMerger)MergeStrategy.RESOLVE.newMerger(repository, true);
+        merger.setObjectInserter(new DiscardingInserter(repository));
+        
+        try {
+            if(merger.merge(false, ours, theirs)) {
+                return;
+            }
+        }
+        catch(NoMergeBaseException ex) {
+            // More than one merge base so merge them as a pull would. This merger writes the merged bases to the repository.
+            merger = (ResolveMerger)MergeStrategy.RECURSIVE.newMerger(repository, true);
+            if(merger.merge(ours, theirs)) {
+                return;
+            }
+        }
+        
+        ObjectId baseTree = null;
+        ObjectId ourTree, theirTree;
+        
+        try(RevWalk revWalk = new RevWalk(repository)) {
+            if(merger.getBaseCommitId() != null) {
+                baseTree = revWalk.parseCommit(merger.getBaseCommitId()).getTree();
+            }
+            ourTree = revWalk.parseCommit(ours).getTree();
+            theirTree = revWalk.parseCommit(theirs).getTree();
+        }
+        
+        GraficoMerger graficoMerger = new GraficoMerger(repository);
+        
+        for(String path : merger.getUnmergedPaths()) {
+            if(baseTree == null || !GraficoMerger.isGraficoFile(path) || !canMerge(repository, graficoMerger, path, baseTree, ourTree, theirTree)) {
+                fConflictingFiles.add(path);
+            }
+        }
+    }
+    
+    /**
+     * @return true if the three versions of a file can be merged by the Grafico merger
+     */
+    private boolean canMerge(Repository repository, GraficoMerger graficoMerger, String path, ObjectId baseTree, ObjectId ourTree, ObjectId theirTree) throws IOException {
+        try(TreeWalk treeWalk = TreeWalk.forPath(repository, path, baseTree, ourTree, theirTree)) {
+            // Both sides have to have changed the file rather than added or deleted it
+            if(treeWalk == null || treeWalk.getFileMode(0) == FileMode.MISSING || treeWalk.getFileMode(1) == FileMode.MISSING
+                    || treeWalk.getFileMode(2) == FileMode.MISSING) {
+                return false;
+            }
+            
+            return graficoMerger.merge(path, treeWalk.getObjectId(0), treeWalk.getObjectId(1), treeWalk.getObjectId(2)) != null;
+        }
+    }
+}
@@ -8,6 +8,10 @@ public class Messages extends NLS {
 
     public static String ArchiRepository_0;
 
+    public static String GraficoModelCommitter_0;
+    public static String GraficoModelCommitter_1;
+    public static String GraficoModelCommitter_2;
+
     public static String GraficoModelLoader_0;
 
     static {
@@ -0,0 +1,265 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Shared Repository handles for local repositories.
+ *
+ * Opening a Repository reads its config, refs and pack indexes, so instead of doing this for each call
+ * one Repository per local repository folder is kept open and shared by reference counting.
+ * A handle is closed by a background Job when it has not been used for a while, and opened again if the repository's
+ * config file or pack folder has changed since it was opened.
+ *
+ * Use it like Git.open() - the returned Git's close() releases the handle:
+ *
+ * <pre>
+ * try(Git git = RepositoryHandleCache.INSTANCE.open(localRepoFolder)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Phillip Beauvoir
+ */
+public class RepositoryHandleCache {
+    
+    public static final RepositoryHandleCache INSTANCE = new RepositoryHandleCache();
+    
+    /**
+     * Time in milliseconds after which an unused handle is closed
+     */
+    static final long IDLE_TIMEOUT = 60 * 1000;
+    
+    /**
+     * A shared Repository and its use
+     */
+    private static class Handle {
+        final File key;
+        final Repository repository;
+        final long configModified;
+        final long packsModified;
+        
+        int refCount;
+        long lastUsed;
+        boolean evicted;
+        
+        Handle(File key, Repository repository) {
+            this.key = key;
+            this.repository = repository;
+            configModified = getConfigFile(repository).lastModified();
+            packsModified = getPackFolder(repository).lastModified();
+        }
+        
+        boolean isCurrent() {
+            return configModified == getConfigFile(repository).lastModified() && packsModified == getPackFolder(repository).lastModified();
+        }
+    }
+    
+    /**
+     * A Git on a shared Repository whose close() releases the handle
+     */
+    private class HandleGit extends Git {
+        private Handle handle;
+        
+        HandleGit(Handle handle) {
+            super(handle.repository);
+            this.handle = handle;
+        }
+        
+        @Override
+        public void close() {
+            if(handle != null) {
+                release(handle);
+                handle = null;
+            }
+        }
+    }
+    
+    private Map<File, Handle> fHandles = new HashMap<File, Handle>();
+    
+    private long fIdleTimeout;
+    
+    private long fOpenCount;
+    private long fHitCount;
+    private long fMissCount;
+    
+    // Closes idle handles and runs again while there are handles that are not in use
+    private Job fEvictJob = new Job("Close Idle Repositories") { //$NON-NLS-1$
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            synchronized(RepositoryHandleCache.this) {
+                evictIdleHandles(System.currentTimeMillis());
+                
+                for(Handle handle : fHandles.values()) {
+                    if(handle.refCount == 0) {
+                        schedule(fIdleTimeout);
+                        break;
+                    }
+                }
+            }
+            
+            return Status.OK_STATUS;
+        }
+    };
+    
+    RepositoryHandleCache() {
+        this(IDLE_TIMEOUT);
+    }
+    
+    /**
+     * @param idleTimeout Time in milliseconds after which an unused handle is closed
+     */
+    RepositoryHandleCache(long idleTimeout) {
+        fIdleTimeout = idleTimeout;
+        fEvictJob.setSystem(true);
+    }
+    
+    /**
+     * Open a local repository, using the shared Repository if it is open
+     * @param localRepoFolder The local repository folder
+     * @return A Git on the shared Repository. This must be closed to release it.
+     * @throws IOException if the folder is not a repository
+     */
+    public synchronized Git open(File localRepoFolder) throws IOException {
+        long now = System.currentTimeMillis();
+        
+        fOpenCount++;
+        evictIdleHandles(now);
+        
+        File key = localRepoFolder.getAbsoluteFile();
+        Handle handle = fHandles.get(key);
+        
+        // The config or packs changed outside of this handle
+        if(handle != null && !handle.isCurrent()) {
+            evict(handle);
+            handle = null;
+        }
+        
+        if(handle == null) {
+            fMissCount++;
+            
+            // The Git from Git.open() does not need closing as we close its Repository
+            handle = new Handle(key, Git.open(key).getRepository());
+            fHandles.put(key, handle);
+        }
+        else {
+            fHitCount++;
+        }
+        
+        handle.refCount++;
+        handle.lastUsed = now;
+        
+        return new HandleGit(handle);
+    }
+    
+    /**
+     * Close the shared Repository of a local repository folder, such as before deleting it.
+     * If it is in use it is closed when it is released.
+     * @param localRepoFolder The local repository folder
+     */
+    public synchronized void evict(File localRepoFolder) {
+        Handle handle = fHandles.get(localRepoFolder.getAbsoluteFile());
+        if(handle != null) {
+            evict(handle);
+        }
+    }
+    
+    /**
+     * Close all shared Repositories
+     */
+    public synchronized void dispose() {
+        fEvictJob.cancel();
+        
+        for(Handle handle : fHandles.values().toArray(new Handle[fHandles.size()])) {
+            evict(handle);
+        }
+    }
+    
+    /**
+     * @return The number of shared Repositories that are open
+     */
+    public synchronized int getHandleCount() {
+        return fHandles.size();
+    }
+    
+    /**
+     * @return The number of times a repository was opened with this cache
+     */
+    public synchronized long getOpenCount() {
+        return fOpenCount;
+    }
+    
+    /**
+     * @return The number of times a shared Repository was used
+     */
+    public synchronized long getHitCount() {
+        return fHitCount;
+    }
+    
+    /**
+     * @return The number of times there was no shared Repository to use and a Repository was opened
+     */
+    public synchronized long getMissCount() {
+        return fMissCount;
+    }
+    
+    private synchronized void release(Handle handle) {
+        handle.refCount--;
+        handle.lastUsed = System.currentTimeMillis();
+        
+        if(handle.refCount == 0) {
+            if(handle.evicted) {
+                handle.repository.close();
+            }
+            else {
+                fEvictJob.schedule(fIdleTimeout);
+            }
+        }
+    }
+    
+    private void evict(Handle handle) {
+        if(fHandles.get(handle.key) == handle) {
+            fHandles.remove(handle.key);
+        }
+        
+        handle.evicted = true;
+        
+        if(handle.refCount == 0) {
+            handle.repository.close();
+        }
+    }
+    
+    private void evictIdleHandles(long now) {
+        for(Iterator<Handle> iter = fHandles.values().iterator(); iter.hasNext();) {
+            Handle handle = iter.next();
+            if(handle.refCount == 0 && now - handle.lastUsed >= fIdleTimeout) {
+                iter.remove();
+                handle.evicted = true;
+                handle.repository.close();
+            }
+        }
+    }
+    
+    private static File getConfigFile(Repository repository) {
+        return new File(repository.getDirectory(), "config"); //$NON-NLS-1$
+    }
+    
+    private static File getPackFolder(Repository repository) {
+        return new File(repository.getDirectory(), "objects/pack"); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * The state of a repository at one time - HEAD, the current branch, the branch refs, the tracking status of the
+ * current branch and whether the model has changes that are not committed.
+ *
+ * A snapshot never changes so it can be shared by views and actions. They get it from
+ * {@link RepositoryStatusEngine}, which only reads its cache for them. It works the snapshot out in the background
+ * and tells listeners of {@link RepositoryListenerManager} when a repository's state has changed.
+ *
+ * @author Phillip Beauvoir
+ */
+public class RepositoryStateSnapshot {
+    
+    private final ObjectId head;
+    private final String currentBranch;
+    private final Map<String, ObjectId> refs;
+    private final int aheadCount;
+    private final int behindCount;
+    private final boolean hasLocalChanges;
+    private final int headParentCount;
+    
+    /**
+     * Work out the state of a repository
+     * @param archiRepo The repository
+     * @return The state
+     * @throws IOException
+     */
+    static RepositoryStateSnapshot create(IArchiRepository archiRepo) throws IOException {
+        ObjectId head = null;
+        String currentBranch = null;
+        Map<String, ObjectId> refs = new HashMap<String, ObjectId>();
+        int aheadCount = 0;
+        int behindCount = 0;
+        int headParentCount = 0;
+        
+        try(Git git = RepositoryHandleCache.INSTANCE.open(archiRepo.getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            
+            // Local and remote branches
+            for(Ref ref : repository.getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+                String name = ref.getName();
+                if(ref.getObjectId() != null && (name.startsWith(BranchStatus.localPrefix) || name.startsWith(BranchStatus.remotePrefix))) {
+                    refs.put(name, ref.getObjectId());
+                }
+            }
+            
+            Ref headRef = repository.exactRef(IGraficoConstants.HEAD);
+            if(headRef != null) {
+                head = headRef.getObjectId();
+            }
+            
+            // The commit graph has the parents of the commits so they don't have to be parsed
+            CommitGraph graph = CommitGraph.get(repository);
+            
+            // Not a branch if HEAD is detached
+            String fullBranch = repository.getFullBranch();
+            if(fullBranch != null && fullBranch.startsWith(BranchStatus.localPrefix)) {
+                currentBranch = fullBranch;
+                
+                ObjectId branchId = refs.get(currentBranch);
+                ObjectId remoteBranchId = refs.get(BranchStatus.remotePrefix + Repository.shortenRefName(currentBranch));
+                if(branchId != null && remoteBranchId != null) {
+                    int[] counts = graph.countAheadBehind(branchId, remoteBranchId);
+                    if(counts != null) {
+                        aheadCount = counts[0];
+                        behindCount = counts[1];
+                    }
+                }
+            }
+            
+            if(head != null) {
+                int pos = graph.find(head);
+                if(pos >= 0) {
+                    headParentCount = graph.getParents(pos).length;
+                }
+            }
+        }
+        
+        return new RepositoryStateSnapshot(head, currentBranch, refs, aheadCount, behindCount, archiRepo.hasLocalChanges(), headParentCount);
+    }
+    
+    RepositoryStateSnapshot(ObjectId head, String currentBranch, Map<String, ObjectId> refs, int aheadCount, int behindCount,
+                            boolean hasLocalChanges, int headParentCount) {
+        this.head = head;
+        this.currentBranch = currentBranch;
+        this.refs = Collections.unmodifiableMap(new HashMap<String, ObjectId>(refs));
+        this.aheadCount = aheadCount;
+        this.behindCount = behindCount;
+        this.hasLocalChanges = hasLocalChanges;
+        this.headParentCount = headParentCount;
+    }
+    
+    /**
+     * @return The commit id of HEAD, or null if there are no commits
+     */
+    public ObjectId getHead() {
+        return head;
+    }
+    
+    /**
+     * @return The full name of the current local branch, or null if HEAD is not on a branch
+     */
+    public String getCurrentBranch() {
+        return currentBranch;
+    }
+    
+    /**
+     * @return The short name of the current local branch, or an empty string if HEAD is not on a branch
+     */
+    public String getCurrentBranchShortName() {
+        return currentBranch == null ? "" : Repository.shortenRefName(currentBranch); //$NON-NLS-1$
+    }
+    
+    /**
+     * @return The commit ids of the local and remote branches keyed by full ref name
+     */
+    public Map<String, ObjectId> getRefs() {
+        return refs;
+    }
+    
+    /**
+     * @param name The full name of a branch ref
+     * @return The commit id of the branch, or null if there is no such branch
+     */
+    public ObjectId getRefId(String name) {
+        return refs.get(name);
+    }
+    
+    /**
+     * @return The commit id of the remote branch of the current branch, or null if there is none
+     */
+    public ObjectId getCurrentRemoteBranchId() {
+        return currentBranch == null ? null : refs.get(BranchStatus.remotePrefix + getCurrentBranchShortName());
+    }
+    
+    /**
+     * @return if the HEAD commit and the remote commit of the current branch are the same
+     */
+    public boolean isHeadAndRemoteSame() {
+        return head != null && head.equals(getCurrentRemoteBranchId());
+    }
+    
+    /**
+     * @return The number of local commits that are not in the tracked remote branch
+     */
+    public int getAheadCount() {
+        return aheadCount;
+    }
+    
+    /**
+     * @return The number of remote commits that are not in the current branch
+     */
+    public int getBehindCount() {
+        return behindCount;
+    }
+    
+    public boolean hasUnpushedCommits() {
+        return aheadCount > 0;
+    }
+    
+    public boolean hasRemoteCommits() {
+        return behindCount > 0;
+    }
+    
+    /**
+     * @return true if the model has changes that are not committed
+     */
+    public boolean hasLocalChanges() {
+        return hasLocalChanges;
+    }
+    
+    /**
+     * @return The number of parents of the HEAD commit
+     */
+    public int getHeadParentCount() {
+        return headParentCount;
+    }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof RepositoryStateSnapshot)) {
+            return false;
+        }
+        
+        RepositoryStateSnapshot other = (RepositoryStateSnapshot)obj;
+        return Objects.equals(head, other.head) && Objects.equals(currentBranch, other.currentBranch) && refs.equals(other.refs)
+                && aheadCount == other.aheadCount && behindCount == other.behindCount
+                && hasLocalChanges == other.hasLocalChanges && headParentCount == other.headParentCount;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(head, currentBranch);
+    }
+}
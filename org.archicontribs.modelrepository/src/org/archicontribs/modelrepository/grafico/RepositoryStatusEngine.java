@@ -0,0 +1,208 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.grafico;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Works out the state of repositories in background jobs and caches it.
+ *
+ * Getting the state of a repository means reading its refs, walking commits for the tracking status
+ * and a checksum of the temp model file, which is too slow to do on the UI thread for every repository
+ * or every selection. {@link #getSnapshot(IArchiRepository)} only reads the cached {@link RepositoryStateSnapshot}
+ * so it can be called when painting. The state is worked out again in a job when the repository is invalidated by
+ * whatever changed it - the file watcher, a fetch or an action such as commit, merge or reset. The job first compares
+ * the repository's refs, index and model file with when the state was last worked out and only works it out again if
+ * they have changed. When a new state is worked out {@link IRepositoryListener#STATE_CHANGED} is fired on the UI thread.
+ *
+ * @author Phillip Beauvoir
+ */
+public class RepositoryStatusEngine {
+    
+    public static final RepositoryStatusEngine INSTANCE = new RepositoryStatusEngine();
+    
+    /**
+     * The cached state of a repository and the job that works it out
+     */
+    private class Entry {
+        volatile RepositoryStateSnapshot snapshot;
+        volatile List<Object> fingerprint;
+        final Job job;
+        
+        Entry(IArchiRepository repository) {
+            job = new Job("Repository State") { //$NON-NLS-1$
+                @Override
+                protected IStatus run(IProgressMonitor monitor) {
+                    update(repository, Entry.this);
+                    return Status.OK_STATUS;
+                }
+            };
+            job.setSystem(true);
+            job.setJobGroup(fJobGroup);
+        }
+    }
+    
+    // Number of state jobs that can run at the same time
+    private static final int MAX_JOBS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    
+    private JobGroup fJobGroup = new JobGroup("Repository State", MAX_JOBS, 0); //$NON-NLS-1$
+    
+    private Map<File, Entry> fEntries = new ConcurrentHashMap<File, Entry>();
+    
+    RepositoryStatusEngine() {
+    }
+    
+    /**
+     * Get the cached state of a repository without waiting. This doesn't read the repository.
+     * The first time that a repository is asked for a job is scheduled to work out its state.
+     * @param repository The repository
+     * @return The cached state, or null if it has not been worked out yet
+     */
+    public RepositoryStateSnapshot getSnapshot(IArchiRepository repository) {
+        return getEntry(repository).snapshot;
+    }
+    
+    /**
+     * Work out the current state of a repository now.
+     * This is for when a decision can't be made on an older state, such as whether to undo the last commit.
+     * @param repository The repository
+     * @return The current state
+     * @throws IOException
+     */
+    public RepositoryStateSnapshot getCurrentSnapshot(IArchiRepository repository) throws IOException {
+        RepositoryStateSnapshot snapshot = RepositoryStateSnapshot.create(repository);
+        
+        // Not known what the state was worked out from so the job works it out again next time
+        setSnapshot(repository, getEntry(repository), snapshot, null);
+        
+        return snapshot;
+    }
+    
+    /**
+     * The repository has changed so work out its state again in the background.
+     * This is called by whatever changed the repository, or saw it change.
+     * @param repository The repository
+     */
+    public void invalidate(IArchiRepository repository) {
+        Entry entry = fEntries.get(repository.getLocalRepositoryFolder().getAbsoluteFile());
+        if(entry != null) {
+            entry.job.schedule();
+        }
+    }
+    
+    /**
+     * Forget the state of a repository, such as when it is deleted
+     * @param repository The repository
+     */
+    public void remove(IArchiRepository repository) {
+        Entry entry = fEntries.remove(repository.getLocalRepositoryFolder().getAbsoluteFile());
+        if(entry != null) {
+            entry.job.cancel();
+        }
+    }
+    
+    /**
+     * Wait for the state job of a repository to finish, for tests
+     */
+    void join(IArchiRepository repository) throws InterruptedException {
+        Entry entry = fEntries.get(repository.getLocalRepositoryFolder().getAbsoluteFile());
+        if(entry != null) {
+            entry.job.join();
+        }
+    }
+    
+    private Entry getEntry(IArchiRepository repository) {
+        return fEntries.computeIfAbsent(repository.getLocalRepositoryFolder().getAbsoluteFile(), key -> {
+            Entry entry = new Entry(repository);
+            entry.job.schedule();
+            return entry;
+        });
+    }
+    
+    private void update(IArchiRepository repository, Entry entry) {
+        // Local repo was perhaps deleted
+        if(!repository.getLocalRepositoryFolder().exists()) {
+            return;
+        }
+        
+        try {
+            // Taken first so that changes made while this runs are seen the next time
+            List<Object> fingerprint = getFingerprint(repository);
+            
+            // Nothing that the state depends on has changed
+            if(entry.snapshot != null && Objects.equals(entry.fingerprint, fingerprint)) {
+                return;
+            }
+            
+            setSnapshot(repository, entry, RepositoryStateSnapshot.create(repository), fingerprint);
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+    
+    /**
+     * @param fingerprint What the state was worked out from, or null if not known
+     */
+    private synchronized void setSnapshot(IArchiRepository repository, Entry entry, RepositoryStateSnapshot snapshot, List<Object> fingerprint) {
+        entry.fingerprint = fingerprint;
+        
+        if(snapshot.equals(entry.snapshot)) {
+            return;
+        }
+        
+        entry.snapshot = snapshot;
+        
+        // Listeners are on the UI thread
+        Display display = Display.getDefault();
+        if(!display.isDisposed()) {
+            display.asyncExec(() -> RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.STATE_CHANGED, repository));
+        }
+    }
+    
+    /**
+     * Only called in the state job
+     * @return The values of the refs and the modification times of the files that the status depends on
+     * @throws IOException
+     */
+    private List<Object> getFingerprint(IArchiRepository repository) throws IOException {
+        List<Object> fingerprint = new ArrayList<Object>();
+        
+        // Ref values, as a ref in a sub-folder of refs/heads or a packed ref doesn't change a folder's modification time.
+        // The refs are read from the cached repository, which only reads a loose ref file again if it has changed.
+        try(Git git = RepositoryHandleCache.INSTANCE.open(repository.getLocalRepositoryFolder())) {
+            for(Ref ref : git.getRepository().getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+                fingerprint.add(ref.getName());
+                fingerprint.add(ref.getTarget().getName());
+                fingerprint.add(ref.getObjectId());
+            }
+        }
+        
+        File gitFolder = repository.getLocalGitFolder();
+        fingerprint.add(new File(gitFolder, "index").lastModified()); //$NON-NLS-1$
+        fingerprint.add(new File(gitFolder, "checksum").lastModified()); //$NON-NLS-1$
+        fingerprint.add(repository.getTempModelFile().lastModified());
+        fingerprint.add(repository.getTempModelFile().length());
+        
+        return fingerprint;
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.merge;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.grafico.GraficoElementIndex;
+import org.archicontribs.modelrepository.grafico.GraficoParser;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * Finds the ids of the objects of conflicting files in a commit's tree.
+ *
+ * Element files have the id in their name and are looked up in the element index of the tree. The tree is walked
+ * once for all of the folder files, which have to be parsed to get their id, and they are parsed in parallel.
+ *
+ * @author Phillip Beauvoir
+ */
+class ConflictObjectLoader {
+    
+    // Number of files that a worker parses at a time
+    private static final int CHUNK_SIZE = 8;
+    
+    /**
+     * Holds the first exception of the workers and cancels the others
+     */
+    private static class ExceptionProgressMonitor extends NullProgressMonitor {
+        IOException ex;
+        
+        synchronized void catchException(IOException ex) {
+            if(this.ex == null) {
+                this.ex = ex;
+            }
+            setCanceled(true);
+        }
+    }
+    
+    private Repository fRepository;
+    private List<String> fPaths;
+    
+    /**
+     * @param repository The repository
+     * @param paths The paths of the conflicting files
+     */
+    ConflictObjectLoader(Repository repository, List<String> paths) {
+        fRepository = repository;
+        fPaths = paths;
+    }
+    
+    /**
+     * @param index The element index of the commit's tree, or null if there is no commit
+     * @return The ids of the objects of the files that are in the commit's tree keyed by path
+     * @throws IOException
+     */
+    Map<String, String> loadIDs(GraficoElementIndex index) throws IOException {
+        Map<String, String> ids = new HashMap<String, String>();
+        
+        if(index == null || fPaths.isEmpty()) {
+            return ids;
+        }
+        
+        List<String> folderFilePaths = new ArrayList<String>();
+        
+        for(String path : fPaths) {
+            String id = GraficoElementIndex.getID(path);
+            if(id == null) {
+                folderFilePaths.add(path);
+            }
+            // The element's file is in the tree
+            else {
+                GraficoElementIndex.Entry entry = index.getEntry(id);
+                if(entry != null && entry.path.equals(path)) {
+                    ids.put(path, id);
+                }
+            }
+        }
+        
+        if(folderFilePaths.isEmpty()) {
+            return ids;
+        }
+        
+        List<String> folderPaths = new ArrayList<String>();
+        List<ObjectId> folderBlobs = new ArrayList<ObjectId>();
+        
+        try(TreeWalk treeWalk = new TreeWalk(fRepository)) {
+            treeWalk.addTree(index.getTreeId());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(folderFilePaths));
+            
+            while(treeWalk.next()) {
+                folderPaths.add(treeWalk.getPathString());
+                folderBlobs.add(treeWalk.getObjectId(0));
+            }
+        }
+        
+        String[] folderIDs = parseIDs(folderPaths, folderBlobs);
+        for(int i = 0; i < folderIDs.length; i++) {
+            ids.put(folderPaths.get(i), folderIDs[i]);
+        }
+        
+        return ids;
+    }
+    
+    /**
+     * Parse files in parallel to get the ids of their objects. Each worker takes chunks of files and parses them with its own parser.
+     */
+    private String[] parseIDs(List<String> paths, List<ObjectId> blobs) throws IOException {
+        String[] ids = new String[paths.size()];
+        AtomicInteger nextIndex = new AtomicInteger();
+        
+        int maxThreads = ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getInt(IPreferenceConstants.PREFS_IMPORT_MAX_THREADS);
+        int workerCount = Math.max(1, Math.min(maxThreads, (paths.size() + CHUNK_SIZE - 1) / CHUNK_SIZE));
+        
+        if(workerCount == 1) {
+            parseChunks(paths, blobs, ids, nextIndex, null);
+            return ids;
+        }
+        
+        JobGroup jobgroup = new JobGroup("ConflictObjectLoader", workerCount, 1); //$NON-NLS-1$
+        final ExceptionProgressMonitor pm = new ExceptionProgressMonitor();
+        
+        for(int i = 0; i < workerCount; i++) {
+            Job job = new Job("Conflict Load Job") { //$NON-NLS-1$
+                @Override
+                protected IStatus run(IProgressMonitor monitor) {
+                    try {
+                        parseChunks(paths, blobs, ids, nextIndex, pm);
+                    }
+                    catch(IOException ex) {
+                        pm.catchException(ex);
+                    }
+                    return Status.OK_STATUS;
+                }
+            };
+            
+            job.setSystem(true);
+            job.setJobGroup(jobgroup);
+            job.schedule();
+        }
+        
+        try {
+            jobgroup.join(0, pm);
+        }
+        catch(OperationCanceledException | InterruptedException ex) {
+        }
+        
+        // Throw on any exception
+        if(pm.ex != null) {
+            throw pm.ex;
+        }
+        
+        return ids;
+    }
+    
+    /**
+     * Parse chunks of files until all files are taken. An ObjectReader can't be shared between threads so each worker has its own.
+     */
+    private void parseChunks(List<String> paths, List<ObjectId> blobs, String[] ids, AtomicInteger nextIndex, IProgressMonitor monitor) throws IOException {
+        GraficoParser parser = new GraficoParser();
+        int count = paths.size();
+        int start;
+        
+        try(ObjectReader reader = fRepository.newObjectReader()) {
+            while((start = nextIndex.getAndAdd(CHUNK_SIZE)) < count) {
+                if(monitor != null && monitor.isCanceled()) {
+                    return;
+                }
+                
+                for(int i = start; i < Math.min(start + CHUNK_SIZE, count); i++) {
+                    byte[] bytes = reader.open(blobs.get(i)).getBytes();
+                    EObject eObject = parser.parse(new ByteArrayInputStream(bytes), URI.createURI(paths.get(i)));
+                    
+                    if(!(eObject instanceof IIdentifier)) {
+                        throw new IOException("EObject has no ID"); //$NON-NLS-1$
+                    }
+                    
+                    ids[i] = ((IIdentifier)eObject).getId();
+                }
+                
+                parser.getCrossReferences().clear();
+            }
+        }
+    }
+}
@@ -5,11 +5,19 @@
  */
 package org.archicontribs.modelrepository.merge;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.jface.dialogs.IMessageProvider;
 import org.eclipse.jface.layout.TableColumnLayout;
@@ -18,6 +26,7 @@ import org.eclipse.jface.viewers.ColumnViewer;
 import org.eclipse.jface.viewers.ColumnWeightData;
 import org.eclipse.jface.viewers.ComboBoxCellEditor;
 import org.eclipse.jface.viewers.EditingSupport;
+import org.eclipse.jface.viewers.ILazyContentProvider;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.IStructuredContentProvider;
 import org.eclipse.jface.viewers.ITableLabelProvider;
@@ -28,6 +37,7 @@ import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerComparator;
+import org.eclipse.jgit.api.errors.CanceledException;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.custom.ScrolledComposite;
@@ -40,6 +50,7 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Scale;
 import org.eclipse.swt.widgets.Shell;
@@ -54,6 +65,7 @@ import com.archimatetool.editor.ui.components.ExtendedTitleAreaDialog;
 import com.archimatetool.model.IAccessRelationship;
 import com.archimatetool.model.IArchimateDiagramModel;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimatePackage;
 import com.archimatetool.model.IArchimateRelationship;
 import com.archimatetool.model.IDiagramModel;
 import com.archimatetool.model.IDocumentable;
@@ -66,6 +78,9 @@ import com.archimatetool.model.viewpoints.ViewpointManager;
 /**
  * Conflicts Dialog
  * 
+ * The table is virtual and shows the conflicts from their file paths so that it opens straight away for any number of conflicts.
+ * The objects of the conflicts are loaded in the background and the images of views are rendered when the View tab is shown.
+ * 
  * @author Phil Beauvoir
  */
 class ConflictsDialog extends ExtendedTitleAreaDialog {
@@ -92,6 +107,13 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
     
     private String fMessage;
     
+    // Merge Infos sorted by type
+    private List<MergeObjectInfo> fMergeObjectInfos;
+    
+    private Job fLoadJob;
+    
+    private ImageCache fImageCache = new ImageCache();
+    
     private MergeObjectInfo currentSelectedMergeInfo;
     
     private TableViewer fTableViewer;
@@ -140,14 +162,60 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         sash.setWeights(new int[] { 25, 75 });
         
         // Select first object in table
-        Object first = fTableViewer.getElementAt(0);
-        if(first != null) {
-            fTableViewer.setSelection(new StructuredSelection(first));
+        if(!fMergeObjectInfos.isEmpty()) {
+            fTableViewer.getTable().setSelection(0);
+            updateTabs(fMergeObjectInfos.get(0));
         }
         
+        loadObjects(parent.getDisplay());
+        
         return area;
     }
     
+    /**
+     * Load the objects of the conflicts in the background and show their details when done
+     */
+    private void loadObjects(Display display) {
+        fLoadJob = new Job("Load Conflicts Job") { //$NON-NLS-1$
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                try {
+                    fHandler.loadObjects(monitor);
+                }
+                catch(CanceledException ex) {
+                    return Status.CANCEL_STATUS;
+                }
+                catch(IOException ex) {
+                    ex.printStackTrace();
+                    display.asyncExec(() -> {
+                        if(!fTableViewer.getControl().isDisposed()) {
+                            setErrorMessage(ex.getMessage());
+                        }
+                    });
+                    return Status.OK_STATUS;
+                }
+                
+                display.asyncExec(() -> {
+                    if(!fTableViewer.getControl().isDisposed()) {
+                        fTableViewer.refresh();
+                        
+                        // Update the tabs with the loaded objects
+                        MergeObjectInfo info = currentSelectedMergeInfo;
+                        if(info != null) {
+                            currentSelectedMergeInfo = null;
+                            updateTabs(info);
+                        }
+                    }
+                });
+                
+                return Status.OK_STATUS;
+            }
+        };
+        
+        fLoadJob.setSystem(true);
+        fLoadJob.schedule();
+    }
+    
     /**
      * Create the tab pane
      */
@@ -164,6 +232,18 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         createPropertiesTabItem();
         // (we will create the View TabItem on demand)
         
+        // Show the images of the views when the View tab is selected
+        tabFolder.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                for(TabComposite c : fTabComposites) {
+                    if(c instanceof ViewComposite) {
+                        ((ViewComposite)c).scheduleImage();
+                    }
+                }
+            }
+        });
+        
         // Ours /Theirs buttons
         for(int i = 0; i < buttons.length; i++) {
             buttons[i] = new Button(mainComposite, SWT.PUSH);
@@ -460,9 +540,9 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
             // Remove composites from the update list
             fTabComposites.remove(c1);
             fTabComposites.remove(c2);
-            // Explicitly dispose images here (Mac throws NPE if we dispose of Sash)
-            c1.disposeImages();
-            c2.disposeImages();
+            // Explicitly clear images here as they are disposed by the image cache (Mac throws NPE if we dispose of Sash)
+            c1.clearImage();
+            c2.clearImage();
         });
         
         return item;
@@ -474,10 +554,14 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         
         private IDiagramModel diagramModel;
         
-        private Map<Integer, Image> scaledImages;
-        
         private final int SCALES = 6;
         
+        // Milliseconds to wait before rendering so that moving through the table doesn't render every view
+        private final int RENDER_DELAY = 150;
+        
+        // Only the latest request is rendered
+        private int renderRequest;
+        
         ViewComposite(Composite parent, int choice) {
             super(parent, choice);
             
@@ -501,39 +585,104 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
 
         @Override
         void setMergeInfo(MergeObjectInfo mergeInfo) {
-            disposeImages();
-            
             diagramModel = (IDiagramModel)mergeInfo.getEObject(choice);
             
             scale.setVisible(diagramModel != null);
-            setScaledImage(diagramModel != null ? scale.getSelection() : 0);
+            clearImage();
+            scheduleImage();
+        }
+        
+        /**
+         * Show the image of the view after a delay if the View tab is selected
+         */
+        void scheduleImage() {
+            int request = ++renderRequest;
+            
+            getDisplay().timerExec(RENDER_DELAY, () -> {
+                if(!isDisposed() && request == renderRequest && diagramModel != null && viewLabel.getImage() == null
+                        && Arrays.asList(tabFolder.getSelection()).contains(itemView)) {
+                    setScaledImage(scale.getSelection());
+                }
+            });
         }
         
         void setScaledImage(int scale) {
             Image image = null;
             
             if(scale > 0) {
-                image = scaledImages.get(scale);
-                if(image == null) {
-                    image = DiagramUtils.createImage(diagramModel, (double)scale / SCALES, 5);
-                    scaledImages.put(scale, image);
-                }
+                image = fImageCache.getImage(diagramModel, (double)scale / SCALES);
             }
             
             viewLabel.setImage(image);
             viewLabel.setSize(viewLabel.computeSize( SWT.DEFAULT, SWT.DEFAULT));
         }
         
-        void disposeImages() {
-            if(scaledImages != null) {
-                for(Image image : scaledImages.values()) {
-                    if(!image.isDisposed()) {
-                        image.dispose();
-                    }
-                }
+        void clearImage() {
+            setScaledImage(0);
+        }
+        
+        Image getImage() {
+            return viewLabel.getImage();
+        }
+    }
+    
+    /**
+     * Images of views keyed by view and scale. The least recently used images are disposed when the images
+     * have more than a number of pixels in total, except for the images that are shown.
+     */
+    private class ImageCache {
+        // About 64 MB at 32 bits a pixel
+        private static final long MAX_PIXELS = 16 * 1024 * 1024;
+        
+        private Map<List<Object>, Image> images = new LinkedHashMap<List<Object>, Image>(16, 0.75f, true);
+        private long pixels;
+        
+        Image getImage(IDiagramModel diagramModel, double scale) {
+            List<Object> key = Arrays.asList(diagramModel, scale);
+            
+            Image image = images.get(key);
+            if(image == null) {
+                image = DiagramUtils.createImage(diagramModel, scale, 5);
+                images.put(key, image);
+                pixels += getPixels(image);
+                evict(image);
             }
             
-            scaledImages = new HashMap<Integer, Image>();
+            return image;
+        }
+        
+        private void evict(Image newImage) {
+            for(Iterator<Image> iter = images.values().iterator(); iter.hasNext() && pixels > MAX_PIXELS;) {
+                Image image = iter.next();
+                if(image != newImage && !isShown(image)) {
+                    iter.remove();
+                    pixels -= getPixels(image);
+                    image.dispose();
+                }
+            }
+        }
+        
+        private boolean isShown(Image image) {
+            for(TabComposite c : fTabComposites) {
+                if(c instanceof ViewComposite && ((ViewComposite)c).getImage() == image) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private long getPixels(Image image) {
+            return (long)image.getBounds().width * image.getBounds().height;
+        }
+        
+        void dispose() {
+            for(Image image : images.values()) {
+                if(!image.isDisposed()) {
+                    image.dispose();
+                }
+            }
+            images.clear();
+            pixels = 0;
         }
     }
 
@@ -551,8 +700,8 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         updateButtons(mergeInfo);
         
         // If the eObject is a View add the View TabItem, else remove it
-        EObject eObject = mergeInfo.getDefaultEObject();
-        if(eObject instanceof IDiagramModel) {
+        EClass eClass = mergeInfo.getEClass();
+        if(eClass != null && IArchimatePackage.Literals.DIAGRAM_MODEL.isSuperTypeOf(eClass)) {
             if(itemView == null) {
                 itemView = createViewTabItem();
             }
@@ -575,6 +724,22 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         }
     }
     
+    @Override
+    public boolean close() {
+        if(fLoadJob != null) {
+            fLoadJob.cancel();
+        }
+        
+        boolean closed = super.close();
+        
+        // Dispose images after the controls that show them
+        if(closed) {
+            fImageCache.dispose();
+        }
+        
+        return closed;
+    }
+    
     @Override
     protected Point getDefaultDialogSize() {
         return new Point(700, 550);
@@ -595,20 +760,15 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         tableComp.setLayout(tableLayout);
         tableComp.setLayoutData(new GridData(GridData.FILL_BOTH));
 
-        fTableViewer = new TableViewer(tableComp, SWT.FULL_SELECTION);
+        fTableViewer = new TableViewer(tableComp, SWT.FULL_SELECTION | SWT.VIRTUAL);
         fTableViewer.getControl().setLayoutData(new GridData(GridData.FILL_BOTH));
         fTableViewer.getTable().setHeaderVisible(true);
         fTableViewer.getTable().setLinesVisible(true);
-        fTableViewer.setComparator(new ViewerComparator() {
-            @Override
-            public int compare(Viewer viewer, Object object1, Object object2) {
-                EObject eObject1 = ((MergeObjectInfo)object1).getDefaultEObject();
-                EObject eObject2 = ((MergeObjectInfo)object2).getDefaultEObject();
-                String s1 = ArchiLabelProvider.INSTANCE.getDefaultName(eObject1.eClass());
-                String s2 = ArchiLabelProvider.INSTANCE.getDefaultName(eObject2.eClass());
-                return s1.compareToIgnoreCase(s2);
-            }
-        });
+        fTableViewer.setUseHashlookup(true);
+        
+        // Sort by type here as a virtual table can't have a comparator
+        fMergeObjectInfos = new ArrayList<MergeObjectInfo>(fHandler.getMergeObjectInfos());
+        fMergeObjectInfos.sort((info1, info2) -> getTypeName(info1).compareToIgnoreCase(getTypeName(info2)));
 
         // Columns
         TableViewerColumn column1 = new TableViewerColumn(fTableViewer, SWT.NONE, 0);
@@ -628,8 +788,8 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         tableLayout.setColumnData(column4.getColumn(), new ColumnWeightData(15, true));
         column4.setEditingSupport(new ComboChoiceEditingSupport(fTableViewer));
 
-        // Content Provider
-        fTableViewer.setContentProvider(new IStructuredContentProvider() {
+        // Content Provider. Rows are only made when they are shown
+        fTableViewer.setContentProvider(new ILazyContentProvider() {
             @Override
             public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
             }
@@ -639,8 +799,8 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
             }
 
             @Override
-            public Object[] getElements(Object inputElement) {
-                return fHandler.getMergeObjectInfos().toArray();
+            public void updateElement(int index) {
+                fTableViewer.replace(fMergeObjectInfos.get(index), index);
             }
         });
 
@@ -649,7 +809,9 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
             @Override
             public void selectionChanged(SelectionChangedEvent event) {
                 MergeObjectInfo info = (MergeObjectInfo)((StructuredSelection)event.getSelection()).getFirstElement();
-                updateTabs(info);
+                if(info != null) {
+                    updateTabs(info);
+                }
             }
         });
         
@@ -657,8 +819,15 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         fTableViewer.setLabelProvider(new TableLabelProvider());
         
         // Start the table
-        fTableViewer.setInput(""); // anything will do //$NON-NLS-1$
+        fTableViewer.setInput(fMergeObjectInfos);
+        fTableViewer.setItemCount(fMergeObjectInfos.size());
+    }
+    
+    private String getTypeName(MergeObjectInfo info) {
+        EClass eClass = info.getEClass();
+        return eClass != null ? ArchiLabelProvider.INSTANCE.getDefaultName(eClass) : Messages.ConflictsDialog_28;
     }
+    
     // Label Provider
     private class TableLabelProvider extends LabelProvider implements ITableLabelProvider {
         
@@ -666,7 +835,8 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         public Image getColumnImage(Object element, int columnIndex) {
             if(columnIndex == 0) {
                 MergeObjectInfo info = (MergeObjectInfo)element;
-                return ArchiLabelProvider.INSTANCE.getImage(info.getDefaultEObject());
+                EClass eClass = info.getEClass();
+                return eClass != null ? ArchiLabelProvider.INSTANCE.getImage(eClass) : null;
             }
             
             return null;
@@ -675,18 +845,17 @@ class ConflictsDialog extends ExtendedTitleAreaDialog {
         @Override
         public String getColumnText(Object element, int columnIndex) {
             MergeObjectInfo info = (MergeObjectInfo)element;
-            EObject eObject = info.getDefaultEObject();
-            
-            if(eObject == null) {
-                return Messages.ConflictsDialog_28;
-            }
             
             switch(columnIndex) {
                 case 0:
-                    return ArchiLabelProvider.INSTANCE.getDefaultName(eObject.eClass());
+                    return getTypeName(info);
 
                 case 1:
-                    return ArchiLabelProvider.INSTANCE.getLabel(eObject);
+                    if(!info.isLoaded()) {
+                        return Messages.ConflictsDialog_29;
+                    }
+                    EObject eObject = info.getDefaultEObject();
+                    return eObject != null ? ArchiLabelProvider.INSTANCE.getLabel(eObject) : Messages.ConflictsDialog_28;
 
                 case 2:
                     return info.getStatus();
@@ -5,16 +5,21 @@
  */
 package org.archicontribs.modelrepository.merge;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.archicontribs.modelrepository.grafico.GraficoMerger;
 import org.archicontribs.modelrepository.grafico.GraficoModelImporter;
+import org.archicontribs.modelrepository.grafico.GraficoTreeSource;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.emf.ecore.EObject;
 import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.window.Window;
 import org.eclipse.jgit.api.CheckoutCommand;
@@ -26,15 +31,13 @@ import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.CanceledException;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.swt.widgets.Shell;
 
-import com.archimatetool.editor.utils.FileUtils;
 import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IIdentifier;
 
 /**
  * Handle Merge Conflicts on a MergeResult
@@ -53,7 +56,8 @@ public class MergeConflictHandler {
     
     private IArchimateModel fOurModel, fTheirModel;
     
-    private IProgressMonitor fProgressMonitor;
+    // Objects of our and their models keyed by ID
+    private Map<IArchimateModel, Map<String, EObject>> fModelObjects = new HashMap<IArchimateModel, Map<String, EObject>>();
 
     public MergeConflictHandler(MergeResult mergeResult, String theirRef, IArchiRepository repo, Shell shell) {
         fMergeResult = mergeResult;
@@ -68,24 +72,72 @@ public class MergeConflictHandler {
             throw new IOException("MergeResult was null"); //$NON-NLS-1$
         }
         
-        fProgressMonitor = pm;
-
         // Our model is the current loaded one
         fOurModel = fArchiRepo.locateModel();
         if(fOurModel == null) {
             throw new IOException(Messages.MergeConflictHandler_0);
         }
         
-        // Their model needs to be extracted
-        fTheirModel = extractModel(getTheirRef());
-        
-        // Create Merge Infos
         fMergeObjectInfos = new ArrayList<MergeObjectInfo>();
-        for(String xmlPath : fMergeResult.getConflicts().keySet()) {
-            fMergeObjectInfos.add(new MergeObjectInfo(xmlPath, this));
+        
+        // One repository handle for all of the work
+        try(Git git = RepositoryHandleCache.INSTANCE.open(fArchiRepo.getLocalRepositoryFolder())) {
+            Repository repository = git.getRepository();
+            
+            // Merge the files where our and their changes don't overlap so that only the real conflicts are left
+            List<String> conflicts = new GraficoMerger(repository).mergeConflicts(fMergeResult.getConflicts().keySet());
+            if(conflicts.isEmpty()) {
+                return;
+            }
+            
+            if(pm != null && pm.isCanceled()) {
+                throw new CanceledException(Messages.MergeConflictHandler_2);
+            }
+            
+            // The ids of the conflicting objects on each side, or none if the file was deleted by us or them
+            ConflictObjectLoader loader = new ConflictObjectLoader(repository, conflicts);
+            Map<String, String> ourIDs = loader.loadIDs(fArchiRepo.getElementIndex(getLocalRef()));
+            Map<String, String> theirIDs = loader.loadIDs(fArchiRepo.getElementIndex(getTheirRef()));
+            
+            // Create Merge Infos with just the ids. The objects are set by loadObjects()
+            for(String xmlPath : conflicts) {
+                fMergeObjectInfos.add(new MergeObjectInfo(xmlPath, ourIDs.get(xmlPath), theirIDs.get(xmlPath)));
+            }
         }
     }
     
+    /**
+     * Extract their model and set the objects of the Merge Infos from the full models because some objects have references to others.
+     * The objects are only needed to show the details of the conflicts so the Conflicts Dialog calls this in the background.
+     * @param pm The progress monitor
+     * @throws IOException
+     * @throws CanceledException
+     */
+    void loadObjects(IProgressMonitor pm) throws IOException, CanceledException {
+        if(fTheirModel == null) {
+            try(Git git = RepositoryHandleCache.INSTANCE.open(fArchiRepo.getLocalRepositoryFolder())) {
+                fTheirModel = extractModel(git.getRepository(), getTheirRef(), pm);
+            }
+        }
+        
+        for(MergeObjectInfo info : fMergeObjectInfos) {
+            if(pm != null && pm.isCanceled()) {
+                throw new CanceledException(Messages.MergeConflictHandler_2);
+            }
+            
+            EObject ours = getObjectByID(fOurModel, info.getID(MergeObjectInfo.OURS));
+            EObject theirs = getObjectByID(fTheirModel, info.getID(MergeObjectInfo.THEIRS));
+            info.setEObjects(ours, theirs);
+        }
+    }
+    
+    /**
+     * @return true if there are conflicts left for the user after init()
+     */
+    public boolean hasConflicts() {
+        return fMergeObjectInfos != null && !fMergeObjectInfos.isEmpty();
+    }
+    
     public boolean openConflictsDialog(String message) {
         Dialog dialog = new ConflictsDialog(fShell, this, message);
         return dialog.open() == Window.OK ? true : false;
@@ -111,7 +163,7 @@ public class MergeConflictHandler {
             }
         }
         
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(fArchiRepo.getLocalRepositoryFolder())) {
             if(!ours.isEmpty()) {
                 checkout(git, Stage.OURS, ours);
             }
@@ -132,7 +184,7 @@ public class MergeConflictHandler {
     
     public void resetToLocalState() throws IOException, GitAPIException {
         // Reset HARD  which will lose all changes
-        try(Git git = Git.open(fArchiRepo.getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(fArchiRepo.getLocalRepositoryFolder())) {
             ResetCommand resetCommand = git.reset();
             resetCommand.setRef(getLocalRef());
             resetCommand.setMode(ResetType.HARD);
@@ -163,64 +215,63 @@ public class MergeConflictHandler {
     IArchimateModel getTheirModel() {
         return fTheirModel;
     }
+    
+    /**
+     * @return The object with id in model, looked up in a map of the model's objects built on first use, or null if id is null
+     */
+    private EObject getObjectByID(IArchimateModel model, String id) {
+        if(id == null) {
+            return null;
+        }
+        
+        Map<String, EObject> objects = fModelObjects.get(model);
+        
+        if(objects == null) {
+            objects = new HashMap<String, EObject>();
+            objects.put(model.getId(), model);
+            for(Iterator<EObject> iter = model.eAllContents(); iter.hasNext();) {
+                EObject eObject = iter.next();
+                if(eObject instanceof IIdentifier) {
+                    objects.put(((IIdentifier)eObject).getId(), eObject);
+                }
+            }
+            fModelObjects.put(model, objects);
+        }
+        
+        return objects.get(id);
+    }
 
     /**
      * Extract a model from either our latest commit or their latest online commit
      * ref = "refs/head/master" or "origin/master"
      * @throws CanceledException 
      */
-    private IArchimateModel extractModel(String ref) throws IOException, CanceledException {
-        File tmpFolder = new File(System.getProperty("java.io.tmpdir"), "org.archicontribs.modelrepository.tmp"); //$NON-NLS-1$ //$NON-NLS-2$
-        FileUtils.deleteFolder(tmpFolder);
-        tmpFolder.mkdirs();
+    private IArchimateModel extractModel(Repository repository, String ref, IProgressMonitor pm) throws IOException, CanceledException {
+        RevCommit commit = null;
         
-        try(Repository repository = Git.open(fArchiRepo.getLocalRepositoryFolder()).getRepository()) {
-            RevCommit commit = null;
-            
-            // Get the commit
-            // A RevWalk walks over commits based on some filtering that is defined
-            try(RevWalk revWalk = new RevWalk(repository)) {
-                // We are interested in the origin master branch
-                ObjectId objectID = repository.resolve(ref);
-                if(objectID != null) {
-                    commit = revWalk.parseCommit(objectID);
-                }
-                
-                revWalk.dispose();
-            }
-            
-            if(commit == null) {
-                throw new IOException(Messages.MergeConflictHandler_1);
+        // Get the commit
+        // A RevWalk walks over commits based on some filtering that is defined
+        try(RevWalk revWalk = new RevWalk(repository)) {
+            // We are interested in the origin master branch
+            ObjectId objectID = repository.resolve(ref);
+            if(objectID != null) {
+                commit = revWalk.parseCommit(objectID);
             }
             
-            // Walk the tree and get the contents of the commit
-            try(TreeWalk treeWalk = new TreeWalk(repository)) {
-                treeWalk.addTree(commit.getTree());
-                treeWalk.setRecursive(true);
-
-                while(treeWalk.next()) {
-                    if(fProgressMonitor != null && fProgressMonitor.isCanceled()) {
-                        throw new CanceledException(Messages.MergeConflictHandler_2);
-                    }
-                    
-                    ObjectId objectId = treeWalk.getObjectId(0);
-                    ObjectLoader loader = repository.open(objectId);
-                    
-                    File file = new File(tmpFolder, treeWalk.getPathString());
-                    file.getParentFile().mkdirs();
-                    
-                    try(FileOutputStream out = new FileOutputStream(file)) {
-                        loader.copyTo(out);
-                    }
-                }
-            }
+            revWalk.dispose();
         }
-
-        // Load it
-        GraficoModelImporter importer = new GraficoModelImporter(tmpFolder);
-        IArchimateModel model = importer.importAsModel();
-        FileUtils.deleteFolder(tmpFolder);
-        return model;
+        
+        if(commit == null) {
+            throw new IOException(Messages.MergeConflictHandler_1);
+        }
+        
+        if(pm != null && pm.isCanceled()) {
+            throw new CanceledException(Messages.MergeConflictHandler_2);
+        }
+        
+        // Load it straight from the commit's tree
+        GraficoModelImporter importer = new GraficoModelImporter(new GraficoTreeSource(repository, commit.getTree(), fArchiRepo.getLocalRepositoryFolder()));
+        return importer.importAsModel();
     }
     
 }
@@ -5,52 +5,104 @@
  */
 package org.archicontribs.modelrepository.merge;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-
-import org.eclipse.emf.common.util.URI;
+import org.archicontribs.modelrepository.grafico.GraficoElementIndex;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EClassifier;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.resource.ResourceSet;
-import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
-import org.eclipse.emf.ecore.xmi.XMLResource;
-import org.eclipse.emf.ecore.xmi.impl.XMLResourceFactoryImpl;
 
-import com.archimatetool.model.IArchimateModel;
-import com.archimatetool.model.IIdentifier;
-import com.archimatetool.model.util.ArchimateModelUtils;
+import com.archimatetool.canvas.model.ICanvasPackage;
+import com.archimatetool.model.IArchimatePackage;
 
 /**
  * Information about a merge conflict object
  * 
+ * This is a light descriptor of the conflict made from the file path and the ids of the objects.
+ * The objects themselves are set when they have been loaded, which can be after the Conflicts Dialog is opened.
+ * 
  * @author Phillip Beauvoir
  */
 class MergeObjectInfo {
 
-    private MergeConflictHandler handler;
-
     private String xmlPath;
     
+    // IDs of the objects - ours and theirs
+    private String[] ids = new String[2];
+    
     // Referenced EObjects - ours and theirs
     private EObject[] objects = new EObject[2];
     
+    // Set after the objects
+    private volatile boolean loaded;
+    
     public static int OURS = 0;
     public static int THEIRS = 1;
     
     // User's choice
     private int userChoice = OURS;
 
-    MergeObjectInfo(String xmlPath, MergeConflictHandler handler) throws IOException {
-        this.handler = handler;
+    /**
+     * @param xmlPath The path of the conflicting file
+     * @param ourID Our id of the object of the file, or null if we deleted it
+     * @param theirID Their id of the object of the file, or null if they deleted it
+     */
+    MergeObjectInfo(String xmlPath, String ourID, String theirID) {
         this.xmlPath = xmlPath;
         
-        objects[OURS] = loadEObject(handler.getLocalRef());
-        objects[THEIRS] = loadEObject(handler.getTheirRef());
+        ids[OURS] = ourID;
+        ids[THEIRS] = theirID;
     }
     
     String getXMLPath() {
         return xmlPath;
     }
     
+    String getID(int choice) {
+        return ids[choice];
+    }
+    
+    /**
+     * @return The class of the object of the file, got from the file's path, or null if the class is not known
+     */
+    EClass getEClass() {
+        String className = GraficoElementIndex.getClassName(xmlPath);
+        
+        if(className == null) {
+            // The model's folder.xml is in the root of the model folder
+            if(xmlPath.equals(IGraficoConstants.MODEL_FOLDER + "/" + IGraficoConstants.FOLDER_XML)) { //$NON-NLS-1$
+                return IArchimatePackage.Literals.ARCHIMATE_MODEL;
+            }
+            return IArchimatePackage.Literals.FOLDER;
+        }
+        
+        EClassifier eClassifier = IArchimatePackage.eINSTANCE.getEClassifier(className);
+        
+        // Such as a Canvas
+        if(eClassifier == null) {
+            eClassifier = ICanvasPackage.eINSTANCE.getEClassifier(className);
+        }
+        
+        return eClassifier instanceof EClass ? (EClass)eClassifier : null;
+    }
+    
+    /**
+     * Set the objects from our and their full models
+     * @param ours Our object, or null if we deleted it
+     * @param theirs Their object, or null if they deleted it
+     */
+    void setEObjects(EObject ours, EObject theirs) {
+        objects[OURS] = ours;
+        objects[THEIRS] = theirs;
+        loaded = true;
+    }
+    
+    /**
+     * @return true if the objects have been set
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+    
     EObject getEObject(int choice) {
         return objects[choice];
     }
@@ -61,10 +113,10 @@ class MergeObjectInfo {
     }
     
     String getStatus() {
-        if(objects[OURS] == null) {
+        if(ids[OURS] == null) {
             return Messages.MergeObjectInfo_0;
         }
-        if(objects[THEIRS] == null) {
+        if(ids[THEIRS] == null) {
             return Messages.MergeObjectInfo_1;
         }
         
@@ -78,48 +130,4 @@ class MergeObjectInfo {
     int getUserChoice() {
         return userChoice;
     }
-
-    /**
-     * Load the EObject from the ours or theirs XML file so we can get its ID
-     * Once we have its ID we can load the real EObject from either "theirs" or "ours" full model.
-     * We do this because some EObjects have proxy references to other EObjects that would need resolving
-     * Returns null if the file contents does not exist (either we or they deleted the object)
-     * ref is either ours or theirs
-     */
-    private EObject loadEObject(String ref) throws IOException {
-        // Load the contents of the ref not the actual file because "theirs" is not an actual file
-        byte[] contents = handler.getArchiRepository().getFileContents(xmlPath, ref);
-        // Not found so was deleted by us or them
-        if(contents == null) {
-            return null;
-        }
-        
-        ResourceSet resourceSet = new ResourceSetImpl();
-        resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("*", new XMLResourceFactoryImpl()); //$NON-NLS-1$
-
-        XMLResource resource = (XMLResource)resourceSet.createResource(URI.createFileURI(handler.getArchiRepository().getLocalGitFolder().toString()));
-        resource.getDefaultLoadOptions().put(XMLResource.OPTION_ENCODING, "UTF-8"); //$NON-NLS-1$
-
-        resource.load(new ByteArrayInputStream(contents), null);
-        EObject eObject = resource.getContents().get(0);
-        
-        if(!(eObject instanceof IIdentifier)) {
-            throw new IOException("EObject has no ID"); //$NON-NLS-1$
-        }
-        
-        // Get the ID
-        String id = ((IIdentifier)eObject).getId();
-        
-        // Now get the full object from the appropriate model
-        IArchimateModel model = null;
-        
-        if(ref == handler.getLocalRef()) { // Ours
-            model = handler.getOurModel();
-        }
-        else {
-            model = handler.getTheirModel();
-        }
-
-        return ArchimateModelUtils.getObjectByID(model, id);
-    }
 }
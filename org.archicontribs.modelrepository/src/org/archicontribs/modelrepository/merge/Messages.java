@@ -48,6 +48,8 @@ public class Messages extends NLS {
 
     public static String ConflictsDialog_28;
 
+    public static String ConflictsDialog_29;
+
     public static String ConflictsDialog_4;
 
     public static String ConflictsDialog_5;
@@ -26,6 +26,7 @@ public interface IPreferenceConstants {
     String PREFS_PROXY_REQUIRES_AUTHENTICATION = "proxyAuthenticate"; //$NON-NLS-1$
     
     String PREFS_EXPORT_MAX_THREADS = "exportMaxThreads";  //$NON-NLS-1$
+    String PREFS_IMPORT_MAX_THREADS = "importMaxThreads";  //$NON-NLS-1$
     
     String PREFS_FETCH_IN_BACKGROUND = "fetchInBackground";  //$NON-NLS-1$
  }
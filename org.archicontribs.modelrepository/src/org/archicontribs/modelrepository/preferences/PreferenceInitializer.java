@@ -38,6 +38,7 @@ implements IPreferenceConstants {
 		store.setDefault(PREFS_PROXY_HOST, "localhost"); //$NON-NLS-1$
 		
 		store.setDefault(PREFS_EXPORT_MAX_THREADS, 10);
+		store.setDefault(PREFS_IMPORT_MAX_THREADS, Runtime.getRuntime().availableProcessors());
 		
 		store.setDefault(PREFS_FETCH_IN_BACKGROUND, true);
     }
@@ -7,12 +7,13 @@ package org.archicontribs.modelrepository.propertysections;
 
 import java.io.IOException;
 
-import org.archicontribs.modelrepository.grafico.BranchInfo;
-import org.archicontribs.modelrepository.grafico.BranchStatus;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
 import org.eclipse.jface.viewers.IFilter;
 import org.eclipse.jface.viewers.IStructuredSelection;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Text;
@@ -25,7 +26,7 @@ import com.archimatetool.editor.propertysections.AbstractArchiPropertySection;
  * 
  * @author Phillip Beauvoir
  */
-public class RepoInfoSection extends AbstractArchiPropertySection {
+public class RepoInfoSection extends AbstractArchiPropertySection implements IRepositoryListener {
     
     public static class Filter implements IFilter {
         @Override
@@ -37,6 +38,8 @@ public class RepoInfoSection extends AbstractArchiPropertySection {
     private Text fTextFile;
     private Text fTextURL;
     private Text fTextCurrentBranch;
+    
+    private IArchiRepository fArchiRepo;
 
     public RepoInfoSection() {
     }
@@ -52,6 +55,9 @@ public class RepoInfoSection extends AbstractArchiPropertySection {
         createLabel(parent, Messages.RepoInfoSection_2, STANDARD_LABEL_WIDTH, SWT.CENTER);
         fTextCurrentBranch = createSingleTextControl(parent, SWT.READ_ONLY);
         
+        // The current branch is shown when the state of the repo is worked out
+        RepositoryListenerManager.INSTANCE.addListener(this);
+        
         // Because of bug https://bugs.eclipse.org/bugs/show_bug.cgi?id=383750
         // But causes ModelRepositoryView to lose focus when selecting
         // addHiddenTextFieldToForm(parent);
@@ -60,28 +66,40 @@ public class RepoInfoSection extends AbstractArchiPropertySection {
     @Override
     protected void handleSelection(IStructuredSelection selection) {
         if(selection.getFirstElement() instanceof IArchiRepository) {
-            IArchiRepository archiRepo = (IArchiRepository)selection.getFirstElement();
+            fArchiRepo = (IArchiRepository)selection.getFirstElement();
             
-            fTextFile.setText(archiRepo.getLocalRepositoryFolder().getAbsolutePath());
+            fTextFile.setText(fArchiRepo.getLocalRepositoryFolder().getAbsolutePath());
             
             try {
-                fTextURL.setText(archiRepo.getOnlineRepositoryURL());
-                
-                String branch = ""; //$NON-NLS-1$
-                
-                BranchStatus status = archiRepo.getBranchStatus();
-                if(status != null) {
-                    BranchInfo branchInfo = status.getCurrentLocalBranch();
-                    if(branchInfo != null) {
-                        branch = branchInfo.getShortName();
-                    }
-                }
-                
-                fTextCurrentBranch.setText(branch);
+                fTextURL.setText(fArchiRepo.getOnlineRepositoryURL());
             }
-            catch(IOException | GitAPIException ex) {
+            catch(IOException ex) {
                 ex.printStackTrace();
             }
+            
+            updateCurrentBranch();
+        }
+    }
+    
+    @Override
+    public void repositoryChanged(String eventName, IArchiRepository repository) {
+        if(IRepositoryListener.STATE_CHANGED.equals(eventName) && repository.equals(fArchiRepo) && !fTextCurrentBranch.isDisposed()) {
+            updateCurrentBranch();
         }
     }
+    
+    /**
+     * Show the current branch from the cached state of the repo. This doesn't read the repo, the state is worked out
+     * in the background and this is called again when it has changed.
+     */
+    private void updateCurrentBranch() {
+        RepositoryStateSnapshot state = RepositoryStatusEngine.INSTANCE.getSnapshot(fArchiRepo);
+        fTextCurrentBranch.setText(state != null && state.getCurrentBranch() != null ? state.getCurrentBranchShortName() : ""); //$NON-NLS-1$
+    }
+    
+    @Override
+    public void dispose() {
+        super.dispose();
+        RepositoryListenerManager.INSTANCE.removeListener(this);
+    }
 }
@@ -9,6 +9,7 @@ import java.io.IOException;
 
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
 import org.eclipse.jface.viewers.IFilter;
 import org.eclipse.jface.viewers.IStructuredSelection;
 import org.eclipse.jgit.api.Git;
@@ -182,7 +183,7 @@ public class UserDetailsSection extends AbstractArchiPropertySection {
     }
     
     private void saveToLocalConfig(String name, String globalValue, String localValue) {
-        try(Git git = Git.open(fRepository.getLocalRepositoryFolder())) {
+        try(Git git = RepositoryHandleCache.INSTANCE.open(fRepository.getLocalRepositoryFolder())) {
             StoredConfig config = git.getRepository().getConfig();
             
             // Unset if blank or same as 
@@ -284,6 +284,11 @@ implements IContextProvider, ISelectionListener, IRepositoryListener {
                     fRepoLabel.setText(Messages.BranchesView_0 + " " + repository.getName()); //$NON-NLS-1$
                     break;
 
+                case IRepositoryListener.STATE_CHANGED:
+                    // Actions depend on the state of the repository
+                    updateActions();
+                    break;
+                    
                 case IRepositoryListener.BRANCHES_CHANGED:
                     getBranchesViewer().doSetInput(repository);
                     break;
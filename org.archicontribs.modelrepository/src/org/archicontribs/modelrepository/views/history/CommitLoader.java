@@ -0,0 +1,236 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.views.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.archicontribs.modelrepository.grafico.CommitGraph;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Walks the commits of a local and remote branch a page at a time for the History Table.
+ *
+ * The first page is loaded with {@link #loadPage()}. Further pages are loaded in a background job when
+ * {@link #loadTo(int)} asks for commits past the loaded ones, and the commits are counted in the commit graph
+ * in another background job. The listener is told when either job has finished, on the job's thread.
+ *
+ * @author Phillip Beauvoir
+ */
+class CommitLoader {
+    
+    static final int PAGE_SIZE = 200;
+    
+    private Git git;
+    private RevWalk revWalk;
+    private List<ObjectId> startIds = new ArrayList<ObjectId>();
+    private File localRepoFolder;
+    private RevCommit localCommit, originCommit;
+    private Consumer<CommitLoader> listener;
+    
+    private List<RevCommit> commits = new ArrayList<RevCommit>();
+    private boolean isDone;
+    private boolean isDisposed;
+    private int total = -1;
+    private int requested;
+    
+    private Job loadJob = new Job("Load History") { //$NON-NLS-1$
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            int loaded = 0;
+            while(!monitor.isCanceled() && loaded <= getRequested()) {
+                loaded = loadPage();
+            }
+            listener.accept(CommitLoader.this);
+            return Status.OK_STATUS;
+        }
+    };
+    
+    private Job countJob = new Job("Count History") { //$NON-NLS-1$
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            // Counted in the commit graph so that the commits are not parsed
+            try(Git countGit = RepositoryHandleCache.INSTANCE.open(localRepoFolder)) {
+                int count = CommitGraph.get(countGit.getRepository()).countReachable(startIds);
+                if(count >= 0) {
+                    setTotal(count);
+                    listener.accept(CommitLoader.this);
+                }
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+            
+            return Status.OK_STATUS;
+        }
+    };
+    
+    /**
+     * @param localRepoFolder The local repository folder
+     * @param localBranchName The full name of the local branch
+     * @param remoteBranchName The full name of the remote branch
+     * @param listener Told when more commits have been loaded or the commits have been counted
+     * @throws IOException
+     */
+    CommitLoader(File localRepoFolder, String localBranchName, String remoteBranchName, Consumer<CommitLoader> listener) throws IOException {
+        this.localRepoFolder = localRepoFolder;
+        this.listener = listener;
+        
+        git = RepositoryHandleCache.INSTANCE.open(localRepoFolder);
+        Repository repository = git.getRepository();
+        
+        // a RevWalk allows to walk over commits based on some filtering that is defined
+        revWalk = new RevWalk(repository);
+        
+        try {
+            // Find the local branch
+            ObjectId objectID = repository.resolve(localBranchName);
+            if(objectID != null) {
+                localCommit = revWalk.parseCommit(objectID);
+                revWalk.markStart(localCommit);
+                startIds.add(objectID);
+            }
+            
+            // Find the remote branch
+            objectID = repository.resolve(remoteBranchName);
+            if(objectID != null) {
+                originCommit = revWalk.parseCommit(objectID);
+                revWalk.markStart(originCommit);
+                startIds.add(objectID);
+            }
+        }
+        catch(IOException ex) {
+            dispose();
+            throw ex;
+        }
+        
+        loadJob.setSystem(true);
+        countJob.setSystem(true);
+    }
+    
+    /**
+     * @return The latest commit of the local branch, or null if there is none
+     */
+    RevCommit getLocalCommit() {
+        return localCommit;
+    }
+    
+    /**
+     * @return The latest commit of the remote branch, or null if there is none
+     */
+    RevCommit getOriginCommit() {
+        return originCommit;
+    }
+    
+    /**
+     * Load the next page of commits
+     * @return The number of commits loaded, or Integer.MAX_VALUE if all of them are loaded
+     */
+    synchronized int loadPage() {
+        if(isDisposed || isDone) {
+            return Integer.MAX_VALUE;
+        }
+        
+        try {
+            for(int i = 0; i < PAGE_SIZE; i++) {
+                RevCommit commit = revWalk.next();
+                if(commit == null) {
+                    isDone = true;
+                    total = commits.size();
+                    close();
+                    return Integer.MAX_VALUE;
+                }
+                commits.add(commit);
+            }
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+            isDone = true;
+            total = commits.size();
+            close();
+            return Integer.MAX_VALUE;
+        }
+        
+        return commits.size();
+    }
+    
+    /**
+     * Load the commits up to index and a page after it in the background
+     */
+    synchronized void loadTo(int index) {
+        requested = Math.max(requested, index + PAGE_SIZE);
+        if(!isDone && !isDisposed) {
+            loadJob.schedule();
+        }
+    }
+    
+    /**
+     * Count the commits in the background
+     */
+    void count() {
+        if(!isDone) {
+            countJob.schedule();
+        }
+    }
+    
+    /**
+     * @return The commit at index, or null if it is not loaded yet
+     */
+    synchronized RevCommit get(int index) {
+        return index < commits.size() ? commits.get(index) : null;
+    }
+    
+    /**
+     * @return The number of rows. Until the commits are counted there is one more row than is loaded
+     *         so that the table asks for it.
+     */
+    synchronized int getItemCount() {
+        if(total >= 0) {
+            return total;
+        }
+        return isDone ? commits.size() : commits.size() + 1;
+    }
+    
+    synchronized void dispose() {
+        isDisposed = true;
+        loadJob.cancel();
+        countJob.cancel();
+        close();
+    }
+    
+    private synchronized int getRequested() {
+        return requested;
+    }
+    
+    private synchronized void setTotal(int count) {
+        if(!isDone) {
+            total = count;
+        }
+    }
+    
+    private void close() {
+        if(revWalk != null) {
+            revWalk.close();
+            revWalk = null;
+        }
+        if(git != null) {
+            git.close();
+            git = null;
+        }
+    }
+}
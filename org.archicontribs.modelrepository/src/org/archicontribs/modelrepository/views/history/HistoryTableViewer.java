@@ -7,9 +7,10 @@ package org.archicontribs.modelrepository.views.history;
 
 import java.io.IOException;
 import java.text.DateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
+import java.util.Iterator;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.grafico.BranchInfo;
@@ -24,12 +25,8 @@ import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerCell;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.widgets.Composite;
@@ -131,72 +128,102 @@ public class HistoryTableViewer extends TableViewer {
     
     /**
      * The Model for the Table.
+     * The first page of commits is loaded straight away and more pages are loaded in the background when the table
+     * asks for rows past the loaded ones. The total number of commits is counted in the commit graph in the background.
      */
     class HistoryContentProvider implements ILazyContentProvider {
-        List<RevCommit> commits;
+        CommitLoader loader;
+        
+        // Rows asked for that are not loaded yet
+        SortedSet<Integer> pending = new TreeSet<Integer>();
         
         @Override
         public void inputChanged(Viewer v, Object oldInput, Object newInput) {
-            commits = getCommits(newInput);
-            setItemCount(commits.size());
-        }
-
-        @Override
-        public void dispose() {
-        }
-        
-        List<RevCommit> getCommits(Object parent) {
-            List<RevCommit> commits = new ArrayList<RevCommit>();
-            fLocalCommit = null;
-            fOriginCommit = null;
-            
-            if(!(parent instanceof IArchiRepository) || fSelectedBranch == null) {
-                return commits;
+            if(loader != null) {
+                loader.dispose();
+                loader = null;
             }
             
-            IArchiRepository repo = (IArchiRepository)parent;
+            pending.clear();
+            fLocalCommit = null;
+            fOriginCommit = null;
             
-            // Local Repo was deleted
-            if(!repo.getLocalRepositoryFolder().exists()) {
-                return commits;
-            }
-
-            try(Repository repository = Git.open(repo.getLocalRepositoryFolder()).getRepository()) {
-                // a RevWalk allows to walk over commits based on some filtering that is defined
-                try(RevWalk revWalk = new RevWalk(repository)) {
-                    // Find the local branch
-                    ObjectId objectID = repository.resolve(fSelectedBranch.getLocalBranchNameFor());
-                    if(objectID != null) {
-                        fLocalCommit = revWalk.parseCommit(objectID);
-                        revWalk.markStart(fLocalCommit); 
-                    }
-                    
-                    // Find the remote branch
-                    objectID = repository.resolve(fSelectedBranch.getRemoteBranchNameFor());
-                    if(objectID != null) {
-                        fOriginCommit = revWalk.parseCommit(objectID);
-                        revWalk.markStart(fOriginCommit);
+            if(newInput instanceof IArchiRepository && fSelectedBranch != null) {
+                IArchiRepository repo = (IArchiRepository)newInput;
+                
+                // Local Repo was deleted
+                if(repo.getLocalRepositoryFolder().exists()) {
+                    try {
+                        loader = new CommitLoader(repo.getLocalRepositoryFolder(), fSelectedBranch.getLocalBranchNameFor(),
+                                fSelectedBranch.getRemoteBranchNameFor(), this::notifyLoaded);
+                        fLocalCommit = loader.getLocalCommit();
+                        fOriginCommit = loader.getOriginCommit();
+                        loader.loadPage();
+                        loader.count();
                     }
-                    
-                    // Collect the commits
-                    for(RevCommit commit : revWalk ) {
-                        commits.add(commit);
+                    catch(IOException ex) {
+                        ex.printStackTrace();
+                        loader = null;
                     }
-                    
-                    revWalk.dispose();
                 }
             }
-            catch(IOException ex) {
-                ex.printStackTrace();
-            }
             
-            return commits;
+            setItemCount(loader != null ? loader.getItemCount() : 0);
         }
-
+        
+        @Override
+        public void dispose() {
+            if(loader != null) {
+                loader.dispose();
+                loader = null;
+            }
+        }
+        
         @Override
         public void updateElement(int index) {
-            if(commits != null) {
-                replace(commits.get(index), index);
+            if(loader == null) {
+                return;
+            }
+            
+            RevCommit commit = loader.get(index);
+            if(commit != null) {
+                replace(commit, index);
+            }
+            else {
+                pending.add(index);
+                loader.loadTo(index);
+            }
+        }
+        
+        /**
+         * Called from the loader's jobs
+         */
+        void notifyLoaded(CommitLoader commitLoader) {
+            if(!getTable().isDisposed()) {
+                getTable().getDisplay().asyncExec(() -> {
+                    loaded(commitLoader);
+                });
+            }
+        }
+        
+        /**
+         * More commits were loaded or counted so fill in the rows waiting for them
+         */
+        void loaded(CommitLoader commitLoader) {
+            if(commitLoader != loader || getTable().isDisposed()) {
+                return;
+            }
+            
+            setItemCount(loader.getItemCount());
+            
+            for(Iterator<Integer> iter = pending.iterator(); iter.hasNext();) {
+                int index = iter.next();
+                RevCommit commit = loader.get(index);
+                if(commit == null) {
+                    break; // Sorted so the rest are not loaded either
+                }
+                replace(commit, index);
+                iter.remove();
             }
         }
     }
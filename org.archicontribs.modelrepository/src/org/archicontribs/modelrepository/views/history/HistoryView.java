@@ -268,7 +268,7 @@ implements IContextProvider, ISelectionListener, IRepositoryListener {
         fActionRestoreCommit.setCommit(commit);
         
         // Also set the commit in the Comment Viewer
-        fCommentViewer.setCommit(commit);
+        fCommentViewer.setCommit(fSelectedRepository, commit);
 
         // Update these actions
         fActionUndoLastCommit.update();
@@ -372,6 +372,11 @@ implements IContextProvider, ISelectionListener, IRepositoryListener {
                     fRepoLabel.setText(Messages.HistoryView_0 + " " + repository.getName()); //$NON-NLS-1$
                     break;
 
+                case IRepositoryListener.STATE_CHANGED:
+                    // Actions depend on the state of the repository
+                    updateActions();
+                    break;
+                    
                 case IRepositoryListener.BRANCHES_CHANGED:
                     getBranchesViewer().doSetInput(fSelectedRepository);
                     break;
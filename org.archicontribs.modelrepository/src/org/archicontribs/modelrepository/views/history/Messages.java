@@ -27,6 +27,16 @@ public class Messages extends NLS {
     public static String HistoryView_1;
 
     public static String HistoryView_2;
+
+    public static String RevisionCommentViewer_0;
+
+    public static String RevisionCommentViewer_1;
+
+    public static String RevisionCommentViewer_2;
+
+    public static String RevisionCommentViewer_3;
+
+    public static String RevisionCommentViewer_4;
     static {
         // initialize resource bundle
         NLS.initializeMessages(BUNDLE_NAME, Messages.class);
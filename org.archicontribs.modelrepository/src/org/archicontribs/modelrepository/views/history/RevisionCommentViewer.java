@@ -5,8 +5,19 @@
  */
 package org.archicontribs.modelrepository.views.history;
 
+import java.io.IOException;
+
+import org.archicontribs.modelrepository.grafico.GraficoDiff;
+import org.archicontribs.modelrepository.grafico.GraficoDiff.Change;
+import org.archicontribs.modelrepository.grafico.GraficoDiff.FeatureChange;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.resource.JFaceResources;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.StyleRange;
 import org.eclipse.swt.custom.StyledText;
@@ -16,12 +27,19 @@ import org.eclipse.swt.widgets.Composite;
 /**
  * Revision Comment Viewer
  * 
+ * Shows the commit message and the objects that the commit changed
+ * 
  * @author Phillip Beauvoir
  */
 public class RevisionCommentViewer {
-
+    
+    // Number of changes to list
+    private static final int MAX_CHANGES = 50;
+    
     private StyledText fText;
     
+    private RevCommit fCommit;
+    
     public RevisionCommentViewer(Composite parent) {
         fText = new StyledText(parent, SWT.V_SCROLL | SWT.READ_ONLY | SWT.WRAP | SWT.BORDER);
         fText.setLayoutData(new GridData(GridData.FILL_BOTH));
@@ -29,7 +47,9 @@ public class RevisionCommentViewer {
         fText.setFont(JFaceResources.getFontRegistry().get(JFaceResources.TEXT_FONT));
     }
     
-    public void setCommit(RevCommit commit) {
+    public void setCommit(IArchiRepository repository, RevCommit commit) {
+        fCommit = commit;
+        
         if(commit != null) {
             String shortMessage = commit.getShortMessage();
             String fullMessage = commit.getFullMessage();
@@ -41,9 +61,92 @@ public class RevisionCommentViewer {
             style.length = shortMessage.length();
             style.fontStyle = SWT.BOLD;
             fText.setStyleRange(style);
+            
+            if(repository != null) {
+                showChanges(repository, commit);
+            }
         }
         else {
             fText.setText(""); //$NON-NLS-1$
         }
     }
+    
+    /**
+     * Work out the changes from the commit's first parent in the background and add them to the text
+     */
+    private void showChanges(IArchiRepository repository, RevCommit commit) {
+        Job job = new Job("Commit Changes") { //$NON-NLS-1$
+            @Override
+            protected IStatus run(IProgressMonitor monitor) {
+                try {
+                    String parent = commit.getParentCount() > 0 ? commit.getParent(0).getName() : null;
+                    GraficoDiff diff = repository.getDiff(parent, commit.getName());
+                    
+                    if(diff != null && !diff.isEmpty() && !fText.isDisposed()) {
+                        String text = getChangesText(diff);
+                        
+                        fText.getDisplay().asyncExec(() -> {
+                            // Still showing the commit
+                            if(!fText.isDisposed() && commit == fCommit) {
+                                fText.append(text);
+                            }
+                        });
+                    }
+                }
+                catch(IOException ex) {
+                    ex.printStackTrace();
+                }
+                
+                return Status.OK_STATUS;
+            }
+        };
+        
+        job.setSystem(true);
+        job.schedule();
+    }
+    
+    private String getChangesText(GraficoDiff diff) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n\n"); //$NON-NLS-1$
+        sb.append(Messages.RevisionCommentViewer_0);
+        
+        int count = 0;
+        
+        for(Change change : diff.getChanges()) {
+            if(count++ == MAX_CHANGES) {
+                sb.append("\n"); //$NON-NLS-1$
+                sb.append(NLS.bind(Messages.RevisionCommentViewer_4, diff.getChanges().size() - MAX_CHANGES));
+                break;
+            }
+            
+            String object = change.className + " " + (change.name != null ? "\"" + change.name + "\"" : change.id); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            
+            sb.append("\n"); //$NON-NLS-1$
+            
+            switch(change.type) {
+                case ADDED:
+                    sb.append(NLS.bind(Messages.RevisionCommentViewer_1, object));
+                    break;
+                
+                case REMOVED:
+                    sb.append(NLS.bind(Messages.RevisionCommentViewer_2, object));
+                    break;
+                
+                default:
+                    sb.append(NLS.bind(Messages.RevisionCommentViewer_3, object));
+                    
+                    // Names of the changed features
+                    String features = ""; //$NON-NLS-1$
+                    for(FeatureChange featureChange : change.featureChanges) {
+                        features += (features.length() > 0 ? ", " : "") + featureChange.path; //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                    if(features.length() > 0) {
+                        sb.append(" (" + features + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                    break;
+            }
+        }
+        
+        return sb.toString();
+    }
 }
@@ -0,0 +1,550 @@
+/**
+ * This program and the accompanying materials
+ * are made available under the terms of the License
+ * which accompanies this distribution in the file LICENSE.txt
+ */
+package org.archicontribs.modelrepository.views.repositories;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.archicontribs.modelrepository.ModelRepositoryPlugin;
+import org.archicontribs.modelrepository.authentication.ProxyAuthenticater;
+import org.archicontribs.modelrepository.authentication.SimpleCredentialsStorage;
+import org.archicontribs.modelrepository.grafico.BranchStatus;
+import org.archicontribs.modelrepository.grafico.GraficoUtils;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.MergePreview;
+import org.archicontribs.modelrepository.grafico.RepositoryHandleCache;
+import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
+import org.archicontribs.modelrepository.preferences.IPreferenceConstants;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobGroup;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.widgets.Display;
+
+import com.archimatetool.editor.model.IEditorModelManager;
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * Fetches the repositories shown in the viewer in the background
+ *
+ * Each repository has its own fetch job and schedule and a few jobs can run at the same time.
+ * The remote's branches are probed first and a full fetch is only done if they are not the same as ours.
+ * A repository whose remote has new commits is fetched again soon, one that has no new commits or
+ * whose fetch fails is fetched less and less often. A repository is fetched straight away when its model is opened.
+ * After each fetch a pull of the current branch is previewed in memory to see if it would conflict.
+ *
+ * @author Phillip Beauvoir
+ */
+public class FetchScheduler implements IRepositoryListener, PropertyChangeListener {
+    
+    /**
+     * Shortest and longest times in milliseconds between fetches of a repository
+     */
+    static final long MIN_INTERVAL = 20000;
+    static final long MAX_INTERVAL = 10 * 60 * 1000;
+    
+    // Number of fetches that can run at the same time
+    private static final int MAX_JOBS = 4;
+    
+    // Time in milliseconds to wait for other repositories to fail authentication so that they are shown in one message
+    private static final int AUTHENTICATION_MESSAGE_DELAY = 2000;
+    
+    /**
+     * Fetch schedule and results of a repository
+     */
+    public static class FetchInfo {
+        private volatile long interval = MIN_INTERVAL;
+        private volatile int failureCount;
+        private volatile boolean isAuthenticationFailed;
+        private volatile boolean isAuthenticationMessageShown;
+        private volatile long lastFetchTime;
+        private volatile long lastLatency;
+        private volatile long lastBytesReceived;
+        private volatile Map<String, ObjectId> remoteRefs;
+        private volatile MergePreview mergePreview;
+        
+        /**
+         * @return The time of the last successful fetch, or 0 if there has been none
+         */
+        public long getLastFetchTime() {
+            return lastFetchTime;
+        }
+        
+        /**
+         * @return How long in milliseconds the last successful fetch took
+         */
+        public long getLastLatency() {
+            return lastLatency;
+        }
+        
+        /**
+         * @return The size of the packs received by the last successful fetch
+         */
+        public long getLastBytesReceived() {
+            return lastBytesReceived;
+        }
+        
+        /**
+         * @return The number of fetches that have failed since the last successful one
+         */
+        public int getFailureCount() {
+            return failureCount;
+        }
+        
+        /**
+         * @return The time in milliseconds until the next fetch
+         */
+        public long getInterval() {
+            return interval;
+        }
+        
+        /**
+         * @return The remote branches seen by the last probe keyed by remote tracking ref name, or null if there has been none
+         */
+        public Map<String, ObjectId> getRemoteRefs() {
+            return remoteRefs;
+        }
+        
+        /**
+         * @param state The state of the repository
+         * @return true if the last probe saw remote commits that have not been fetched into the repository
+         */
+        public boolean hasUnfetchedCommits(RepositoryStateSnapshot state) {
+            return remoteRefs != null && isRemoteChanged(remoteRefs, state.getRefs());
+        }
+        
+        /**
+         * @return The preview of a pull made after the last fetch, or null if there has been none
+         */
+        public MergePreview getMergePreview() {
+            return mergePreview;
+        }
+        
+        /**
+         * @param state The state of the repository
+         * @return true if the preview of a pull made after the last fetch has conflicts and is of the current commits
+         */
+        public boolean isPullConflicting(RepositoryStateSnapshot state) {
+            MergePreview preview = mergePreview;
+            if(preview == null || !preview.isConflicting() || state.getCurrentBranch() == null) {
+                return false;
+            }
+            
+            ObjectId remote = state.getRefId(BranchStatus.remotePrefix + state.getCurrentBranchShortName());
+            return preview.getOurs().equals(state.getHead()) && preview.getTheirs().equals(remote);
+        }
+    }
+    
+    /**
+     * Fetches one repository and schedules itself again
+     */
+    private class RepositoryFetchJob extends Job {
+        private IArchiRepository fRepository;
+        private FetchInfo fInfo = new FetchInfo();
+        
+        RepositoryFetchJob(IArchiRepository repository) {
+            super("Fetch Job"); //$NON-NLS-1$
+            fRepository = repository;
+            setSystem(true);
+            setJobGroup(fJobGroup);
+        }
+        
+        @Override
+        protected IStatus run(IProgressMonitor monitor) {
+            // Check first thing on entry
+            if(!canRun() || !fRepository.getLocalRepositoryFolder().exists()) {
+                return Status.OK_STATUS;
+            }
+            
+            fetch(fRepository, fInfo);
+            
+            if(canRun() && !fInfo.isAuthenticationFailed) {
+                schedule(fInfo.interval);
+            }
+            
+            return Status.OK_STATUS;
+        }
+        
+        /*
+         * Because the Git Fetch process doesn't respond to cancel requests we can't cancel it when it is running.
+         * So, if the user closes the app this job might be running. So we will wait for this job to finish
+         */
+        @Override
+        protected void canceling() {
+            int timeout = 0;
+            final int delay = 100;
+            
+            try {
+                while(getState() == Job.RUNNING) {
+                    Thread.sleep(delay);
+                    timeout += delay;
+                    if(timeout > 30000) { // don't wait longer than this
+                        break;
+                    }
+                }
+            }
+            catch(InterruptedException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+    
+    private ModelRepositoryTreeViewer fViewer;
+    
+    private JobGroup fJobGroup = new JobGroup("Background Fetch", MAX_JOBS, 0); //$NON-NLS-1$
+    
+    // Fetch jobs keyed by local repository folder. Only used on the UI thread.
+    private Map<File, RepositoryFetchJob> fJobs = new HashMap<File, RepositoryFetchJob>();
+    
+    // Repositories whose authentication failed, to show in the next message. Only used on the UI thread.
+    private List<IArchiRepository> fAuthenticationFailedRepositories = new ArrayList<IArchiRepository>();
+    
+    public FetchScheduler(ModelRepositoryTreeViewer viewer) {
+        fViewer = viewer;
+        
+        IPropertyChangeListener listener = new IPropertyChangeListener() {
+            @Override
+            public void propertyChange(org.eclipse.jface.util.PropertyChangeEvent event) {
+                if(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND == event.getProperty()) {
+                    if(event.getNewValue() == Boolean.TRUE) {
+                        for(RepositoryFetchJob job : fJobs.values()) {
+                            if(job.getState() == Job.NONE) {
+                                job.schedule(1000);
+                            }
+                        }
+                    }
+                }
+            }
+        };
+        
+        ModelRepositoryPlugin.INSTANCE.getPreferenceStore().addPropertyChangeListener(listener);
+        RepositoryListenerManager.INSTANCE.addListener(this);
+        IEditorModelManager.INSTANCE.addPropertyChangeListener(this);
+        
+        fViewer.getControl().addDisposeListener(new DisposeListener() {
+            @Override
+            public void widgetDisposed(DisposeEvent e) {
+                ModelRepositoryPlugin.INSTANCE.getPreferenceStore().removePropertyChangeListener(listener);
+                RepositoryListenerManager.INSTANCE.removeListener(FetchScheduler.this);
+                IEditorModelManager.INSTANCE.removePropertyChangeListener(FetchScheduler.this);
+                
+                for(RepositoryFetchJob job : fJobs.values()) {
+                    cancel(job);
+                }
+                fJobs.clear();
+            }
+        });
+    }
+    
+    /**
+     * Set the repositories to fetch. New repositories are fetched soon.
+     * @param repositories The repositories shown in the viewer
+     */
+    void setRepositories(List<IArchiRepository> repositories) {
+        Set<File> folders = new HashSet<File>();
+        
+        for(IArchiRepository repository : repositories) {
+            File folder = repository.getLocalRepositoryFolder().getAbsoluteFile();
+            folders.add(folder);
+            
+            if(!fJobs.containsKey(folder)) {
+                RepositoryFetchJob job = new RepositoryFetchJob(repository);
+                fJobs.put(folder, job);
+                
+                if(canRun()) {
+                    job.schedule(1000);
+                }
+            }
+        }
+        
+        for(Iterator<Map.Entry<File, RepositoryFetchJob>> iter = fJobs.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<File, RepositoryFetchJob> entry = iter.next();
+            if(!folders.contains(entry.getKey())) {
+                cancel(entry.getValue());
+                iter.remove();
+            }
+        }
+    }
+    
+    /**
+     * @param repository The repository
+     * @return The fetch schedule and results of the repository, or null if it is not fetched
+     */
+    public FetchInfo getFetchInfo(IArchiRepository repository) {
+        RepositoryFetchJob job = fJobs.get(repository.getLocalRepositoryFolder().getAbsoluteFile());
+        return job != null ? job.fInfo : null;
+    }
+    
+    /**
+     * Fetch a repository straight away
+     * @param repository The repository
+     */
+    public void fetchNow(IArchiRepository repository) {
+        RepositoryFetchJob job = fJobs.get(repository.getLocalRepositoryFolder().getAbsoluteFile());
+        if(job != null && canRun()) {
+            // Try again, the credentials might have been fixed. The message isn't shown again if they haven't.
+            job.fInfo.isAuthenticationFailed = false;
+            job.schedule();
+        }
+    }
+    
+    @Override
+    public void repositoryChanged(String eventName, IArchiRepository repository) {
+        if(IRepositoryListener.REPOSITORY_DELETED.equals(eventName)) {
+            RepositoryFetchJob job = fJobs.remove(repository.getLocalRepositoryFolder().getAbsoluteFile());
+            if(job != null) {
+                cancel(job);
+            }
+        }
+    }
+    
+    @Override
+    public void propertyChange(PropertyChangeEvent evt) {
+        // Fetch when the user opens a repository's model
+        if(IEditorModelManager.PROPERTY_MODEL_OPENED.equals(evt.getPropertyName())) {
+            IArchimateModel model = (IArchimateModel)evt.getNewValue();
+            if(GraficoUtils.isModelInLocalRepository(model)) {
+                File folder = GraficoUtils.getLocalRepositoryFolderForModel(model).getAbsoluteFile();
+                RepositoryFetchJob job = fJobs.get(folder);
+                if(job != null) {
+                    fetchNow(job.fRepository);
+                }
+            }
+        }
+    }
+    
+    protected boolean canRun() {
+        return !fViewer.getControl().isDisposed() &&
+                ModelRepositoryPlugin.INSTANCE.getPreferenceStore().getBoolean(IPreferenceConstants.PREFS_FETCH_IN_BACKGROUND);
+    }
+    
+    private void fetch(IArchiRepository repo, FetchInfo info) {
+        // Get credentials. In some public repos we can still fetch without needing a password so we try anyway
+        SimpleCredentialsStorage scs = new SimpleCredentialsStorage(new File(repo.getLocalGitFolder(), IGraficoConstants.REPO_CREDENTIALS_FILE));
+        
+        long packSize = getPackSize(repo);
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            ProxyAuthenticater.update(repo.getOnlineRepositoryURL());
+            
+            // Ask the remote for its branches first and only fetch if they are not the same as ours
+            Map<String, ObjectId> remoteRefs = repo.getRemoteRefs(scs.getUsername(), scs.getPassword());
+            boolean isProbeChanged = !remoteRefs.equals(info.remoteRefs);
+            info.remoteRefs = remoteRefs;
+            
+            if(!isRemoteChanged(remoteRefs, getLocalRefs(repo, remoteRefs))) {
+                info.failureCount = 0;
+                info.interval = getNextInterval(info.interval, false);
+                updateMergePreview(repo, info);
+                return;
+            }
+            
+            // Show that there are new remote commits while they are fetched
+            if(isProbeChanged) {
+                Display.getDefault().asyncExec(() -> {
+                    RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.STATE_CHANGED, repo);
+                });
+            }
+            
+            FetchResult result = repo.fetchFromRemote(scs.getUsername(), scs.getPassword(), null, false);
+            
+            info.lastFetchTime = System.currentTimeMillis();
+            info.lastLatency = info.lastFetchTime - startTime;
+            info.lastBytesReceived = Math.max(0, getPackSize(repo) - packSize);
+            info.failureCount = 0;
+            
+            // New commits so fetch again soon, otherwise back off
+            boolean hasNewCommits = !result.getTrackingRefUpdates().isEmpty();
+            info.interval = getNextInterval(info.interval, hasNewCommits);
+            
+            if(hasNewCommits) {
+                RepositoryStatusEngine.INSTANCE.invalidate(repo);
+                Display.getDefault().asyncExec(() -> {
+                    RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.BRANCHES_CHANGED, repo);
+                });
+            }
+            
+            updateMergePreview(repo, info);
+        }
+        catch(IOException | GitAPIException ex) {
+            info.failureCount++;
+            info.interval = getFailureInterval(info.failureCount);
+            
+            // Seems to be the only way to trap these exceptions :-(
+            if(ex instanceof TransportException && (ex.getMessage().contains("not authorized") || //$NON-NLS-1$
+                    ex.getMessage().contains("authentication not supported"))) { //$NON-NLS-1$
+                // Stop fetching this repository until it is opened again
+                info.isAuthenticationFailed = true;
+                
+                // Show message once in this session
+                if(!info.isAuthenticationMessageShown) {
+                    info.isAuthenticationMessageShown = true;
+                    Display.getDefault().asyncExec(() -> addAuthenticationFailed(repo));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Add a repository to the next message about failed authentication.
+     * The message is shown a little later with all repositories that failed in the meantime, rather than one message for each.
+     */
+    private void addAuthenticationFailed(IArchiRepository repo) {
+        fAuthenticationFailedRepositories.add(repo);
+        
+        if(fAuthenticationFailedRepositories.size() == 1) {
+            Display.getCurrent().timerExec(AUTHENTICATION_MESSAGE_DELAY, this::showAuthenticationFailedMessage);
+        }
+    }
+    
+    private void showAuthenticationFailedMessage() {
+        if(fViewer.getControl().isDisposed()) {
+            return;
+        }
+        
+        // Repositories that fail while the message is open are shown in another message
+        List<IArchiRepository> repositories = new ArrayList<IArchiRepository>(fAuthenticationFailedRepositories);
+        fAuthenticationFailedRepositories.clear();
+        
+        String message = Messages.FetchScheduler_0 + " "; //$NON-NLS-1$
+        message += Messages.FetchScheduler_1 + "\n"; //$NON-NLS-1$
+        
+        for(IArchiRepository repo : repositories) {
+            message += "\n"; //$NON-NLS-1$
+            try {
+                message += repo.getName() + "\n"; //$NON-NLS-1$
+                message += repo.getOnlineRepositoryURL() + "\n"; //$NON-NLS-1$
+            }
+            catch(IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        
+        MessageDialog.openInformation(Display.getCurrent().getActiveShell(), Messages.FetchScheduler_2, message);
+    }
+    
+    /**
+     * Preview a pull of the current branch so that the viewer can show if it would conflict.
+     * The preview is cached by commit ids so this is cheap when nothing has changed since the last fetch.
+     */
+    private void updateMergePreview(IArchiRepository repo, FetchInfo info) {
+        try {
+            MergePreview preview = repo.getMergePreview();
+            boolean isChanged = info.mergePreview == null ? preview.isConflicting() : info.mergePreview.isConflicting() != preview.isConflicting();
+            info.mergePreview = preview;
+            
+            if(isChanged) {
+                Display.getDefault().asyncExec(() -> {
+                    RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.STATE_CHANGED, repo);
+                });
+            }
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+    
+    /**
+     * @param interval The time in milliseconds between the last two fetches
+     * @param hasNewCommits true if the last fetch found new commits
+     * @return The time until the next fetch, MIN_INTERVAL if there were new commits, otherwise twice as long up to MAX_INTERVAL
+     */
+    static long getNextInterval(long interval, boolean hasNewCommits) {
+        return hasNewCommits ? MIN_INTERVAL : Math.min(interval * 2, MAX_INTERVAL);
+    }
+    
+    /**
+     * @param failureCount The number of fetches that have failed since the last successful one
+     * @return The time until the next fetch, twice as long for each failure up to MAX_INTERVAL
+     */
+    static long getFailureInterval(int failureCount) {
+        return Math.min(MIN_INTERVAL << Math.min(failureCount, 10), MAX_INTERVAL);
+    }
+    
+    /**
+     * @param remoteRefs Remote branches keyed by remote tracking ref name
+     * @param localRefs Local refs keyed by full ref name
+     * @return true if a remote branch is not in the local refs or is at a different commit.
+     *         Remote tracking refs of branches deleted on the remote are not removed by a fetch so they are ignored.
+     */
+    static boolean isRemoteChanged(Map<String, ObjectId> remoteRefs, Map<String, ObjectId> localRefs) {
+        for(Map.Entry<String, ObjectId> entry : remoteRefs.entrySet()) {
+            if(!entry.getValue().equals(localRefs.get(entry.getKey()))) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * @return The commit ids of the local remote tracking refs with the names of the remote branches
+     */
+    private Map<String, ObjectId> getLocalRefs(IArchiRepository repo, Map<String, ObjectId> remoteRefs) throws IOException {
+        Map<String, ObjectId> refs = new HashMap<String, ObjectId>();
+        
+        try(Git git = RepositoryHandleCache.INSTANCE.open(repo.getLocalRepositoryFolder())) {
+            for(String name : remoteRefs.keySet()) {
+                Ref ref = git.getRepository().exactRef(name);
+                if(ref != null && ref.getObjectId() != null) {
+                    refs.put(name, ref.getObjectId());
+                }
+            }
+        }
+        
+        return refs;
+    }
+    
+    /**
+     * @return The total size of the pack files, which grows by the size of the packs received by a fetch
+     */
+    private long getPackSize(IArchiRepository repo) {
+        long size = 0;
+        
+        File[] files = new File(repo.getLocalGitFolder(), "objects/pack").listFiles(); //$NON-NLS-1$
+        if(files != null) {
+            for(File file : files) {
+                if(file.getName().endsWith(".pack")) { //$NON-NLS-1$
+                    size += file.length();
+                }
+            }
+        }
+        
+        return size;
+    }
+    
+    private void cancel(RepositoryFetchJob job) {
+        // A running fetch can't be cancelled and would block the caller so let it finish
+        if(job.getState() != Job.RUNNING) {
+            job.cancel();
+        }
+    }
+}
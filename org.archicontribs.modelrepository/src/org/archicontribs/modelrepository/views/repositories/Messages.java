@@ -6,11 +6,11 @@ public class Messages extends NLS {
 
     private static final String BUNDLE_NAME = "org.archicontribs.modelrepository.views.repositories.messages"; //$NON-NLS-1$
 
-    public static String FetchJob_0;
+    public static String FetchScheduler_0;
 
-    public static String FetchJob_1;
+    public static String FetchScheduler_1;
 
-    public static String FetchJob_2;
+    public static String FetchScheduler_2;
 
     public static String ModelRepositoryTreeViewer_0;
 
@@ -20,6 +20,10 @@ public class Messages extends NLS {
 
     public static String ModelRepositoryTreeViewer_3;
 
+    public static String ModelRepositoryTreeViewer_4;
+
+    public static String ModelRepositoryTreeViewer_5;
+
     public static String ModelRepositoryView_0;
 
     public static String ModelRepositoryView_1;
@@ -6,21 +6,18 @@
 package org.archicontribs.modelrepository.views.repositories;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
-import java.util.Map;
 
 import org.archicontribs.modelrepository.IModelRepositoryImages;
 import org.archicontribs.modelrepository.ModelRepositoryPlugin;
 import org.archicontribs.modelrepository.grafico.ArchiRepository;
-import org.archicontribs.modelrepository.grafico.BranchInfo;
-import org.archicontribs.modelrepository.grafico.BranchStatus;
 import org.archicontribs.modelrepository.grafico.GraficoUtils;
 import org.archicontribs.modelrepository.grafico.IArchiRepository;
 import org.archicontribs.modelrepository.grafico.IRepositoryListener;
 import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryStateSnapshot;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
 import org.eclipse.jface.viewers.CellLabelProvider;
 import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
 import org.eclipse.jface.viewers.IDecoration;
@@ -30,7 +27,7 @@ import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.jface.viewers.ViewerCell;
 import org.eclipse.jface.viewers.ViewerComparator;
-import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
@@ -45,6 +42,8 @@ import com.archimatetool.editor.utils.StringUtils;
  * Repository Tree Viewer
  */
 public class ModelRepositoryTreeViewer extends TreeViewer implements IRepositoryListener {
+    
+    private FetchScheduler fFetchScheduler;
 
     /**
      * Constructor
@@ -76,13 +75,13 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
             }
         });
         
+        // Fetch Scheduler, before the input is set so that it is given the repositories
+        fFetchScheduler = new FetchScheduler(this);
+        
         setInput(""); //$NON-NLS-1$
         
         // Refresh File System Job
         new RefreshFilesJob(this);
-        
-        // Fetch Job
-        new FetchJob(this);
     }
 
     protected void refreshInBackground() {
@@ -100,6 +99,12 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
 
     @Override
     public void repositoryChanged(String eventName, IArchiRepository repository) {
+        // Repaint the repository's cell with its new state
+        if(IRepositoryListener.STATE_CHANGED.equals(eventName)) {
+            update(repository, null);
+            return;
+        }
+        
         switch(eventName) {
             case IRepositoryListener.REPOSITORY_ADDED:
                 refresh();
@@ -107,6 +112,7 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                 break;
                 
             case IRepositoryListener.REPOSITORY_DELETED:
+                RepositoryStatusEngine.INSTANCE.remove(repository);
                 refresh();
                 break;
 
@@ -160,7 +166,14 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         
         @Override
         public Object[] getElements(Object parent) {
-            return getChildren(getRootFolder());
+            List<IArchiRepository> repositories = getRepositories(getRootFolder());
+            
+            // Fetch the repositories that are shown
+            if(fFetchScheduler != null) {
+                fFetchScheduler.setRepositories(repositories);
+            }
+            
+            return repositories.toArray();
         }
         
         @Override
@@ -194,40 +207,32 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
 	// ===============================================================================================
 
     class ModelRepoTreeLabelProvider extends CellLabelProvider {
-        // Cache status for expensive calls
-        private class StatusCache {
-            boolean hasUnpushedCommits;
-            boolean hasRemoteCommits;
-            boolean hasLocalChanges;
-            
-            public StatusCache(boolean hasUnpushedCommits, boolean hasRemoteCommits, boolean hasLocalChanges) {
-                this.hasUnpushedCommits = hasUnpushedCommits;
-                this.hasRemoteCommits = hasRemoteCommits;
-                this.hasLocalChanges = hasLocalChanges;
-            }
-        }
-        
-        Map<IArchiRepository, StatusCache> cache = new Hashtable<IArchiRepository, StatusCache>();
         
         Image getImage(IArchiRepository repo) {
             Image image = IModelRepositoryImages.ImageFactory.getImage(IModelRepositoryImages.ICON_MODEL);
             
-            StatusCache sc = cache.get(repo);
-            if(sc != null) {
-                if(sc.hasLocalChanges) {
+            RepositoryStateSnapshot status = RepositoryStatusEngine.INSTANCE.getSnapshot(repo);
+            
+            if(status != null) {
+                if(status.hasLocalChanges()) {
                     image = IModelRepositoryImages.ImageFactory.getOverlayImage(image,
                             IModelRepositoryImages.ICON_LEFT_BALL_OVERLAY, IDecoration.BOTTOM_LEFT);
                 }
                 
-                if(sc.hasUnpushedCommits) {
+                if(status.hasUnpushedCommits()) {
                     image = IModelRepositoryImages.ImageFactory.getOverlayImage(image,
                             IModelRepositoryImages.ICON_RIGHT_BALL_OVERLAY, IDecoration.BOTTOM_RIGHT);
                 }
                 
-                if(sc.hasRemoteCommits) {
+                if(hasRemoteCommits(repo, status)) {
                     image = IModelRepositoryImages.ImageFactory.getOverlayImage(image,
                             IModelRepositoryImages.ICON_TOP_BALL_OVERLAY, IDecoration.TOP_RIGHT);
                 }
+                
+                if(isPullConflicting(repo, status)) {
+                    image = IModelRepositoryImages.ImageFactory.getOverlayImage(image,
+                            IModelRepositoryImages.ICON_CONFLICT_OVERLAY, IDecoration.TOP_LEFT);
+                }
             }
             
             return image;
@@ -236,23 +241,30 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
         String getStatusText(IArchiRepository repo) {
             String s = ""; //$NON-NLS-1$
             
-            StatusCache sc = cache.get(repo);
-            if(sc != null) {
-                if(sc.hasLocalChanges) {
+            RepositoryStateSnapshot status = RepositoryStatusEngine.INSTANCE.getSnapshot(repo);
+            
+            if(status != null) {
+                if(status.hasLocalChanges()) {
                     s += Messages.ModelRepositoryTreeViewer_2;
                 }
-                if(sc.hasUnpushedCommits) {
+                if(status.hasUnpushedCommits()) {
                     if(StringUtils.isSet(s)) {
                         s += " | "; //$NON-NLS-1$
                     }
                     s += Messages.ModelRepositoryTreeViewer_0;
                 }
-                if(sc.hasRemoteCommits) {
+                if(hasRemoteCommits(repo, status)) {
                     if(StringUtils.isSet(s)) {
                         s += " | "; //$NON-NLS-1$
                     }
                     s += Messages.ModelRepositoryTreeViewer_1;
                 }
+                if(isPullConflicting(repo, status)) {
+                    if(StringUtils.isSet(s)) {
+                        s += " | "; //$NON-NLS-1$
+                    }
+                    s += NLS.bind(Messages.ModelRepositoryTreeViewer_5, getFetchInfo(repo).getMergePreview().getConflictingFiles().size());
+                }
                 if(!StringUtils.isSet(s)) {
                     s = Messages.ModelRepositoryTreeViewer_3;
                 }
@@ -261,6 +273,30 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
             return s;
         }
         
+        /**
+         * @return true if the remote branch has new commits, or the last fetch probe saw new commits that are not fetched yet
+         */
+        boolean hasRemoteCommits(IArchiRepository repo, RepositoryStateSnapshot status) {
+            if(status.hasRemoteCommits()) {
+                return true;
+            }
+            
+            FetchScheduler.FetchInfo fetchInfo = getFetchInfo(repo);
+            return fetchInfo != null && fetchInfo.hasUnfetchedCommits(status);
+        }
+        
+        /**
+         * @return true if the preview of a pull made after the last fetch has conflicts
+         */
+        boolean isPullConflicting(IArchiRepository repo, RepositoryStateSnapshot status) {
+            FetchScheduler.FetchInfo fetchInfo = getFetchInfo(repo);
+            return fetchInfo != null && fetchInfo.isPullConflicting(status);
+        }
+        
+        FetchScheduler.FetchInfo getFetchInfo(IArchiRepository repo) {
+            return fFetchScheduler != null ? fFetchScheduler.getFetchInfo(repo) : null;
+        }
+        
         @Override
         public void update(ViewerCell cell) {
             if(cell.getElement() instanceof IArchiRepository) {
@@ -271,42 +307,23 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                     return;
                 }
                 
-                try {
-                    // Check status of current branch
-                    String currentLocalBranch = ""; //$NON-NLS-1$
-                    
-                    BranchStatus status = repo.getBranchStatus();
-                    if(status != null) {
-                        BranchInfo branchInfo = status.getCurrentLocalBranch();
-                        if(branchInfo != null) {
-                            currentLocalBranch = branchInfo.getShortName();
-                        }
-                    }
-                    
-                    boolean hasUnpushedCommits = repo.hasUnpushedCommits(currentLocalBranch);
-                    boolean hasRemoteCommits = repo.hasRemoteCommits(currentLocalBranch);
-                    boolean hasLocalChanges = repo.hasLocalChanges();
-                    
-                    StatusCache sc = new StatusCache(hasUnpushedCommits, hasRemoteCommits, hasLocalChanges);
-                    cache.put(repo, sc);
-
-                    // Red text
-                    if(hasUnpushedCommits || hasRemoteCommits || hasLocalChanges) {
-                        cell.setForeground(ColorFactory.get(255, 64, 0));
-                    }
-                    else {
-                        cell.setForeground(null);
-                    }
-
-                    // Repository name and current branch
-                    cell.setText(repo.getName() + " [" + currentLocalBranch + "]"); //$NON-NLS-1$ //$NON-NLS-2$
-                    
-                    // Image
-                    cell.setImage(getImage(repo));
+                // Cached state of the repository. If it is not known yet the cell is updated when it is.
+                RepositoryStateSnapshot status = RepositoryStatusEngine.INSTANCE.getSnapshot(repo);
+                
+                // Red text
+                if(status != null && (status.hasUnpushedCommits() || hasRemoteCommits(repo, status) || status.hasLocalChanges())) {
+                    cell.setForeground(ColorFactory.get(255, 64, 0));
                 }
-                catch(IOException | GitAPIException ex) {
-                    ex.printStackTrace();
+                else {
+                    cell.setForeground(null);
                 }
+
+                // Repository name and current branch
+                String currentLocalBranch = status != null ? status.getCurrentBranchShortName() : ""; //$NON-NLS-1$
+                cell.setText(repo.getName() + " [" + currentLocalBranch + "]"); //$NON-NLS-1$ //$NON-NLS-2$
+                
+                // Image
+                cell.setImage(getImage(repo));
             }
         }
         
@@ -322,6 +339,11 @@ public class ModelRepositoryTreeViewer extends TreeViewer implements IRepository
                     s += "\n" + status.replaceAll(" \\| ", "\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
                 }
                 
+                FetchScheduler.FetchInfo fetchInfo = getFetchInfo(repo);
+                if(fetchInfo != null && fetchInfo.getLastFetchTime() != 0) {
+                    s += "\n" + NLS.bind(Messages.ModelRepositoryTreeViewer_4, fetchInfo.getLastLatency(), fetchInfo.getLastBytesReceived()); //$NON-NLS-1$
+                }
+                
                 return s;
             }
             
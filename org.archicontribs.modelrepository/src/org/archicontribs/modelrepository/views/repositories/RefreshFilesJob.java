@@ -5,8 +5,39 @@
  */
 package org.archicontribs.modelrepository.views.repositories;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.archicontribs.modelrepository.grafico.ArchiRepository;
+import org.archicontribs.modelrepository.grafico.GraficoUtils;
+import org.archicontribs.modelrepository.grafico.IArchiRepository;
+import org.archicontribs.modelrepository.grafico.IGraficoConstants;
+import org.archicontribs.modelrepository.grafico.IRepositoryListener;
+import org.archicontribs.modelrepository.grafico.RepositoryListenerManager;
+import org.archicontribs.modelrepository.grafico.RepositoryStatusEngine;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -16,32 +47,103 @@ import org.eclipse.swt.events.DisposeListener;
 
 /**
  * Refresh Files in Background Job
- * 
+ *
+ * Watches the root folder and, for each repository, the .git folder, the refs folders and the model folders
+ * for changes made outside of Archi such as a "git pull" on the command line or a script writing Grafico files.
+ * Changes are gathered until there have been none for a short time and then the matching repository events are fired.
+ * The job waits on the WatchService so it does not wake up when nothing changes.
+ *
  * @author Phillip Beauvoir
  */
-public class RefreshFilesJob extends Job {
+public class RefreshFilesJob extends Job implements IRepositoryListener {
+    
+    /**
+     * Time in milliseconds to wait for more changes before firing events
+     */
+    static final long DEBOUNCE_TIME = 300;
+    
+    /**
+     * Longest time in milliseconds to hold back events while files keep changing
+     */
+    static final long MAX_DELAY = 1000;
+    
+    // Files in the .git folder that change the history, branches or status
+    private static final List<String> HISTORY_FILES = Arrays.asList(IGraficoConstants.HEAD, "ORIG_HEAD", "packed-refs"); //$NON-NLS-1$ //$NON-NLS-2$
+    private static final List<String> BRANCHES_FILES = Arrays.asList("FETCH_HEAD"); //$NON-NLS-1$
+    private static final List<String> STATUS_FILES = Arrays.asList("index", "checksum", IGraficoConstants.LOCAL_ARCHI_FILENAME); //$NON-NLS-1$ //$NON-NLS-2$
+    
+    /**
+     * What a watched folder is
+     */
+    private enum Kind {
+        ROOT, WORKING_TREE, GIT, REFS, MODEL
+    }
+    
+    private static class WatchedFolder {
+        final Kind kind;
+        final File repoFolder;
+        final Path path;
+        
+        WatchedFolder(Kind kind, File repoFolder, Path path) {
+            this.kind = kind;
+            this.repoFolder = repoFolder;
+            this.path = path;
+        }
+    }
+    
+    /**
+     * Changes to a repository that have not been fired yet
+     */
+    private static class PendingEvents {
+        final long firstChangeTime = System.currentTimeMillis();
+        final Set<String> eventNames = new LinkedHashSet<String>();
+    }
     
     private ModelRepositoryTreeViewer fViewer;
     
-    private long lastModified = 0L; // last modified
-
+    private WatchService fWatchService;
+    private Map<WatchKey, WatchedFolder> fKeys = new HashMap<WatchKey, WatchedFolder>();
+    private Set<File> fRepoFolders = new HashSet<File>();
+    
+    private Map<File, PendingEvents> fPendingEvents = new HashMap<File, PendingEvents>();
+    private boolean fRootChanged;
+    private long fRootChangeTime;
+    
+    // Times that events were last fired, keyed by repository folder and event name. Only used on the UI thread.
+    private Map<File, Map<String, Long>> fFiredEvents = new HashMap<File, Map<String, Long>>();
+    
     public RefreshFilesJob(ModelRepositoryTreeViewer viewer) {
         super("Refresh File System Job"); //$NON-NLS-1$
+        setSystem(true);
         fViewer = viewer;
         
+        RepositoryListenerManager.INSTANCE.addListener(this);
+        
         fViewer.getControl().addDisposeListener(new DisposeListener() {
             @Override
             public void widgetDisposed(DisposeEvent e) {
+                RepositoryListenerManager.INSTANCE.removeListener(RefreshFilesJob.this);
                 cancel();
+                
+                // Wakes up the job if it's waiting for changes
+                WatchService watchService = fWatchService;
+                if(watchService != null) {
+                    try {
+                        watchService.close();
+                    }
+                    catch(IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
             }
         });
         
         start();
     }
-
+    
     protected void start() {
         if(canRun()) {
-            schedule(5000);
+            schedule();
         }
     }
     
@@ -52,24 +154,311 @@ public class RefreshFilesJob extends Job {
             return Status.OK_STATUS;
         }
         
-        // If rootFolder has been modifed (child folder added/deleted/renamed) refresh
-        File rootFolder = fViewer.getRootFolder();
-        
-        if(lastModified != 0L && rootFolder.lastModified() != lastModified) {
-            fViewer.refreshInBackground();
+        try(WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            fWatchService = watchService;
+            
+            // The viewer may have been disposed before the watch service was set
+            if(!canRun()) {
+                return Status.OK_STATUS;
+            }
+            
+            registerFolder(Kind.ROOT, null, fViewer.getRootFolder());
+            registerRepositories();
+            
+            while(canRun() && !monitor.isCanceled()) {
+                // Wait for changes, or until there have been no more changes for a while
+                WatchKey key = hasPendingChanges() ? watchService.poll(DEBOUNCE_TIME, TimeUnit.MILLISECONDS) : watchService.take();
+                
+                if(key != null) {
+                    handleChanges(key);
+                }
+                
+                if(key == null || System.currentTimeMillis() - getFirstChangeTime() > MAX_DELAY) {
+                    firePendingEvents();
+                }
+            }
         }
-
-        lastModified = rootFolder.lastModified();
-
-        if(canRun()) {
-            schedule(5000);// Schedule again in 5 seconds
+        // Closed when the viewer is disposed
+        catch(ClosedWatchServiceException | InterruptedException ex) {
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+        }
+        finally {
+            fWatchService = null;
+            fKeys.clear();
+            fRepoFolders.clear();
         }
         
         return Status.OK_STATUS;
     }
-
+    
     protected boolean canRun() {
         return !fViewer.getControl().isDisposed();
     }
-
+    
+    @Override
+    public void repositoryChanged(String eventName, IArchiRepository repository) {
+        // Remember when each event was fired so that changes made by Archi are not fired again
+        fFiredEvents.computeIfAbsent(repository.getLocalRepositoryFolder().getAbsoluteFile(), key -> new HashMap<String, Long>())
+                    .put(eventName, System.currentTimeMillis());
+    }
+    
+    private void handleChanges(WatchKey key) {
+        WatchedFolder folder = fKeys.get(key);
+        
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(folder == null) {
+                continue;
+            }
+            
+            // Events were lost so assume that everything changed
+            if(event.kind() == OVERFLOW) {
+                if(folder.repoFolder == null) {
+                    setRootChanged();
+                }
+                else {
+                    addPendingEvents(folder.repoFolder, IRepositoryListener.HISTORY_CHANGED, IRepositoryListener.BRANCHES_CHANGED,
+                            IRepositoryListener.REPOSITORY_CHANGED);
+                }
+                continue;
+            }
+            
+            handleChange(folder, folder.path.resolve((Path)event.context()), event.kind());
+        }
+        
+        // Folder was deleted
+        if(!key.reset()) {
+            fKeys.remove(key);
+        }
+    }
+    
+    private void handleChange(WatchedFolder folder, Path path, WatchEvent.Kind<?> kind) {
+        String name = path.getFileName().toString();
+        
+        // Lock files are renamed to the real file when done
+        if(name.endsWith(".lock")) { //$NON-NLS-1$
+            return;
+        }
+        
+        boolean isNewFolder = kind == ENTRY_CREATE && Files.isDirectory(path);
+        
+        switch(folder.kind) {
+            case ROOT:
+                setRootChanged();
+                break;
+            
+            case WORKING_TREE:
+                // A repository's .git or model folder was created
+                if(isNewFolder && name.equals(".git")) { //$NON-NLS-1$
+                    setRootChanged();
+                }
+                else if(isNewFolder && name.equals(IGraficoConstants.MODEL_FOLDER)) {
+                    registerFolderTree(Kind.MODEL, folder.repoFolder, path.toFile());
+                    addPendingEvents(folder.repoFolder, IRepositoryListener.REPOSITORY_CHANGED);
+                }
+                break;
+            
+            case GIT:
+                if(isNewFolder && name.equals("refs")) { //$NON-NLS-1$
+                    registerFolderTree(Kind.REFS, folder.repoFolder, path.toFile());
+                }
+                else if(HISTORY_FILES.contains(name)) {
+                    addPendingEvents(folder.repoFolder, IRepositoryListener.HISTORY_CHANGED, IRepositoryListener.BRANCHES_CHANGED);
+                }
+                else if(BRANCHES_FILES.contains(name)) {
+                    addPendingEvents(folder.repoFolder, IRepositoryListener.BRANCHES_CHANGED);
+                }
+                else if(STATUS_FILES.contains(name)) {
+                    addPendingEvents(folder.repoFolder, IRepositoryListener.REPOSITORY_CHANGED);
+                }
+                break;
+            
+            case REFS:
+                if(isNewFolder) {
+                    registerFolderTree(Kind.REFS, folder.repoFolder, path.toFile());
+                }
+                
+                // Local branches change the history, remote branches only the branches
+                Path refsPath = new File(folder.repoFolder, ".git/refs").toPath(); //$NON-NLS-1$
+                if(path.startsWith(refsPath.resolve("heads"))) { //$NON-NLS-1$
+                    addPendingEvents(folder.repoFolder, IRepositoryListener.HISTORY_CHANGED, IRepositoryListener.BRANCHES_CHANGED);
+                }
+                else if(path.startsWith(refsPath.resolve("remotes"))) { //$NON-NLS-1$
+                    addPendingEvents(folder.repoFolder, IRepositoryListener.BRANCHES_CHANGED);
+                }
+                break;
+            
+            case MODEL:
+                if(isNewFolder) {
+                    registerFolderTree(Kind.MODEL, folder.repoFolder, path.toFile());
+                }
+                addPendingEvents(folder.repoFolder, IRepositoryListener.REPOSITORY_CHANGED);
+                break;
+            
+            default:
+                break;
+        }
+    }
+    
+    private void setRootChanged() {
+        if(!fRootChanged) {
+            fRootChanged = true;
+            fRootChangeTime = System.currentTimeMillis();
+        }
+    }
+    
+    private void addPendingEvents(File repoFolder, String... eventNames) {
+        PendingEvents pendingEvents = fPendingEvents.computeIfAbsent(repoFolder, key -> new PendingEvents());
+        pendingEvents.eventNames.addAll(Arrays.asList(eventNames));
+    }
+    
+    private boolean hasPendingChanges() {
+        return fRootChanged || !fPendingEvents.isEmpty();
+    }
+    
+    private long getFirstChangeTime() {
+        long time = fRootChanged ? fRootChangeTime : Long.MAX_VALUE;
+        for(PendingEvents pendingEvents : fPendingEvents.values()) {
+            time = Math.min(time, pendingEvents.firstChangeTime);
+        }
+        return time;
+    }
+    
+    private void firePendingEvents() {
+        boolean rootChanged = fRootChanged;
+        long rootChangeTime = fRootChangeTime;
+        Map<File, PendingEvents> pendingEvents = fPendingEvents;
+        
+        fRootChanged = false;
+        fPendingEvents = new HashMap<File, PendingEvents>();
+        
+        // Watch new repositories and forget deleted ones
+        Set<File> deletedRepoFolders = new HashSet<File>();
+        if(rootChanged) {
+            for(Iterator<File> iter = fRepoFolders.iterator(); iter.hasNext();) {
+                File repoFolder = iter.next();
+                if(!GraficoUtils.isGitRepository(repoFolder)) {
+                    iter.remove();
+                    deletedRepoFolders.add(repoFolder);
+                    unregisterRepository(repoFolder);
+                }
+            }
+            
+            registerRepositories();
+        }
+        
+        if(!canRun()) {
+            return;
+        }
+        
+        fViewer.getControl().getDisplay().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if(!canRun()) {
+                    return;
+                }
+                
+                for(File repoFolder : deletedRepoFolders) {
+                    if(!isFiredSince(repoFolder, IRepositoryListener.REPOSITORY_DELETED, rootChangeTime)) {
+                        RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(IRepositoryListener.REPOSITORY_DELETED, new ArchiRepository(repoFolder));
+                    }
+                }
+                
+                for(Map.Entry<File, PendingEvents> entry : pendingEvents.entrySet()) {
+                    File repoFolder = entry.getKey();
+                    if(deletedRepoFolders.contains(repoFolder)) {
+                        continue;
+                    }
+                    
+                    IArchiRepository repository = new ArchiRepository(repoFolder);
+                    
+                    // Changed outside of Archi, or by Archi after it fired its events
+                    RepositoryStatusEngine.INSTANCE.invalidate(repository);
+                    
+                    for(String eventName : entry.getValue().eventNames) {
+                        // Already fired since the files changed, such as by the action that changed them
+                        if(!isFiredSince(repoFolder, eventName, entry.getValue().firstChangeTime)) {
+                            RepositoryListenerManager.INSTANCE.fireRepositoryChangedEvent(eventName, repository);
+                        }
+                    }
+                }
+                
+                if(rootChanged) {
+                    fViewer.refresh();
+                }
+            }
+        });
+    }
+    
+    private boolean isFiredSince(File repoFolder, String eventName, long time) {
+        Map<String, Long> firedEvents = fFiredEvents.get(repoFolder);
+        Long firedTime = firedEvents != null ? firedEvents.get(eventName) : null;
+        return firedTime != null && firedTime >= time;
+    }
+    
+    private void registerRepositories() {
+        File[] files = fViewer.getRootFolder().listFiles();
+        if(files == null) {
+            return;
+        }
+        
+        for(File file : files) {
+            File repoFolder = file.getAbsoluteFile();
+            
+            if(file.isDirectory() && !fRepoFolders.contains(repoFolder)) {
+                // Watch the folder in case it becomes a repository
+                registerFolder(Kind.WORKING_TREE, repoFolder, repoFolder);
+                
+                if(GraficoUtils.isGitRepository(repoFolder)) {
+                    fRepoFolders.add(repoFolder);
+                    
+                    File gitFolder = new File(repoFolder, ".git"); //$NON-NLS-1$
+                    registerFolder(Kind.GIT, repoFolder, gitFolder);
+                    registerFolderTree(Kind.REFS, repoFolder, new File(gitFolder, "refs")); //$NON-NLS-1$
+                    registerFolderTree(Kind.MODEL, repoFolder, new File(repoFolder, IGraficoConstants.MODEL_FOLDER));
+                }
+            }
+        }
+    }
+    
+    private void unregisterRepository(File repoFolder) {
+        for(Iterator<Map.Entry<WatchKey, WatchedFolder>> iter = fKeys.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<WatchKey, WatchedFolder> entry = iter.next();
+            if(repoFolder.equals(entry.getValue().repoFolder) && entry.getValue().kind != Kind.WORKING_TREE) {
+                entry.getKey().cancel();
+                iter.remove();
+            }
+        }
+    }
+    
+    private void registerFolderTree(Kind kind, File repoFolder, File folder) {
+        if(!folder.isDirectory()) {
+            return;
+        }
+        
+        try(Stream<Path> paths = Files.walk(folder.toPath())) {
+            for(Path path : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+                registerFolder(kind, repoFolder, path.toFile());
+            }
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+    
+    private void registerFolder(Kind kind, File repoFolder, File folder) {
+        if(!folder.isDirectory()) {
+            return;
+        }
+        
+        try {
+            Path path = folder.toPath();
+            WatchKey key = path.register(fWatchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            fKeys.put(key, new WatchedFolder(kind, repoFolder, path));
+        }
+        catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
 }